@@ -0,0 +1,80 @@
+package com.thudani.codingchallenge.command;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.service.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON, Smile and CBOR encodings of the save and search payloads: the binding of a
+ * {@link SaveBatteriesCommand}, the writing of the saved batteries and the writing of a search result. The payload
+ * sizes of each format are printed on set up
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadFormatBenchmark {
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    @Param({"1000", "100000"})
+    private int batteryCount;
+
+    private ObjectMapper objectMapper;
+    private byte[] commandPayload;
+    private List<BatteryDto> savedBatteries;
+    private BatteryResultDto result;
+
+    @Setup
+    public void setup() throws IOException {
+        objectMapper = switch (format) {
+            case "json" -> Jackson2ObjectMapperBuilder.json().build();
+            case "smile" -> Jackson2ObjectMapperBuilder.smile().build();
+            case "cbor" -> Jackson2ObjectMapperBuilder.cbor().build();
+            default -> throw new IllegalArgumentException("Unknown format " + format);
+        };
+        var batteries = BenchmarkData.batteries(batteryCount);
+        commandPayload = objectMapper.writeValueAsBytes(SaveBatteriesCommand.builder().batteries(batteries).build());
+        savedBatteries = batteries.stream()
+                .map(battery -> BatteryDto.builder()
+                        .id(String.format("%024x", battery.hashCode() & 0xffffffffL))
+                        .name(battery.getName())
+                        .postcode(battery.getPostcode())
+                        .wattCapacity(battery.getWattCapacity())
+                        .build())
+                .toList();
+        //A search returns at most 50 names
+        result = BatteryResultDto.builder()
+                .batteryNames(batteries.stream().limit(50).map(BatteryDto::getName).toList())
+                .totalWattCapacity(1_234_567.0)
+                .averageWattCapacity(24_691.34)
+                .build();
+        System.out.printf("%n%s payload bytes for %d batteries: command %d, saved batteries %d, search result %d%n",
+                format, batteryCount, commandPayload.length, objectMapper.writeValueAsBytes(savedBatteries).length,
+                objectMapper.writeValueAsBytes(result).length);
+    }
+
+    @Benchmark
+    public SaveBatteriesCommand readCommand() throws IOException {
+        return objectMapper.readValue(commandPayload, SaveBatteriesCommand.class);
+    }
+
+    @Benchmark
+    public byte[] writeSavedBatteries() throws IOException {
+        return objectMapper.writerFor(new TypeReference<List<BatteryDto>>() {
+        }).writeValueAsBytes(savedBatteries);
+    }
+
+    @Benchmark
+    public byte[] writeSearchResult() throws IOException {
+        return objectMapper.writeValueAsBytes(result);
+    }
+}
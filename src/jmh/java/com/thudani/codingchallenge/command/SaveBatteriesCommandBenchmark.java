@@ -0,0 +1,57 @@
+package com.thudani.codingchallenge.command;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.service.BenchmarkData;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the binding and validation of a {@link SaveBatteriesCommand} request body, done before every save
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SaveBatteriesCommandBenchmark {
+
+    @Param({"1000", "100000"})
+    private int batteryCount;
+
+    private ObjectMapper objectMapper;
+    private ValidatorFactory validatorFactory;
+    private Validator validator;
+    private byte[] payload;
+    private SaveBatteriesCommand command;
+
+    @Setup
+    public void setup() throws IOException {
+        //Configured like the ObjectMapper of the application, which binds the DTOs through their builder constructors
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        validator = validatorFactory.getValidator();
+        command = SaveBatteriesCommand.builder().batteries(BenchmarkData.batteries(batteryCount)).build();
+        payload = objectMapper.writeValueAsBytes(command);
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public SaveBatteriesCommand deserialize() throws IOException {
+        return objectMapper.readValue(payload, SaveBatteriesCommand.class);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<SaveBatteriesCommand>> validate() {
+        return validator.validate(command);
+    }
+}
@@ -0,0 +1,51 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures searches answered by the columnar snapshot of {@link BatterySnapshot}, over a range of 1% and over the
+ * whole of the postcodes 2000 to 2999, and the rebuild of the snapshot from the batteries ordered by postcode
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatteryColumnsBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int fleetSize;
+
+    private List<Battery> batteries;
+    private BatteryColumns columns;
+
+    @Setup
+    public void setup() {
+        batteries = BenchmarkData.batteries(fleetSize).stream()
+                .map(BatteryServiceImpl::toBattery)
+                .sorted(Comparator.comparing(Battery::getPostcodeNum))
+                .toList();
+        columns = rebuild();
+    }
+
+    @Benchmark
+    public BatteryResultDto searchNarrowRange() {
+        return columns.search(2500, 2509, 50, BatteryServiceImpl::toResult);
+    }
+
+    @Benchmark
+    public BatteryResultDto searchWholeFleet() {
+        return columns.search(2000, 2999, 50, BatteryServiceImpl::toResult);
+    }
+
+    @Benchmark
+    public BatteryColumns rebuild() {
+        var builder = new BatteryColumns.Builder(batteries.size(), null);
+        batteries.forEach(builder::add);
+        return builder.build();
+    }
+}
@@ -0,0 +1,36 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the DTO to {@link Battery} to DTO mapping done for every battery saved by
+ * {@link BatteryServiceImpl#saveBatteries}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatteryMappingBenchmark {
+
+    @Param({"1000"})
+    private int batteryCount;
+
+    private List<BatteryDto> batteries;
+
+    @Setup
+    public void setup() {
+        batteries = BenchmarkData.batteries(batteryCount);
+    }
+
+    @Benchmark
+    public List<BatteryDto> mapToBatteryAndBack() {
+        return batteries.stream()
+                .map(BatteryServiceImpl::toBattery)
+                .map(BatteryServiceImpl::toBatteryDto)
+                .toList();
+    }
+}
@@ -0,0 +1,33 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryDto;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Deterministic battery payloads shared by the benchmarks
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generates batteries spread over the postcodes 2000 to 2999
+     *
+     * @param count number of batteries
+     * @return the batteries, the same for a given count on every run
+     */
+    public static List<BatteryDto> batteries(int count) {
+        var random = new Random(count);
+        return IntStream.range(0, count)
+                .mapToObj(i -> BatteryDto.builder()
+                        .name("Battery " + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36))
+                        .postcode(Integer.toString(2000 + random.nextInt(1000)))
+                        .wattCapacity(1000 + random.nextInt(100_000) / 10.0)
+                        .build())
+                .toList();
+    }
+}
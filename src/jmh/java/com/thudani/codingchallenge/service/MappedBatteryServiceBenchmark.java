@@ -0,0 +1,76 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.repository.MappedBatteryStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MappedBatteryServiceImpl} with the same saves and searches as {@link MongoBatteryServiceBenchmark},
+ * with and without flushing every save to disk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MappedBatteryServiceBenchmark {
+    private static final int SEEDED_BATTERY_COUNT = 10_000;
+
+    @Param({"true", "false"})
+    private boolean syncWrites;
+
+    private Path directory;
+    private MappedBatteryStore batteryStore;
+    private BatteryService batteryService;
+    private SaveBatteriesCommand saveCommand;
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setup() {
+        saveCommand = SaveBatteriesCommand.builder().batteries(BenchmarkData.batteries(1000)).build();
+    }
+
+    /**
+     * Starts every iteration from a new log with the same seeded batteries, so the saves of an iteration do not slow
+     * down the next ones
+     */
+    @Setup(Level.Iteration)
+    public void seed() throws IOException {
+        directory = Files.createTempDirectory("battery-log");
+        batteryStore = new MappedBatteryStore(directory, 64L << 20, syncWrites);
+        batteryService = new MappedBatteryServiceImpl(batteryStore, new ObjectMapper(),
+                new BatteryResultCache(false, 0, 0, false, new SimpleMeterRegistry()),
+                new SearchMetrics(new SimpleMeterRegistry()), 1000);
+        List<BatteryDto> batteries = BenchmarkData.batteries(SEEDED_BATTERY_COUNT);
+        batteryService.saveBatteries(SaveBatteriesCommand.builder().batteries(batteries).build());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        batteryStore.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public BatteryResultDto search() {
+        var start = 2000 + random.nextInt(900);
+        return batteryService.getBatteries(Integer.toString(start), Integer.toString(start + 100));
+    }
+
+    @Benchmark
+    public List<BatteryDto> save() {
+        return batteryService.saveBatteries(saveCommand);
+    }
+}
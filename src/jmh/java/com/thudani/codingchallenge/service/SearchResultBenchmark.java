@@ -0,0 +1,35 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the assembly of a {@link BatteryResultDto} from the query results of
+ * {@link BatteryServiceImpl#getBatteries}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SearchResultBenchmark {
+
+    private List<Battery> batteries;
+    private Optional<BatteryStatisticsDto> statistics;
+
+    @Setup
+    public void setup() {
+        //A search returns at most 50 names
+        batteries = BenchmarkData.batteries(50).stream().map(BatteryServiceImpl::toBattery).toList();
+        statistics = Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(1_234_567.0).batteryCount(50_000L).build());
+    }
+
+    @Benchmark
+    public BatteryResultDto assembleResult() {
+        return BatteryServiceImpl.toResult(batteries, statistics);
+    }
+}
@@ -0,0 +1,106 @@
+package com.thudani.codingchallenge.loadtest;
+
+import com.thudani.codingchallenge.dto.BatteryDto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible generator of battery fleets and search ranges.
+ * Postcodes follow a Zipf distribution over the four digit postcodes 0800-7999, so a few postcodes hold most of the
+ * batteries like metropolitan areas do, and the same seed always produces the same fleet and the same searches
+ */
+public class FleetGenerator {
+
+    static final int FIRST_POSTCODE = 800;
+    static final int LAST_POSTCODE = 7999;
+
+    private static final String[] MAKERS = {"Tesla Powerwall", "LG Chem", "Sonnen", "BYD", "Enphase", "Alpha ESS",
+            "Redflow", "Sungrow", "Huawei Luna", "Pylontech"};
+    private static final double MEDIAN_WATT_CAPACITY = 13500;
+
+    private final Random random;
+    private final int[] postcodeByRank;
+    private final double[] cumulativeWeights;
+    private long sequence;
+
+    /**
+     * @param seed the seed of every random choice made by the generator
+     * @param skew the Zipf exponent of the postcode distribution, 0 for uniform postcodes
+     */
+    public FleetGenerator(long seed, double skew) {
+        this.random = new Random(seed);
+
+        //Hot postcodes are spread over the whole range rather than bunched at its start
+        List<Integer> postcodes = new ArrayList<>();
+        for (int postcode = FIRST_POSTCODE; postcode <= LAST_POSTCODE; postcode++) {
+            postcodes.add(postcode);
+        }
+        Collections.shuffle(postcodes, new Random(seed));
+        this.postcodeByRank = postcodes.stream().mapToInt(Integer::intValue).toArray();
+
+        this.cumulativeWeights = new double[postcodeByRank.length];
+        double total = 0;
+        for (int rank = 0; rank < postcodeByRank.length; rank++) {
+            total += 1 / Math.pow(rank + 1, skew);
+            cumulativeWeights[rank] = total;
+        }
+    }
+
+    /**
+     * Generate the next battery of the fleet
+     *
+     * @return a battery without id
+     */
+    public BatteryDto nextBattery() {
+        long serial = ++sequence;
+        //Log-normal capacities around the median home battery, rounded to 10Wh
+        double wattCapacity = Math.round(MEDIAN_WATT_CAPACITY * Math.exp(0.5 * random.nextGaussian()) / 10) * 10.0;
+        return BatteryDto.builder()
+                .name(MAKERS[random.nextInt(MAKERS.length)] + " " + Long.toString(serial, 36).toUpperCase())
+                .postcode(format(nextPostcode()))
+                .wattCapacity(wattCapacity)
+                .build();
+    }
+
+    /**
+     * Generate the next batteries of the fleet
+     *
+     * @param count number of batteries to generate
+     * @return the generated batteries
+     */
+    public List<BatteryDto> nextBatteries(int count) {
+        List<BatteryDto> batteries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            batteries.add(nextBattery());
+        }
+        return batteries;
+    }
+
+    /**
+     * Generate the next search range. Ranges are centred on a postcode drawn from the fleet distribution, most of
+     * them cover a suburb or a city and a few cover a whole state
+     *
+     * @return the first and the second postcode of the range
+     */
+    public String[] nextRange() {
+        int centre = nextPostcode();
+        double width = random.nextDouble();
+        int halfWidth = width < 0.7 ? random.nextInt(20) : width < 0.95 ? random.nextInt(200) : random.nextInt(1000);
+        return new String[]{format(Math.max(FIRST_POSTCODE, centre - halfWidth)),
+                format(Math.min(LAST_POSTCODE, centre + halfWidth))};
+    }
+
+    private int nextPostcode() {
+        double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int rank = Arrays.binarySearch(cumulativeWeights, target);
+        return postcodeByRank[rank >= 0 ? rank : -rank - 1];
+    }
+
+    private static String format(int postcode) {
+        return String.format("%04d", postcode);
+    }
+}
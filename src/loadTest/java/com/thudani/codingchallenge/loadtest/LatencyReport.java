@@ -0,0 +1,84 @@
+package com.thudani.codingchallenge.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and error counts of every operation of a load test run, recorded in microseconds
+ */
+public class LatencyReport {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+    public LatencyReport() {
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(HIGHEST_TRACKABLE_MICROS, 3));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    public void recordLatency(Operation operation, long nanos) {
+        recorders.get(operation).recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE_MICROS));
+    }
+
+    public void recordError(Operation operation) {
+        errors.get(operation).increment();
+    }
+
+    /**
+     * Discard everything recorded so far, used at the end of the warm up
+     */
+    public void reset() {
+        recorders.values().forEach(Recorder::reset);
+        errors.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Print a percentile summary of every operation and write the full histogram of every operation as a .hgrm file,
+     * in milliseconds, that can be plotted with the HdrHistogram plotter
+     *
+     * @param out             stream the summary is printed to
+     * @param reportDir       directory the histograms are written to
+     * @param durationSeconds duration of the recorded workload
+     * @throws IOException if a histogram file cannot be written
+     */
+    public void write(PrintStream out, Path reportDir, int durationSeconds) throws IOException {
+        Files.createDirectories(reportDir);
+        out.printf("%-30s %10s %8s %10s %10s %10s %10s %10s %10s%n", "endpoint", "requests", "errors", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = recorders.get(operation).getIntervalHistogram();
+            long errorCount = errors.get(operation).sum();
+            if (histogram.getTotalCount() == 0 && errorCount == 0) {
+                continue;
+            }
+            out.printf("%-30s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n", operation.getEndpoint(),
+                    histogram.getTotalCount(), errorCount, (double) histogram.getTotalCount() / durationSeconds,
+                    millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                    histogram.getMaxValue() / MICROS_PER_MILLI);
+
+            Path file = reportDir.resolve(operation.name().toLowerCase() + ".hgrm");
+            try (PrintStream histogramOut = new PrintStream(Files.newOutputStream(file))) {
+                histogram.outputPercentileDistribution(histogramOut, MICROS_PER_MILLI);
+            }
+        }
+        out.println("Histograms written to " + reportDir.toAbsolutePath());
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI;
+    }
+}
@@ -0,0 +1,247 @@
+package com.thudani.codingchallenge.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.thudani.codingchallenge.CodingChallengeApplication;
+import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.MongoDBContainer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the battery endpoints. Starts a Mongo container (or uses the server given by loadTest.mongoUri), starts
+ * the service against it, ingests a seeded fleet and then runs a mixed workload of searches, name listings, saves and
+ * ingests from concurrent clients, reporting the latency distribution of every endpoint.
+ * <p>
+ * Without loadTest.ratePerSecond every client sends its next request as soon as the previous one ends. With it the
+ * clients send requests on a fixed schedule and latencies are measured from the scheduled send time, so a stall of the
+ * service is reported in full rather than hidden by the requests that were not sent during it
+ */
+public class LoadTest {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+
+    private final LoadTestSettings settings;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final LatencyReport report = new LatencyReport();
+    private final String baseUrl;
+
+    LoadTest(LoadTestSettings settings, int port) {
+        this.settings = settings;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.objectMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        this.baseUrl = "http://localhost:" + port + "/api/batteries";
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+
+        MongoDBContainer container = null;
+        String mongoUri = settings.mongoUri();
+        if (mongoUri.isBlank()) {
+            container = new MongoDBContainer(settings.mongoImage());
+            container.start();
+            mongoUri = container.getReplicaSetUrl();
+        }
+
+        try (MongoClient mongoClient = MongoClients.create(mongoUri)) {
+            mongoClient.getDatabase(settings.database()).drop();
+        }
+
+        try (ConfigurableApplicationContext context = startService(settings, mongoUri)) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            new LoadTest(settings, port).run();
+        } finally {
+            if (container != null) {
+                container.stop();
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext startService(LoadTestSettings settings, String mongoUri) {
+        //Given as command line arguments to take precedence over application.properties
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("spring.data.mongodb.uri", mongoUri);
+        properties.put("spring.data.mongodb.database", settings.database());
+        properties.put("server.port", 0);
+        //Request logging would measure the console rather than the service
+        properties.put("logging.level.com.thudani.codingchallenge", "WARN");
+        properties.putAll(settings.appProperties());
+        String[] args = properties.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(CodingChallengeApplication.class).run(args);
+    }
+
+    void run() throws Exception {
+        System.out.printf("Ingesting an initial fleet of %d batteries%n", settings.initialFleet());
+        FleetGenerator fleet = new FleetGenerator(settings.seed(), settings.skew());
+        for (int remaining = settings.initialFleet(); remaining > 0; remaining -= settings.ingestBatchSize()) {
+            ingest(fleet.nextBatteries(Math.min(remaining, settings.ingestBatchSize())));
+        }
+
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.warmupSeconds());
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(settings.durationSeconds());
+        System.out.printf("Running %d clients for %ds after a %ds warm up%n", settings.concurrency(),
+                settings.durationSeconds(), settings.warmupSeconds());
+
+        ExecutorService clients = Executors.newFixedThreadPool(settings.concurrency());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int client = 0; client < settings.concurrency(); client++) {
+                int clientIndex = client;
+                futures.add(clients.submit(() -> runClient(clientIndex, end)));
+            }
+            LockSupport.parkNanos(Math.max(0, warmupEnd - System.nanoTime()));
+            report.reset();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+
+        report.write(System.out, Path.of(settings.reportDir()), settings.durationSeconds());
+    }
+
+    private void runClient(int clientIndex, long end) {
+        //Every client draws its own reproducible stream of requests and batteries
+        Random random = new Random(settings.seed() * 31 + clientIndex);
+        FleetGenerator fleet = new FleetGenerator(settings.seed() * 31 + clientIndex, settings.skew());
+        long intervalNanos = settings.ratePerSecond() > 0
+                ? TimeUnit.SECONDS.toNanos(settings.concurrency()) / settings.ratePerSecond()
+                : 0;
+
+        long scheduled = System.nanoTime();
+        while (scheduled < end) {
+            Operation operation = nextOperation(random);
+            HttpRequest request = buildRequest(operation, fleet);
+
+            if (intervalNanos > 0) {
+                LockSupport.parkNanos(scheduled - System.nanoTime());
+            } else {
+                scheduled = System.nanoTime();
+            }
+            try {
+                HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                report.recordLatency(operation, System.nanoTime() - scheduled);
+                if (response.statusCode() >= 400) {
+                    report.recordError(operation);
+                }
+            } catch (IOException e) {
+                report.recordError(operation);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            scheduled = intervalNanos > 0 ? scheduled + intervalNanos : System.nanoTime();
+        }
+    }
+
+    private Operation nextOperation(Random random) {
+        int total = settings.mix().values().stream().mapToInt(Integer::intValue).sum();
+        int pick = random.nextInt(total);
+        for (Map.Entry<Operation, Integer> weight : settings.mix().entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException("Operation mix is empty");
+    }
+
+    private HttpRequest buildRequest(Operation operation, FleetGenerator fleet) {
+        switch (operation) {
+            case SEARCH: {
+                String[] range = fleet.nextRange();
+                return get("?postcode1=" + encode(range[0]) + "&postcode2=" + encode(range[1]));
+            }
+            case NAMES: {
+                String[] range = fleet.nextRange();
+                return get("/names?postcode1=" + encode(range[0]) + "&postcode2=" + encode(range[1])
+                        + "&pageSize=" + settings.namesPageSize());
+            }
+            case SAVE:
+                return post("application/json", toJson(SaveBatteriesCommand.builder()
+                        .batteries(fleet.nextBatteries(settings.saveBatchSize()))
+                        .build()));
+            case INGEST:
+                return post("application/x-ndjson", toNdjson(fleet.nextBatteries(settings.ingestBatchSize())));
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private void ingest(List<BatteryDto> batteries) throws IOException, InterruptedException {
+        HttpResponse<String> response = httpClient.send(post("application/x-ndjson", toNdjson(batteries)),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 400) {
+            throw new IllegalStateException("Initial fleet ingest failed with " + response.statusCode() + ": "
+                    + response.body());
+        }
+    }
+
+    private HttpRequest get(String pathAndQuery) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + pathAndQuery))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+    }
+
+    private HttpRequest post(String contentType, byte[] body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    private byte[] toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] toNdjson(List<BatteryDto> batteries) {
+        StringBuilder body = new StringBuilder();
+        for (BatteryDto battery : batteries) {
+            body.append(new String(toJson(battery), StandardCharsets.UTF_8)).append('\n');
+        }
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
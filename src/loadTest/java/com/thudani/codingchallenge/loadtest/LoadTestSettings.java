@@ -0,0 +1,88 @@
+package com.thudani.codingchallenge.loadtest;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, read from loadTest.* system properties
+ *
+ * @param mongoUri          connection string of the Mongo server to test against, blank to start a Mongo container
+ * @param mongoImage        image of the Mongo container
+ * @param database          database the service writes to, dropped at the start of every run
+ * @param seed              seed of the fleet and of the workload
+ * @param skew              Zipf exponent of the postcode distribution
+ * @param initialFleet      number of batteries ingested before the workload starts
+ * @param warmupSeconds     duration of the workload before latencies are recorded
+ * @param durationSeconds   duration of the recorded workload
+ * @param concurrency       number of concurrent clients
+ * @param ratePerSecond     total request rate of the clients, 0 to send every request as soon as the previous one ends
+ * @param mix               relative weight of every operation in the workload
+ * @param saveBatchSize     number of batteries of a save request
+ * @param ingestBatchSize   number of batteries of an ingest request
+ * @param namesPageSize     number of names of a name listing request
+ * @param reportDir         directory the latency histograms are written to
+ * @param appProperties     service properties given as loadTest.app.* system properties
+ */
+public record LoadTestSettings(String mongoUri, String mongoImage, String database, long seed, double skew,
+                               int initialFleet, int warmupSeconds, int durationSeconds, int concurrency,
+                               int ratePerSecond, Map<Operation, Integer> mix, int saveBatchSize,
+                               int ingestBatchSize, int namesPageSize, String reportDir,
+                               Map<String, String> appProperties) {
+
+    private static final String PREFIX = "loadTest.";
+    private static final String APP_PREFIX = PREFIX + "app.";
+
+    /**
+     * Read the settings from the system properties
+     *
+     * @return the settings of the run
+     */
+    public static LoadTestSettings fromSystemProperties() {
+        Map<String, String> appProperties = new LinkedHashMap<>();
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(APP_PREFIX))
+                .forEach(name -> appProperties.put(name.substring(APP_PREFIX.length()), System.getProperty(name)));
+
+        return new LoadTestSettings(
+                property("mongoUri", ""),
+                property("mongoImage", "mongo:4.4.2"),
+                property("database", "loadtest"),
+                Long.parseLong(property("seed", "42")),
+                Double.parseDouble(property("skew", "1.1")),
+                Integer.parseInt(property("initialFleet", "100000")),
+                Integer.parseInt(property("warmupSeconds", "10")),
+                Integer.parseInt(property("durationSeconds", "60")),
+                Integer.parseInt(property("concurrency", "16")),
+                Integer.parseInt(property("ratePerSecond", "0")),
+                parseMix(property("mix", "search=85,names=5,save=5,ingest=5")),
+                Integer.parseInt(property("saveBatchSize", "100")),
+                Integer.parseInt(property("ingestBatchSize", "5000")),
+                Integer.parseInt(property("namesPageSize", "100")),
+                property("reportDir", "build/reports/loadTest"),
+                appProperties);
+    }
+
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid loadTest.mix entry " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Invalid loadTest.mix weight " + entry);
+            }
+            weights.put(Operation.fromName(parts[0].trim()), weight);
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("loadTest.mix must give a positive weight to an operation");
+        }
+        return weights;
+    }
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty(PREFIX + name, defaultValue);
+    }
+}
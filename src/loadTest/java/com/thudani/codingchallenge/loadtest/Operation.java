@@ -0,0 +1,31 @@
+package com.thudani.codingchallenge.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * The operations of the load test workload, each with its own latency histogram
+ */
+public enum Operation {
+    SEARCH("GET /api/batteries"),
+    NAMES("GET /api/batteries/names"),
+    SAVE("POST /api/batteries"),
+    INGEST("POST /api/batteries (ndjson)");
+
+    private final String endpoint;
+
+    Operation(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    static Operation fromName(String name) {
+        return Arrays.stream(values())
+                .filter(operation -> operation.name().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown load test operation " + name
+                        + ", expected one of " + Arrays.toString(values())));
+    }
+}
@@ -2,8 +2,10 @@ package com.thudani.codingchallenge;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CodingChallengeApplication {
     public static void main(String[] args) {
         SpringApplication.run(CodingChallengeApplication.class, args);
@@ -0,0 +1,27 @@
+package com.thudani.codingchallenge.command;
+
+import com.thudani.codingchallenge.dto.PostcodeRangeDto;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Command object representing a request to search several postcode ranges at once
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SearchBatteriesCommand {
+    public static final int MAX_RANGES = 1000;
+
+    @NotEmpty(message = "Input postcode range list cannot be empty")
+    @Size(max = MAX_RANGES, message = "At most " + MAX_RANGES + " postcode ranges can be searched at once")
+    private List<@Valid PostcodeRangeDto> ranges;
+}
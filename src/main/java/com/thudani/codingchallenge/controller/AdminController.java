@@ -0,0 +1,83 @@
+package com.thudani.codingchallenge.controller;
+
+import com.thudani.codingchallenge.dto.SlowQueryDto;
+import com.thudani.codingchallenge.service.PostcodeRollupService;
+import com.thudani.codingchallenge.service.SlowQueryProfiler;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * Controller for administrative operations
+ */
+@RestController
+@Profile("!reactive & !mapped-storage")
+@RequestMapping("/api/admin")
+public class AdminController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
+
+    private final PostcodeRollupService postcodeRollupService;
+    private final SlowQueryProfiler slowQueryProfiler;
+
+    public AdminController(PostcodeRollupService postcodeRollupService, SlowQueryProfiler slowQueryProfiler) {
+        this.postcodeRollupService = postcodeRollupService;
+        this.slowQueryProfiler = slowQueryProfiler;
+    }
+
+    /**
+     * Rebuild the per postcode rollups of battery statistics from the battery collection
+     *
+     * @return an empty response once the rollups have been rebuilt
+     */
+    @Operation(summary = "Rebuild the per postcode battery statistics rollups")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "The rollups were rebuilt",
+                    content = @Content),
+            @ApiResponse(responseCode = "409", description = "Rollups are disabled",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @PostMapping("/rollups/rebuild")
+    public ResponseEntity<Void> rebuildRollups() {
+        logger.info("Rebuild rollups called");
+        if (!postcodeRollupService.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Postcode rollups are disabled");
+        }
+        postcodeRollupService.rebuild();
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Fetch the latest search queries which exceeded the slow query threshold
+     *
+     * @return the slow queries, latest first, with a summary of their query plan
+     */
+    @Operation(summary = "List the latest slow search queries together with their query plan")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Listing operation was successful",
+                    content = {@Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = SlowQueryDto.class)))}),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @GetMapping("/slow-queries")
+    public ResponseEntity<List<SlowQueryDto>> getSlowQueries() {
+        logger.info("Get slow queries called");
+        return ResponseEntity.ok(slowQueryProfiler.getSlowQueries());
+    }
+}
@@ -1,9 +1,15 @@
 package com.thudani.codingchallenge.controller;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.command.SearchBatteriesCommand;
 import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.BatteryNamePageDto;
 import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.dto.BulkSaveResultDto;
 import com.thudani.codingchallenge.service.BatteryService;
+import com.thudani.codingchallenge.service.IdempotencyKeyService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
@@ -11,53 +17,162 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * Controller for battery operations
  */
 @RestController
+@Profile("!reactive")
 @RequestMapping("/api/batteries")
 public class BatteryController {
 
     private static final Logger logger = LoggerFactory.getLogger(BatteryController.class);
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 
     private final BatteryService batteryService;
+    //Absent with the mapped-storage profile, where saves are only deduplicated by natural key
+    private final Optional<IdempotencyKeyService> idempotencyKeyService;
 
-    public BatteryController(BatteryService batteryService) {
+    public BatteryController(BatteryService batteryService, Optional<IdempotencyKeyService> idempotencyKeyService) {
         this.batteryService = batteryService;
+        this.idempotencyKeyService = idempotencyKeyService;
     }
 
     /**
-     * Save a list of batteries to the database
+     * Save a list of batteries to the database. Batteries with the name and postcode of a saved battery are returned
+     * as saved without being saved again. The list may be sent and the result received as JSON, Smile or CBOR
      *
-     * @param command {@link SaveBatteriesCommand} object containing the information of batteries to save
+     * @param command        {@link SaveBatteriesCommand} object containing the information of batteries to save
+     * @param idempotencyKey key identifying the retries of a request, absent if the request is not retried
      * @return the saved batteries
      */
     @Operation(summary = "Save a list of batteries to the DB")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "All the batteries are saved",
                     content = {@Content(mediaType = "application/json",
-                            array = @ArraySchema(schema = @Schema(implementation = BatteryDto.class)))}),
-            @ApiResponse(responseCode = "400", description = "Invalid save command",
+                            array = @ArraySchema(schema = @Schema(implementation = BatteryDto.class))),
+                            @Content(mediaType = "application/x-jackson-smile",
+                                    array = @ArraySchema(schema = @Schema(implementation = BatteryDto.class))),
+                            @Content(mediaType = "application/cbor",
+                                    array = @ArraySchema(schema = @Schema(implementation = BatteryDto.class)))}),
+            @ApiResponse(responseCode = "400", description = "Invalid save command or idempotency key",
+                    content = @Content),
+            @ApiResponse(responseCode = "409", description = "A request with the same idempotency key is in progress",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Idempotency key already used for a different request",
                     content = @Content),
             @ApiResponse(responseCode = "500", description = "Internal sever error",
                     content = @Content)})
     @PostMapping
-    public ResponseEntity<List<BatteryDto>> saveBatteries(@Valid @RequestBody SaveBatteriesCommand command) {
+    public ResponseEntity<List<BatteryDto>> saveBatteries(@Valid @RequestBody SaveBatteriesCommand command,
+                                                          @Parameter(description = "Key of the request, retries with the same key get the response of the first request")
+                                                          @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                          String idempotencyKey) {
         logger.info("Save batteries called for {}", command);
-        return new ResponseEntity<>(batteryService.saveBatteries(command), HttpStatus.CREATED);
+        return new ResponseEntity<>(idempotent(idempotencyKey, "saveBatteries", command,
+                new TypeReference<>() {
+                }, () -> batteryService.saveBatteries(command)), HttpStatus.CREATED);
+    }
+
+    /**
+     * Save a list of batteries to the database, saving each valid battery independently of the others
+     *
+     * @param command        {@link SaveBatteriesCommand} object containing the information of batteries to save
+     * @param idempotencyKey key identifying the retries of a request, absent if the request is not retried
+     * @return {@link BulkSaveResultDto} object containing the saved batteries and the rejected input indexes
+     */
+    @Operation(summary = "Save the valid batteries of a list to the DB and report the rejected ones")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "The batteries were processed",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BulkSaveResultDto.class))}),
+            @ApiResponse(responseCode = "400", description = "Empty battery list or invalid idempotency key",
+                    content = @Content),
+            @ApiResponse(responseCode = "409", description = "A request with the same idempotency key is in progress",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Idempotency key already used for a different request",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @PostMapping("/bulk")
+    public ResponseEntity<BulkSaveResultDto> bulkSaveBatteries(@RequestBody SaveBatteriesCommand command,
+                                                               @Parameter(description = "Key of the request, retries with the same key get the response of the first request")
+                                                               @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                               String idempotencyKey) {
+        logger.info("Bulk save batteries called for {} batteries",
+                command.getBatteries() == null ? 0 : command.getBatteries().size());
+        return new ResponseEntity<>(idempotent(idempotencyKey, "bulkSaveBatteries", command,
+                new TypeReference<>() {
+                }, () -> batteryService.bulkSaveBatteries(command)), HttpStatus.CREATED);
+    }
+
+    private <T> T idempotent(String idempotencyKey, String operation, Object request, TypeReference<T> responseType,
+                             Supplier<T> action) {
+        return idempotencyKeyService
+                .map(service -> service.execute(idempotencyKey, operation, request, responseType, action))
+                .orElseGet(action);
     }
 
     /**
-     * Fetch a list of batteries falling within a given range of postcodes
+     * Stream a large list of batteries to the database without binding the whole request body in memory
+     *
+     * @param request the HTTP request whose body contains newline delimited JSON batteries or a JSON array of batteries
+     * @return {@link BatteryIngestSummaryDto} object containing the accepted and rejected record counts
+     * @throws IOException if the request body cannot be opened
+     */
+    @Operation(summary = "Stream a large list of batteries to the DB")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "The stream was processed",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BatteryIngestSummaryDto.class))}),
+            @ApiResponse(responseCode = "400", description = "Empty or unreadable stream",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @PostMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<BatteryIngestSummaryDto> ingestBatteries(HttpServletRequest request) throws IOException {
+        logger.info("Ingest batteries called");
+        return new ResponseEntity<>(batteryService.ingestBatteries(request.getInputStream()), HttpStatus.CREATED);
+    }
+
+    /**
+     * Stream a large list of batteries to the database as {@link #ingestBatteries}, also accepting a JSON array sent
+     * as application/json, which on the collection path is bound as a whole by the save endpoint
+     *
+     * @param request the HTTP request whose body contains newline delimited JSON batteries or a JSON array of batteries
+     * @return {@link BatteryIngestSummaryDto} object containing the accepted and rejected record counts
+     * @throws IOException if the request body cannot be opened
+     */
+    @Operation(summary = "Stream a large list of batteries, as NDJSON or a JSON array, to the DB")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "The stream was processed",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BatteryIngestSummaryDto.class))}),
+            @ApiResponse(responseCode = "400", description = "Empty or unreadable stream",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @PostMapping(value = "/ingest", consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<BatteryIngestSummaryDto> ingestBatteryStream(HttpServletRequest request) throws IOException {
+        return ingestBatteries(request);
+    }
+
+    /**
+     * Fetch a list of batteries falling within a given range of postcodes, as JSON, Smile or CBOR
      *
      * @param postcode1 first postcode of the range
      * @param postcode2 second postcode of the range
@@ -67,7 +182,11 @@ public class BatteryController {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Search operation was successful",
                     content = {@Content(mediaType = "application/json",
-                            schema = @Schema(implementation = BatteryResultDto.class))}),
+                            schema = @Schema(implementation = BatteryResultDto.class)),
+                            @Content(mediaType = "application/x-jackson-smile",
+                                    schema = @Schema(implementation = BatteryResultDto.class)),
+                            @Content(mediaType = "application/cbor",
+                                    schema = @Schema(implementation = BatteryResultDto.class))}),
             @ApiResponse(responseCode = "400", description = "Invalid postcode range",
                     content = @Content),
             @ApiResponse(responseCode = "500", description = "Internal sever error",
@@ -80,4 +199,58 @@ public class BatteryController {
         logger.info("Get batteries called for {} and {}", postcode1, postcode2);
         return new ResponseEntity<>(batteryService.getBatteries(postcode1, postcode2), HttpStatus.OK);
     }
+
+    /**
+     * Fetch the batteries falling within each of several ranges of postcodes in a single request
+     *
+     * @param command {@link SearchBatteriesCommand} object containing the postcode ranges to search
+     * @return a {@link BatteryResultDto} object per range, in the order of the ranges
+     */
+    @Operation(summary = "Search for batteries in several postcode ranges at once")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Search operation was successful",
+                    content = {@Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = BatteryResultDto.class)))}),
+            @ApiResponse(responseCode = "400", description = "Empty or too long range list or invalid postcode range",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @PostMapping("/search")
+    public ResponseEntity<List<BatteryResultDto>> searchBatteries(@Valid @RequestBody SearchBatteriesCommand command) {
+        logger.info("Search batteries called for {} ranges", command.getRanges().size());
+        return new ResponseEntity<>(batteryService.searchBatteries(command), HttpStatus.OK);
+    }
+
+    /**
+     * Fetch a page of the names of all the batteries falling within a given range of postcodes
+     *
+     * @param postcode1 first postcode of the range
+     * @param postcode2 second postcode of the range
+     * @param pageSize  maximum number of names to return
+     * @param pageToken token returned with the previous page, absent for the first page
+     * @return {@link BatteryNamePageDto} object containing the names and the token of the next page
+     */
+    @Operation(summary = "List the names of all the batteries in a given postcode range page by page")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Listing operation was successful",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BatteryNamePageDto.class))}),
+            @ApiResponse(responseCode = "400", description = "Invalid postcode range, page size or page token",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @GetMapping("/names")
+    public ResponseEntity<BatteryNamePageDto> getBatteryNames(@Parameter(description = "The first postcode of the range")
+                                                              @RequestParam String postcode1,
+                                                              @Parameter(description = "The second postcode of the range")
+                                                              @RequestParam String postcode2,
+                                                              @Parameter(description = "The maximum number of names to return")
+                                                              @RequestParam(defaultValue = "${battery.search.page.default-size:1000}")
+                                                              int pageSize,
+                                                              @Parameter(description = "The token returned with the previous page")
+                                                              @RequestParam(required = false) String pageToken) {
+        logger.info("Get battery names called for {} and {}", postcode1, postcode2);
+        return new ResponseEntity<>(batteryService.getBatteryNames(postcode1, postcode2, pageSize, pageToken),
+                HttpStatus.OK);
+    }
 }
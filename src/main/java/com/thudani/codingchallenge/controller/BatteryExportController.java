@@ -0,0 +1,87 @@
+package com.thudani.codingchallenge.controller;
+
+import com.thudani.codingchallenge.service.BatteryExportFormat;
+import com.thudani.codingchallenge.service.BatteryExportService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Controller for exporting batteries
+ */
+@RestController
+@Profile("!reactive & !mapped-storage")
+@RequestMapping("/api/batteries/export")
+public class BatteryExportController {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatteryExportController.class);
+    private static final String EXPORT_TIMEOUT_INTERCEPTOR = BatteryExportController.class.getName() + ".timeout";
+
+    private final BatteryExportService batteryExportService;
+    private final long timeoutMs;
+
+    public BatteryExportController(BatteryExportService batteryExportService,
+                                   @Value("${battery.export.timeout-ms:3600000}") long timeoutMs) {
+        this.batteryExportService = batteryExportService;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Stream every battery falling within a given range of postcodes
+     *
+     * @param postcode1 first postcode of the range
+     * @param postcode2 second postcode of the range
+     * @param format    ndjson (default) or csv
+     * @param request   the request, whose async timeout is set to battery.export.timeout-ms
+     * @return the batteries streamed in the requested format
+     */
+    @Operation(summary = "Export every battery in a given postcode range as NDJSON or CSV")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "The batteries are being streamed",
+                    content = {@Content(mediaType = "application/x-ndjson"), @Content(mediaType = "text/csv")}),
+            @ApiResponse(responseCode = "400", description = "Invalid postcode range or format",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> exportBatteries(@Parameter(description = "The first postcode of the range")
+                                                                 @RequestParam String postcode1,
+                                                                 @Parameter(description = "The second postcode of the range")
+                                                                 @RequestParam String postcode2,
+                                                                 @Parameter(description = "The export format, ndjson or csv")
+                                                                 @RequestParam(defaultValue = "ndjson") String format,
+                                                                 HttpServletRequest request) {
+        logger.info("Export batteries called for {} and {} as {}", postcode1, postcode2, format);
+        var exportFormat = BatteryExportFormat.fromName(format);
+        //Exports may run for longer than the default async request timeout, which the other endpoints keep
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(EXPORT_TIMEOUT_INTERCEPTOR,
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                        ((AsyncWebRequest) webRequest).setTimeout(timeoutMs);
+                    }
+                });
+        return ResponseEntity.ok()
+                .contentType(exportFormat.getMediaType())
+                .body(batteryExportService.exportBatteries(postcode1, postcode2, exportFormat));
+    }
+}
@@ -0,0 +1,90 @@
+package com.thudani.codingchallenge.controller;
+
+import com.thudani.codingchallenge.dto.IngestJobDto;
+import com.thudani.codingchallenge.service.IngestJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Controller for asynchronous battery ingest jobs
+ */
+@RestController
+@Profile("!reactive")
+@RequestMapping("/api/batteries/jobs")
+public class IngestJobController {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestJobController.class);
+
+    private final IngestJobService ingestJobService;
+
+    public IngestJobController(IngestJobService ingestJobService) {
+        this.ingestJobService = ingestJobService;
+    }
+
+    /**
+     * Queue a job saving a large list of batteries to the database, returning once the list has been received
+     *
+     * @param request the HTTP request whose body contains newline delimited JSON batteries or a JSON array of batteries
+     * @return {@link IngestJobDto} object containing the id of the job, with the job status URL as location
+     * @throws IOException if the request body cannot be opened
+     */
+    @Operation(summary = "Queue a job saving a large list of batteries to the DB")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "The job was queued",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = IngestJobDto.class))}),
+            @ApiResponse(responseCode = "400", description = "Empty or unreadable stream",
+                    content = @Content),
+            @ApiResponse(responseCode = "413", description = "The stream is larger than a job can spool",
+                    content = @Content),
+            @ApiResponse(responseCode = "503", description = "Too many jobs are queued, retry later",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @PostMapping(consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<IngestJobDto> submitJob(HttpServletRequest request) throws IOException {
+        logger.info("Submit ingest job called");
+        var job = ingestJobService.submitJob(request.getInputStream());
+        var location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .path("/{jobId}")
+                .buildAndExpand(job.getJobId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(job);
+    }
+
+    /**
+     * Fetch the status and progress of an ingest job
+     *
+     * @param jobId id of the job
+     * @return {@link IngestJobDto} object containing the status, record counts and throughput of the job
+     */
+    @Operation(summary = "Get the status of a battery ingest job")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "The job was found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = IngestJobDto.class))}),
+            @ApiResponse(responseCode = "404", description = "Unknown job or job finished too long ago",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @GetMapping("/{jobId}")
+    public ResponseEntity<IngestJobDto> getJob(@Parameter(description = "The id of the job")
+                                               @PathVariable String jobId) {
+        return new ResponseEntity<>(ingestJobService.getJob(jobId), HttpStatus.OK);
+    }
+}
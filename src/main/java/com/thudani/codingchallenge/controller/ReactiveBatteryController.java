@@ -0,0 +1,115 @@
+package com.thudani.codingchallenge.controller;
+
+import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.service.ReactiveBatteryService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.validation.Valid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * WebFlux controller for battery operations, serving the same endpoints as {@link BatteryController} without
+ * blocking a request thread while the DB is queried. Active with the reactive profile
+ */
+@RestController
+@Profile("reactive")
+@RequestMapping("/api/batteries")
+public class ReactiveBatteryController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveBatteryController.class);
+
+    private final ReactiveBatteryService batteryService;
+
+    public ReactiveBatteryController(ReactiveBatteryService batteryService) {
+        this.batteryService = batteryService;
+    }
+
+    /**
+     * Save a list of batteries to the database
+     *
+     * @param command {@link SaveBatteriesCommand} object containing the information of batteries to save
+     * @return the saved batteries
+     */
+    @Operation(summary = "Save a list of batteries to the DB")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "All the batteries are saved",
+                    content = {@Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = BatteryDto.class)))}),
+            @ApiResponse(responseCode = "400", description = "Invalid save command",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @PostMapping
+    public Mono<ResponseEntity<List<BatteryDto>>> saveBatteries(@Valid @RequestBody SaveBatteriesCommand command) {
+        logger.info("Save batteries called for {}", command);
+        return batteryService.saveBatteries(command)
+                .map(batteries -> new ResponseEntity<>(batteries, HttpStatus.CREATED));
+    }
+
+    /**
+     * Stream a large list of batteries to the database, reading the request body only as fast as it is written
+     *
+     * @param lines lines of the newline delimited JSON batteries of the request body
+     * @return {@link BatteryIngestSummaryDto} object containing the accepted and rejected record counts
+     */
+    @Operation(summary = "Stream a large list of batteries to the DB")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "The stream was processed",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BatteryIngestSummaryDto.class))}),
+            @ApiResponse(responseCode = "400", description = "Empty or unreadable stream",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @PostMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<BatteryIngestSummaryDto>> ingestBatteries(@RequestBody Flux<String> lines) {
+        logger.info("Ingest batteries called");
+        //Bound line by line rather than decoded to batteries, so that an invalid line is rejected on its own
+        return batteryService.ingestBatteries(lines)
+                .map(summary -> new ResponseEntity<>(summary, HttpStatus.CREATED));
+    }
+
+    /**
+     * Fetch a list of batteries falling within a given range of postcodes
+     *
+     * @param postcode1 first postcode of the range
+     * @param postcode2 second postcode of the range
+     * @return {@link BatteryResultDto} object containing the names of the batteries and other statistics
+     */
+    @Operation(summary = "Search for batteries in a given postcode range")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Search operation was successful",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BatteryResultDto.class))}),
+            @ApiResponse(responseCode = "400", description = "Invalid postcode range",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal sever error",
+                    content = @Content)})
+    @GetMapping
+    public Mono<ResponseEntity<BatteryResultDto>> getBatteries(@Parameter(description = "The first postcode of the range")
+                                                               @RequestParam String postcode1,
+                                                               @Parameter(description = "The second postcode of the range")
+                                                               @RequestParam String postcode2) {
+        logger.info("Get batteries called for {} and {}", postcode1, postcode2);
+        return batteryService.getBatteries(postcode1, postcode2)
+                .map(result -> new ResponseEntity<>(result, HttpStatus.OK));
+    }
+}
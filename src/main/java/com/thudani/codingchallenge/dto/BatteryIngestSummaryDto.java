@@ -0,0 +1,30 @@
+package com.thudani.codingchallenge.dto;
+
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The DTO summarising the outcome of a streamed battery ingest
+ */
+@Data
+@Builder
+public class BatteryIngestSummaryDto {
+    @Schema(type = "long", description = "Number of valid batteries, saved to the DB or already stored", example = "1000")
+    private long acceptedCount;
+
+    @Schema(type = "long", description = "Number of accepted batteries with the name and postcode of a battery already saved, left unchanged",
+            example = "0")
+    private long duplicateCount;
+
+    @Schema(type = "long", description = "Number of records rejected because they were malformed or invalid", example = "2")
+    private long rejectedCount;
+
+    @ArraySchema(arraySchema = @Schema(
+            description = "Line numbers (NDJSON) or 1-based element positions (JSON array) of the first 1000 rejected records",
+            example = "[12, 857]"))
+    private List<Long> rejectedRecords;
+}
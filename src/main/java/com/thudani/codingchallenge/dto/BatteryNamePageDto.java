@@ -0,0 +1,25 @@
+package com.thudani.codingchallenge.dto;
+
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The DTO representing a page of battery names within a postcode range
+ */
+@Data
+@Builder
+public class BatteryNamePageDto {
+    @ArraySchema(arraySchema = @Schema(
+            description = "Names of the batteries of the page in alphabetical order",
+            example = "[\"battery 1\", \"battery 2\"]"))
+    private List<String> batteryNames;
+
+    @Schema(type = "string",
+            description = "Opaque token to fetch the next page with, absent when this is the last page",
+            example = "AARiYXR0ZXJ5IDIAGDY0MDBhMWIyYzNkNGU1ZjYwNzE4MjkzYQ")
+    private String nextPageToken;
+}
@@ -0,0 +1,20 @@
+package com.thudani.codingchallenge.dto;
+
+import com.thudani.codingchallenge.model.Battery;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Internal DTO representing the names and statistics of batteries in a given postcode range, fetched together
+ */
+@Data
+@Builder
+public class BatterySearchDto {
+    //Only the ids and names of the batteries are populated
+    private List<Battery> batteries;
+
+    //Empty when there are no batteries in the range, otherwise a single element
+    private List<BatteryStatisticsDto> statistics;
+}
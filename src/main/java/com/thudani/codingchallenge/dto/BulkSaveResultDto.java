@@ -0,0 +1,23 @@
+package com.thudani.codingchallenge.dto;
+
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The DTO representing the results of a bulk save where each battery is saved or rejected independently
+ */
+@Data
+@Builder
+public class BulkSaveResultDto {
+    @ArraySchema(arraySchema = @Schema(description = "The saved batteries in input order"),
+            schema = @Schema(implementation = BatteryDto.class))
+    private List<BatteryDto> savedBatteries;
+
+    @ArraySchema(arraySchema = @Schema(description = "The rejected batteries in input order"),
+            schema = @Schema(implementation = RejectedBatteryDto.class))
+    private List<RejectedBatteryDto> rejectedBatteries;
+}
@@ -0,0 +1,51 @@
+package com.thudani.codingchallenge.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * The DTO representing the status of an asynchronous battery ingest job
+ */
+@Data
+@Builder
+public class IngestJobDto {
+    /**
+     * Lifecycle of an ingest job
+     */
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    @Schema(type = "string", description = "Id of the job", example = "0f8fad5b-d9cb-469f-a165-70867728950e")
+    private String jobId;
+
+    @Schema(description = "Status of the job", example = "RUNNING")
+    private Status status;
+
+    @Schema(type = "boolean", description = "Whether the job was interrupted by a restart and run again from the start. Batteries saved by the interrupted run are counted as duplicates",
+            example = "false")
+    private boolean recovered;
+
+    @Schema(type = "string", description = "Time the job was accepted", example = "2024-05-01T10:15:30Z")
+    private Instant submittedAt;
+
+    @Schema(type = "string", description = "Time the job started, absent while it is queued", example = "2024-05-01T10:15:31Z")
+    private Instant startedAt;
+
+    @Schema(type = "string", description = "Time the job completed or failed, absent until then", example = "2024-05-01T10:16:01Z")
+    private Instant finishedAt;
+
+    @Schema(type = "double", description = "Records processed per second since the job started, absent while it is queued",
+            example = "25000.0")
+    private Double recordsPerSecond;
+
+    @Schema(description = "Records processed so far, the final outcome once the job is completed")
+    private BatteryIngestSummaryDto summary;
+
+    @Schema(type = "string", description = "Reason the job failed, absent unless it failed",
+            example = "Battery stream could not be read")
+    private String error;
+}
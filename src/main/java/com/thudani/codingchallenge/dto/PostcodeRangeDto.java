@@ -0,0 +1,21 @@
+package com.thudani.codingchallenge.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * The DTO representing a postcode range to search
+ */
+@Data
+@Builder
+public class PostcodeRangeDto {
+    @Schema(type = "string", description = "The first postcode of the range", example = "2000")
+    @NotNull(message = "First postcode must be provided")
+    private String postcode1;
+
+    @Schema(type = "string", description = "The second postcode of the range", example = "3000")
+    @NotNull(message = "Second postcode must be provided")
+    private String postcode2;
+}
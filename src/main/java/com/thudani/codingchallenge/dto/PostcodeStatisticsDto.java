@@ -0,0 +1,21 @@
+package com.thudani.codingchallenge.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Internal DTO representing the statistics of a single postcode, fetched together with those of the other postcodes
+ * of the searched ranges
+ */
+@Data
+@Builder
+public class PostcodeStatisticsDto {
+    //Set when the batteries are grouped by postcode, null when they are grouped by numeric postcode
+    private String postcode;
+
+    //Set when the batteries are grouped by numeric postcode, null when they are grouped by postcode
+    private Long postcodeNum;
+
+    private Double totalWattCapacity;
+    private Long batteryCount;
+}
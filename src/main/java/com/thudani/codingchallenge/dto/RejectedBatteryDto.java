@@ -0,0 +1,18 @@
+package com.thudani.codingchallenge.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * The DTO representing a battery which could not be saved
+ */
+@Data
+@Builder
+public class RejectedBatteryDto {
+    @Schema(type = "integer", description = "Index of the battery in the input battery list", example = "3")
+    private int index;
+
+    @Schema(type = "string", description = "Reason the battery was rejected", example = "Postcode must be provided")
+    private String reason;
+}
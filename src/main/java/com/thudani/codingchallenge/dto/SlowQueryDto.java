@@ -0,0 +1,59 @@
+package com.thudani.codingchallenge.dto;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The DTO describing a search query which exceeded the slow query threshold, with a summary of its query plan
+ */
+@Data
+@Builder
+public class SlowQueryDto {
+    @Schema(type = "string", description = "Time the query completed", example = "2024-03-01T10:15:30.123Z")
+    private Instant recordedAt;
+
+    @Schema(type = "string", description = "Repository method of the query", example = "findWithinPostCodeRangeOrderByName")
+    private String query;
+
+    @Schema(type = "string", description = "Start postcode of the searched range", example = "2000")
+    private String postcode1;
+
+    @Schema(type = "string", description = "End postcode of the searched range", example = "2999")
+    private String postcode2;
+
+    @Schema(type = "long", description = "Time taken by the query in milliseconds", example = "1250")
+    private long durationMillis;
+
+    @ArraySchema(arraySchema = @Schema(description = "Indexes scanned by the winning plan", example = "[\"postcode_name_idx\"]"))
+    private List<String> indexesUsed;
+
+    @Schema(type = "boolean", description = "Whether the winning plan scans the whole collection", example = "false")
+    private Boolean collectionScan;
+
+    @Schema(type = "boolean", description = "Whether the results are sorted in memory rather than read in index order",
+            example = "true")
+    private Boolean blockingSort;
+
+    @Schema(type = "long", description = "Number of index keys examined", example = "52000")
+    private Long keysExamined;
+
+    @Schema(type = "long", description = "Number of documents examined", example = "52000")
+    private Long docsExamined;
+
+    @Schema(type = "long", description = "Number of documents returned by the query stage to the rest of the pipeline",
+            example = "52000")
+    private Long returned;
+
+    @Schema(type = "object", description = "Raw explain output, absent if the query was not explained")
+    @JsonRawValue
+    private String explain;
+
+    @Schema(type = "string", description = "Reason the query was not explained", example = "Explain is only captured for aggregations")
+    private String explainError;
+}
@@ -6,6 +6,7 @@ import lombok.Builder;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
@@ -14,8 +15,48 @@ import org.springframework.data.mongodb.core.mapping.Document;
 @Data
 @Document
 @Builder
-@CompoundIndex(name = "postcode_name_idx", def = "{'postcode' : 1, 'lowercaseName' : 1}")
+@CompoundIndexes({
+        //Serves ranges of non numeric postcodes
+        @CompoundIndex(name = Battery.POSTCODE_INDEX, def = "{'postcode' : 1, 'lowercaseName' : 1}"),
+        //Covers the search and statistics queries of numeric ranges, which never have to fetch a document
+        @CompoundIndex(name = Battery.POSTCODE_NUM_INDEX,
+                def = "{'postcodeNum' : 1, 'lowercaseName' : 1, 'name' : 1, 'wattCapacity' : 1}"),
+        //Serves the keyset paginated name listing of wide ranges in sort order, filtering the postcode range on the
+        //index keys
+        @CompoundIndex(name = Battery.NAME_INDEX,
+                def = "{'lowercaseName' : 1, '_id' : 1, 'postcodeNum' : 1, 'postcode' : 1}")
+})
 public class Battery {
+    //Longest run of digits which always fits in a long
+    private static final int MAX_NUMERIC_POSTCODE_LENGTH = 18;
+
+    /**
+     * Pattern of the postcodes having a numeric value, for queries matching the postcodes {@link #toPostcodeNum}
+     * converts
+     */
+    public static final String NUMERIC_POSTCODE_PATTERN = "^[0-9]{1," + MAX_NUMERIC_POSTCODE_LENGTH + "}$";
+
+    /**
+     * Index on the postcode and lowercase name of the batteries, serving ranges of non numeric postcodes
+     */
+    public static final String POSTCODE_INDEX = "postcode_name_idx";
+
+    /**
+     * Index on the numeric postcode of the batteries covering the queries of numeric ranges
+     */
+    public static final String POSTCODE_NUM_INDEX = "postcode_num_covering_idx";
+
+    /**
+     * Index on the lowercase name and id of the batteries, serving the name listing in sort order
+     */
+    public static final String NAME_INDEX = "name_id_postcode_num_idx";
+
+    /**
+     * Unique index on the name and postcode of the batteries, the natural key saves are deduplicated on. It is created
+     * on start up once duplicates saved before it existed are removed, as declaring it here would fail the start up
+     * while such duplicates remain
+     */
+    public static final String NATURAL_KEY_INDEX = "name_postcode_unique_idx";
 
     @Id
     private String id;
@@ -30,6 +71,28 @@ public class Battery {
     @NotBlank
     private String postcode;
 
+    //Numeric value of the postcode, absent for non numeric postcodes. Numeric ranges are matched on this field
+    private Long postcodeNum;
+
     @NotNull
     private Double wattCapacity;
+
+    /**
+     * Returns the numeric value of a postcode made of decimal digits only, so that numeric postcodes of different
+     * lengths compare by value rather than character by character
+     *
+     * @param postcode postcode to convert
+     * @return the numeric value, or null if the postcode is not numeric
+     */
+    public static Long toPostcodeNum(String postcode) {
+        if (postcode == null || postcode.isEmpty() || postcode.length() > MAX_NUMERIC_POSTCODE_LENGTH) {
+            return null;
+        }
+        for (var i = 0; i < postcode.length(); i++) {
+            if (postcode.charAt(i) < '0' || postcode.charAt(i) > '9') {
+                return null;
+            }
+        }
+        return Long.parseLong(postcode);
+    }
 }
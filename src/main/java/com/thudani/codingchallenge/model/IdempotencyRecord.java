@@ -0,0 +1,31 @@
+package com.thudani.codingchallenge.model;
+
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Model class representing a save request made with an idempotency key, with its response once it has completed.
+ * Records expire a day after the request
+ */
+@Data
+@Document
+@Builder
+public class IdempotencyRecord {
+
+    @Id
+    private String key;
+
+    //Hash of the operation and the request body, telling a retry from a different request reusing the key
+    private String fingerprint;
+
+    //JSON response of the request, absent while the request is in progress
+    private String response;
+
+    @Indexed(name = "created_at_ttl_idx", expireAfter = "1d")
+    private Instant createdAt;
+}
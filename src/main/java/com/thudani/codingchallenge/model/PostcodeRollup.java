@@ -0,0 +1,27 @@
+package com.thudani.codingchallenge.model;
+
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Model class representing the pre-aggregated statistics of all the batteries in a single postcode
+ */
+@Data
+@Document
+@Builder
+public class PostcodeRollup {
+
+    @Id
+    private String postcode;
+
+    //Numeric value of the postcode, absent for non numeric postcodes
+    @Indexed
+    private Long postcodeNum;
+
+    private Double totalWattCapacity;
+
+    private Long batteryCount;
+}
@@ -0,0 +1,54 @@
+package com.thudani.codingchallenge.repository;
+
+import org.bson.Document;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.util.json.ParameterBindingDocumentCodec;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Runs the explain command on the pipeline of an {@link Aggregation} annotated repository method, bound to the given
+ * arguments the same way Spring Data binds them when the method is called
+ */
+final class AggregationExplainer {
+
+    private static final ParameterBindingDocumentCodec CODEC = new ParameterBindingDocumentCodec();
+
+    private AggregationExplainer() {
+    }
+
+    /**
+     * @param mongoTemplate template to run the explain command with
+     * @param repository   repository interface declaring the method
+     * @param collection   collection the repository operates on
+     * @param method       name of the annotated method
+     * @param arguments    arguments of the method call to explain
+     * @return the explain output with execution statistics, which runs the pipeline to completion
+     * @throws IllegalArgumentException if the repository has no such annotated method
+     */
+    static Document explain(MongoTemplate mongoTemplate, Class<?> repository, String collection, String method,
+                            Object... arguments) {
+        var aggregation = Arrays.stream(repository.getMethods())
+                .filter(candidate -> candidate.getName().equals(method)
+                        && candidate.getParameterCount() == arguments.length)
+                .map(candidate -> AnnotatedElementUtils.findMergedAnnotation(candidate, Aggregation.class))
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(repository.getSimpleName()
+                        + " has no aggregation " + method + " taking " + arguments.length + " arguments"));
+        var pipeline = Arrays.stream(aggregation.pipeline())
+                .map(stage -> CODEC.decode(stage, arguments))
+                .toList();
+        var explain = mongoTemplate.getDb().runCommand(new Document("explain", new Document("aggregate", collection)
+                .append("pipeline", pipeline)
+                .append("cursor", new Document()))
+                .append("verbosity", "executionStats"));
+        //Cluster gossip rather than part of the explain
+        explain.remove("$clusterTime");
+        explain.remove("operationTime");
+        return explain;
+    }
+}
@@ -1,20 +1,76 @@
 package com.thudani.codingchallenge.repository;
 
+import com.thudani.codingchallenge.dto.BatterySearchDto;
 import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
 import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.model.PostcodeRollup;
 import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 /**
  * Mongo repository to operate on {@link Battery}
  */
-public interface BatteryRepository extends MongoRepository<Battery, String> {
+public interface BatteryRepository extends MongoRepository<Battery, String>, BatteryRepositoryCustom {
 
     /**
-     * Returns a paged result of batteries within a given post code range ordered by name ASC
+     * Returns a paged result of batteries within a given range of numeric postcodes ordered by name ASC.
+     * The query is covered by the postcode_num_covering_idx index
+     *
+     * @param postcodeNum1 numeric value of the start postcode of the range
+     * @param postcodeNum2 numeric value of the end postcode of the range
+     * @param skip         page number of the paginated response
+     * @param limit        page size of the paginated response
+     * @return a list of {@link Battery} with only their names
+     */
+    @Aggregation(pipeline = {
+            "{ '$match': {'postcodeNum' : { $gte: ?0, $lte: ?1 } } }",
+            "{ '$sort' : {'lowercaseName' : 1} }",
+            "{ '$skip' : ?2 }",
+            "{ '$limit' : ?3 }",
+            "{ '$project' : {'_id' : 0, 'name' : 1} }"
+    })
+    List<Battery> findWithinPostcodeNumRangeOrderByName(long postcodeNum1, long postcodeNum2, int skip, int limit);
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries in a given range of numeric postcodes.
+     * The query is covered by the postcode_num_covering_idx index
+     *
+     * @param postcodeNum1 numeric value of the start postcode of the range
+     * @param postcodeNum2 numeric value of the end postcode of the range
+     * @return {@link BatteryStatisticsDto} object containing the total watt capacity and total number of batteries
+     */
+    @Aggregation(pipeline = {
+            "{$match: {'postcodeNum' : { $gte: ?0, $lte: ?1 } }}",
+            "{$group: { _id: '', totalWattCapacity: {$sum: $wattCapacity}, batteryCount: {$sum: 1}}}"
+    })
+    Optional<BatteryStatisticsDto> findTotalWattCapacityWithinPostcodeNumRange(long postcodeNum1, long postcodeNum2);
+
+    /**
+     * Fetch the names of the first batteries ordered by name ASC together with the total watt capacity and the total
+     * number of batteries in a given range of numeric postcodes, matching the range only once in a single round trip.
+     * The query is covered by the postcode_num_covering_idx index
+     *
+     * @param postcodeNum1 numeric value of the start postcode of the range
+     * @param postcodeNum2 numeric value of the end postcode of the range
+     * @param limit        maximum number of battery names to return
+     * @return {@link BatterySearchDto} object containing the batteries (names only) and the statistics
+     */
+    @Aggregation(pipeline = {
+            "{ '$match': {'postcodeNum' : { $gte: ?0, $lte: ?1 } } }",
+            "{ '$facet': { " +
+                    "'batteries': [ { '$sort' : {'lowercaseName' : 1} }, { '$limit' : ?2 }, { '$project' : {'_id' : 0, 'name' : 1} } ], " +
+                    "'statistics': [ { $group: { _id: '', totalWattCapacity: {$sum: $wattCapacity}, batteryCount: {$sum: 1}} } ] " +
+                    "} }"
+    })
+    BatterySearchDto findNamesAndStatisticsWithinPostcodeNumRange(long postcodeNum1, long postcodeNum2, int limit);
+
+    /**
+     * Returns a paged result of batteries within a given post code range ordered by name ASC, comparing postcodes
+     * character by character
      *
      * @param postcode1 start postcode of the range
      * @param postcode2 end postcode of the range
@@ -31,7 +87,8 @@ public interface BatteryRepository extends MongoRepository<Battery, String> {
     List<Battery> findWithinPostCodeRangeOrderByName(String postcode1, String postcode2, int skip, int limit);
 
     /**
-     * Calculate the total watt capacity and the total number of batteries in a given post code range
+     * Calculate the total watt capacity and the total number of batteries in a given post code range, comparing
+     * postcodes character by character
      *
      * @param postcode1 start postcode of the range
      * @param postcode2 end postcode of the range
@@ -42,4 +99,45 @@ public interface BatteryRepository extends MongoRepository<Battery, String> {
             "{$group: { _id: '', totalWattCapacity: {$sum: $wattCapacity}, batteryCount: {$sum: 1}}}"
     })
     Optional<BatteryStatisticsDto> findTotalWattCapacityWithinPostcodeRange(String postcode1, String postcode2);
+
+    /**
+     * Fetch the names of the first batteries ordered by name ASC together with the total watt capacity and the total
+     * number of batteries in a given post code range, matching the range only once in a single round trip and
+     * comparing postcodes character by character
+     *
+     * @param postcode1 start postcode of the range
+     * @param postcode2 end postcode of the range
+     * @param limit     maximum number of battery names to return
+     * @return {@link BatterySearchDto} object containing the batteries (ids and names only) and the statistics
+     */
+    @Aggregation(pipeline = {
+            "{ '$match': {'postcode' : { $gte: ?0, $lte: ?1 } } }",
+            "{ '$facet': { " +
+                    "'batteries': [ { '$sort' : {'lowercaseName' : 1} }, { '$limit' : ?2 }, { '$project' : {'name' : 1} } ], " +
+                    "'statistics': [ { $group: { _id: '', totalWattCapacity: {$sum: $wattCapacity}, batteryCount: {$sum: 1}} } ] " +
+                    "} }"
+    })
+    BatterySearchDto findNamesAndStatisticsWithinPostcodeRange(String postcode1, String postcode2, int limit);
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries of every postcode
+     *
+     * @return a list of {@link PostcodeRollup}, one per postcode having batteries
+     */
+    @Aggregation(pipeline = {
+            "{$group: { _id: $postcode, postcodeNum: {$first: $postcodeNum}, totalWattCapacity: {$sum: $wattCapacity}, batteryCount: {$sum: 1}}}"
+    })
+    List<PostcodeRollup> findStatisticsPerPostcode();
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries of the given postcodes
+     *
+     * @param postcodes the postcodes
+     * @return a list of {@link PostcodeRollup}, one per given postcode having batteries
+     */
+    @Aggregation(pipeline = {
+            "{$match: {'postcode' : { $in: ?0 } }}",
+            "{$group: { _id: $postcode, postcodeNum: {$first: $postcodeNum}, totalWattCapacity: {$sum: $wattCapacity}, batteryCount: {$sum: 1}}}"
+    })
+    List<PostcodeRollup> findStatisticsOfPostcodes(Collection<String> postcodes);
 }
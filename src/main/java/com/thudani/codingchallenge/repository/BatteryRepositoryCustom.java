@@ -0,0 +1,198 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.dto.PostcodeStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.bson.Document;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Custom operations on {@link Battery} which cannot be expressed as derived or annotated queries.
+ * Ranges between two numeric postcodes are matched on the numeric value of the postcodes, any other range compares
+ * postcodes character by character
+ */
+public interface BatteryRepositoryCustom {
+
+    /**
+     * Save a list of batteries by their natural key, name and postcode, in a single unordered bulk write of upserts.
+     * A battery is inserted unless a battery with the same name and postcode is already stored, in which case the
+     * stored battery is left unchanged. Retried saves therefore never store a battery twice, without reading the
+     * stored batteries first. A battery failing to save does not prevent the others from being saved, while a bulk
+     * write failing without any battery error, such as on the write concern, is thrown. Batteries without an id are
+     * assigned one before the write
+     *
+     * @param batteries batteries to save
+     * @return the batteries which were already stored and the batteries which could not be saved, indexed by their
+     * position in {@code batteries}
+     */
+    BatteryUpsertResult upsertUnordered(List<Battery> batteries);
+
+    /**
+     * Save a batch of batteries already encoded to BSON by their natural key, with the same outcome as
+     * {@link #upsertUnordered(List)}. The documents are handed to the driver as they are, without being mapped
+     *
+     * @param batch batteries to save
+     * @return the batteries which were already stored and the batteries which could not be saved, indexed by their
+     * position in {@code batch}
+     */
+    BatteryUpsertResult upsertUnordered(BsonBatteryBatch batch);
+
+    /**
+     * Returns the write sequence of the batteries. While battery.snapshot.enabled is set, the sequence is incremented
+     * after every upsert, update or delete made through this repository has completed, including upserts of which
+     * some batteries were rejected. A reader which read the sequence before reading the batteries therefore sees it
+     * change once any write it may have missed has completed. A write failing as a whole, or an increment failing after
+     * the write, leaves the sequence unchanged, and the failed increment is logged
+     *
+     * @return the current write sequence, 0 if nothing has been written yet
+     */
+    long writeSequence();
+
+    /**
+     * Sets the id and watt capacity of each battery to those of the stored battery with the same name and postcode,
+     * so that the batteries {@link #upsertUnordered} found already stored report what is stored
+     *
+     * @param batteries batteries to update
+     */
+    void loadStored(List<Battery> batteries);
+
+    /**
+     * Returns the batteries within a given post code range ordered by lowercase name and id ASC, starting right after
+     * the given sort key. The page is sought from the sort key instead of skipping the earlier batteries. Pages of wide
+     * ranges are read in order from the name index, so deep pages cost the same as the first page. Pages of ranges of
+     * at most battery.search.page.sort-max-batteries batteries are read from the postcode index and sorted in memory,
+     * so they cost the size of the range rather than a scan of the name index
+     *
+     * @param postcode1          start postcode of the range
+     * @param postcode2          end postcode of the range
+     * @param afterLowercaseName lowercase name of the last battery of the previous page, or null for the first page
+     * @param afterId            id of the last battery of the previous page, or null for the first page
+     * @param limit              page size
+     * @return a list of {@link Battery} with only their id, name and lowercase name
+     */
+    List<Battery> findPageWithinPostcodeRange(String postcode1, String postcode2, String afterLowercaseName,
+                                              String afterId, int limit);
+
+    /**
+     * Calculates the total watt capacity and the number of batteries of every numeric postcode within any of the given
+     * ranges of numeric postcodes. The ranges are matched together in a single aggregation following the
+     * postcode_num_covering_idx index, which covers it
+     *
+     * @param postcodeNums1 numeric values of the start postcodes of the ranges
+     * @param postcodeNums2 numeric values of the end postcodes of the ranges, in the order of {@code postcodeNums1}
+     * @return a list of {@link PostcodeStatisticsDto} grouped by numeric postcode, one per postcode having batteries
+     */
+    List<PostcodeStatisticsDto> findStatisticsPerPostcodeNum(long[] postcodeNums1, long[] postcodeNums2);
+
+    /**
+     * Calculates the total watt capacity and the number of batteries of every postcode within any of the given post
+     * code ranges. The ranges are matched together in a single aggregation following the compound index on postcode and
+     * lowercase name, comparing postcodes character by character
+     *
+     * @param postcodes1 start postcodes of the ranges
+     * @param postcodes2 end postcodes of the ranges, in the order of {@code postcodes1}
+     * @return a list of {@link PostcodeStatisticsDto} grouped by postcode, one per postcode having batteries
+     */
+    List<PostcodeStatisticsDto> findStatisticsPerPostcode(String[] postcodes1, String[] postcodes2);
+
+    /**
+     * Finds the first batteries ordered by lowercase name of each of the given ranges of numeric postcodes. Every range
+     * is sorted and limited on its own, so at most {@code limit} batteries per range are read, and the ranges are
+     * fetched in a few round trips of several ranges each
+     *
+     * @param postcodeNums1 numeric values of the start postcodes of the ranges
+     * @param postcodeNums2 numeric values of the end postcodes of the ranges, in the order of {@code postcodeNums1}
+     * @param limit         maximum number of batteries to return per range
+     * @return the batteries of every range in the order of {@code postcodeNums1}, with only their names and lowercase
+     * names
+     */
+    List<List<Battery>> findNamesPerPostcodeNumRange(long[] postcodeNums1, long[] postcodeNums2, int limit);
+
+    /**
+     * Finds the first batteries ordered by lowercase name of each of the given post code ranges, with the same bounds
+     * as {@link #findNamesPerPostcodeNumRange}, comparing postcodes character by character
+     *
+     * @param postcodes1 start postcodes of the ranges
+     * @param postcodes2 end postcodes of the ranges, in the order of {@code postcodes1}
+     * @param limit      maximum number of batteries to return per range
+     * @return the batteries of every range in the order of {@code postcodes1}, with only their names and lowercase names
+     */
+    List<List<Battery>> findNamesPerPostcodeRange(String[] postcodes1, String[] postcodes2, int limit);
+
+    /**
+     * Streams the batteries within a given post code range ordered by postcode and lowercase name ASC from a cursor,
+     * holding at most one cursor batch in memory. Numeric postcodes are ordered by value. The stream must be closed to
+     * release the cursor
+     *
+     * @param postcode1 start postcode of the range
+     * @param postcode2 end postcode of the range
+     * @param batchSize number of batteries fetched per round trip to the DB
+     * @return a stream of {@link Battery}
+     */
+    Stream<Battery> streamWithinPostcodeRange(String postcode1, String postcode2, int batchSize);
+
+    /**
+     * Streams the batteries having a numeric postcode ordered by numeric postcode ASC from a cursor, following the
+     * postcode_num_covering_idx index, which covers it. Only the name, numeric postcode and watt capacity of the
+     * batteries are fetched. The stream must be closed to release the cursor
+     *
+     * @param batchSize number of batteries fetched per round trip to the DB
+     * @return a stream of {@link Battery}
+     */
+    Stream<Battery> streamNumericOrderedByPostcodeNum(int batchSize);
+
+    /**
+     * Counts the batteries having a numeric postcode on the postcode_num_covering_idx index
+     *
+     * @return number of batteries {@link #streamNumericOrderedByPostcodeNum} streams
+     */
+    long countNumeric();
+
+    /**
+     * Sets the numeric postcode of the batteries with a numeric postcode saved before the field was introduced
+     *
+     * @return number of batteries updated
+     */
+    long backfillPostcodeNums();
+
+    /**
+     * Returns whether an index of the battery collection exists
+     *
+     * @param indexName name of the index
+     * @return true if the index exists
+     */
+    boolean indexExists(String indexName);
+
+    /**
+     * Drops an index of the battery collection if it exists
+     *
+     * @param indexName name of the index
+     * @return true if the index existed and has been dropped
+     */
+    boolean dropIndexIfExists(String indexName);
+
+    /**
+     * Deletes every battery with the same name and postcode as an earlier battery, keeping the battery with the lowest
+     * id of each name and postcode
+     *
+     * @return number of batteries deleted
+     */
+    long deleteDuplicates();
+
+    /**
+     * Creates the unique index on the name and postcode of the batteries, {@link Battery#NATURAL_KEY_INDEX}. Fails if
+     * duplicates are stored
+     */
+    void createNaturalKeyIndex();
+
+    /**
+     * Explains an aggregation of {@link BatteryRepository} with execution statistics, showing the indexes used and
+     * the numbers of keys and documents examined. The aggregation is run to completion to collect the statistics
+     *
+     * @param method    name of the {@link BatteryRepository} aggregation method
+     * @param arguments arguments of the aggregation call to explain
+     * @return the explain output
+     */
+    Document explainAggregation(String method, Object... arguments);
+}
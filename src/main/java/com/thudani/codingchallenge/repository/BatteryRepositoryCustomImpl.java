@@ -0,0 +1,361 @@
+package com.thudani.codingchallenge.repository;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.thudani.codingchallenge.dto.PostcodeStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.aggregation.LiteralOperators;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of {@link BatteryRepositoryCustom}
+ */
+public class BatteryRepositoryCustomImpl implements BatteryRepositoryCustom {
+    private static final Logger logger = LoggerFactory.getLogger(BatteryRepositoryCustomImpl.class);
+
+    private static final int DELETE_BATCH_SIZE = 1000;
+    //Keeps the pipeline of a name aggregation well below the limit of 1000 stages
+    private static final int RANGES_PER_NAME_AGGREGATION = 100;
+
+    private final MongoTemplate mongoTemplate;
+    //The write sequence is only read by the snapshot, so writes do not maintain it while the snapshot is disabled
+    private final boolean writeSequenceEnabled;
+    //Largest range of batteries whose name pages are sorted in memory rather than read from the name index in order
+    private final int pageSortMaxBatteries;
+
+    public BatteryRepositoryCustomImpl(MongoTemplate mongoTemplate,
+                                       @Value("${battery.snapshot.enabled:false}") boolean writeSequenceEnabled,
+                                       @Value("${battery.search.page.sort-max-batteries:10000}") int pageSortMaxBatteries) {
+        this.mongoTemplate = mongoTemplate;
+        this.writeSequenceEnabled = writeSequenceEnabled;
+        this.pageSortMaxBatteries = pageSortMaxBatteries;
+    }
+
+    @Override
+    public BatteryUpsertResult upsertUnordered(List<Battery> batteries) {
+        if (batteries.isEmpty()) {
+            return BatteryUpsertResult.EMPTY;
+        }
+        BatteryUpserts.assignIds(batteries);
+        var bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Battery.class);
+        batteries.forEach(battery -> bulkOperations.upsert(BatteryUpserts.naturalKey(battery),
+                BatteryUpserts.insertOnly(battery, mongoTemplate.getConverter())));
+        BatteryUpsertResult result;
+        try {
+            result = BatteryUpserts.toResult(batteries.size(), bulkOperations.execute(), List.of());
+        } catch (BulkOperationException e) {
+            if (e.getErrors().isEmpty()) {
+                //Failed on the write concern, which does not tell which batteries have been saved
+                throw e;
+            }
+            result = BatteryUpserts.toResult(batteries.size(), e.getResult(), e.getErrors());
+        }
+        incrementWriteSequence();
+        return result;
+    }
+
+    @Override
+    public BatteryUpsertResult upsertUnordered(BsonBatteryBatch batch) {
+        if (batch.size() == 0) {
+            return BatteryUpsertResult.EMPTY;
+        }
+        var result = mongoTemplate.execute(Battery.class, collection -> {
+            try {
+                return BatteryUpserts.toResult(batch.size(), collection.withDocumentClass(RawBsonDocument.class)
+                        .bulkWrite(batch.toUpserts(), new BulkWriteOptions().ordered(false)), List.of());
+            } catch (MongoBulkWriteException e) {
+                if (e.getWriteErrors().isEmpty()) {
+                    //Failed on the write concern, which does not tell which batteries have been saved
+                    throw e;
+                }
+                return BatteryUpserts.toResult(batch.size(), e.getWriteResult(), e.getWriteErrors());
+            }
+        });
+        incrementWriteSequence();
+        return result;
+    }
+
+    @Override
+    public long writeSequence() {
+        var sequence = mongoTemplate.findOne(BatteryUpserts.writeSequence(), Document.class,
+                BatteryUpserts.WRITE_SEQUENCE_COLLECTION);
+        return sequence == null ? 0 : sequence.get(BatteryUpserts.WRITE_SEQUENCE_FIELD, Number.class).longValue();
+    }
+
+    /**
+     * Increments the write sequence after a write has completed. A failed increment is logged rather than thrown, as
+     * the write itself has been made
+     */
+    private void incrementWriteSequence() {
+        if (!writeSequenceEnabled) {
+            return;
+        }
+        try {
+            mongoTemplate.upsert(BatteryUpserts.writeSequence(), BatteryUpserts.nextWriteSequence(),
+                    BatteryUpserts.WRITE_SEQUENCE_COLLECTION);
+        } catch (RuntimeException e) {
+            logger.warn("Battery write sequence could not be incremented", e);
+        }
+    }
+
+    @Override
+    public void loadStored(List<Battery> batteries) {
+        if (batteries.isEmpty()) {
+            return;
+        }
+        BatteryUpserts.copyStored(batteries,
+                mongoTemplate.find(BatteryUpserts.withNaturalKeys(batteries), Battery.class));
+    }
+
+    @Override
+    public List<Battery> findPageWithinPostcodeRange(String postcode1, String postcode2, String afterLowercaseName,
+                                                     String afterId, int limit) {
+        var criteria = withinPostcodeRange(postcode1, postcode2);
+        if (afterLowercaseName != null) {
+            criteria = criteria.orOperator(
+                    Criteria.where("lowercaseName").gt(afterLowercaseName),
+                    Criteria.where("lowercaseName").is(afterLowercaseName).and("id").gt(afterId));
+        }
+        var query = Query.query(criteria)
+                .with(Sort.by("lowercaseName", "id"))
+                .limit(limit)
+                .withHint(pageIndex(postcode1, postcode2));
+        query.fields().include("name", "lowercaseName");
+        return mongoTemplate.find(query, Battery.class);
+    }
+
+    /**
+     * Chooses the index a name page of a range is read from. The name index returns the batteries in page order but
+     * skips every battery outside the range on the way, so a page of a narrow range may scan most of the index. A
+     * range of at most {@link #pageSortMaxBatteries} batteries is instead read from its postcode index and sorted in
+     * memory. The batteries of the range are counted on the postcode index only up to that bound
+     */
+    private String pageIndex(String postcode1, String postcode2) {
+        var postcodeIndex = isNumericRange(postcode1, postcode2) ? Battery.POSTCODE_NUM_INDEX : Battery.POSTCODE_INDEX;
+        var count = mongoTemplate.count(Query.query(withinPostcodeRange(postcode1, postcode2))
+                .limit(pageSortMaxBatteries + 1)
+                .withHint(postcodeIndex), Battery.class);
+        return count <= pageSortMaxBatteries ? postcodeIndex : Battery.NAME_INDEX;
+    }
+
+    @Override
+    public List<PostcodeStatisticsDto> findStatisticsPerPostcodeNum(long[] postcodeNums1, long[] postcodeNums2) {
+        return findStatisticsPerPostcode("postcodeNum", postcodeNumRanges(postcodeNums1, postcodeNums2));
+    }
+
+    @Override
+    public List<PostcodeStatisticsDto> findStatisticsPerPostcode(String[] postcodes1, String[] postcodes2) {
+        return findStatisticsPerPostcode("postcode", postcodeRanges(postcodes1, postcodes2));
+    }
+
+    private List<PostcodeStatisticsDto> findStatisticsPerPostcode(String postcodeField, Criteria[] ranges) {
+        //Only the sum and the count are kept per postcode, so a group stays the same size however many batteries it has
+        var aggregation = Aggregation.newAggregation(
+                        Aggregation.match(ranges.length == 1 ? ranges[0] : new Criteria().orOperator(ranges)),
+                        Aggregation.group(postcodeField)
+                                .sum("wattCapacity").as("totalWattCapacity")
+                                .count().as("batteryCount"),
+                        Aggregation.project("totalWattCapacity", "batteryCount")
+                                .and(postcodeField).previousOperation())
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        return mongoTemplate.aggregate(aggregation, Battery.class, PostcodeStatisticsDto.class).getMappedResults();
+    }
+
+    @Override
+    public List<List<Battery>> findNamesPerPostcodeNumRange(long[] postcodeNums1, long[] postcodeNums2, int limit) {
+        return findNamesPerRange(postcodeNumRanges(postcodeNums1, postcodeNums2), limit);
+    }
+
+    @Override
+    public List<List<Battery>> findNamesPerPostcodeRange(String[] postcodes1, String[] postcodes2, int limit) {
+        return findNamesPerRange(postcodeRanges(postcodes1, postcodes2), limit);
+    }
+
+    /**
+     * Fetches the first batteries of every range with one aggregation per {@link #RANGES_PER_NAME_AGGREGATION}
+     * ranges. The first range of an aggregation is its main pipeline and every other range is appended by a
+     * $unionWith, so each range is sorted and limited on its own and can follow its own index
+     */
+    private List<List<Battery>> findNamesPerRange(Criteria[] ranges, int limit) {
+        var collection = mongoTemplate.getCollectionName(Battery.class);
+        List<List<Battery>> names = new ArrayList<>(ranges.length);
+        for (var from = 0; from < ranges.length; from += RANGES_PER_NAME_AGGREGATION) {
+            var to = Math.min(ranges.length, from + RANGES_PER_NAME_AGGREGATION);
+            List<AggregationOperation> operations = new ArrayList<>(firstNames(ranges[from], from, limit));
+            for (var i = from + 1; i < to; i++) {
+                operations.add(UnionWithOperation.unionWith(collection).pipeline(firstNames(ranges[i], i, limit)));
+            }
+            for (var i = from; i < to; i++) {
+                names.add(new ArrayList<>());
+            }
+            mongoTemplate.aggregate(Aggregation.newAggregation(operations), collection, Document.class)
+                    .forEach(document -> names.get(document.getInteger("range")).add(Battery.builder()
+                            .name(document.getString("name"))
+                            .lowercaseName(document.getString("lowercaseName"))
+                            .build()));
+        }
+        //$unionWith does not promise to keep the order of the documents of a sub-pipeline
+        names.forEach(batteries -> batteries.sort(Comparator.comparing(Battery::getLowercaseName)));
+        return names;
+    }
+
+    private static List<AggregationOperation> firstNames(Criteria range, int index, int limit) {
+        return List.of(
+                Aggregation.match(range),
+                Aggregation.sort(Sort.by("lowercaseName")),
+                Aggregation.limit(limit),
+                Aggregation.project("name", "lowercaseName")
+                        .andExclude("_id")
+                        .and(LiteralOperators.valueOf(index).asLiteral()).as("range"));
+    }
+
+    private static Criteria[] postcodeNumRanges(long[] postcodeNums1, long[] postcodeNums2) {
+        return IntStream.range(0, postcodeNums1.length)
+                .mapToObj(i -> Criteria.where("postcodeNum").gte(postcodeNums1[i]).lte(postcodeNums2[i]))
+                .toArray(Criteria[]::new);
+    }
+
+    private static Criteria[] postcodeRanges(String[] postcodes1, String[] postcodes2) {
+        return IntStream.range(0, postcodes1.length)
+                .mapToObj(i -> Criteria.where("postcode").gte(postcodes1[i]).lte(postcodes2[i]))
+                .toArray(Criteria[]::new);
+    }
+
+    @Override
+    public Stream<Battery> streamWithinPostcodeRange(String postcode1, String postcode2, int batchSize) {
+        //Sorting on the keys of the index matching the range lets the index serve the order instead of an in-memory sort
+        var sort = isNumericRange(postcode1, postcode2)
+                ? Sort.by("postcodeNum", "lowercaseName")
+                : Sort.by("postcode", "lowercaseName");
+        var query = Query.query(withinPostcodeRange(postcode1, postcode2))
+                .with(sort)
+                .cursorBatchSize(batchSize);
+        return mongoTemplate.stream(query, Battery.class);
+    }
+
+    @Override
+    public Stream<Battery> streamNumericOrderedByPostcodeNum(int batchSize) {
+        //A numeric bound, unlike a null check, and leaving the id out let the covering index answer the query without
+        //fetching the documents
+        var query = Query.query(Criteria.where("postcodeNum").gte(Long.MIN_VALUE))
+                .with(Sort.by("postcodeNum"))
+                .cursorBatchSize(batchSize);
+        query.fields().include("name", "postcodeNum", "wattCapacity").exclude("id");
+        return mongoTemplate.stream(query, Battery.class);
+    }
+
+    @Override
+    public long countNumeric() {
+        return mongoTemplate.count(Query.query(Criteria.where("postcodeNum").gte(Long.MIN_VALUE)), Battery.class);
+    }
+
+    @Override
+    public Document explainAggregation(String method, Object... arguments) {
+        return AggregationExplainer.explain(mongoTemplate, BatteryRepository.class,
+                mongoTemplate.getCollectionName(Battery.class), method, arguments);
+    }
+
+    @Override
+    public long backfillPostcodeNums() {
+        var query = Query.query(Criteria.where("postcodeNum").is(null)
+                .and("postcode").regex(Battery.NUMERIC_POSTCODE_PATTERN));
+        var update = AggregationUpdate.update()
+                .set("postcodeNum").toValue(ConvertOperators.valueOf("postcode").convertToLong());
+        var updated = mongoTemplate.updateMulti(query, update, Battery.class).getModifiedCount();
+        incrementWriteSequence();
+        return updated;
+    }
+
+    @Override
+    public boolean indexExists(String indexName) {
+        return mongoTemplate.indexOps(Battery.class).getIndexInfo().stream()
+                .anyMatch(index -> index.getName().equals(indexName));
+    }
+
+    @Override
+    public boolean dropIndexIfExists(String indexName) {
+        if (!indexExists(indexName)) {
+            return false;
+        }
+        mongoTemplate.indexOps(Battery.class).dropIndex(indexName);
+        return true;
+    }
+
+    @Override
+    public long deleteDuplicates() {
+        var aggregation = Aggregation.newAggregation(Battery.class,
+                        Aggregation.group("name", "postcode").min("id").as("keptId").push("id").as("ids"),
+                        Aggregation.match(Criteria.where("ids.1").exists(true)))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        var deleted = 0L;
+        List<Object> duplicateIds = new ArrayList<>();
+        try (var groups = mongoTemplate.aggregateStream(aggregation, Document.class)) {
+            var iterator = groups.iterator();
+            while (iterator.hasNext()) {
+                var group = iterator.next();
+                var keptId = group.get("keptId");
+                group.getList("ids", Object.class).stream()
+                        .filter(id -> !id.equals(keptId))
+                        .forEach(duplicateIds::add);
+                if (duplicateIds.size() >= DELETE_BATCH_SIZE) {
+                    deleted += deleteByIds(duplicateIds);
+                }
+            }
+        }
+        deleted += deleteByIds(duplicateIds);
+        incrementWriteSequence();
+        return deleted;
+    }
+
+    private long deleteByIds(List<Object> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        var deleted = mongoTemplate.remove(Query.query(Criteria.where("id").in(ids)), Battery.class).getDeletedCount();
+        ids.clear();
+        return deleted;
+    }
+
+    @Override
+    public void createNaturalKeyIndex() {
+        mongoTemplate.indexOps(Battery.class).ensureIndex(new Index()
+                .on("name", Sort.Direction.ASC)
+                .on("postcode", Sort.Direction.ASC)
+                .unique()
+                .named(Battery.NATURAL_KEY_INDEX));
+    }
+
+    private static Criteria withinPostcodeRange(String postcode1, String postcode2) {
+        if (isNumericRange(postcode1, postcode2)) {
+            return Criteria.where("postcodeNum").gte(Battery.toPostcodeNum(postcode1)).lte(Battery.toPostcodeNum(postcode2));
+        }
+        return Criteria.where("postcode").gte(postcode1).lte(postcode2);
+    }
+
+    private static boolean isNumericRange(String postcode1, String postcode2) {
+        return Battery.toPostcodeNum(postcode1) != null && Battery.toPostcodeNum(postcode2) != null;
+    }
+}
@@ -0,0 +1,78 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.dto.RejectedBatteryDto;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Outcome of saving a list of batteries by their natural key, name and postcode
+ *
+ * @param duplicateIndexes  positions of the batteries which were not written because a battery with the same name and
+ *                          postcode is already stored
+ * @param rejectedBatteries batteries which could not be written, indexed by their position
+ */
+public record BatteryUpsertResult(Set<Integer> duplicateIndexes, List<RejectedBatteryDto> rejectedBatteries) {
+    public static final BatteryUpsertResult EMPTY = new BatteryUpsertResult(Set.of(), List.of());
+
+    /**
+     * Returns the elements of a list at the positions of the written batteries
+     *
+     * @param batteries the saved list, or any list in the same order
+     * @param <T>       type of the list elements
+     * @return the elements of the batteries which were neither duplicates nor rejected
+     */
+    public <T> List<T> written(List<T> batteries) {
+        if (duplicateIndexes.isEmpty() && rejectedBatteries.isEmpty()) {
+            return batteries;
+        }
+        var skippedIndexes = skippedIndexes();
+        List<T> written = new ArrayList<>(batteries.size() - skippedIndexes.size());
+        for (var i = 0; i < batteries.size(); i++) {
+            if (!skippedIndexes.contains(i)) {
+                written.add(batteries.get(i));
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Returns the values at the positions of the written batteries
+     *
+     * @param values values of the saved batteries, in the order they were saved
+     * @return the values of the batteries which were neither duplicates nor rejected
+     */
+    public double[] written(double[] values) {
+        if (duplicateIndexes.isEmpty() && rejectedBatteries.isEmpty()) {
+            return values;
+        }
+        var skippedIndexes = skippedIndexes();
+        var written = new double[values.length - skippedIndexes.size()];
+        var writtenCount = 0;
+        for (var i = 0; i < values.length; i++) {
+            if (!skippedIndexes.contains(i)) {
+                written[writtenCount++] = values[i];
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Returns the elements of a list at the positions of the duplicate batteries
+     *
+     * @param batteries the saved list, or any list in the same order
+     * @param <T>       type of the list elements
+     * @return the elements of the batteries already stored
+     */
+    public <T> List<T> duplicates(List<T> batteries) {
+        return duplicateIndexes.stream().sorted().map(batteries::get).toList();
+    }
+
+    private Set<Integer> skippedIndexes() {
+        var skippedIndexes = new HashSet<>(duplicateIndexes);
+        rejectedBatteries.forEach(rejected -> skippedIndexes.add(rejected.getIndex()));
+        return skippedIndexes;
+    }
+}
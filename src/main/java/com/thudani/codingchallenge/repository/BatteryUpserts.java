@@ -0,0 +1,127 @@
+package com.thudani.codingchallenge.repository;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.thudani.codingchallenge.dto.RejectedBatteryDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the upserts saving batteries by their natural key, name and postcode, and reads their outcome. Shared by the
+ * blocking and the reactive repositories
+ */
+final class BatteryUpserts {
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
+    //Collection holding the write sequence of the batteries, a single document counting the writes to them
+    static final String WRITE_SEQUENCE_COLLECTION = "battery_write_sequence";
+    static final String WRITE_SEQUENCE_FIELD = "sequence";
+
+    private BatteryUpserts() {
+    }
+
+    static Query writeSequence() {
+        return Query.query(Criteria.where("_id").is("batteries"));
+    }
+
+    /**
+     * Increments the write sequence, after a write to the batteries has completed
+     */
+    static Update nextWriteSequence() {
+        return new Update().inc(WRITE_SEQUENCE_FIELD, 1L);
+    }
+
+    /**
+     * Bulk writes do not write generated ids back to the entities, so they are assigned up front
+     */
+    static void assignIds(List<Battery> batteries) {
+        batteries.stream()
+                .filter(b -> b.getId() == null)
+                .forEach(b -> b.setId(new ObjectId().toHexString()));
+    }
+
+    static Query naturalKey(Battery battery) {
+        return Query.query(naturalKeyCriteria(battery));
+    }
+
+    /**
+     * Inserts the whole battery if no battery matches its natural key and leaves a matching battery unchanged, so the
+     * first saved battery is kept
+     */
+    static Update insertOnly(Battery battery, MongoConverter converter) {
+        var document = new Document();
+        converter.write(battery, document);
+        return Update.fromDocument(new Document("$setOnInsert", document));
+    }
+
+    /**
+     * Query of the stored batteries with the natural keys of the given batteries, fetching the fields a save returns
+     */
+    static Query withNaturalKeys(List<Battery> batteries) {
+        var query = Query.query(new Criteria().orOperator(batteries.stream()
+                .map(BatteryUpserts::naturalKeyCriteria)
+                .toArray(Criteria[]::new)));
+        query.fields().include("name", "postcode", "wattCapacity");
+        return query;
+    }
+
+    /**
+     * Sets the id and watt capacity of each battery to those of the stored battery with the same natural key
+     */
+    static void copyStored(List<Battery> batteries, List<Battery> storedBatteries) {
+        Map<List<String>, Battery> byNaturalKey = new HashMap<>();
+        storedBatteries.forEach(stored -> byNaturalKey.put(List.of(stored.getName(), stored.getPostcode()), stored));
+        for (var battery : batteries) {
+            var stored = byNaturalKey.get(List.of(battery.getName(), battery.getPostcode()));
+            if (stored != null) {
+                battery.setId(stored.getId());
+                battery.setWattCapacity(stored.getWattCapacity());
+            }
+        }
+    }
+
+    /**
+     * Every upsert which did not insert a battery matched a stored one, or lost the race to insert it to a concurrent
+     * save and failed on the unique natural key index. Both are duplicates, any other error rejects the battery
+     */
+    static BatteryUpsertResult toResult(int batteryCount, BulkWriteResult result, List<BulkWriteError> errors) {
+        var duplicateIndexes = new HashSet<Integer>();
+        for (var i = 0; i < batteryCount; i++) {
+            duplicateIndexes.add(i);
+        }
+        if (result != null) {
+            result.getUpserts().stream().map(BulkWriteUpsert::getIndex).forEach(duplicateIndexes::remove);
+        }
+        List<RejectedBatteryDto> rejectedBatteries = new ArrayList<>();
+        for (var error : errors) {
+            if (!isNaturalKeyConflict(error)) {
+                duplicateIndexes.remove(error.getIndex());
+                rejectedBatteries.add(RejectedBatteryDto.builder()
+                        .index(error.getIndex())
+                        .reason(error.getMessage())
+                        .build());
+            }
+        }
+        return new BatteryUpsertResult(duplicateIndexes, rejectedBatteries);
+    }
+
+    private static boolean isNaturalKeyConflict(BulkWriteError error) {
+        return error.getCode() == DUPLICATE_KEY_ERROR && error.getMessage().contains(Battery.NATURAL_KEY_INDEX);
+    }
+
+    private static Criteria naturalKeyCriteria(Battery battery) {
+        return Criteria.where("name").is(battery.getName()).and("postcode").is(battery.getPostcode());
+    }
+}
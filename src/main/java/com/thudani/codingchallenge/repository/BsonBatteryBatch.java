@@ -0,0 +1,138 @@
+package com.thudani.codingchallenge.repository;
+
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.thudani.codingchallenge.model.Battery;
+import org.bson.BsonBinaryWriter;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of batteries encoded straight to BSON, upserted by their natural key without going through the entity
+ * mapping. Every battery is written as the natural key filter and the insert only update of
+ * {@link BatteryUpserts#insertOnly}, with the same fields as a mapped {@link Battery}, into a single buffer shared by
+ * the whole batch. The documents handed to the driver are views of that buffer, so a battery costs no map, no entity
+ * and no copy of its document. A batch must not be modified once it has been written
+ */
+public class BsonBatteryBatch {
+    private static final String TYPE_HINT = Battery.class.getName();
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    //Filter and update documents of a battery with a short name and postcode, mostly field names and the type hint
+    private static final int ESTIMATED_BATTERY_BYTES = 256;
+
+    private final BasicOutputBuffer buffer;
+    private final BsonBinaryWriter writer;
+    private final List<String> postcodes;
+    private double[] wattCapacities;
+    //Start of the filter of each battery, followed by the start of its update
+    private int[] documentStarts;
+    //Size of the documents inserted by the updates
+    private long documentByteSize;
+
+    /**
+     * @param expectedSize number of batteries the batch is sized for, it grows past it if needed
+     */
+    public BsonBatteryBatch(int expectedSize) {
+        var capacity = Math.max(1, expectedSize);
+        this.buffer = new BasicOutputBuffer(capacity * ESTIMATED_BATTERY_BYTES);
+        this.writer = new BsonBinaryWriter(buffer);
+        this.postcodes = new ArrayList<>(capacity);
+        this.wattCapacities = new double[capacity];
+        this.documentStarts = new int[2 * capacity];
+    }
+
+    /**
+     * Appends a battery which has already been validated
+     *
+     * @param name         name of the battery
+     * @param postcode     postcode of the battery
+     * @param wattCapacity watt capacity of the battery
+     */
+    public void add(String name, String postcode, double wattCapacity) {
+        var index = postcodes.size();
+        if (index == wattCapacities.length) {
+            wattCapacities = Arrays.copyOf(wattCapacities, 2 * index);
+            documentStarts = Arrays.copyOf(documentStarts, 4 * index);
+        }
+        documentStarts[2 * index] = buffer.getPosition();
+        writer.writeStartDocument();
+        writer.writeString("name", name);
+        writer.writeString("postcode", postcode);
+        writer.writeEndDocument();
+
+        documentStarts[2 * index + 1] = buffer.getPosition();
+        writer.writeStartDocument();
+        writer.writeStartDocument("$setOnInsert");
+        //The inserted document starts with its length, which has just been written
+        var insertedStart = buffer.getPosition() - Integer.BYTES;
+        writer.writeObjectId("_id", new ObjectId());
+        writer.writeString("name", name);
+        writer.writeString("lowercaseName", name.toLowerCase());
+        writer.writeString("postcode", postcode);
+        var postcodeNum = Battery.toPostcodeNum(postcode);
+        if (postcodeNum != null) {
+            writer.writeInt64("postcodeNum", postcodeNum);
+        }
+        writer.writeDouble("wattCapacity", wattCapacity);
+        writer.writeString("_class", TYPE_HINT);
+        writer.writeEndDocument();
+        documentByteSize += buffer.getPosition() - insertedStart;
+        writer.writeEndDocument();
+
+        postcodes.add(postcode);
+        wattCapacities[index] = wattCapacity;
+    }
+
+    /**
+     * @return number of batteries in the batch
+     */
+    public int size() {
+        return postcodes.size();
+    }
+
+    /**
+     * @return size in bytes of the battery documents inserted by the batch, without the filters and the update
+     * operators around them
+     */
+    public long documentByteSize() {
+        return documentByteSize;
+    }
+
+    /**
+     * @return postcodes of the batteries, in the order they were added
+     */
+    public List<String> postcodes() {
+        return postcodes;
+    }
+
+    /**
+     * @return watt capacities of the batteries, in the order they were added
+     */
+    public double[] wattCapacities() {
+        return Arrays.copyOf(wattCapacities, size());
+    }
+
+    /**
+     * Builds the upserts of the batteries, in the order they were added
+     */
+    List<UpdateOneModel<RawBsonDocument>> toUpserts() {
+        var bytes = buffer.getInternalBuffer();
+        var end = buffer.getPosition();
+        List<UpdateOneModel<RawBsonDocument>> upserts = new ArrayList<>(size());
+        for (var index = 0; index < size(); index++) {
+            var filterStart = documentStarts[2 * index];
+            var updateStart = documentStarts[2 * index + 1];
+            var updateEnd = index + 1 < size() ? documentStarts[2 * index + 2] : end;
+            upserts.add(new UpdateOneModel<>(
+                    new RawBsonDocument(bytes, filterStart, updateStart - filterStart),
+                    new RawBsonDocument(bytes, updateStart, updateEnd - updateStart),
+                    UPSERT));
+        }
+        return upserts;
+    }
+}
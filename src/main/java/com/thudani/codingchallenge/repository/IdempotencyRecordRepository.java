@@ -0,0 +1,21 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.model.IdempotencyRecord;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.time.Instant;
+
+/**
+ * Mongo repository to operate on {@link IdempotencyRecord}
+ */
+public interface IdempotencyRecordRepository extends MongoRepository<IdempotencyRecord, String> {
+
+    /**
+     * Deletes the record of a key unless it has been replaced since it was read
+     *
+     * @param key       the idempotency key
+     * @param createdAt creation time of the record as read
+     * @return number of records deleted
+     */
+    long deleteByKeyAndCreatedAt(String key, Instant createdAt);
+}
@@ -0,0 +1,190 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.model.Battery;
+import org.bson.types.ObjectId;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of batteries in a memory-mapped file.
+ * Every record is its payload length, the CRC32 of its payload and the payload: the 12 byte id, the watt capacity,
+ * the name and the postcode. The file grows by whole chunks and the unused tail is zero filled, so a zero length marks
+ * the end of the log. A record torn by a crash fails its checksum, and recovery drops it and everything after it.
+ */
+final class MappedBatteryLog implements Closeable {
+    private static final long MAGIC = 0x4241_5454_4c4f_4731L;
+    private static final int HEADER_BYTES = Long.BYTES;
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int ID_BYTES = 12;
+
+    private final FileChannel channel;
+    private final long chunkBytes;
+    private final boolean syncWrites;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    private MappedBatteryLog(FileChannel channel, long chunkBytes, boolean syncWrites) {
+        this.channel = channel;
+        this.chunkBytes = chunkBytes;
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Opens the log, creating it if it does not exist, and replays every intact record
+     *
+     * @param file       the log file
+     * @param chunkBytes number of bytes the file grows by when full
+     * @param syncWrites whether every append is flushed to the storage device before returning
+     * @param replay     receives every intact battery of the log in append order
+     * @return the log positioned after its last intact record
+     * @throws IOException if the file cannot be opened or is not a battery log
+     */
+    static MappedBatteryLog open(Path file, long chunkBytes, boolean syncWrites, Consumer<Battery> replay)
+            throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        var log = new MappedBatteryLog(channel, chunkBytes, syncWrites);
+        try {
+            log.map(Math.max(channel.size(), chunkBytes));
+            var magic = log.buffer.getLong(0);
+            if (magic == 0) {
+                log.buffer.putLong(0, MAGIC);
+                log.buffer.force();
+            } else if (magic != MAGIC) {
+                throw new IOException(file + " is not a battery log");
+            }
+            log.recover(replay);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return log;
+    }
+
+    private void recover(Consumer<Battery> replay) {
+        position = HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            var length = buffer.getInt(position);
+            if (length == 0) {
+                return;
+            }
+            var battery = length > 0 && position + RECORD_HEADER_BYTES + (long) length <= buffer.capacity()
+                    ? readRecord(position, length)
+                    : null;
+            if (battery == null) {
+                //Torn write: zero the tail so that a later record written before the crash cannot come back
+                for (var i = position; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                buffer.force();
+                return;
+            }
+            replay.accept(battery);
+            position += RECORD_HEADER_BYTES + length;
+        }
+    }
+
+    private Battery readRecord(int recordPosition, int length) {
+        var payload = new byte[length];
+        buffer.get(recordPosition + RECORD_HEADER_BYTES, payload);
+        var crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != buffer.getInt(recordPosition + Integer.BYTES)) {
+            return null;
+        }
+        var record = ByteBuffer.wrap(payload);
+        var id = new byte[ID_BYTES];
+        record.get(id);
+        var wattCapacity = record.getDouble();
+        var name = readString(record);
+        var postcode = readString(record);
+        return Battery.builder()
+                .id(new ObjectId(id).toHexString())
+                .name(name)
+                .lowercaseName(name.toLowerCase())
+                .postcode(postcode)
+                .postcodeNum(Battery.toPostcodeNum(postcode))
+                .wattCapacity(wattCapacity)
+                .build();
+    }
+
+    private static String readString(ByteBuffer record) {
+        var bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends batteries to the log, all of them or none if the log cannot be written
+     *
+     * @param batteries batteries with their id assigned
+     * @throws IOException if the file cannot be grown
+     */
+    synchronized void append(List<Battery> batteries) throws IOException {
+        var start = position;
+        var end = position;
+        var payloads = new byte[batteries.size()][];
+        for (var i = 0; i < batteries.size(); i++) {
+            payloads[i] = toPayload(batteries.get(i));
+            end += RECORD_HEADER_BYTES + payloads[i].length;
+        }
+        if (end + RECORD_HEADER_BYTES > buffer.capacity()) {
+            map((end + RECORD_HEADER_BYTES + chunkBytes - 1) / chunkBytes * chunkBytes);
+        }
+        var crc = new CRC32();
+        for (var payload : payloads) {
+            crc.reset();
+            crc.update(payload);
+            buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+            buffer.put(position + RECORD_HEADER_BYTES, payload);
+            buffer.putInt(position, payload.length);
+            position += RECORD_HEADER_BYTES + payload.length;
+        }
+        if (syncWrites) {
+            buffer.force(start, end - start);
+        }
+    }
+
+    private static byte[] toPayload(Battery battery) {
+        var name = battery.getName().getBytes(StandardCharsets.UTF_8);
+        var postcode = battery.getPostcode().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(ID_BYTES + Double.BYTES + 2 * Integer.BYTES + name.length + postcode.length)
+                .put(new ObjectId(battery.getId()).toByteArray())
+                .putDouble(battery.getWattCapacity())
+                .putInt(name.length)
+                .put(name)
+                .putInt(postcode.length)
+                .put(postcode)
+                .array();
+    }
+
+    private void map(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Battery log is full");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * @return number of bytes used by the log
+     */
+    synchronized long size() {
+        return position;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
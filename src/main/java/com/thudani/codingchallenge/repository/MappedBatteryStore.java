@@ -0,0 +1,247 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.dto.BatterySearchDto;
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Battery storage without a database for the mapped-storage profile.
+ * Batteries are appended to a {@link MappedBatteryLog} and indexed in memory by postcode, both as a string and by
+ * numeric value, with running totals per postcode. Like the Mongo saves, a battery with the name and postcode of a stored
+ * battery is not saved again. The index is rebuilt from the log on start up, after recovering
+ * from a torn write if the previous run crashed. Ranges follow the same rules as the Mongo queries: ranges between two
+ * numeric postcodes are matched by value, other ranges character by character
+ */
+@Repository
+@Profile("mapped-storage")
+public class MappedBatteryStore {
+    private static final Logger logger = LoggerFactory.getLogger(MappedBatteryStore.class);
+    private static final Comparator<Battery> NAME_ORDER =
+            Comparator.comparing(Battery::getLowercaseName).thenComparing(Battery::getId);
+
+    private final MappedBatteryLog log;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    //Guarded by lock
+    private final NavigableMap<String, PostcodeBatteries> byPostcode = new TreeMap<>();
+    //Guarded by lock, postcodes with the same value such as 200 and 0200 share an entry
+    private final NavigableMap<Long, List<PostcodeBatteries>> byPostcodeNum = new TreeMap<>();
+
+    public MappedBatteryStore(@Value("${battery.storage.directory:data}") Path directory,
+                              @Value("${battery.storage.chunk-bytes:67108864}") long chunkBytes,
+                              @Value("${battery.storage.sync-writes:true}") boolean syncWrites) throws IOException {
+        Files.createDirectories(directory);
+        var start = System.currentTimeMillis();
+        this.log = MappedBatteryLog.open(directory.resolve("batteries.log"), chunkBytes, syncWrites, this::index);
+        logger.info("Battery log recovered with {} batteries in {} ms", count(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Appends batteries to the log and indexes them, assigning their ids, unless a battery with the same name and
+     * postcode is already stored. The id and watt capacity of such a battery are set to the stored ones instead
+     *
+     * @param batteries batteries to save
+     * @return the batteries which were already stored
+     */
+    public BatteryUpsertResult upsertAll(List<Battery> batteries) {
+        if (batteries.isEmpty()) {
+            return BatteryUpsertResult.EMPTY;
+        }
+        lock.writeLock().lock();
+        try {
+            var duplicateIndexes = new HashSet<Integer>();
+            Map<List<String>, Battery> inserted = new LinkedHashMap<>();
+            for (var i = 0; i < batteries.size(); i++) {
+                var battery = batteries.get(i);
+                var naturalKey = List.of(battery.getName(), battery.getPostcode());
+                var stored = Optional.ofNullable(byPostcode.get(battery.getPostcode()))
+                        .map(entry -> entry.batteries.get(battery.getName()))
+                        .orElse(inserted.get(naturalKey));
+                if (stored != null) {
+                    battery.setId(stored.getId());
+                    battery.setWattCapacity(stored.getWattCapacity());
+                    duplicateIndexes.add(i);
+                } else {
+                    if (battery.getId() == null) {
+                        battery.setId(new ObjectId().toHexString());
+                    }
+                    inserted.put(naturalKey, battery);
+                }
+            }
+            if (!inserted.isEmpty()) {
+                log.append(List.copyOf(inserted.values()));
+                inserted.values().forEach(this::index);
+            }
+            return new BatteryUpsertResult(duplicateIndexes, List.of());
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Batteries could not be written to the battery log", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a battery, unless the log holds an earlier battery with the same name and postcode saved before saves
+     * were deduplicated
+     */
+    private void index(Battery battery) {
+        var entry = byPostcode.computeIfAbsent(battery.getPostcode(), postcode -> {
+            var created = new PostcodeBatteries();
+            if (battery.getPostcodeNum() != null) {
+                byPostcodeNum.computeIfAbsent(battery.getPostcodeNum(), postcodeNum -> new ArrayList<>(1)).add(created);
+            }
+            return created;
+        });
+        if (entry.batteries.putIfAbsent(battery.getName(), battery) == null) {
+            entry.totalWattCapacity += battery.getWattCapacity();
+        }
+    }
+
+    /**
+     * Fetch the names of the first batteries ordered by name ASC together with the total watt capacity and the total
+     * number of batteries in a given post code range
+     *
+     * @param postcode1 start postcode of the range
+     * @param postcode2 end postcode of the range
+     * @param limit     maximum number of batteries to return
+     * @return {@link BatterySearchDto} object containing the batteries and the statistics, empty if there are no
+     * batteries in the range
+     */
+    public BatterySearchDto findNamesAndStatisticsWithinPostcodeRange(String postcode1, String postcode2, int limit) {
+        lock.readLock().lock();
+        try {
+            var entries = withinPostcodeRange(postcode1, postcode2);
+            var totalWattCapacity = 0.0;
+            var batteryCount = 0L;
+            for (var entry : entries) {
+                totalWattCapacity += entry.totalWattCapacity;
+                batteryCount += entry.batteries.size();
+            }
+            return BatterySearchDto.builder()
+                    .batteries(firstByName(entries, battery -> true, limit))
+                    .statistics(batteryCount == 0 ? List.of() : List.of(BatteryStatisticsDto.builder()
+                            .totalWattCapacity(totalWattCapacity)
+                            .batteryCount(batteryCount)
+                            .build()))
+                    .build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a page of the batteries within a given post code range ordered by (lowercaseName, id) ASC, starting after
+     * the given battery
+     *
+     * @param postcode1          start postcode of the range
+     * @param postcode2          end postcode of the range
+     * @param afterLowercaseName lowercase name of the last battery of the previous page, or null for the first page
+     * @param afterId            id of the last battery of the previous page, or null for the first page
+     * @param limit              maximum number of batteries to return
+     * @return a list of {@link Battery}
+     */
+    public List<Battery> findPageWithinPostcodeRange(String postcode1, String postcode2, String afterLowercaseName,
+                                                     String afterId, int limit) {
+        var after = afterLowercaseName == null ? null
+                : Battery.builder().lowercaseName(afterLowercaseName).id(afterId).build();
+        lock.readLock().lock();
+        try {
+            return firstByName(withinPostcodeRange(postcode1, postcode2),
+                    battery -> after == null || NAME_ORDER.compare(battery, after) > 0, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of batteries in the store
+     */
+    public long count() {
+        lock.readLock().lock();
+        try {
+            return byPostcode.values().stream().mapToLong(entry -> entry.batteries.size()).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Collection<PostcodeBatteries> withinPostcodeRange(String postcode1, String postcode2) {
+        var postcodeNum1 = Battery.toPostcodeNum(postcode1);
+        var postcodeNum2 = Battery.toPostcodeNum(postcode2);
+        if (postcodeNum1 != null && postcodeNum2 != null) {
+            if (postcodeNum1 > postcodeNum2) {
+                return List.of();
+            }
+            return byPostcodeNum.subMap(postcodeNum1, true, postcodeNum2, true).values().stream()
+                    .flatMap(List::stream)
+                    .toList();
+        }
+        if (postcode1.compareTo(postcode2) > 0) {
+            return List.of();
+        }
+        return byPostcode.subMap(postcode1, true, postcode2, true).values();
+    }
+
+    /**
+     * Selects the first batteries by name matching a filter, keeping them in a bounded max heap
+     */
+    private static List<Battery> firstByName(Collection<PostcodeBatteries> entries, Predicate<Battery> filter,
+                                             int limit) {
+        var heap = new PriorityQueue<Battery>(NAME_ORDER.reversed());
+        for (var entry : entries) {
+            for (var battery : entry.batteries.values()) {
+                if (!filter.test(battery)) {
+                    continue;
+                }
+                if (heap.size() < limit) {
+                    heap.add(battery);
+                } else if (NAME_ORDER.compare(battery, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(battery);
+                }
+            }
+        }
+        var first = new ArrayList<>(heap);
+        first.sort(NAME_ORDER);
+        return first;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * Batteries of a single postcode with their total watt capacity
+     */
+    private static class PostcodeBatteries {
+        //By name, in the order of the log
+        final Map<String, Battery> batteries = new LinkedHashMap<>();
+        double totalWattCapacity;
+    }
+}
@@ -0,0 +1,43 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.PostcodeRollup;
+import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.Optional;
+
+/**
+ * Mongo repository to operate on {@link PostcodeRollup}
+ */
+public interface PostcodeRollupRepository extends MongoRepository<PostcodeRollup, String>, PostcodeRollupRepositoryCustom {
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries in a given range of numeric postcodes from
+     * the per postcode rollups, touching one document per postcode instead of one per battery
+     *
+     * @param postcodeNum1 numeric value of the start postcode of the range
+     * @param postcodeNum2 numeric value of the end postcode of the range
+     * @return {@link BatteryStatisticsDto} object containing the total watt capacity and total number of batteries
+     */
+    @Aggregation(pipeline = {
+            "{$match: {'postcodeNum' : { $gte: ?0, $lte: ?1 } }}",
+            "{$group: { _id: '', totalWattCapacity: {$sum: $totalWattCapacity}, batteryCount: {$sum: $batteryCount}}}"
+    })
+    Optional<BatteryStatisticsDto> findStatisticsWithinPostcodeNumRange(long postcodeNum1, long postcodeNum2);
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries in a given post code range from the
+     * per postcode rollups, touching one document per postcode instead of one per battery,
+     * comparing postcodes character by character
+     *
+     * @param postcode1 start postcode of the range
+     * @param postcode2 end postcode of the range
+     * @return {@link BatteryStatisticsDto} object containing the total watt capacity and total number of batteries
+     */
+    @Aggregation(pipeline = {
+            "{$match: {'_id' : { $gte: ?0, $lte: ?1 } }}",
+            "{$group: { _id: '', totalWattCapacity: {$sum: $totalWattCapacity}, batteryCount: {$sum: $batteryCount}}}"
+    })
+    Optional<BatteryStatisticsDto> findStatisticsWithinPostcodeRange(String postcode1, String postcode2);
+}
@@ -0,0 +1,61 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.model.PostcodeRollup;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * Custom operations on {@link PostcodeRollup} which cannot be expressed as derived or annotated queries
+ */
+public interface PostcodeRollupRepositoryCustom {
+
+    /**
+     * Add the given watt capacities and battery counts to the rollups of their postcodes in a single unordered bulk
+     * write, creating the rollups of postcodes which do not have one yet
+     *
+     * @param increments amounts to add, one per postcode
+     */
+    void incrementAll(Collection<PostcodeRollup> increments);
+
+    /**
+     * Recompute every rollup from the battery collection and replace the existing rollups with the result
+     */
+    void rebuildAll();
+
+    /**
+     * Recompute the rollups of the given postcodes from the battery collection, replacing their current values and
+     * deleting the rollups of the postcodes without batteries
+     *
+     * @param postcodes postcodes whose rollups are recomputed
+     */
+    void rebuild(Collection<String> postcodes);
+
+    /**
+     * Takes or extends the lease on the rollups, held by the single instance allowed to maintain them. The lease is
+     * granted if it is free, expired or already held by the same owner
+     *
+     * @param owner id of the instance asking for the lease
+     * @param ttl   time after which the lease expires unless extended again
+     * @return true if the lease is held by {@code owner} until {@code ttl} from now, false if another owner holds it
+     */
+    boolean acquireLease(String owner, Duration ttl);
+
+    /**
+     * Sets the numeric postcode of the rollups of numeric postcodes created before the field was introduced
+     *
+     * @return number of rollups updated
+     */
+    long backfillPostcodeNums();
+
+    /**
+     * Explains an aggregation of {@link PostcodeRollupRepository} with execution statistics. The aggregation is run
+     * to completion to collect the statistics
+     *
+     * @param method    name of the {@link PostcodeRollupRepository} aggregation method
+     * @param arguments arguments of the aggregation call to explain
+     * @return the explain output
+     */
+    Document explainAggregation(String method, Object... arguments);
+}
@@ -0,0 +1,129 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.model.PostcodeRollup;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of {@link PostcodeRollupRepositoryCustom}
+ */
+public class PostcodeRollupRepositoryCustomImpl implements PostcodeRollupRepositoryCustom {
+    //Collection holding the lease on the rollups, a single document naming its owner and when it expires
+    private static final String LEASE_COLLECTION = "postcode_rollup_lease";
+    private static final String LEASE_ID = "rollups";
+
+    private final MongoTemplate mongoTemplate;
+
+    public PostcodeRollupRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void incrementAll(Collection<PostcodeRollup> increments) {
+        if (increments.isEmpty()) {
+            return;
+        }
+        var bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, PostcodeRollup.class);
+        increments.forEach(increment -> {
+            var update = new Update()
+                    .inc("totalWattCapacity", increment.getTotalWattCapacity())
+                    .inc("batteryCount", increment.getBatteryCount());
+            if (increment.getPostcodeNum() != null) {
+                update.set("postcodeNum", increment.getPostcodeNum());
+            }
+            bulkOperations.upsert(Query.query(Criteria.where("_id").is(increment.getPostcode())), update);
+        });
+        bulkOperations.execute();
+    }
+
+    @Override
+    public void rebuildAll() {
+        //$out writes to a temporary collection and renames it over the rollup collection once the aggregation has
+        //completed, so readers never see a partial rebuild
+        var aggregation = Aggregation.newAggregation(
+                        rollupStage(),
+                        Aggregation.out(mongoTemplate.getCollectionName(PostcodeRollup.class)))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).skipOutput().build());
+        mongoTemplate.aggregate(aggregation, Battery.class, Document.class);
+    }
+
+    @Override
+    public void rebuild(Collection<String> postcodes) {
+        if (postcodes.isEmpty()) {
+            return;
+        }
+        var aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("postcode").in(postcodes)),
+                rollupStage());
+        var rollups = mongoTemplate.aggregate(aggregation, Battery.class, PostcodeRollup.class).getMappedResults();
+        var bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, PostcodeRollup.class);
+        rollups.forEach(rollup -> bulkOperations.replaceOne(
+                Query.query(Criteria.where("_id").is(rollup.getPostcode())), rollup,
+                FindAndReplaceOptions.options().upsert()));
+        var rebuilt = rollups.stream().map(PostcodeRollup::getPostcode).collect(Collectors.toSet());
+        var emptied = postcodes.stream().filter(postcode -> !rebuilt.contains(postcode)).toList();
+        if (!emptied.isEmpty()) {
+            bulkOperations.remove(Query.query(Criteria.where("_id").in(emptied)));
+        }
+        bulkOperations.execute();
+    }
+
+    private static AggregationOperation rollupStage() {
+        return Aggregation.group("postcode")
+                .first("postcodeNum").as("postcodeNum")
+                .sum("wattCapacity").as("totalWattCapacity")
+                .count().as("batteryCount");
+    }
+
+    @Override
+    public boolean acquireLease(String owner, Duration ttl) {
+        var now = Instant.now();
+        var query = Query.query(Criteria.where("_id").is(LEASE_ID).orOperator(
+                Criteria.where("owner").is(owner),
+                Criteria.where("expiresAt").lt(Date.from(now))));
+        var update = new Update()
+                .set("owner", owner)
+                .set("expiresAt", Date.from(now.plus(ttl)));
+        try {
+            mongoTemplate.upsert(query, update, LEASE_COLLECTION);
+            return true;
+        } catch (DuplicateKeyException e) {
+            //The lease exists but is held by another owner, so the upsert tried to insert a second one
+            return false;
+        }
+    }
+
+    @Override
+    public long backfillPostcodeNums() {
+        //Rollups rebuilt before the batteries were migrated hold a null numeric postcode
+        var query = Query.query(Criteria.where("postcodeNum").is(null)
+                .and("_id").regex(Battery.NUMERIC_POSTCODE_PATTERN));
+        var update = AggregationUpdate.update()
+                .set("postcodeNum").toValue(ConvertOperators.valueOf("_id").convertToLong());
+        return mongoTemplate.updateMulti(query, update, PostcodeRollup.class).getModifiedCount();
+    }
+
+    @Override
+    public Document explainAggregation(String method, Object... arguments) {
+        return AggregationExplainer.explain(mongoTemplate, PostcodeRollupRepository.class,
+                mongoTemplate.getCollectionName(PostcodeRollup.class), method, arguments);
+    }
+}
@@ -0,0 +1,75 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive Mongo repository to operate on {@link Battery}, used by the reactive variant of the API
+ */
+public interface ReactiveBatteryRepository extends ReactiveMongoRepository<Battery, String>,
+        ReactiveBatteryRepositoryCustom {
+
+    /**
+     * Returns the first batteries within a given range of numeric postcodes ordered by name ASC
+     *
+     * @param postcodeNum1 numeric value of the start postcode of the range
+     * @param postcodeNum2 numeric value of the end postcode of the range
+     * @param limit        maximum number of batteries to return
+     * @return a {@link Flux} of {@link Battery} with only their name
+     */
+    @Aggregation(pipeline = {
+            "{ '$match': {'postcodeNum' : { $gte: ?0, $lte: ?1 } } }",
+            "{ '$sort' : {'lowercaseName' : 1} }",
+            "{ '$limit' : ?2 }",
+            "{ '$project' : {'_id' : 0, 'name' : 1} }"
+    })
+    Flux<Battery> findNamesWithinPostcodeNumRange(long postcodeNum1, long postcodeNum2, int limit);
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries in a given range of numeric postcodes
+     *
+     * @param postcodeNum1 numeric value of the start postcode of the range
+     * @param postcodeNum2 numeric value of the end postcode of the range
+     * @return a {@link Mono} of {@link BatteryStatisticsDto}, empty if there are no batteries in the range
+     */
+    @Aggregation(pipeline = {
+            "{$match: {'postcodeNum' : { $gte: ?0, $lte: ?1 } }}",
+            "{$group: { _id: '', totalWattCapacity: {$sum: $wattCapacity}, batteryCount: {$sum: 1}}}"
+    })
+    Mono<BatteryStatisticsDto> findTotalWattCapacityWithinPostcodeNumRange(long postcodeNum1, long postcodeNum2);
+
+    /**
+     * Returns the first batteries within a given post code range ordered by name ASC, comparing postcodes character
+     * by character
+     *
+     * @param postcode1 start postcode of the range
+     * @param postcode2 end postcode of the range
+     * @param limit     maximum number of batteries to return
+     * @return a {@link Flux} of {@link Battery} with only their id and name
+     */
+    @Aggregation(pipeline = {
+            "{ '$match': {'postcode' : { $gte: ?0, $lte: ?1 } } }",
+            "{ '$sort' : {'lowercaseName' : 1} }",
+            "{ '$limit' : ?2 }",
+            "{ '$project' : {'name' : 1} }"
+    })
+    Flux<Battery> findNamesWithinPostcodeRange(String postcode1, String postcode2, int limit);
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries in a given post code range, comparing
+     * postcodes character by character
+     *
+     * @param postcode1 start postcode of the range
+     * @param postcode2 end postcode of the range
+     * @return a {@link Mono} of {@link BatteryStatisticsDto}, empty if there are no batteries in the range
+     */
+    @Aggregation(pipeline = {
+            "{$match: {'postcode' : { $gte: ?0, $lte: ?1 } }}",
+            "{$group: { _id: '', totalWattCapacity: {$sum: $wattCapacity}, batteryCount: {$sum: 1}}}"
+    })
+    Mono<BatteryStatisticsDto> findTotalWattCapacityWithinPostcodeRange(String postcode1, String postcode2);
+}
@@ -0,0 +1,30 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.model.Battery;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Custom reactive operations on {@link Battery} which cannot be expressed as derived or annotated queries
+ */
+public interface ReactiveBatteryRepositoryCustom {
+
+    /**
+     * Save a list of batteries by their natural key in a single unordered bulk write of upserts, like
+     * {@link BatteryRepositoryCustom#upsertUnordered}
+     *
+     * @param batteries batteries to save
+     * @return a {@link Mono} of the batteries which were already stored and the batteries which could not be saved
+     */
+    Mono<BatteryUpsertResult> upsertUnordered(List<Battery> batteries);
+
+    /**
+     * Sets the id and watt capacity of each battery to those of the stored battery with the same name and postcode,
+     * like {@link BatteryRepositoryCustom#loadStored}
+     *
+     * @param batteries batteries to update
+     * @return a {@link Mono} completing once the batteries are updated
+     */
+    Mono<Void> loadStored(List<Battery> batteries);
+}
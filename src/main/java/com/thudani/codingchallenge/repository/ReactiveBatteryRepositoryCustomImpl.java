@@ -0,0 +1,73 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.model.Battery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Implementation of {@link ReactiveBatteryRepositoryCustom}
+ */
+public class ReactiveBatteryRepositoryCustomImpl implements ReactiveBatteryRepositoryCustom {
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveBatteryRepositoryCustomImpl.class);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    //The write sequence is only read by the snapshot, so writes do not maintain it while the snapshot is disabled
+    private final boolean writeSequenceEnabled;
+
+    public ReactiveBatteryRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate,
+                                               @Value("${battery.snapshot.enabled:false}") boolean writeSequenceEnabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.writeSequenceEnabled = writeSequenceEnabled;
+    }
+
+    @Override
+    public Mono<BatteryUpsertResult> upsertUnordered(List<Battery> batteries) {
+        if (batteries.isEmpty()) {
+            return Mono.just(BatteryUpsertResult.EMPTY);
+        }
+        BatteryUpserts.assignIds(batteries);
+        var bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Battery.class);
+        batteries.forEach(battery -> bulkOperations.upsert(BatteryUpserts.naturalKey(battery),
+                BatteryUpserts.insertOnly(battery, mongoTemplate.getConverter())));
+        return bulkOperations.execute()
+                .map(result -> BatteryUpserts.toResult(batteries.size(), result, List.of()))
+                //A failure without write errors failed on the write concern, which does not tell which batteries have
+                //been saved
+                .onErrorResume(BulkOperationException.class, e -> e.getErrors().isEmpty() ? Mono.error(e)
+                        : Mono.just(BatteryUpserts.toResult(batteries.size(), e.getResult(), e.getErrors())))
+                .flatMap(result -> incrementWriteSequence().thenReturn(result));
+    }
+
+    /**
+     * Increments the write sequence after a write has completed. A failed increment is logged rather than signalled,
+     * as the write itself has been made
+     */
+    private Mono<Void> incrementWriteSequence() {
+        if (!writeSequenceEnabled) {
+            return Mono.empty();
+        }
+        return mongoTemplate.upsert(BatteryUpserts.writeSequence(), BatteryUpserts.nextWriteSequence(),
+                        BatteryUpserts.WRITE_SEQUENCE_COLLECTION)
+                .doOnError(e -> logger.warn("Battery write sequence could not be incremented", e))
+                .onErrorComplete()
+                .then();
+    }
+
+    @Override
+    public Mono<Void> loadStored(List<Battery> batteries) {
+        if (batteries.isEmpty()) {
+            return Mono.empty();
+        }
+        return mongoTemplate.find(BatteryUpserts.withNaturalKeys(batteries), Battery.class)
+                .collectList()
+                .doOnNext(stored -> BatteryUpserts.copyStored(batteries, stored))
+                .then();
+    }
+}
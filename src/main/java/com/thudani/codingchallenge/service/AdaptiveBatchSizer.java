@@ -0,0 +1,103 @@
+package com.thudani.codingchallenge.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sizes battery write batches from the observed write latency and document size.
+ * The batch size grows while batches complete well within the target latency and is halved as soon as a batch
+ * exceeds it, always staying within the configured bounds and under the configured number of bytes per batch.
+ */
+@Component
+public class AdaptiveBatchSizer {
+    private static final double GROWTH_FACTOR = 1.25;
+    private static final double FAST_BATCH_RATIO = 0.5;
+    //Weight of the latest batch in the moving average of the document size
+    private static final double DOCUMENT_SIZE_WEIGHT = 0.2;
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatencyNanos;
+    private final long maxBatchBytes;
+    private final AtomicInteger batchSize;
+    private final AtomicLong averageDocumentBytes = new AtomicLong();
+    private final Timer batchLatency;
+    private final DistributionSummary batchSizes;
+
+    public AdaptiveBatchSizer(@Value("${battery.ingest.batch.min-size:100}") int minBatchSize,
+                              @Value("${battery.ingest.batch.max-size:10000}") int maxBatchSize,
+                              @Value("${battery.ingest.batch.initial-size:300}") int initialBatchSize,
+                              @Value("${battery.ingest.batch.target-latency-ms:250}") long targetLatencyMillis,
+                              @Value("${battery.ingest.batch.max-bytes:8388608}") long maxBatchBytes,
+                              MeterRegistry meterRegistry) {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("Batch size bounds must satisfy 1 <= min-size <= max-size");
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.maxBatchBytes = maxBatchBytes;
+        this.batchSize = new AtomicInteger(clamp(initialBatchSize));
+        Gauge.builder("battery.ingest.batch.size.current", batchSize, AtomicInteger::get)
+                .description("Number of batteries the next write batch will contain")
+                .register(meterRegistry);
+        this.batchLatency = Timer.builder("battery.ingest.batch.latency")
+                .description("Time taken to write a batch of batteries")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("battery.ingest.batch.size")
+                .description("Number of batteries in a written batch")
+                .baseUnit("batteries")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the size of the next batch to write
+     *
+     * @return number of batteries to put in the next batch
+     */
+    public int nextBatchSize() {
+        var size = batchSize.get();
+        var documentBytes = averageDocumentBytes.get();
+        if (documentBytes > 0) {
+            size = (int) Math.min(size, Math.max(1, maxBatchBytes / documentBytes));
+        }
+        return size;
+    }
+
+    /**
+     * Records a completed batch write and adapts the batch size accordingly
+     *
+     * @param size         number of batteries in the batch
+     * @param bytes        estimated size of the batch documents in bytes
+     * @param latencyNanos time taken to write the batch
+     */
+    public void recordBatch(int size, long bytes, long latencyNanos) {
+        if (size <= 0) {
+            return;
+        }
+        batchLatency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        batchSizes.record(size);
+        var documentBytes = Math.max(1, bytes / size);
+        averageDocumentBytes.updateAndGet(average -> average == 0
+                ? documentBytes
+                : Math.round(average + DOCUMENT_SIZE_WEIGHT * (documentBytes - average)));
+        if (latencyNanos > targetLatencyNanos) {
+            batchSize.updateAndGet(current -> clamp(current / 2));
+        } else if (latencyNanos < targetLatencyNanos * FAST_BATCH_RATIO && size >= batchSize.get()) {
+            //Only full sized batches tell us anything about whether a bigger batch would still be fast
+            batchSize.updateAndGet(current -> clamp((int) Math.ceil(current * GROWTH_FACTOR)));
+        }
+    }
+
+    private int clamp(int size) {
+        return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+}
@@ -0,0 +1,154 @@
+package com.thudani.codingchallenge.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs battery batch writes on a shared bounded thread pool so that a single save request can keep several batches in
+ * flight at once. Results are handed back on the calling thread in submission order, which keeps the saved batteries in
+ * input order. When the pool queue is full the submitting thread runs the write itself, which throttles producers.
+ */
+@Component
+public class BatchWritePipeline {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final int maxInFlightBatches;
+    private final ThreadPoolExecutor executor;
+
+    public BatchWritePipeline(@Value("${battery.ingest.pipeline.max-in-flight-batches:4}") int maxInFlightBatches,
+                              @Value("${battery.ingest.pipeline.threads:8}") int threads,
+                              @Value("${battery.ingest.pipeline.queue-capacity:32}") int queueCapacity) {
+        this.maxInFlightBatches = Math.max(1, maxInFlightBatches);
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new WriterThreadFactory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Opens a window of in-flight batch writes for a single request
+     *
+     * @param <T> result type of a batch write
+     * @return a new {@link Window}, which must be closed once the request is done with it
+     */
+    public <T> Window<T> open() {
+        return new Window<>();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * In-order window of the batch writes of a single request. A window is not thread safe and must only be used from
+     * the thread which opened it
+     *
+     * @param <T> result type of a batch write
+     */
+    public class Window<T> implements AutoCloseable {
+        private final Deque<InFlightBatch<T>> inFlight = new ArrayDeque<>();
+
+        private Window() {
+        }
+
+        /**
+         * Submits a batch write, first waiting for the oldest write if the window is already full
+         *
+         * @param write      the batch write
+         * @param onComplete callback receiving the result of the write, invoked on the calling thread in submission order
+         */
+        public void submit(Callable<T> write, Consumer<T> onComplete) {
+            if (maxInFlightBatches == 1) {
+                onComplete.accept(await(new InFlightBatch<>(executeInline(write), onComplete)));
+                return;
+            }
+            while (inFlight.size() >= maxInFlightBatches) {
+                completeOldest();
+            }
+            inFlight.add(new InFlightBatch<>(executor.submit(write), onComplete));
+        }
+
+        /**
+         * Waits for all the in-flight writes and invokes their callbacks in submission order
+         */
+        public void drain() {
+            while (!inFlight.isEmpty()) {
+                completeOldest();
+            }
+        }
+
+        private void completeOldest() {
+            var oldest = inFlight.poll();
+            oldest.onComplete().accept(await(oldest));
+        }
+
+        /**
+         * Waits for any write still in flight without invoking its callback, so that no write outlives the request
+         */
+        @Override
+        public void close() {
+            while (!inFlight.isEmpty()) {
+                try {
+                    inFlight.poll().future().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    //The request has already failed, so failures of the remaining writes are not reported
+                }
+            }
+        }
+    }
+
+    private static <T> Future<T> executeInline(Callable<T> write) {
+        var task = new FutureTask<>(write);
+        task.run();
+        return task;
+    }
+
+    private static <T> T await(InFlightBatch<T> batch) {
+        try {
+            return batch.future().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a battery batch write", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException("Battery batch write failed", e.getCause());
+        }
+    }
+
+    private record InFlightBatch<T>(Future<T> future, Consumer<T> onComplete) {
+    }
+
+    private static class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var thread = new Thread(runnable, "battery-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Immutable columnar copy of the batteries with a numeric postcode, sorted by postcode value.
+ * The postcode values, watt capacities and name ordinals are primitive columns in direct buffers outside the Java
+ * heap, so a range query is a binary search followed by a sequential scan without any allocation per battery.
+ * Name ordinals are ranks in the name dictionary, which is ordered like the search results by lowercase name.
+ * Direct buffers are only released once collected, so a build reuses the buffers of columns no longer searched rather
+ * than allocating new ones every time.
+ */
+final class BatteryColumns {
+    private static final Comparator<String> NAME_ORDER =
+            Comparator.comparing((String name) -> name.toLowerCase()).thenComparing(Comparator.naturalOrder());
+
+    //Declared after NAME_ORDER, which building it uses
+    static final BatteryColumns EMPTY = new Builder(0, null).build();
+
+    //Most rows a column can hold, as the bytes of the long column are indexed by an int
+    static final int MAX_ROWS = Integer.MAX_VALUE / Long.BYTES;
+
+    private final int size;
+    private final LongBuffer postcodeNums;
+    private final DoubleBuffer wattCapacities;
+    private final IntBuffer nameOrdinals;
+    private final String[] names;
+    //Searches in progress, or -1 once the buffers have been reclaimed by a build
+    private final AtomicInteger searches = new AtomicInteger();
+
+    private BatteryColumns(int size, LongBuffer postcodeNums, DoubleBuffer wattCapacities, IntBuffer nameOrdinals,
+                           String[] names) {
+        this.size = size;
+        this.postcodeNums = postcodeNums;
+        this.wattCapacities = wattCapacities;
+        this.nameOrdinals = nameOrdinals;
+        this.names = names;
+    }
+
+    private static ByteBuffer allocate(int size, int bytes) {
+        return ByteBuffer.allocateDirect(Math.multiplyExact(size, bytes)).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Registers a search of the columns, which must be released once done
+     *
+     * @return false if the buffers have been reclaimed by a build and must not be searched anymore
+     */
+    boolean acquire() {
+        return searches.getAndUpdate(count -> count < 0 ? count : count + 1) >= 0;
+    }
+
+    /**
+     * Ends a search registered by {@link #acquire()}
+     */
+    void release() {
+        searches.decrementAndGet();
+    }
+
+    /**
+     * Hands the buffers over to a build unless a search is in progress, after which the columns cannot be searched
+     */
+    private boolean reclaim() {
+        return searches.compareAndSet(0, -1);
+    }
+
+    /**
+     * Writes batteries already ordered by postcode value straight into the columns, one row at a time, so that only
+     * the distinct names are held on the Java heap while the columns are built. The columns are sized from the
+     * expected number of rows with an eighth of headroom, so that later builds can reuse them while the batteries
+     * grow, and only grow by doubling when more rows are added than expected
+     */
+    static final class Builder {
+        private int size;
+        private LongBuffer postcodeNums;
+        private DoubleBuffer wattCapacities;
+        //Ordinals in the order the names were first added, ranked by name when the columns are built
+        private IntBuffer nameOrdinals;
+        private final Map<String, Integer> addedOrdinals = new HashMap<>();
+
+        /**
+         * @param rows      number of rows expected
+         * @param reusable  columns no longer served, whose buffers are reused if they can hold the expected rows
+         *                  without wasting more than their headroom and no search is in progress, or null
+         */
+        Builder(int rows, BatteryColumns reusable) {
+            var capacity = (int) Math.min(MAX_ROWS, rows + rows / 8L);
+            var reusableCapacity = reusable == null ? 0 : reusable.postcodeNums.capacity();
+            if (rows > 0 && rows <= reusableCapacity && reusableCapacity <= 2L * capacity && reusable.reclaim()) {
+                postcodeNums = reusable.postcodeNums.clear();
+                wattCapacities = reusable.wattCapacities.clear();
+                nameOrdinals = reusable.nameOrdinals.clear();
+            } else {
+                allocateColumns(capacity);
+            }
+        }
+
+        /**
+         * Adds a battery after the batteries already added. Batteries without a name, a numeric postcode or a watt
+         * capacity are left out
+         *
+         * @param battery a battery with a postcode value greater than or equal to those of the batteries already added
+         * @return this builder
+         */
+        Builder add(Battery battery) {
+            var postcodeNum = battery.getPostcodeNum();
+            if (postcodeNum == null || battery.getName() == null || battery.getWattCapacity() == null) {
+                return this;
+            }
+            if (size > 0 && postcodeNum < postcodeNums.get(size - 1)) {
+                throw new IllegalArgumentException("Batteries must be added ordered by postcode value");
+            }
+            if (size == postcodeNums.capacity()) {
+                if (size == MAX_ROWS) {
+                    throw new IllegalStateException("Battery columns cannot hold more than " + MAX_ROWS + " batteries");
+                }
+                resize((int) Math.min(MAX_ROWS, Math.max(16, size * 2L)));
+            }
+            postcodeNums.put(size, postcodeNum);
+            wattCapacities.put(size, battery.getWattCapacity());
+            nameOrdinals.put(size, addedOrdinals.computeIfAbsent(battery.getName(), name -> addedOrdinals.size()));
+            size++;
+            return this;
+        }
+
+        /**
+         * Ranks the names by lowercase name and replaces the ordinals of the rows by the ranks of their names
+         *
+         * @return the columns holding the added batteries
+         */
+        BatteryColumns build() {
+            var names = addedOrdinals.keySet().stream().sorted(NAME_ORDER).toArray(String[]::new);
+            var ranks = new int[names.length];
+            for (var rank = 0; rank < names.length; rank++) {
+                ranks[addedOrdinals.get(names[rank])] = rank;
+            }
+            for (var row = 0; row < size; row++) {
+                nameOrdinals.put(row, ranks[nameOrdinals.get(row)]);
+            }
+            return new BatteryColumns(size, postcodeNums, wattCapacities, nameOrdinals, names);
+        }
+
+        private void allocateColumns(int capacity) {
+            postcodeNums = allocate(capacity, Long.BYTES).asLongBuffer();
+            wattCapacities = allocate(capacity, Double.BYTES).asDoubleBuffer();
+            nameOrdinals = allocate(capacity, Integer.BYTES).asIntBuffer();
+        }
+
+        private void resize(int capacity) {
+            var oldPostcodeNums = postcodeNums.limit(size).position(0);
+            var oldWattCapacities = wattCapacities.limit(size).position(0);
+            var oldNameOrdinals = nameOrdinals.limit(size).position(0);
+            allocateColumns(capacity);
+            postcodeNums.put(oldPostcodeNums).clear();
+            wattCapacities.put(oldWattCapacities).clear();
+            nameOrdinals.put(oldNameOrdinals).clear();
+        }
+    }
+
+    /**
+     * Finds the first batteries ordered by lowercase name and the statistics of a range of numeric postcodes
+     *
+     * @param postcodeNum1 numeric value of the start postcode of the range
+     * @param postcodeNum2 numeric value of the end postcode of the range
+     * @param limit        maximum number of batteries to return
+     * @param combiner     combines the batteries (names only) and the statistics, empty if there are no batteries
+     * @param <R>          type of the combined result
+     * @return the combined result
+     */
+    <R> R search(long postcodeNum1, long postcodeNum2, int limit,
+                 BiFunction<List<Battery>, Optional<BatteryStatisticsDto>, R> combiner) {
+        var from = firstAtOrAfter(postcodeNum1);
+        var to = firstAtOrAfter(postcodeNum2 + 1);
+        if (from >= to) {
+            return combiner.apply(List.of(), Optional.empty());
+        }
+        var totalWattCapacity = 0.0;
+        for (var row = from; row < to; row++) {
+            totalWattCapacity += wattCapacities.get(row);
+        }
+        var statistics = BatteryStatisticsDto.builder()
+                .totalWattCapacity(totalWattCapacity)
+                .batteryCount((long) (to - from))
+                .build();
+        var batteries = Arrays.stream(smallestOrdinals(from, to, limit))
+                .mapToObj(ordinal -> Battery.builder().name(names[ordinal]).build())
+                .toList();
+        return combiner.apply(batteries, Optional.of(statistics));
+    }
+
+    /**
+     * Selects the smallest name ordinals of a slice of rows, keeping them in a bounded max heap
+     */
+    private int[] smallestOrdinals(int from, int to, int limit) {
+        var heap = new int[Math.min(limit, to - from)];
+        var heapSize = 0;
+        for (var row = from; row < to; row++) {
+            var ordinal = nameOrdinals.get(row);
+            if (heapSize < heap.length) {
+                heap[heapSize] = ordinal;
+                siftUp(heap, heapSize++);
+            } else if (ordinal < heap[0]) {
+                heap[0] = ordinal;
+                siftDown(heap, heapSize);
+            }
+        }
+        Arrays.sort(heap, 0, heapSize);
+        return heapSize == heap.length ? heap : Arrays.copyOf(heap, heapSize);
+    }
+
+    private static void siftUp(int[] heap, int index) {
+        while (index > 0 && heap[(index - 1) / 2] < heap[index]) {
+            swap(heap, index, (index - 1) / 2);
+            index = (index - 1) / 2;
+        }
+    }
+
+    private static void siftDown(int[] heap, int heapSize) {
+        var index = 0;
+        while (true) {
+            var largest = index;
+            for (var child = 2 * index + 1; child <= 2 * index + 2 && child < heapSize; child++) {
+                if (heap[child] > heap[largest]) {
+                    largest = child;
+                }
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(heap, index, largest);
+            index = largest;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        var value = heap[a];
+        heap[a] = heap[b];
+        heap[b] = value;
+    }
+
+    private int firstAtOrAfter(long postcodeNum) {
+        var low = 0;
+        var high = size;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (postcodeNums.get(middle) < postcodeNum) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return number of batteries in the columns
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of bytes held outside the Java heap, headroom included
+     */
+    long offHeapBytes() {
+        return (long) postcodeNums.capacity() * (Long.BYTES + Double.BYTES + Integer.BYTES);
+    }
+}
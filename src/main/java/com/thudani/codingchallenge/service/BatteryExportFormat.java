@@ -0,0 +1,40 @@
+package com.thudani.codingchallenge.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+
+/**
+ * Formats in which batteries can be exported
+ */
+public enum BatteryExportFormat {
+    NDJSON(MediaType.APPLICATION_NDJSON),
+    CSV(new MediaType("text", "csv"));
+
+    private final MediaType mediaType;
+
+    BatteryExportFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Returns the format of a given name, ignoring case
+     *
+     * @param name name of the format
+     * @return the format
+     * @throws ResponseStatusException if there is no format of the given name
+     */
+    public static BatteryExportFormat fromName(String name) {
+        return Arrays.stream(values())
+                .filter(format -> format.name().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Export format must be one of " + Arrays.toString(values())));
+    }
+}
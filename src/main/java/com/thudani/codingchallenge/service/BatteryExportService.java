@@ -0,0 +1,20 @@
+package com.thudani.codingchallenge.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Service interface for exporting batteries
+ */
+public interface BatteryExportService {
+
+    /**
+     * Export every battery falling within a given range of postcodes. The batteries are read from a DB cursor while
+     * the response is being written, so the result set is never held in memory
+     *
+     * @param postcode1 first postcode of the range
+     * @param postcode2 second postcode of the range
+     * @param format    format to write the batteries in
+     * @return a {@link StreamingResponseBody} writing the batteries ordered by postcode and name
+     */
+    StreamingResponseBody exportBatteries(String postcode1, String postcode2, BatteryExportFormat format);
+}
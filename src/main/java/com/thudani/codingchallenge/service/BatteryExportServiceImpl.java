@@ -0,0 +1,112 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Implementation of {@link BatteryExportService}
+ */
+@Service
+@Profile("!mapped-storage")
+public class BatteryExportServiceImpl implements BatteryExportService {
+    private static final Logger logger = LoggerFactory.getLogger(BatteryExportServiceImpl.class);
+    private static final String CSV_HEADER = "id,name,postcode,wattCapacity";
+
+    private final BatteryRepository batteryRepository;
+    private final ObjectMapper objectMapper;
+    private final int fetchSize;
+
+    public BatteryExportServiceImpl(BatteryRepository batteryRepository, ObjectMapper objectMapper,
+                                    @Value("${battery.export.fetch-size:1000}") int fetchSize) {
+        this.batteryRepository = batteryRepository;
+        this.objectMapper = objectMapper;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public StreamingResponseBody exportBatteries(String postcode1, String postcode2, BatteryExportFormat format) {
+        var range = PostcodeRange.of(postcode1, postcode2);
+        return outputStream -> {
+            try (var batteries = batteryRepository.streamWithinPostcodeRange(range.postcode1(), range.postcode2(), fetchSize)) {
+                var count = switch (format) {
+                    case NDJSON -> writeNdjson(batteries.iterator(), outputStream);
+                    case CSV -> writeCsv(batteries.iterator(), outputStream);
+                };
+                logger.info("Exported {} batteries within {}", count, range);
+            }
+        };
+    }
+
+    private long writeNdjson(Iterator<Battery> batteries, OutputStream outputStream) throws IOException {
+        var writer = objectMapper.writerFor(BatteryDto.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        long count = 0;
+        try (var generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            //Records are separated by the new lines written after each of them instead of the default space
+            generator.setRootValueSeparator(null);
+            while (batteries.hasNext()) {
+                writer.writeValue(generator, toBatteryDto(batteries.next()));
+                generator.writeRaw('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private long writeCsv(Iterator<Battery> batteries, OutputStream outputStream) throws IOException {
+        long count = 0;
+        var writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.write(CSV_HEADER);
+        writer.write("\r\n");
+        while (batteries.hasNext()) {
+            var battery = batteries.next();
+            writer.write(battery.getId());
+            writer.write(',');
+            writer.write(csvField(battery.getName()));
+            writer.write(',');
+            writer.write(csvField(battery.getPostcode()));
+            writer.write(',');
+            writer.write(String.valueOf(battery.getWattCapacity()));
+            writer.write("\r\n");
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Quotes a CSV field if it contains a separator, a quote or a line break, as described in RFC 4180
+     */
+    private static String csvField(String value) {
+        if (value.chars().noneMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r')) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static BatteryDto toBatteryDto(Battery battery) {
+        return BatteryDto.builder()
+                .id(battery.getId())
+                .name(battery.getName())
+                .postcode(battery.getPostcode())
+                .wattCapacity(battery.getWattCapacity())
+                .build();
+    }
+}
@@ -0,0 +1,205 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.dto.BatteryDto;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental reader of batteries from either a newline delimited JSON (NDJSON) stream or a JSON array.
+ * Only a single record is held in memory at a time regardless of the size of the stream. An NDJSON line longer than
+ * {@link #MAX_LINE_LENGTH} characters is rejected without being held in memory.
+ */
+class BatteryRecordReader implements Closeable {
+    static final int MAX_LINE_LENGTH = 1024 * 1024;
+    private static final int READ_BUFFER_CHARS = 8 * 1024;
+
+    /**
+     * A single record read from the stream
+     *
+     * @param position line number (NDJSON) or 1-based element position (JSON array) of the record
+     * @param battery  the parsed battery, or null if the record is not valid JSON
+     */
+    record BatteryRecord(long position, BatteryDto battery) {
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Reader lineReader;
+    private final JsonParser arrayParser;
+    private long position;
+    private boolean finished;
+
+    //NDJSON characters read from the stream but not consumed yet, between readStart and readEnd
+    private final char[] readBuffer;
+    private int readStart;
+    private int readEnd;
+    //Whether the last line ended with a carriage return, so that a line feed right after it is part of the same break
+    private boolean afterCarriageReturn;
+    //The line being read, left empty once it is longer than MAX_LINE_LENGTH
+    private final StringBuilder line = new StringBuilder();
+    private boolean lineTooLong;
+
+    private BatteryRecordReader(ObjectMapper objectMapper, Reader lineReader, JsonParser arrayParser) {
+        this.objectMapper = objectMapper;
+        this.lineReader = lineReader;
+        this.arrayParser = arrayParser;
+        this.readBuffer = lineReader != null ? new char[READ_BUFFER_CHARS] : null;
+    }
+
+    /**
+     * Opens a reader on the given stream, detecting whether it contains a JSON array or NDJSON
+     *
+     * @param inputStream  stream to read the batteries from
+     * @param objectMapper mapper used to bind each record to a {@link BatteryDto}
+     * @return a reader positioned before the first record
+     * @throws IOException if the stream cannot be read
+     */
+    static BatteryRecordReader open(InputStream inputStream, ObjectMapper objectMapper) throws IOException {
+        var bufferedStream = new BufferedInputStream(inputStream);
+        if (firstNonWhitespace(bufferedStream) == '[') {
+            var parser = objectMapper.getFactory().createParser(bufferedStream);
+            parser.nextToken();
+            return new BatteryRecordReader(objectMapper, null, parser);
+        }
+        var lineReader = new InputStreamReader(bufferedStream, StandardCharsets.UTF_8);
+        return new BatteryRecordReader(objectMapper, lineReader, null);
+    }
+
+    /**
+     * Reads the next record from the stream
+     *
+     * @return the next {@link BatteryRecord} or null if the end of the stream has been reached
+     * @throws IOException if the stream cannot be read or a JSON array is not well formed
+     */
+    BatteryRecord next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        return arrayParser != null ? nextArrayElement() : nextLine();
+    }
+
+    private BatteryRecord nextLine() throws IOException {
+        String text;
+        do {
+            text = readLine();
+            if (text == null) {
+                finished = true;
+                return null;
+            }
+            position++;
+        } while (!lineTooLong && text.isBlank());
+        if (lineTooLong) {
+            return new BatteryRecord(position, null);
+        }
+        try {
+            return new BatteryRecord(position, objectMapper.readValue(text, BatteryDto.class));
+        } catch (JsonProcessingException e) {
+            return new BatteryRecord(position, null);
+        }
+    }
+
+    /**
+     * Reads the next line, which ends with a line feed, a carriage return or a carriage return followed by a line feed,
+     * as for {@link java.io.BufferedReader#readLine()}. A line longer than {@link #MAX_LINE_LENGTH} is read to its end
+     * without being kept, and flagged by lineTooLong
+     *
+     * @return the line without its line break, empty if it is too long, or null at the end of the stream
+     */
+    private String readLine() throws IOException {
+        line.setLength(0);
+        lineTooLong = false;
+        var started = false;
+        while (true) {
+            if (readStart == readEnd) {
+                var read = lineReader.read(readBuffer);
+                if (read < 0) {
+                    return started ? line.toString() : null;
+                }
+                readStart = 0;
+                readEnd = read;
+            }
+            if (afterCarriageReturn) {
+                afterCarriageReturn = false;
+                if (readBuffer[readStart] == '\n') {
+                    readStart++;
+                    continue;
+                }
+            }
+            started = true;
+            var scanned = readStart;
+            while (scanned < readEnd && readBuffer[scanned] != '\n' && readBuffer[scanned] != '\r') {
+                scanned++;
+            }
+            if (lineTooLong || line.length() + (scanned - readStart) > MAX_LINE_LENGTH) {
+                lineTooLong = true;
+                line.setLength(0);
+            } else {
+                line.append(readBuffer, readStart, scanned - readStart);
+            }
+            if (scanned < readEnd) {
+                afterCarriageReturn = readBuffer[scanned] == '\r';
+                readStart = scanned + 1;
+                return line.toString();
+            }
+            readStart = readEnd;
+        }
+    }
+
+    /**
+     * Reads the next element of the array. An element which is not a valid battery is skipped and returned as an
+     * invalid record, while a syntax error fails the stream, as the parser cannot be resynchronised inside an array
+     */
+    private BatteryRecord nextArrayElement() throws IOException {
+        position++;
+        var token = arrayParser.nextToken();
+        if (token == null || token == JsonToken.END_ARRAY) {
+            finished = true;
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            arrayParser.skipChildren();
+            return new BatteryRecord(position, null);
+        }
+        var arrayContext = arrayParser.getParsingContext().getParent();
+        try {
+            return new BatteryRecord(position, objectMapper.readValue(arrayParser, BatteryDto.class));
+        } catch (JsonParseException e) {
+            throw e;
+        } catch (JsonProcessingException e) {
+            //The element is well formed but does not bind to a battery, so the parser skips to its end
+            while (arrayParser.getParsingContext() != arrayContext) {
+                arrayParser.nextToken();
+            }
+            return new BatteryRecord(position, null);
+        }
+    }
+
+    private static int firstNonWhitespace(BufferedInputStream inputStream) throws IOException {
+        int next;
+        do {
+            inputStream.mark(1);
+            next = inputStream.read();
+        } while (next != -1 && Character.isWhitespace(next));
+        inputStream.reset();
+        return next;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (arrayParser != null) {
+            arrayParser.close();
+        } else {
+            lineReader.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.thudani.codingchallenge.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.model.Battery;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded cache of search results keyed by postcode range, with size and time based eviction, disabled by default.
+ * Saving batteries only invalidates the cached ranges containing one of their postcodes, found by scanning every cached
+ * range. Writes made through other instances are not seen, so with several instances a search may return a result up
+ * to the time to live old.
+ * With coalescing, concurrent searches of a range which is not cached share a single computation: the first caller
+ * computes the result and the others wait for it instead of querying the DB again. Saving batteries detaches the
+ * computations in flight for their postcodes, so searches made after a save never wait for a result read before it.
+ */
+@Component
+public class BatteryResultCache {
+    private static final String CACHE_NAME = "batteryResults";
+
+    //Null when the cache is disabled
+    private final Cache<PostcodeRange, BatteryResultDto> cache;
+    //Results being computed by range, null when coalescing is disabled
+    private final ConcurrentMap<PostcodeRange, CompletableFuture<BatteryResultDto>> inFlight;
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final Counter invalidations;
+    private final Counter coalesced;
+
+    public BatteryResultCache(@Value("${battery.search.cache.enabled:false}") boolean enabled,
+                              @Value("${battery.search.cache.max-size:10000}") long maxSize,
+                              @Value("${battery.search.cache.ttl-seconds:60}") long ttlSeconds,
+                              @Value("${battery.search.coalescing.enabled:false}") boolean coalescing,
+                              MeterRegistry meterRegistry) {
+        this.cache = enabled ? Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build() : null;
+        if (cache != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        }
+        this.inFlight = coalescing ? new ConcurrentHashMap<>() : null;
+        if (inFlight != null) {
+            Gauge.builder("battery.search.in-flight", inFlight, Map::size)
+                    .description("Number of distinct postcode ranges being searched")
+                    .register(meterRegistry);
+        }
+        this.invalidations = Counter.builder("battery.search.cache.invalidations")
+                .description("Number of cached search results invalidated by battery writes")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("battery.search.coalesced")
+                .description("Number of range searches served by an identical search in flight instead of the DB")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached result of a range, computing and caching it if it is not cached
+     *
+     * @param range  postcode range searched
+     * @param loader computes the result of the range
+     * @return the result of the range
+     */
+    public BatteryResultDto get(PostcodeRange range, Supplier<BatteryResultDto> loader) {
+        if (cache != null) {
+            var cached = cache.getIfPresent(range);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return load(List.of(range), ranges -> Map.of(range, loader.get())).get(range);
+    }
+
+    /**
+     * Returns the cached results of several ranges, computing the results of the ranges which are not cached together
+     * and caching them
+     *
+     * @param ranges postcode ranges searched
+     * @param loader computes the results of the given ranges
+     * @return the results by range
+     */
+    public Map<PostcodeRange, BatteryResultDto> getAll(
+            Collection<PostcodeRange> ranges,
+            Function<Collection<PostcodeRange>, Map<PostcodeRange, BatteryResultDto>> loader) {
+        Map<PostcodeRange, BatteryResultDto> results = cache == null
+                ? new HashMap<>()
+                : new HashMap<>(cache.getAllPresent(ranges));
+        var missing = ranges.stream()
+                .filter(range -> !results.containsKey(range))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (!missing.isEmpty()) {
+            results.putAll(load(missing, loader));
+        }
+        return results;
+    }
+
+    /**
+     * Computes the results of ranges which are not cached. The ranges already being computed for another caller are
+     * not computed again, their results are awaited once the other ranges have been computed
+     */
+    private Map<PostcodeRange, BatteryResultDto> load(
+            Collection<PostcodeRange> ranges,
+            Function<Collection<PostcodeRange>, Map<PostcodeRange, BatteryResultDto>> loader) {
+        if (inFlight == null) {
+            return loadAndCache(ranges, loader);
+        }
+        Map<PostcodeRange, CompletableFuture<BatteryResultDto>> owned = new LinkedHashMap<>();
+        Map<PostcodeRange, CompletableFuture<BatteryResultDto>> joined = new HashMap<>();
+        for (var range : ranges) {
+            var flight = new CompletableFuture<BatteryResultDto>();
+            var existing = inFlight.putIfAbsent(range, flight);
+            if (existing == null) {
+                owned.put(range, flight);
+            } else {
+                joined.put(range, existing);
+            }
+        }
+        Map<PostcodeRange, BatteryResultDto> results = new HashMap<>();
+        if (!owned.isEmpty()) {
+            try {
+                var loaded = loadAndCache(List.copyOf(owned.keySet()), loader);
+                owned.forEach((range, flight) -> flight.complete(loaded.get(range)));
+                results.putAll(loaded);
+            } catch (RuntimeException | Error e) {
+                owned.values().forEach(flight -> flight.completeExceptionally(e));
+                throw e;
+            } finally {
+                //Only removes the flights which have not been detached and replaced by an invalidation
+                owned.forEach(inFlight::remove);
+            }
+        }
+        joined.forEach((range, flight) -> {
+            coalesced.increment();
+            results.put(range, await(flight));
+        });
+        return results;
+    }
+
+    private Map<PostcodeRange, BatteryResultDto> loadAndCache(
+            Collection<PostcodeRange> ranges,
+            Function<Collection<PostcodeRange>, Map<PostcodeRange, BatteryResultDto>> loader) {
+        var invalidationsBeforeLoad = invalidationCount.get();
+        var loaded = loader.apply(ranges);
+        //A result loaded while batteries were being saved may already be stale, so it is returned but not cached
+        if (cache != null && invalidationCount.get() == invalidationsBeforeLoad) {
+            var cached = cache.asMap();
+            loaded.forEach((range, result) -> cached.compute(range, (key, previous) ->
+                    invalidationCount.get() == invalidationsBeforeLoad ? result : previous));
+            //An invalidation counted after a result was put removes it, but one counted while the results were being
+            //put may have scanned the cache before them, so they are taken back
+            if (invalidationCount.get() != invalidationsBeforeLoad) {
+                loaded.forEach(cached::remove);
+            }
+        }
+        return loaded;
+    }
+
+    private static BatteryResultDto await(CompletableFuture<BatteryResultDto> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            //Rethrows the exception of the search itself, e.g. a ResponseStatusException
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Invalidates the cached results of every range containing one of the given postcodes and detaches the searches of
+     * these ranges in flight. Must be called after the batteries in these postcodes have been written
+     *
+     * @param postcodes postcodes of the saved batteries
+     */
+    public void invalidate(Collection<String> postcodes) {
+        if ((cache == null && inFlight == null) || postcodes.isEmpty()) {
+            return;
+        }
+        invalidationCount.incrementAndGet();
+        var sortedPostcodes = postcodes.stream().distinct().sorted().toArray(String[]::new);
+        var sortedPostcodeNums = postcodes.stream()
+                .map(Battery::toPostcodeNum)
+                .filter(Objects::nonNull)
+                .mapToLong(Long::longValue)
+                .distinct()
+                .sorted()
+                .toArray();
+        Predicate<PostcodeRange> containsSaved = range -> range.isNumeric()
+                ? containsAny(range, sortedPostcodeNums)
+                : containsAny(range, sortedPostcodes);
+        if (inFlight != null) {
+            inFlight.keySet().removeIf(containsSaved);
+        }
+        if (cache != null) {
+            cache.asMap().keySet().removeIf(range -> {
+                var overlaps = containsSaved.test(range);
+                if (overlaps) {
+                    invalidations.increment();
+                }
+                return overlaps;
+            });
+        }
+    }
+
+    private static boolean containsAny(PostcodeRange range, String[] sortedPostcodes) {
+        var index = Arrays.binarySearch(sortedPostcodes, range.postcode1());
+        var firstAtOrAfterStart = index >= 0 ? index : -index - 1;
+        return firstAtOrAfterStart < sortedPostcodes.length && range.contains(sortedPostcodes[firstAtOrAfterStart]);
+    }
+
+    private static boolean containsAny(PostcodeRange range, long[] sortedPostcodeNums) {
+        var index = Arrays.binarySearch(sortedPostcodeNums, range.postcodeNum1());
+        var firstAtOrAfterStart = index >= 0 ? index : -index - 1;
+        return firstAtOrAfterStart < sortedPostcodeNums.length
+                && sortedPostcodeNums[firstAtOrAfterStart] <= range.postcodeNum2();
+    }
+}
@@ -1,10 +1,16 @@
 package com.thudani.codingchallenge.service;
 
 import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.command.SearchBatteriesCommand;
 import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.BatteryNamePageDto;
 import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.dto.BulkSaveResultDto;
 
+import java.io.InputStream;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Service interface for operations on batteries
@@ -12,13 +18,47 @@ import java.util.List;
 public interface BatteryService {
 
     /**
-     * Save a list of batteries to the database
+     * Save a list of batteries to the database. The batteries are written in batches, and each batch is saved on its
+     * own: the save is not atomic, so batches written before one which fails stay saved
      *
      * @param saveBatteriesCommand {@link SaveBatteriesCommand} object containing the information of batteries to save
      * @return the saved batteries
      */
     List<BatteryDto> saveBatteries(SaveBatteriesCommand saveBatteriesCommand);
 
+    /**
+     * Save a list of batteries to the database, saving each valid battery independently of the others.
+     * Invalid batteries and batteries which fail to write are reported instead of failing the whole list
+     *
+     * @param saveBatteriesCommand {@link SaveBatteriesCommand} object containing the information of batteries to save
+     * @return {@link BulkSaveResultDto} object containing the saved batteries and the rejected input indexes
+     */
+    BulkSaveResultDto bulkSaveBatteries(SaveBatteriesCommand saveBatteriesCommand);
+
+    /**
+     * Save a stream of batteries to the database in bounded batches without holding the whole stream in memory.
+     * Invalid records are skipped and reported instead of failing the whole stream. A JSON array which is not well
+     * formed fails the stream, once the batteries read before the syntax error have been saved
+     *
+     * @param inputStream stream containing newline delimited JSON batteries or a JSON array of batteries
+     * @return {@link BatteryIngestSummaryDto} object containing the accepted and rejected record counts
+     */
+    default BatteryIngestSummaryDto ingestBatteries(InputStream inputStream) {
+        return ingestBatteries(inputStream, progress -> {
+        });
+    }
+
+    /**
+     * Save a stream of batteries to the database in bounded batches, reporting the records processed so far after
+     * every written batch
+     *
+     * @param inputStream      stream containing newline delimited JSON batteries or a JSON array of batteries
+     * @param progressListener receives the accepted and rejected record counts so far, on the calling thread
+     * @return {@link BatteryIngestSummaryDto} object containing the accepted and rejected record counts
+     */
+    BatteryIngestSummaryDto ingestBatteries(InputStream inputStream,
+                                            Consumer<BatteryIngestSummaryDto> progressListener);
+
     /**
      * Fetch a list of batteries falling within a given range of postcodes
      *
@@ -27,4 +67,24 @@ public interface BatteryService {
      * @return {@link BatteryResultDto} object containing the names of the batteries and other statistics
      */
     BatteryResultDto getBatteries(String postcode1, String postcode2);
+
+    /**
+     * Fetch the batteries falling within each of several ranges of postcodes. The postcodes of all the ranges are
+     * searched together, so overlapping ranges are only matched once
+     *
+     * @param searchBatteriesCommand {@link SearchBatteriesCommand} object containing the postcode ranges to search
+     * @return a {@link BatteryResultDto} object per range, in the order of the ranges
+     */
+    List<BatteryResultDto> searchBatteries(SearchBatteriesCommand searchBatteriesCommand);
+
+    /**
+     * Fetch a page of the names of all the batteries falling within a given range of postcodes in alphabetical order
+     *
+     * @param postcode1 first postcode of the range
+     * @param postcode2 second postcode of the range
+     * @param pageSize  maximum number of names to return
+     * @param pageToken token returned with the previous page, or null for the first page
+     * @return {@link BatteryNamePageDto} object containing the names and the token of the next page
+     */
+    BatteryNamePageDto getBatteryNames(String postcode1, String postcode2, int pageSize, String pageToken);
 }
@@ -1,37 +1,93 @@
 package com.thudani.codingchallenge.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.command.SearchBatteriesCommand;
 import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.BatteryNamePageDto;
 import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.dto.BulkSaveResultDto;
+import com.thudani.codingchallenge.dto.PostcodeStatisticsDto;
+import com.thudani.codingchallenge.dto.RejectedBatteryDto;
 import com.thudani.codingchallenge.model.Battery;
 import com.thudani.codingchallenge.repository.BatteryRepository;
+import com.thudani.codingchallenge.repository.BatteryUpsertResult;
+import com.thudani.codingchallenge.repository.BsonBatteryBatch;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+import java.util.function.Supplier;
 
 /**
  * Implementation of {@link BatteryService}
  */
 @Service
+@Profile("!mapped-storage")
 public class BatteryServiceImpl implements BatteryService {
     private static final Logger logger = LoggerFactory.getLogger(BatteryServiceImpl.class);
-    private static final int BATCH_SIZE = 300;
-    private static final int MAX_RESULT_COUNT = 50;
+    static final int MAX_RESULT_COUNT = 50;
+    static final int MAX_PAGE_SIZE = 10000;
+    private static final int MAX_REPORTED_REJECTIONS = 1000;
+    private static final int ESTIMATED_FIXED_DOCUMENT_BYTES = 150;
 
     private final BatteryRepository batteryRepository;
+    private final ObjectMapper objectMapper;
+    private final AdaptiveBatchSizer batchSizer;
+    private final BatchWritePipeline batchWritePipeline;
+    private final PostcodeRollupService postcodeRollupService;
+    private final PostcodeStatisticsIndex postcodeStatisticsIndex;
+    private final BatterySnapshot batterySnapshot;
+    private final BatteryResultCache batteryResultCache;
+    private final QueryFanOut queryFanOut;
+    private final SearchMetrics searchMetrics;
+    private final SlowQueryProfiler slowQueryProfiler;
+    private final boolean directBsonIngest;
 
-    public BatteryServiceImpl(BatteryRepository batteryRepository) {
+    public BatteryServiceImpl(BatteryRepository batteryRepository, ObjectMapper objectMapper,
+                              AdaptiveBatchSizer batchSizer, BatchWritePipeline batchWritePipeline,
+                              PostcodeRollupService postcodeRollupService,
+                              PostcodeStatisticsIndex postcodeStatisticsIndex,
+                              BatterySnapshot batterySnapshot,
+                              BatteryResultCache batteryResultCache,
+                              QueryFanOut queryFanOut,
+                              SearchMetrics searchMetrics,
+                              SlowQueryProfiler slowQueryProfiler,
+                              @Value("${battery.ingest.direct-bson.enabled:true}") boolean directBsonIngest) {
         this.batteryRepository = batteryRepository;
+        this.objectMapper = objectMapper;
+        this.batchSizer = batchSizer;
+        this.batchWritePipeline = batchWritePipeline;
+        this.postcodeRollupService = postcodeRollupService;
+        this.postcodeStatisticsIndex = postcodeStatisticsIndex;
+        this.batterySnapshot = batterySnapshot;
+        this.batteryResultCache = batteryResultCache;
+        this.queryFanOut = queryFanOut;
+        this.searchMetrics = searchMetrics;
+        this.slowQueryProfiler = slowQueryProfiler;
+        this.directBsonIngest = directBsonIngest;
     }
 
     @Override
-    @Transactional
     public List<BatteryDto> saveBatteries(SaveBatteriesCommand saveBatteriesCommand) {
         logger.debug("saveBatteries called for {}", saveBatteriesCommand);
         var allBatteries = saveBatteriesCommand.getBatteries();
@@ -41,43 +97,448 @@ public class BatteryServiceImpl implements BatteryService {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty");
         }
         var startIndex = 0;
-        var endIndex = Math.min(allBatteries.size(), BATCH_SIZE);
-        while (startIndex < endIndex) {
-            List<BatteryDto> batteryBatch = allBatteries.subList(startIndex, endIndex);
-            if (batteryBatch.stream().anyMatch(b -> b.getName() == null || b.getName().isBlank() || b.getPostcode() == null || b.getPostcode().isBlank() || b.getWattCapacity() == null)) {
-                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batteries should contain all the required fields");
-            }
+        var endIndex = Math.min(allBatteries.size(), batchSizer.nextBatchSize());
+        try (BatchWritePipeline.Window<BatteryUpsertResult> window = batchWritePipeline.open()) {
+            while (startIndex < endIndex) {
+                List<BatteryDto> batteryBatch = allBatteries.subList(startIndex, endIndex);
+                if (batteryBatch.stream().anyMatch(b -> validationError(b) != null)) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batteries should contain all the required fields");
+                }
 
-            var batteries = batteryBatch.stream()
-                    .map(dto -> Battery.builder()
-                            .name(dto.getName())
-                            .lowercaseName(dto.getName().toLowerCase())
-                            .postcode(dto.getPostcode())
-                            .wattCapacity(dto.getWattCapacity())
-                            .build()).toList();
-            savedBatteries.addAll(batteryRepository.saveAll(batteries)
-                    .stream()
-                    .map(b -> BatteryDto.builder()
-                            .id(b.getId())
-                            .name(b.getName())
-                            .postcode(b.getPostcode())
-                            .wattCapacity(b.getWattCapacity())
-                            .build()).toList());
-            startIndex = endIndex;
-            endIndex = Math.min(allBatteries.size(), endIndex + BATCH_SIZE);
+                var batteries = batteryBatch.stream().map(BatteryServiceImpl::toBattery).toList();
+                window.submit(() -> upsertBatch(batteries, true), result -> {
+                    if (!result.rejectedBatteries().isEmpty()) {
+                        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                                "Batteries could not be saved: " + result.rejectedBatteries().get(0).getReason());
+                    }
+                    savedBatteries.addAll(batteries.stream().map(BatteryServiceImpl::toBatteryDto).toList());
+                });
+                startIndex = endIndex;
+                endIndex = Math.min(allBatteries.size(), endIndex + batchSizer.nextBatchSize());
+            }
+            window.drain();
         }
         return savedBatteries;
     }
 
+    @Override
+    public BulkSaveResultDto bulkSaveBatteries(SaveBatteriesCommand saveBatteriesCommand) {
+        logger.debug("bulkSaveBatteries called for {}", saveBatteriesCommand);
+        var allBatteries = saveBatteriesCommand.getBatteries();
+        if (allBatteries == null || allBatteries.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty");
+        }
+        List<BatteryDto> savedBatteries = new ArrayList<>();
+        List<RejectedBatteryDto> rejectedBatteries = new ArrayList<>();
+        var startIndex = 0;
+        var endIndex = Math.min(allBatteries.size(), batchSizer.nextBatchSize());
+        try (BatchWritePipeline.Window<BatteryUpsertResult> window = batchWritePipeline.open()) {
+            while (startIndex < endIndex) {
+                List<Battery> batteries = new ArrayList<>(endIndex - startIndex);
+                List<Integer> inputIndexes = new ArrayList<>(endIndex - startIndex);
+                List<RejectedBatteryDto> rejectedInBatch = new ArrayList<>();
+                for (var index = startIndex; index < endIndex; index++) {
+                    var error = validationError(allBatteries.get(index));
+                    if (error != null) {
+                        rejectedInBatch.add(RejectedBatteryDto.builder().index(index).reason(error).build());
+                    } else {
+                        batteries.add(toBattery(allBatteries.get(index)));
+                        inputIndexes.add(index);
+                    }
+                }
+
+                window.submit(() -> upsertBatch(batteries, true), result -> {
+                    var failedIndexes = new HashSet<Integer>();
+                    for (var rejected : result.rejectedBatteries()) {
+                        failedIndexes.add(rejected.getIndex());
+                        rejectedInBatch.add(RejectedBatteryDto.builder()
+                                .index(inputIndexes.get(rejected.getIndex()))
+                                .reason(rejected.getReason())
+                                .build());
+                    }
+                    for (var i = 0; i < batteries.size(); i++) {
+                        if (!failedIndexes.contains(i)) {
+                            savedBatteries.add(toBatteryDto(batteries.get(i)));
+                        }
+                    }
+                    rejectedInBatch.sort(Comparator.comparingInt(RejectedBatteryDto::getIndex));
+                    rejectedBatteries.addAll(rejectedInBatch);
+                });
+                startIndex = endIndex;
+                endIndex = Math.min(allBatteries.size(), endIndex + batchSizer.nextBatchSize());
+            }
+            window.drain();
+        }
+        return BulkSaveResultDto.builder()
+                .savedBatteries(savedBatteries)
+                .rejectedBatteries(rejectedBatteries)
+                .build();
+    }
+
+    @Override
+    public BatteryIngestSummaryDto ingestBatteries(InputStream inputStream,
+                                                   Consumer<BatteryIngestSummaryDto> progressListener) {
+        logger.debug("ingestBatteries called");
+        IngestTally tally;
+        try {
+            tally = directBsonIngest
+                    ? ingestAsBson(inputStream, progressListener)
+                    : ingestAsEntities(inputStream, progressListener);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery stream could not be read", e);
+        }
+        if (tally.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty");
+        }
+        return tally.toSummary();
+    }
+
+    /**
+     * Binds every record to a {@link BatteryDto} and maps it to a {@link Battery} before saving it
+     */
+    private IngestTally ingestAsEntities(InputStream inputStream,
+                                         Consumer<BatteryIngestSummaryDto> progressListener) throws IOException {
+        var tally = new IngestTally();
+        var batchSize = batchSizer.nextBatchSize();
+        List<Battery> batch = new ArrayList<>(batchSize);
+        List<Long> positions = new ArrayList<>(batchSize);
+        try (var reader = BatteryRecordReader.open(inputStream, objectMapper);
+             BatchWritePipeline.Window<BatteryUpsertResult> window = batchWritePipeline.open()) {
+            BatteryRecordReader.BatteryRecord batteryRecord;
+            while ((batteryRecord = reader.next()) != null) {
+                if (batteryRecord.battery() == null || validationError(batteryRecord.battery()) != null) {
+                    tally.reject(batteryRecord.position());
+                    continue;
+                }
+                batch.add(toBattery(batteryRecord.battery()));
+                positions.add(batteryRecord.position());
+                if (batch.size() >= batchSize) {
+                    submitIngestBatch(window, batch, positions, tally, progressListener);
+                    batchSize = batchSizer.nextBatchSize();
+                    batch = new ArrayList<>(batchSize);
+                    positions = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submitIngestBatch(window, batch, positions, tally, progressListener);
+            }
+            window.drain();
+        }
+        return tally;
+    }
+
+    /**
+     * Validates every record while parsing it and encodes it straight to the BSON documents saving it, without any
+     * intermediate DTO, entity or mapped document
+     */
+    private IngestTally ingestAsBson(InputStream inputStream,
+                                     Consumer<BatteryIngestSummaryDto> progressListener) throws IOException {
+        var tally = new IngestTally();
+        var batchSize = batchSizer.nextBatchSize();
+        var batch = new BsonBatteryBatch(batchSize);
+        var positions = new long[batchSize];
+        try (var reader = BsonBatteryReader.open(inputStream, objectMapper.getFactory());
+             BatchWritePipeline.Window<BatteryUpsertResult> window = batchWritePipeline.open()) {
+            BsonBatteryReader.Outcome outcome;
+            while ((outcome = reader.next(batch)) != BsonBatteryReader.Outcome.END) {
+                if (outcome == BsonBatteryReader.Outcome.REJECTED) {
+                    tally.reject(reader.position());
+                    continue;
+                }
+                positions[batch.size() - 1] = reader.position();
+                if (batch.size() >= batchSize) {
+                    submitIngestBatch(window, batch, positions, tally, progressListener);
+                    batchSize = batchSizer.nextBatchSize();
+                    batch = new BsonBatteryBatch(batchSize);
+                    positions = new long[batchSize];
+                }
+            }
+            if (batch.size() > 0) {
+                submitIngestBatch(window, batch, positions, tally, progressListener);
+            }
+            window.drain();
+        }
+        return tally;
+    }
+
+    private void submitIngestBatch(BatchWritePipeline.Window<BatteryUpsertResult> window, List<Battery> batch,
+                                   List<Long> positions, IngestTally tally,
+                                   Consumer<BatteryIngestSummaryDto> progressListener) {
+        window.submit(() -> upsertBatch(batch, false), result -> {
+            tally.record(result, batch.size(), positions::get);
+            progressListener.accept(tally.toSummary());
+        });
+    }
+
+    private void submitIngestBatch(BatchWritePipeline.Window<BatteryUpsertResult> window, BsonBatteryBatch batch,
+                                   long[] positions, IngestTally tally,
+                                   Consumer<BatteryIngestSummaryDto> progressListener) {
+        window.submit(() -> upsertBatch(batch), result -> {
+            tally.record(result, batch.size(), index -> positions[index]);
+            progressListener.accept(tally.toSummary());
+        });
+    }
+
     @Override
     public BatteryResultDto getBatteries(String postcode1, String postcode2) {
         logger.debug("getBatteries called for {} and {}", postcode1, postcode2);
-        if (postcode1 == null || postcode2 == null || postcode1.compareTo(postcode2) > 0) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A valid postcode range must be provided");
+        var range = PostcodeRange.of(postcode1, postcode2);
+        searchMetrics.recordRange(range);
+        return batteryResultCache.get(range, () -> search(range));
+    }
+
+    private BatteryResultDto search(PostcodeRange range) {
+        if (batterySnapshot.canSearch(range)) {
+            return runQuery("snapshot", range,
+                    () -> batterySnapshot.search(range, MAX_RESULT_COUNT, this::recordResult), null);
+        }
+        if (postcodeStatisticsIndex.isReady()) {
+            var batteries = findNames(range);
+            return recordResult(batteries, postcodeStatisticsIndex.getStatistics(range));
         }
-        var batteries = batteryRepository.findWithinPostCodeRangeOrderByName(postcode1, postcode2, 0, MAX_RESULT_COUNT);
-        var batteryStatistics = batteryRepository.findTotalWattCapacityWithinPostcodeRange(postcode1, postcode2);
+        if (postcodeRollupService.isReady()) {
+            return queryFanOut.join(
+                    () -> findNames(range),
+                    () -> runQuery(range.isNumeric()
+                                    ? "findStatisticsWithinPostcodeNumRange"
+                                    : "findStatisticsWithinPostcodeRange", range,
+                            () -> postcodeRollupService.getStatistics(range),
+                            () -> postcodeRollupService.explainStatistics(range)),
+                    this::recordResult);
+        }
+        if (queryFanOut.isEnabled()) {
+            //Two concurrent queries finish sooner than the $facet, which runs its sub-pipelines one after the other
+            return queryFanOut.join(
+                    () -> findNames(range),
+                    () -> findTotalWattCapacity(range),
+                    this::recordResult);
+        }
+        var search = range.isNumeric()
+                ? runQuery("findNamesAndStatisticsWithinPostcodeNumRange", range,
+                () -> batteryRepository.findNamesAndStatisticsWithinPostcodeNumRange(range.postcodeNum1(),
+                        range.postcodeNum2(), MAX_RESULT_COUNT),
+                () -> batteryRepository.explainAggregation("findNamesAndStatisticsWithinPostcodeNumRange",
+                        range.postcodeNum1(), range.postcodeNum2(), MAX_RESULT_COUNT))
+                : runQuery("findNamesAndStatisticsWithinPostcodeRange", range,
+                () -> batteryRepository.findNamesAndStatisticsWithinPostcodeRange(range.postcode1(),
+                        range.postcode2(), MAX_RESULT_COUNT),
+                () -> batteryRepository.explainAggregation("findNamesAndStatisticsWithinPostcodeRange",
+                        range.postcode1(), range.postcode2(), MAX_RESULT_COUNT));
+        if (search == null) {
+            return recordResult(List.of(), Optional.empty());
+        }
+        return recordResult(search.getBatteries(), search.getStatistics().stream().findFirst());
+    }
 
+    @Override
+    public List<BatteryResultDto> searchBatteries(SearchBatteriesCommand searchBatteriesCommand) {
+        var requestedRanges = searchBatteriesCommand.getRanges();
+        if (requestedRanges == null || requestedRanges.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Postcode range list cannot be empty");
+        }
+        logger.debug("searchBatteries called for {} ranges", requestedRanges.size());
+        var ranges = requestedRanges.stream()
+                .map(range -> PostcodeRange.of(range.getPostcode1(), range.getPostcode2()))
+                .toList();
+        ranges.forEach(searchMetrics::recordRange);
+        var results = batteryResultCache.getAll(ranges, this::search);
+        return ranges.stream().map(results::get).toList();
+    }
+
+    /**
+     * Searches several ranges with one grouped aggregation of their statistics for the numeric ranges and one for the
+     * others, and bounded name queries per range, unless the snapshot can search them
+     */
+    private Map<PostcodeRange, BatteryResultDto> search(Collection<PostcodeRange> ranges) {
+        Map<PostcodeRange, BatteryResultDto> results = new HashMap<>();
+        List<PostcodeRange> numericRanges = new ArrayList<>();
+        List<PostcodeRange> otherRanges = new ArrayList<>();
+        for (var range : ranges) {
+            if (batterySnapshot.canSearch(range)) {
+                results.put(range, search(range));
+            } else if (range.isNumeric()) {
+                numericRanges.add(range);
+            } else {
+                otherRanges.add(range);
+            }
+        }
+        var groups = new PostcodeGroups(findPostcodeGroups(numericRanges, true), findPostcodeGroups(otherRanges, false));
+        var numericNames = findNamesPerRange(numericRanges, true);
+        for (var i = 0; i < numericRanges.size(); i++) {
+            var range = numericRanges.get(i);
+            results.put(range, recordResult(numericNames.get(i), groups.statistics(range)));
+        }
+        var otherNames = findNamesPerRange(otherRanges, false);
+        for (var i = 0; i < otherRanges.size(); i++) {
+            var range = otherRanges.get(i);
+            results.put(range, recordResult(otherNames.get(i), groups.statistics(range)));
+        }
+        return results;
+    }
+
+    /**
+     * Fetches the statistics per postcode of ranges of the same kind. The kind is the one of the searched ranges, as
+     * the ranges merged from ranges which are not numeric may still start and end with numeric postcodes
+     */
+    private List<PostcodeStatisticsDto> findPostcodeGroups(List<PostcodeRange> ranges, boolean numeric) {
+        if (ranges.isEmpty()) {
+            return List.of();
+        }
+        var merged = PostcodeRange.union(ranges, numeric);
+        var span = span(merged);
+        if (numeric) {
+            return runQuery("findStatisticsPerPostcodeNum", span,
+                    () -> batteryRepository.findStatisticsPerPostcodeNum(
+                            merged.stream().mapToLong(PostcodeRange::postcodeNum1).toArray(),
+                            merged.stream().mapToLong(PostcodeRange::postcodeNum2).toArray()),
+                    null);
+        }
+        return runQuery("findStatisticsPerPostcode", span,
+                () -> batteryRepository.findStatisticsPerPostcode(
+                        merged.stream().map(PostcodeRange::postcode1).toArray(String[]::new),
+                        merged.stream().map(PostcodeRange::postcode2).toArray(String[]::new)),
+                null);
+    }
+
+    /**
+     * Fetches the first batteries by name of every one of the searched ranges of the same kind, in their order. Names
+     * are fetched per searched range rather than per postcode, so that at most {@link #MAX_RESULT_COUNT} names are read
+     * per range however many batteries its postcodes hold
+     */
+    private List<List<Battery>> findNamesPerRange(List<PostcodeRange> ranges, boolean numeric) {
+        if (ranges.isEmpty()) {
+            return List.of();
+        }
+        var span = span(PostcodeRange.union(ranges, numeric));
+        if (numeric) {
+            return runQuery("findNamesPerPostcodeNumRange", span,
+                    () -> batteryRepository.findNamesPerPostcodeNumRange(
+                            ranges.stream().mapToLong(PostcodeRange::postcodeNum1).toArray(),
+                            ranges.stream().mapToLong(PostcodeRange::postcodeNum2).toArray(),
+                            MAX_RESULT_COUNT),
+                    null);
+        }
+        return runQuery("findNamesPerPostcodeRange", span,
+                () -> batteryRepository.findNamesPerPostcodeRange(
+                        ranges.stream().map(PostcodeRange::postcode1).toArray(String[]::new),
+                        ranges.stream().map(PostcodeRange::postcode2).toArray(String[]::new),
+                        MAX_RESULT_COUNT),
+                null);
+    }
+
+    /**
+     * The slow query log records the range spanning all the searched ranges
+     */
+    private static PostcodeRange span(List<PostcodeRange> merged) {
+        return new PostcodeRange(merged.get(0).postcode1(), merged.get(merged.size() - 1).postcode2());
+    }
+
+    private List<Battery> findNames(PostcodeRange range) {
+        if (range.isNumeric()) {
+            return runQuery("findWithinPostcodeNumRangeOrderByName", range,
+                    () -> batteryRepository.findWithinPostcodeNumRangeOrderByName(range.postcodeNum1(),
+                            range.postcodeNum2(), 0, MAX_RESULT_COUNT),
+                    () -> batteryRepository.explainAggregation("findWithinPostcodeNumRangeOrderByName",
+                            range.postcodeNum1(), range.postcodeNum2(), 0, MAX_RESULT_COUNT));
+        }
+        return runQuery("findWithinPostCodeRangeOrderByName", range,
+                () -> batteryRepository.findWithinPostCodeRangeOrderByName(range.postcode1(), range.postcode2(),
+                        0, MAX_RESULT_COUNT),
+                () -> batteryRepository.explainAggregation("findWithinPostCodeRangeOrderByName",
+                        range.postcode1(), range.postcode2(), 0, MAX_RESULT_COUNT));
+    }
+
+    private Optional<BatteryStatisticsDto> findTotalWattCapacity(PostcodeRange range) {
+        if (range.isNumeric()) {
+            return runQuery("findTotalWattCapacityWithinPostcodeNumRange", range,
+                    () -> batteryRepository.findTotalWattCapacityWithinPostcodeNumRange(range.postcodeNum1(),
+                            range.postcodeNum2()),
+                    () -> batteryRepository.explainAggregation("findTotalWattCapacityWithinPostcodeNumRange",
+                            range.postcodeNum1(), range.postcodeNum2()));
+        }
+        return runQuery("findTotalWattCapacityWithinPostcodeRange", range,
+                () -> batteryRepository.findTotalWattCapacityWithinPostcodeRange(range.postcode1(), range.postcode2()),
+                () -> batteryRepository.explainAggregation("findTotalWattCapacityWithinPostcodeRange",
+                        range.postcode1(), range.postcode2()));
+    }
+
+    /**
+     * Runs a search query, recording its latency and handing it to the {@link SlowQueryProfiler}
+     *
+     * @param query   name of the query
+     * @param range   the searched range
+     * @param call    the query
+     * @param explain explains the query, or null if the query cannot be explained
+     * @param <T>     type of the query result
+     * @return the query result
+     */
+    private <T> T runQuery(String query, PostcodeRange range, Supplier<T> call, Supplier<Document> explain) {
+        var start = System.nanoTime();
+        try {
+            return searchMetrics.timeQuery(query, call);
+        } finally {
+            slowQueryProfiler.recordIfSlow(query, range, System.nanoTime() - start, explain);
+        }
+    }
+
+    private BatteryResultDto recordResult(List<Battery> batteries, Optional<BatteryStatisticsDto> batteryStatistics) {
+        searchMetrics.recordResult(batteries.size(),
+                batteryStatistics.map(BatteryStatisticsDto::getBatteryCount).orElse(0L));
+        return toResult(batteries, batteryStatistics);
+    }
+
+    @Override
+    public BatteryNamePageDto getBatteryNames(String postcode1, String postcode2, int pageSize, String pageToken) {
+        var range = PostcodeRange.of(postcode1, postcode2);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        var previousPage = decodePageToken(pageToken, range);
+
+        //One battery more than the page size is fetched to tell whether there is a next page
+        var batteries = runQuery("findPageWithinPostcodeRange", range,
+                () -> batteryRepository.findPageWithinPostcodeRange(postcode1, postcode2,
+                        previousPage == null ? null : previousPage.lastLowercaseName(),
+                        previousPage == null ? null : previousPage.lastId(),
+                        pageSize + 1),
+                null);
+        String nextPageToken = null;
+        if (batteries.size() > pageSize) {
+            batteries = batteries.subList(0, pageSize);
+            var last = batteries.get(pageSize - 1);
+            nextPageToken = new PageToken(range, last.getLowercaseName(), last.getId()).encode();
+        }
+        return BatteryNamePageDto.builder()
+                .batteryNames(batteries.stream().map(Battery::getName).toList())
+                .nextPageToken(nextPageToken)
+                .build();
+    }
+
+    static PageToken decodePageToken(String pageToken, PostcodeRange range) {
+        if (pageToken == null || pageToken.isEmpty()) {
+            return null;
+        }
+        PageToken decoded;
+        try {
+            decoded = PageToken.decode(pageToken);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid page token");
+        }
+        if (!decoded.range().equals(range)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Page token does not belong to the postcode range");
+        }
+        return decoded;
+    }
+
+    /**
+     * Assembles the search result from the batteries and statistics of a postcode range
+     *
+     * @param batteries         first batteries in the range ordered by name
+     * @param batteryStatistics statistics of the range, empty if there are no batteries in it
+     * @return {@link BatteryResultDto} object containing the names of the batteries and other statistics
+     */
+    static BatteryResultDto toResult(List<Battery> batteries, Optional<BatteryStatisticsDto> batteryStatistics) {
         Double totalWattCapacity;
         Double averageWattCapacity;
         if (batteryStatistics.isPresent()) {
@@ -93,4 +554,148 @@ public class BatteryServiceImpl implements BatteryService {
                 .averageWattCapacity(averageWattCapacity)
                 .build();
     }
+
+    /**
+     * Saves a batch of batteries by natural key, feeds the observed latency back to the {@link AdaptiveBatchSizer} and
+     * adds the inserted batteries to the postcode rollups and statistics index before invalidating the cached search
+     * results. Batteries already stored are left out, so that retried saves are not counted twice
+     *
+     * @param batteries       batteries to save
+     * @param loadDuplicates  whether to replace the id and watt capacity of the batteries already stored with the stored
+     *                        ones, for saves returning the saved batteries
+     * @return the batteries already stored and the batteries which could not be saved
+     */
+    private BatteryUpsertResult upsertBatch(List<Battery> batteries, boolean loadDuplicates) {
+        var batchBytes = batteries.stream().mapToLong(BatteryServiceImpl::estimateDocumentBytes).sum();
+        //The write and the recording of its batteries happen together, as seen by a rollup rebuild or an index warm
+        var result = postcodeRollupService.write(() -> postcodeStatisticsIndex.write(() -> {
+            var start = System.nanoTime();
+            var upserted = batterySnapshot.write(() -> batteryRepository.upsertUnordered(batteries));
+            batchSizer.recordBatch(batteries.size(), batchBytes, System.nanoTime() - start);
+            var insertedBatteries = upserted.written(batteries);
+            postcodeRollupService.recordSaved(insertedBatteries);
+            postcodeStatisticsIndex.recordSaved(insertedBatteries);
+            batteryResultCache.invalidate(insertedBatteries.stream().map(Battery::getPostcode).toList());
+            return upserted;
+        }));
+        if (loadDuplicates && !result.duplicateIndexes().isEmpty()) {
+            batteryRepository.loadStored(result.duplicates(batteries));
+        }
+        return result;
+    }
+
+    /**
+     * Saves a batch of batteries encoded to BSON like {@link #upsertBatch(List, boolean)}, feeding the exact size of
+     * the battery documents back to the {@link AdaptiveBatchSizer}
+     *
+     * @param batch batteries to save
+     * @return the batteries already stored and the batteries which could not be saved
+     */
+    private BatteryUpsertResult upsertBatch(BsonBatteryBatch batch) {
+        return postcodeRollupService.write(() -> postcodeStatisticsIndex.write(() -> {
+            var start = System.nanoTime();
+            var result = batterySnapshot.write(() -> batteryRepository.upsertUnordered(batch));
+            batchSizer.recordBatch(batch.size(), batch.documentByteSize(), System.nanoTime() - start);
+            var insertedPostcodes = result.written(batch.postcodes());
+            var insertedWattCapacities = result.written(batch.wattCapacities());
+            postcodeRollupService.recordSaved(insertedPostcodes, insertedWattCapacities);
+            postcodeStatisticsIndex.recordSaved(insertedPostcodes, insertedWattCapacities);
+            batteryResultCache.invalidate(insertedPostcodes);
+            return result;
+        }));
+    }
+
+    /**
+     * Approximates the BSON size of a battery document, including the field names and the _class type hint
+     *
+     * @param battery battery to estimate the size of
+     * @return estimated document size in bytes
+     */
+    static long estimateDocumentBytes(Battery battery) {
+        return ESTIMATED_FIXED_DOCUMENT_BYTES + 2L * battery.getName().length() + battery.getPostcode().length();
+    }
+
+    /**
+     * Validates a battery against the same rules as the constraints on {@link BatteryDto}
+     *
+     * @param dto battery to validate
+     * @return the validation message of the first violated rule, or null if the battery is valid
+     */
+    static String validationError(BatteryDto dto) {
+        if (dto == null) {
+            return "Battery must be provided";
+        }
+        if (dto.getName() == null || dto.getName().isBlank()) {
+            return "Battery name must be provided";
+        }
+        if (dto.getPostcode() == null || dto.getPostcode().isBlank()) {
+            return "Postcode must be provided";
+        }
+        if (dto.getWattCapacity() == null) {
+            return "Watt capacity must be provided";
+        }
+        return null;
+    }
+
+    static Battery toBattery(BatteryDto dto) {
+        return Battery.builder()
+                .name(dto.getName())
+                .lowercaseName(dto.getName().toLowerCase())
+                .postcode(dto.getPostcode())
+                .postcodeNum(Battery.toPostcodeNum(dto.getPostcode()))
+                .wattCapacity(dto.getWattCapacity())
+                .build();
+    }
+
+    static BatteryDto toBatteryDto(Battery battery) {
+        return BatteryDto.builder()
+                .id(battery.getId())
+                .name(battery.getName())
+                .postcode(battery.getPostcode())
+                .wattCapacity(battery.getWattCapacity())
+                .build();
+    }
+
+    /**
+     * Running totals of a streamed ingest
+     */
+    static class IngestTally {
+        long acceptedCount;
+        long duplicateCount;
+        long rejectedCount;
+        final List<Long> rejectedRecords = new ArrayList<>();
+
+        void reject(long position) {
+            rejectedCount++;
+            if (rejectedRecords.size() < MAX_REPORTED_REJECTIONS) {
+                rejectedRecords.add(position);
+            }
+        }
+
+        /**
+         * Adds the outcome of a saved batch
+         *
+         * @param result     outcome of the batch
+         * @param batchSize  number of batteries in the batch
+         * @param positionOf position in the stream of the battery at an index of the batch
+         */
+        void record(BatteryUpsertResult result, int batchSize, IntToLongFunction positionOf) {
+            result.rejectedBatteries().forEach(rejected -> reject(positionOf.applyAsLong(rejected.getIndex())));
+            acceptedCount += batchSize - result.rejectedBatteries().size();
+            duplicateCount += result.duplicateIndexes().size();
+        }
+
+        boolean isEmpty() {
+            return acceptedCount == 0 && rejectedCount == 0;
+        }
+
+        BatteryIngestSummaryDto toSummary() {
+            return BatteryIngestSummaryDto.builder()
+                    .acceptedCount(acceptedCount)
+                    .duplicateCount(duplicateCount)
+                    .rejectedCount(rejectedCount)
+                    .rejectedRecords(List.copyOf(rejectedRecords))
+                    .build();
+        }
+    }
 }
@@ -0,0 +1,210 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Optional read optimized snapshot answering searches over numeric postcode ranges without a DB query.
+ * The batteries are held in {@link BatteryColumns} outside the Java heap. Every battery.snapshot.refresh-interval-ms
+ * the write sequence of the batteries is compared with the one read before the snapshot was loaded, and the snapshot
+ * is rebuilt from scratch on its own thread once batteries have been inserted, updated or deleted since, so writes
+ * committed out of id order are never missed. A rebuild streams the batteries in postcode order straight into
+ * columns, holding only their distinct names on the Java heap. The columns reuse the buffers of the columns replaced by
+ * the previous rebuild once no search reads them anymore. Searches fall back to the database until the snapshot has been loaded,
+ * and from the start of a write made by this instance until a snapshot loaded after it replaces the stale one. Writes
+ * made by other instances are picked up by the next refresh.
+ */
+@Component
+@Profile("!mapped-storage")
+public class BatterySnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(BatterySnapshot.class);
+
+    /**
+     * Loaded batteries, with the number of local writes and the write sequence read before they were loaded
+     */
+    private record Loaded(BatteryColumns columns, long localWrites, long writeSequence) {
+    }
+
+    private final BatteryRepository batteryRepository;
+    private final boolean enabled;
+    private final int fetchSize;
+    //Incremented at the start and at the end of every write made through this instance
+    private final AtomicLong localWrites = new AtomicLong();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final ExecutorService rebuildExecutor;
+    //Null until the snapshot has been loaded, replaced as a whole by every rebuild
+    private volatile Loaded loaded;
+    //Columns replaced by the last rebuild, whose buffers the next rebuild reuses once no search reads them anymore
+    private volatile BatteryColumns replaced;
+
+    public BatterySnapshot(BatteryRepository batteryRepository,
+                           @Value("${battery.snapshot.enabled:false}") boolean enabled,
+                           @Value("${battery.snapshot.fetch-size:10000}") int fetchSize,
+                           MeterRegistry meterRegistry) {
+        this.batteryRepository = batteryRepository;
+        this.enabled = enabled;
+        this.fetchSize = fetchSize;
+        this.rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "battery-snapshot-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("battery.snapshot.size", this,
+                        snapshot -> snapshot.loaded == null ? 0 : snapshot.loaded.columns.size())
+                .description("Number of batteries in the columnar snapshot")
+                .baseUnit("batteries")
+                .register(meterRegistry);
+        Gauge.builder("battery.snapshot.off-heap", this, BatterySnapshot::offHeapBytes)
+                .description("Memory held by the columnar snapshot outside the Java heap, including the columns kept "
+                        + "for reuse by the next rebuild")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns whether the snapshot can answer the search of a range
+     *
+     * @param range the postcode range
+     * @return true if the snapshot is enabled and loaded, no write has been made through this instance since it was
+     * loaded and the range is numeric
+     */
+    public boolean canSearch(PostcodeRange range) {
+        var current = loaded;
+        return current != null && current.localWrites == localWrites.get() && range.isNumeric();
+    }
+
+    /**
+     * Finds the first batteries ordered by name and the statistics of a numeric postcode range
+     *
+     * @param range    a numeric postcode range
+     * @param limit    maximum number of batteries to return
+     * @param combiner combines the batteries (names only) and the statistics, empty if there are no batteries
+     * @param <R>      type of the combined result
+     * @return the combined result
+     */
+    public <R> R search(PostcodeRange range, int limit,
+                        BiFunction<List<Battery>, Optional<BatteryStatisticsDto>, R> combiner) {
+        var columns = loaded.columns;
+        //Only replaced columns are reclaimed by a rebuild, so the columns loaded instead can always be searched
+        while (!columns.acquire()) {
+            columns = loaded.columns;
+        }
+        try {
+            return columns.search(range.postcodeNum1(), range.postcodeNum2(), limit, combiner);
+        } finally {
+            columns.release();
+        }
+    }
+
+    /**
+     * Makes a write to the batteries, during and after which searches fall back to the database until the snapshot
+     * has been rebuilt. Counting the write at its end as well as at its start covers a rebuild which read the
+     * batteries while the write was in progress
+     *
+     * @param write the write
+     * @param <T>   type of the result of the write
+     * @return the result of the write
+     */
+    public <T> T write(Supplier<T> write) {
+        localWrites.incrementAndGet();
+        try {
+            return write.get();
+        } finally {
+            localWrites.incrementAndGet();
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot on its own thread if it has not been loaded yet or the batteries have been written since
+     * it was loaded, unless a rebuild is already in progress
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${battery.snapshot.refresh-interval-ms:10000}",
+            fixedDelayString = "${battery.snapshot.refresh-interval-ms:10000}")
+    public void refresh() {
+        if (!enabled || !isStale() || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            rebuildExecutor.execute(() -> {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    logger.error("Battery snapshot could not be rebuilt", e);
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Returns whether the snapshot has not been loaded yet or the batteries have been written since it was loaded
+     */
+    boolean isStale() {
+        var current = loaded;
+        return current == null || current.localWrites != localWrites.get()
+                || current.writeSequence != batteryRepository.writeSequence();
+    }
+
+    /**
+     * Loads every battery from the database and replaces the snapshot with them. The batteries are streamed in
+     * postcode order straight into the columns, without being collected on the Java heap first
+     */
+    void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        var start = System.currentTimeMillis();
+        //Read before the batteries, so that any write the load may have missed changes them afterwards
+        var writes = localWrites.get();
+        var writeSequence = batteryRepository.writeSequence();
+        //Sized from the number of batteries, so the columns only grow when batteries are added while they are streamed
+        var rows = (int) Math.min(BatteryColumns.MAX_ROWS, batteryRepository.countNumeric());
+        var builder = new BatteryColumns.Builder(rows, replaced);
+        try (var stream = batteryRepository.streamNumericOrderedByPostcodeNum(fetchSize)) {
+            stream.forEach(builder::add);
+        }
+        var columns = builder.build();
+        var current = loaded;
+        loaded = new Loaded(columns, writes, writeSequence);
+        replaced = current == null ? null : current.columns;
+        logger.info("Battery snapshot loaded with {} batteries in {} ms", columns.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private long offHeapBytes() {
+        var current = loaded;
+        var kept = replaced;
+        return (current == null ? 0 : current.columns.offHeapBytes()) + (kept == null ? 0 : kept.offHeapBytes());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,308 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.thudani.codingchallenge.repository.BsonBatteryBatch;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Incremental reader of batteries from either a newline delimited JSON (NDJSON) stream or a JSON array, validating
+ * each record while streaming through its fields and appending it straight to a {@link BsonBatteryBatch}. Unlike
+ * {@link BatteryRecordReader}, records are never bound to a {@link com.thudani.codingchallenge.dto.BatteryDto}, and
+ * NDJSON lines are parsed from the bytes of the stream without being decoded to strings first. Records are accepted
+ * and rejected by the same rules as a record bound to a DTO and checked by {@link BatteryServiceImpl#validationError}.
+ * An NDJSON line longer than {@link #MAX_LINE_BYTES} is rejected without being buffered.
+ */
+class BsonBatteryReader implements Closeable {
+    static final int MAX_LINE_BYTES = 1024 * 1024;
+    private static final int LINE_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Outcome of reading a record
+     */
+    enum Outcome {
+        //The battery has been added to the batch
+        ADDED,
+        //The record is not valid JSON or not a valid battery
+        REJECTED,
+        //The end of the stream has been reached
+        END
+    }
+
+    private final JsonFactory jsonFactory;
+    private final InputStream lineStream;
+    private final JsonParser arrayParser;
+    private long position;
+    private boolean finished;
+
+    //NDJSON bytes read from the stream but not consumed yet, between lineStart and lineEnd
+    private byte[] lineBuffer;
+    private int lineStart;
+    private int lineEnd;
+    //Start of the line after the one last found by readLine
+    private int nextLineStart;
+    //Whether the last line ended with a carriage return, so that a line feed right after it is part of the same break
+    private boolean afterCarriageReturn;
+    //Whether the line last found by readLine was longer than MAX_LINE_BYTES, in which case it has been dropped
+    private boolean lineTooLong;
+
+    //Fields of the record being read
+    private String name;
+    private String postcode;
+    private double wattCapacity;
+    private boolean hasWattCapacity;
+    private boolean malformed;
+
+    private BsonBatteryReader(JsonFactory jsonFactory, InputStream lineStream, JsonParser arrayParser) {
+        this.jsonFactory = jsonFactory;
+        this.lineStream = lineStream;
+        this.arrayParser = arrayParser;
+        this.lineBuffer = lineStream != null ? new byte[LINE_BUFFER_BYTES] : null;
+    }
+
+    /**
+     * Opens a reader on the given stream, detecting whether it contains a JSON array or NDJSON
+     *
+     * @param inputStream stream to read the batteries from
+     * @param jsonFactory factory of the parsers reading the records
+     * @return a reader positioned before the first record
+     * @throws IOException if the stream cannot be read
+     */
+    static BsonBatteryReader open(InputStream inputStream, JsonFactory jsonFactory) throws IOException {
+        var bufferedStream = new BufferedInputStream(inputStream);
+        if (firstNonWhitespace(bufferedStream) == '[') {
+            var parser = jsonFactory.createParser(bufferedStream);
+            parser.nextToken();
+            return new BsonBatteryReader(jsonFactory, null, parser);
+        }
+        return new BsonBatteryReader(jsonFactory, bufferedStream, null);
+    }
+
+    /**
+     * Reads the next record from the stream, adding it to the batch if it is a valid battery
+     *
+     * @param batch batch to add the battery to
+     * @return whether the battery has been added or rejected, or whether the end of the stream has been reached
+     * @throws IOException if the stream cannot be read or a JSON array is not well formed
+     */
+    Outcome next(BsonBatteryBatch batch) throws IOException {
+        if (finished) {
+            return Outcome.END;
+        }
+        return arrayParser != null ? nextArrayElement(batch) : nextLine(batch);
+    }
+
+    /**
+     * @return line number (NDJSON) or 1-based element position (JSON array) of the last record read
+     */
+    long position() {
+        return position;
+    }
+
+    private Outcome nextLine(BsonBatteryBatch batch) throws IOException {
+        int start;
+        int end;
+        do {
+            end = readLine();
+            if (end < 0) {
+                finished = true;
+                return Outcome.END;
+            }
+            start = lineStart;
+            lineStart = nextLineStart;
+            position++;
+        } while (!lineTooLong && isBlank(start, end));
+        if (lineTooLong) {
+            return Outcome.REJECTED;
+        }
+        try (var parser = jsonFactory.createParser(lineBuffer, start, end - start)) {
+            return parser.nextToken() == JsonToken.START_OBJECT ? readBattery(parser, batch) : Outcome.REJECTED;
+        } catch (JsonProcessingException e) {
+            return Outcome.REJECTED;
+        }
+    }
+
+    /**
+     * Reads the next element of the array. An element which is not a valid battery is rejected, while a syntax error
+     * fails the stream, as the parser cannot be resynchronised inside an array
+     */
+    private Outcome nextArrayElement(BsonBatteryBatch batch) throws IOException {
+        position++;
+        var token = arrayParser.nextToken();
+        if (token == null || token == JsonToken.END_ARRAY) {
+            finished = true;
+            return Outcome.END;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            arrayParser.skipChildren();
+            return Outcome.REJECTED;
+        }
+        return readBattery(arrayParser, batch);
+    }
+
+    /**
+     * Reads the fields of the object the parser is positioned at and adds the battery to the batch if it is valid.
+     * Unknown fields are skipped
+     */
+    private Outcome readBattery(JsonParser parser, BsonBatteryBatch batch) throws IOException {
+        name = null;
+        postcode = null;
+        hasWattCapacity = false;
+        malformed = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            var token = parser.nextToken();
+            switch (field) {
+                case "name" -> name = readText(parser, token);
+                case "postcode" -> postcode = readText(parser, token);
+                case "wattCapacity" -> readWattCapacity(parser, token);
+                default -> parser.skipChildren();
+            }
+        }
+        if (malformed || name == null || name.isBlank() || postcode == null || postcode.isBlank() || !hasWattCapacity) {
+            return Outcome.REJECTED;
+        }
+        batch.add(name, postcode, wattCapacity);
+        return Outcome.ADDED;
+    }
+
+    /**
+     * Reads a text field, which like a DTO string field accepts any scalar value
+     */
+    private String readText(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isStructStart()) {
+            parser.skipChildren();
+            malformed = true;
+            return null;
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Reads the watt capacity, which like a DTO number field accepts a number or a string holding a number
+     */
+    private void readWattCapacity(JsonParser parser, JsonToken token) throws IOException {
+        hasWattCapacity = false;
+        if (token.isNumeric()) {
+            wattCapacity = parser.getDoubleValue();
+            hasWattCapacity = true;
+        } else if (token == JsonToken.VALUE_STRING) {
+            var text = parser.getText().trim();
+            if (!text.isEmpty()) {
+                try {
+                    wattCapacity = Double.parseDouble(text);
+                    hasWattCapacity = true;
+                } catch (NumberFormatException e) {
+                    malformed = true;
+                }
+            }
+        } else if (token != JsonToken.VALUE_NULL) {
+            parser.skipChildren();
+            malformed = true;
+        }
+    }
+
+    /**
+     * Finds the next line in the buffer, reading more of the stream as needed. Lines end with a line feed, a carriage
+     * return or a carriage return followed by a line feed, as for {@link java.io.BufferedReader#readLine()}. The bytes
+     * of a line longer than {@link #MAX_LINE_BYTES} are dropped as it is scanned, so the buffer never grows past twice
+     * the longest line accepted, and the line is flagged by lineTooLong
+     *
+     * @return the end of the line starting at lineStart, excluding the line break, or -1 at the end of the stream
+     */
+    private int readLine() throws IOException {
+        lineTooLong = false;
+        if (afterCarriageReturn) {
+            if (lineStart == lineEnd && !fill()) {
+                return -1;
+            }
+            afterCarriageReturn = false;
+            if (lineBuffer[lineStart] == '\n') {
+                lineStart++;
+            }
+        }
+        var scanned = lineStart;
+        while (true) {
+            for (; scanned < lineEnd; scanned++) {
+                var next = lineBuffer[scanned];
+                if (next == '\n' || next == '\r') {
+                    afterCarriageReturn = next == '\r';
+                    nextLineStart = scanned + 1;
+                    return scanned;
+                }
+            }
+            var scannedLength = scanned - lineStart;
+            if (scannedLength > MAX_LINE_BYTES) {
+                lineTooLong = true;
+                lineStart = lineEnd;
+                scannedLength = 0;
+            }
+            if (!fill()) {
+                nextLineStart = lineEnd;
+                return scannedLength > 0 || lineTooLong ? lineEnd : -1;
+            }
+            scanned = lineStart + scannedLength;
+        }
+    }
+
+    /**
+     * Moves the unconsumed bytes to the start of the buffer, growing it if it is full of them, and reads more of the
+     * stream after them
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        var remaining = lineEnd - lineStart;
+        if (remaining == lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, 2 * lineBuffer.length);
+        } else if (lineStart > 0) {
+            System.arraycopy(lineBuffer, lineStart, lineBuffer, 0, remaining);
+        }
+        lineStart = 0;
+        lineEnd = remaining;
+        var read = lineStream.read(lineBuffer, lineEnd, lineBuffer.length - lineEnd);
+        if (read < 0) {
+            return false;
+        }
+        lineEnd += read;
+        return true;
+    }
+
+    private boolean isBlank(int start, int end) {
+        for (var i = start; i < end; i++) {
+            if (!Character.isWhitespace(lineBuffer[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int firstNonWhitespace(BufferedInputStream inputStream) throws IOException {
+        int next;
+        do {
+            inputStream.mark(1);
+            next = inputStream.read();
+        } while (next != -1 && Character.isWhitespace(next));
+        inputStream.reset();
+        return next;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (arrayParser != null) {
+            arrayParser.close();
+        } else {
+            lineStream.close();
+        }
+    }
+}
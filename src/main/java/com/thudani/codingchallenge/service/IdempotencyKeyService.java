@@ -0,0 +1,162 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.model.IdempotencyRecord;
+import com.thudani.codingchallenge.repository.IdempotencyRecordRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+
+/**
+ * Runs save requests made with an idempotency key at most once. The first request with a key claims it by inserting
+ * its record, then stores its response in the record. Retries with the same key and request get the stored response
+ * without writing anything, while a request still in progress or a different request reusing the key is refused.
+ * A claim left by a request which never completed, e.g. because its instance stopped, is taken over after
+ * battery.idempotency.in-progress-timeout-ms. The number of replayed responses is published as the
+ * battery.idempotency.replays metric
+ */
+@Service
+@Profile("!mapped-storage")
+public class IdempotencyKeyService {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyKeyService.class);
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final ObjectMapper objectMapper;
+    private final Duration inProgressTimeout;
+    private final Counter replays;
+
+    public IdempotencyKeyService(IdempotencyRecordRepository idempotencyRecordRepository, ObjectMapper objectMapper,
+                                 @Value("${battery.idempotency.in-progress-timeout-ms:300000}") long inProgressTimeoutMs,
+                                 MeterRegistry meterRegistry) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.objectMapper = objectMapper;
+        this.inProgressTimeout = Duration.ofMillis(inProgressTimeoutMs);
+        this.replays = Counter.builder("battery.idempotency.replays")
+                .description("Requests answered with the stored response of an earlier request with the same idempotency key")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a request unless a request with the same idempotency key already ran
+     *
+     * @param key          the idempotency key, or null to run the request unconditionally
+     * @param operation    name of the operation, so that a key reused for another operation is refused
+     * @param request      the request, compared with the request the key was first used for
+     * @param responseType type of the response
+     * @param action       runs the request
+     * @param <T>          type of the response
+     * @return the response of the request, or the stored response of the request which first used the key
+     */
+    public <T> T execute(String key, String operation, Object request, TypeReference<T> responseType,
+                         Supplier<T> action) {
+        if (key == null) {
+            return action.get();
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Idempotency key must have between 1 and " + MAX_KEY_LENGTH + " characters");
+        }
+        var record = IdempotencyRecord.builder()
+                .key(key)
+                .fingerprint(fingerprint(operation, request))
+                .createdAt(Instant.now().truncatedTo(ChronoUnit.MILLIS))
+                .build();
+        var existing = claim(record);
+        if (existing != null) {
+            return replay(existing, record.getFingerprint(), responseType);
+        }
+
+        T response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            idempotencyRecordRepository.deleteById(key);
+            throw e;
+        }
+        try {
+            record.setResponse(objectMapper.writeValueAsString(response));
+            idempotencyRecordRepository.save(record);
+        } catch (JsonProcessingException | RuntimeException e) {
+            //Saves are deduplicated by natural key, so running a retry again is safe if slower
+            logger.warn("Response of the request with idempotency key {} could not be stored", key, e);
+            idempotencyRecordRepository.deleteById(key);
+        }
+        return response;
+    }
+
+    /**
+     * Inserts the record of a key unless the key was claimed by an earlier request
+     *
+     * @return null if the record was inserted, otherwise the record of the earlier request
+     */
+    private IdempotencyRecord claim(IdempotencyRecord record) {
+        while (true) {
+            try {
+                idempotencyRecordRepository.insert(record);
+                return null;
+            } catch (DuplicateKeyException e) {
+                var existing = idempotencyRecordRepository.findById(record.getKey()).orElse(null);
+                if (existing == null) {
+                    //Expired or released since the insert failed
+                    continue;
+                }
+                if (existing.getResponse() != null
+                        || existing.getCreatedAt().plus(inProgressTimeout).isAfter(Instant.now())) {
+                    return existing;
+                }
+                logger.info("Taking over the abandoned request with idempotency key {}", record.getKey());
+                idempotencyRecordRepository.deleteByKeyAndCreatedAt(record.getKey(), existing.getCreatedAt());
+            }
+        }
+    }
+
+    private <T> T replay(IdempotencyRecord record, String fingerprint, TypeReference<T> responseType) {
+        if (!record.getFingerprint().equals(fingerprint)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "Idempotency key was already used for a different request");
+        }
+        if (record.getResponse() == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "A request with the same idempotency key is in progress");
+        }
+        try {
+            var response = objectMapper.readValue(record.getResponse(), responseType);
+            replays.increment();
+            return response;
+        } catch (JsonProcessingException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Stored response of the idempotency key could not be read", e);
+        }
+    }
+
+    private String fingerprint(String operation, Object request) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(operation.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(objectMapper.writeValueAsBytes(request));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Request could not be fingerprinted", e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.IngestJobDto;
+
+import java.io.InputStream;
+
+/**
+ * Service interface for asynchronous battery ingest jobs
+ */
+public interface IngestJobService {
+
+    /**
+     * Spools a stream of batteries to disk and queues a job saving them to the database. Returns as soon as the stream
+     * has been spooled, before any battery is saved
+     *
+     * @param inputStream stream containing newline delimited JSON batteries or a JSON array of batteries
+     * @return {@link IngestJobDto} object containing the id and status of the queued job
+     */
+    IngestJobDto submitJob(InputStream inputStream);
+
+    /**
+     * Fetch the status of an ingest job
+     *
+     * @param jobId id of the job
+     * @return {@link IngestJobDto} object containing the status and progress of the job
+     */
+    IngestJobDto getJob(String jobId);
+}
@@ -0,0 +1,314 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.IngestJobDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link IngestJobService}. The body of a job is written to a spool file and flushed to disk before
+ * the job is accepted, then saved by {@link BatteryService#ingestBatteries} on a small pool of job workers. At most
+ * battery.ingest.jobs.workers jobs run at once and battery.ingest.jobs.queue-capacity more wait for a worker. Further
+ * jobs are refused until one finishes, which pushes back on clients instead of letting spooled work pile up, and a
+ * body larger than battery.ingest.jobs.max-spool-bytes is refused with 413.
+ * The spool file of a job is deleted once the job has completed or has been rejected as invalid. The files left on
+ * start up belong to jobs interrupted by a crash or a shutdown, or failed by an error such as the database being
+ * unavailable. They are run again from the start: saves are deduplicated by name and postcode, so the batteries saved
+ * by the earlier run are counted as duplicates rather than saved twice.
+ * The statuses of the last battery.ingest.jobs.retained finished jobs are kept in memory.
+ */
+@Service
+@Profile("!reactive")
+public class IngestJobServiceImpl implements IngestJobService {
+    private static final Logger logger = LoggerFactory.getLogger(IngestJobServiceImpl.class);
+    private static final String SPOOL_SUFFIX = ".spool";
+    //Suffix of a spool file being received, renamed once complete so that a crash never leaves a truncated job
+    private static final String PART_SUFFIX = ".part";
+    private static final int SPOOL_BUFFER_BYTES = 64 * 1024;
+
+    private final BatteryService batteryService;
+    private final Path spoolDirectory;
+    private final long maxSpoolBytes;
+    private final int maxPendingJobs;
+    private final int retainedJobs;
+    private final ExecutorService workers;
+    private final Map<String, IngestJob> jobs = new ConcurrentHashMap<>();
+    private final Queue<String> finishedJobIds = new ConcurrentLinkedQueue<>();
+    //Jobs queued or running
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final Counter refusedJobs;
+
+    public IngestJobServiceImpl(BatteryService batteryService,
+                                @Value("${battery.ingest.jobs.spool-directory:spool}") Path spoolDirectory,
+                                @Value("${battery.ingest.jobs.workers:2}") int workers,
+                                @Value("${battery.ingest.jobs.queue-capacity:16}") int queueCapacity,
+                                @Value("${battery.ingest.jobs.retained:1000}") int retainedJobs,
+                                @Value("${battery.ingest.jobs.max-spool-bytes:1073741824}") long maxSpoolBytes,
+                                MeterRegistry meterRegistry) throws IOException {
+        this.batteryService = batteryService;
+        this.spoolDirectory = Files.createDirectories(spoolDirectory);
+        this.maxSpoolBytes = maxSpoolBytes;
+        this.maxPendingJobs = workers + queueCapacity;
+        this.retainedJobs = retainedJobs;
+        var workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            //Daemon threads do not hold the JVM up, an interrupted job is run again from its spool file
+            var thread = new Thread(runnable, "battery-ingest-job-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("battery.ingest.jobs.pending", pendingJobs, AtomicInteger::get)
+                .description("Number of ingest jobs queued or running")
+                .register(meterRegistry);
+        this.refusedJobs = Counter.builder("battery.ingest.jobs.refused")
+                .description("Number of ingest jobs refused because the job queue was full")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public IngestJobDto submitJob(InputStream inputStream) {
+        if (pendingJobs.incrementAndGet() > maxPendingJobs) {
+            pendingJobs.decrementAndGet();
+            refusedJobs.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Ingest job queue is full");
+        }
+        var jobId = UUID.randomUUID().toString();
+        Path spoolFile;
+        try {
+            spoolFile = spool(jobId, inputStream);
+        } catch (IOException e) {
+            pendingJobs.decrementAndGet();
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery stream could not be read", e);
+        } catch (RuntimeException e) {
+            pendingJobs.decrementAndGet();
+            throw e;
+        }
+        var job = new IngestJob(jobId, spoolFile, false);
+        var queued = job.toDto();
+        start(job);
+        logger.info("Ingest job {} queued", jobId);
+        return queued;
+    }
+
+    @Override
+    public IngestJobDto getJob(String jobId) {
+        var job = jobs.get(jobId);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Ingest job not found");
+        }
+        return job.toDto();
+    }
+
+    /**
+     * Queues again the jobs whose spool files were left by a crash or a shutdown, oldest first, and deletes the spool
+     * files which were still being received
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverJobs() throws IOException {
+        List<Path> spoolFiles;
+        try (var files = Files.list(spoolDirectory)) {
+            spoolFiles = files.toList();
+        }
+        for (var file : spoolFiles) {
+            if (file.getFileName().toString().endsWith(PART_SUFFIX)) {
+                Files.deleteIfExists(file);
+            }
+        }
+        var recovered = spoolFiles.stream()
+                .filter(file -> file.getFileName().toString().endsWith(SPOOL_SUFFIX))
+                .sorted(Comparator.comparing(IngestJobServiceImpl::lastModified))
+                .toList();
+        for (var file : recovered) {
+            var fileName = file.getFileName().toString();
+            var job = new IngestJob(fileName.substring(0, fileName.length() - SPOOL_SUFFIX.length()), file, true);
+            pendingJobs.incrementAndGet();
+            start(job);
+        }
+        if (!recovered.isEmpty()) {
+            logger.info("Recovered {} interrupted ingest jobs", recovered.size());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdown();
+    }
+
+    private Path spool(String jobId, InputStream inputStream) throws IOException {
+        var partFile = spoolDirectory.resolve(jobId + PART_SUFFIX);
+        try (var channel = FileChannel.open(partFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            var outputStream = Channels.newOutputStream(channel);
+            var buffer = new byte[SPOOL_BUFFER_BYTES];
+            var spooled = 0L;
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                spooled += read;
+                if (spooled > maxSpoolBytes) {
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                            "Battery stream cannot be larger than " + maxSpoolBytes + " bytes");
+                }
+                outputStream.write(buffer, 0, read);
+            }
+            channel.force(true);
+            if (channel.size() == 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty");
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+        var spoolFile = spoolDirectory.resolve(jobId + SPOOL_SUFFIX);
+        Files.move(partFile, spoolFile, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+        return spoolFile;
+    }
+
+    /**
+     * Flushes the rename of a spool file to disk, where the file system allows directories to be opened
+     */
+    private void forceDirectory() {
+        try (var directory = FileChannel.open(spoolDirectory, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            logger.debug("Spool directory {} cannot be flushed", spoolDirectory, e);
+        }
+    }
+
+    private void start(IngestJob job) {
+        jobs.put(job.id, job);
+        workers.execute(() -> run(job));
+    }
+
+    private void run(IngestJob job) {
+        job.startedAt = Instant.now();
+        job.status = IngestJobDto.Status.RUNNING;
+        var finalStatus = IngestJobDto.Status.FAILED;
+        String failure = null;
+        //Only a job which completed or whose stream was rejected would fail the same way if it were run again
+        var finished = false;
+        try (var inputStream = Files.newInputStream(job.spoolFile)) {
+            job.summary = batteryService.ingestBatteries(inputStream, progress -> job.summary = progress);
+            finalStatus = IngestJobDto.Status.COMPLETED;
+            finished = true;
+            logger.info("Ingest job {} completed with {}", job.id, job.summary);
+        } catch (ResponseStatusException e) {
+            failure = e.getReason();
+            finished = e.getStatusCode().is4xxClientError();
+            logger.info("Ingest job {} failed: {}", job.id, failure);
+        } catch (IOException | RuntimeException e) {
+            failure = e.getMessage();
+            logger.error("Ingest job {} failed, its spool file {} is kept to run it again on the next start",
+                    job.id, job.spoolFile, e);
+        } finally {
+            if (finished) {
+                try {
+                    Files.deleteIfExists(job.spoolFile);
+                } catch (IOException e) {
+                    logger.warn("Spool file {} of ingest job {} cannot be deleted", job.spoolFile, job.id, e);
+                }
+            }
+            //Frees the place of the job in the queue before reporting it finished
+            pendingJobs.decrementAndGet();
+            job.finish(finalStatus, failure);
+            retire(job.id);
+        }
+    }
+
+    private void retire(String jobId) {
+        finishedJobIds.add(jobId);
+        while (finishedJobIds.size() > retainedJobs) {
+            jobs.remove(finishedJobIds.poll());
+        }
+    }
+
+    private static Instant lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * State of a single job, written by its worker and read by status requests
+     */
+    private static class IngestJob {
+        final String id;
+        final Path spoolFile;
+        final boolean recovered;
+        final Instant submittedAt = Instant.now();
+        volatile IngestJobDto.Status status = IngestJobDto.Status.QUEUED;
+        volatile Instant startedAt;
+        volatile Instant finishedAt;
+        volatile BatteryIngestSummaryDto summary;
+        volatile String error;
+
+        IngestJob(String id, Path spoolFile, boolean recovered) {
+            this.id = id;
+            this.spoolFile = spoolFile;
+            this.recovered = recovered;
+        }
+
+        void finish(IngestJobDto.Status finalStatus, String failure) {
+            error = failure;
+            finishedAt = Instant.now();
+            status = finalStatus;
+        }
+
+        IngestJobDto toDto() {
+            var progress = summary;
+            var started = startedAt;
+            Double recordsPerSecond = null;
+            if (started != null) {
+                var finished = finishedAt;
+                var elapsed = Duration.between(started, finished == null ? Instant.now() : finished);
+                var processed = progress == null ? 0 : progress.getAcceptedCount() + progress.getRejectedCount();
+                recordsPerSecond = elapsed.isZero() ? 0.0 : processed * 1e9 / elapsed.toNanos();
+            }
+            return IngestJobDto.builder()
+                    .jobId(id)
+                    .status(status)
+                    .recovered(recovered)
+                    .submittedAt(submittedAt)
+                    .startedAt(started)
+                    .finishedAt(finishedAt)
+                    .recordsPerSecond(recordsPerSecond)
+                    .summary(progress)
+                    .error(error)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.command.SearchBatteriesCommand;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.BatteryNamePageDto;
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.dto.BulkSaveResultDto;
+import com.thudani.codingchallenge.dto.RejectedBatteryDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryUpsertResult;
+import com.thudani.codingchallenge.repository.MappedBatteryStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Implementation of {@link BatteryService} on the {@link MappedBatteryStore}, used with the mapped-storage profile
+ * instead of {@link BatteryServiceImpl} when no MongoDB is available
+ */
+@Service
+@Profile("mapped-storage")
+public class MappedBatteryServiceImpl implements BatteryService {
+    private static final Logger logger = LoggerFactory.getLogger(MappedBatteryServiceImpl.class);
+
+    private final MappedBatteryStore batteryStore;
+    private final ObjectMapper objectMapper;
+    private final BatteryResultCache batteryResultCache;
+    private final SearchMetrics searchMetrics;
+    private final int ingestBatchSize;
+
+    public MappedBatteryServiceImpl(MappedBatteryStore batteryStore, ObjectMapper objectMapper,
+                                    BatteryResultCache batteryResultCache, SearchMetrics searchMetrics,
+                                    @Value("${battery.storage.ingest-batch-size:1000}") int ingestBatchSize) {
+        this.batteryStore = batteryStore;
+        this.objectMapper = objectMapper;
+        this.batteryResultCache = batteryResultCache;
+        this.searchMetrics = searchMetrics;
+        this.ingestBatchSize = ingestBatchSize;
+    }
+
+    @Override
+    public List<BatteryDto> saveBatteries(SaveBatteriesCommand saveBatteriesCommand) {
+        logger.debug("saveBatteries called for {}", saveBatteriesCommand);
+        var allBatteries = saveBatteriesCommand.getBatteries();
+        if (allBatteries.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty");
+        }
+        if (allBatteries.stream().anyMatch(b -> BatteryServiceImpl.validationError(b) != null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batteries should contain all the required fields");
+        }
+        var batteries = allBatteries.stream().map(BatteryServiceImpl::toBattery).toList();
+        upsert(batteries);
+        return batteries.stream().map(BatteryServiceImpl::toBatteryDto).toList();
+    }
+
+    @Override
+    public BulkSaveResultDto bulkSaveBatteries(SaveBatteriesCommand saveBatteriesCommand) {
+        logger.debug("bulkSaveBatteries called for {}", saveBatteriesCommand);
+        var allBatteries = saveBatteriesCommand.getBatteries();
+        if (allBatteries == null || allBatteries.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty");
+        }
+        List<Battery> batteries = new ArrayList<>(allBatteries.size());
+        List<RejectedBatteryDto> rejectedBatteries = new ArrayList<>();
+        for (var index = 0; index < allBatteries.size(); index++) {
+            var error = BatteryServiceImpl.validationError(allBatteries.get(index));
+            if (error != null) {
+                rejectedBatteries.add(RejectedBatteryDto.builder().index(index).reason(error).build());
+            } else {
+                batteries.add(BatteryServiceImpl.toBattery(allBatteries.get(index)));
+            }
+        }
+        upsert(batteries);
+        return BulkSaveResultDto.builder()
+                .savedBatteries(batteries.stream().map(BatteryServiceImpl::toBatteryDto).toList())
+                .rejectedBatteries(rejectedBatteries)
+                .build();
+    }
+
+    @Override
+    public BatteryIngestSummaryDto ingestBatteries(InputStream inputStream,
+                                                   Consumer<BatteryIngestSummaryDto> progressListener) {
+        logger.debug("ingestBatteries called");
+        var tally = new BatteryServiceImpl.IngestTally();
+        List<Battery> batch = new ArrayList<>(ingestBatchSize);
+        try (var reader = BatteryRecordReader.open(inputStream, objectMapper)) {
+            BatteryRecordReader.BatteryRecord batteryRecord;
+            while ((batteryRecord = reader.next()) != null) {
+                if (batteryRecord.battery() == null || BatteryServiceImpl.validationError(batteryRecord.battery()) != null) {
+                    tally.reject(batteryRecord.position());
+                    continue;
+                }
+                batch.add(BatteryServiceImpl.toBattery(batteryRecord.battery()));
+                if (batch.size() >= ingestBatchSize) {
+                    tally.duplicateCount += upsert(batch).duplicateIndexes().size();
+                    tally.acceptedCount += batch.size();
+                    progressListener.accept(tally.toSummary());
+                    batch = new ArrayList<>(ingestBatchSize);
+                }
+            }
+            tally.duplicateCount += upsert(batch).duplicateIndexes().size();
+            tally.acceptedCount += batch.size();
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery stream could not be read", e);
+        }
+        if (tally.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty");
+        }
+        return tally.toSummary();
+    }
+
+    private BatteryUpsertResult upsert(List<Battery> batteries) {
+        var result = batteryStore.upsertAll(batteries);
+        batteryResultCache.invalidate(result.written(batteries).stream().map(Battery::getPostcode).toList());
+        return result;
+    }
+
+    @Override
+    public BatteryResultDto getBatteries(String postcode1, String postcode2) {
+        logger.debug("getBatteries called for {} and {}", postcode1, postcode2);
+        var range = PostcodeRange.of(postcode1, postcode2);
+        searchMetrics.recordRange(range);
+        return batteryResultCache.get(range, () -> {
+            var search = searchMetrics.timeQuery("findNamesAndStatisticsWithinPostcodeRange",
+                    () -> batteryStore.findNamesAndStatisticsWithinPostcodeRange(postcode1, postcode2,
+                            BatteryServiceImpl.MAX_RESULT_COUNT));
+            var statistics = search.getStatistics().stream().findFirst();
+            searchMetrics.recordResult(search.getBatteries().size(),
+                    statistics.map(BatteryStatisticsDto::getBatteryCount).orElse(0L));
+            return BatteryServiceImpl.toResult(search.getBatteries(), statistics);
+        });
+    }
+
+    @Override
+    public List<BatteryResultDto> searchBatteries(SearchBatteriesCommand searchBatteriesCommand) {
+        var ranges = searchBatteriesCommand.getRanges();
+        if (ranges == null || ranges.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Postcode range list cannot be empty");
+        }
+        //Each range is answered from the in-memory index without a round trip, so there is nothing to share
+        return ranges.stream().map(range -> getBatteries(range.getPostcode1(), range.getPostcode2())).toList();
+    }
+
+    @Override
+    public BatteryNamePageDto getBatteryNames(String postcode1, String postcode2, int pageSize, String pageToken) {
+        var range = PostcodeRange.of(postcode1, postcode2);
+        if (pageSize < 1 || pageSize > BatteryServiceImpl.MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Page size must be between 1 and " + BatteryServiceImpl.MAX_PAGE_SIZE);
+        }
+        var previousPage = BatteryServiceImpl.decodePageToken(pageToken, range);
+
+        //One battery more than the page size is fetched to tell whether there is a next page
+        var batteries = searchMetrics.timeQuery("findPageWithinPostcodeRange",
+                () -> batteryStore.findPageWithinPostcodeRange(postcode1, postcode2,
+                        previousPage == null ? null : previousPage.lastLowercaseName(),
+                        previousPage == null ? null : previousPage.lastId(),
+                        pageSize + 1));
+        String nextPageToken = null;
+        if (batteries.size() > pageSize) {
+            batteries = batteries.subList(0, pageSize);
+            var last = batteries.get(pageSize - 1);
+            nextPageToken = new PageToken(range, last.getLowercaseName(), last.getId()).encode();
+        }
+        return BatteryNamePageDto.builder()
+                .batteryNames(batteries.stream().map(Battery::getName).toList())
+                .nextPageToken(nextPageToken)
+                .build();
+    }
+}
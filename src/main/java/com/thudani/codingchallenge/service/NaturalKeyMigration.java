@@ -0,0 +1,92 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Makes the name and postcode of the batteries unique on start up, once. The unique index the saves rely on is created
+ * if it is missing. Batteries saved more than once before saves were deduplicated prevent its creation, and are only
+ * deleted, keeping the first saved, when battery.migration.natural-key.enabled is set. The rollups, the statistics
+ * index and the snapshot counted the deleted batteries, so they are rebuilt if any was deleted. Otherwise the start
+ * up fails, as saves would not be deduplicated without the index. Runs while the application context starts, right
+ * after the numeric postcodes are filled in and before the web server accepts requests
+ */
+@Component
+@Profile("!mapped-storage")
+public class NaturalKeyMigration implements SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(NaturalKeyMigration.class);
+
+    private final BatteryRepository batteryRepository;
+    private final PostcodeRollupService postcodeRollupService;
+    private final PostcodeStatisticsIndex postcodeStatisticsIndex;
+    private final BatterySnapshot batterySnapshot;
+    private final boolean enabled;
+    private volatile boolean running;
+
+    public NaturalKeyMigration(BatteryRepository batteryRepository, PostcodeRollupService postcodeRollupService,
+                               PostcodeStatisticsIndex postcodeStatisticsIndex, BatterySnapshot batterySnapshot,
+                               @Value("${battery.migration.natural-key.enabled:false}") boolean enabled) {
+        this.batteryRepository = batteryRepository;
+        this.postcodeRollupService = postcodeRollupService;
+        this.postcodeStatisticsIndex = postcodeStatisticsIndex;
+        this.batterySnapshot = batterySnapshot;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void start() {
+        migrate();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PostcodeNumberMigration.PHASE + 1;
+    }
+
+    void migrate() {
+        if (batteryRepository.indexExists(Battery.NATURAL_KEY_INDEX)) {
+            return;
+        }
+        if (!enabled) {
+            try {
+                batteryRepository.createNaturalKeyIndex();
+                logger.info("Created the battery index {}", Battery.NATURAL_KEY_INDEX);
+            } catch (DuplicateKeyException e) {
+                //Without the index concurrent saves of the same battery could both insert it
+                throw new IllegalStateException("The battery index " + Battery.NATURAL_KEY_INDEX + " could not be "
+                        + "created as batteries share a name and postcode, set battery.migration.natural-key.enabled "
+                        + "to delete the duplicates", e);
+            }
+            return;
+        }
+        var deleted = batteryRepository.deleteDuplicates();
+        if (deleted > 0) {
+            logger.info("Deleted {} batteries with the name and postcode of an earlier battery", deleted);
+            if (postcodeRollupService.isEnabled()) {
+                postcodeRollupService.rebuild();
+            }
+            postcodeStatisticsIndex.warm();
+            batterySnapshot.refresh();
+        }
+        batteryRepository.createNaturalKeyIndex();
+        logger.info("Created the battery index {}", Battery.NATURAL_KEY_INDEX);
+    }
+}
@@ -0,0 +1,77 @@
+package com.thudani.codingchallenge.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Continuation token of a keyset paginated battery name listing. It holds the range being listed and the sort key,
+ * lowercase name and id, of the last battery returned, so the next page is sought directly after it
+ *
+ * @param range              postcode range being listed
+ * @param lastLowercaseName  lowercase name of the last battery returned
+ * @param lastId             id of the last battery returned
+ */
+record PageToken(PostcodeRange range, String lastLowercaseName, String lastId) {
+
+    /**
+     * Encodes the token as an URL safe string
+     *
+     * @return the encoded token
+     */
+    String encode() {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            writeString(out, range.postcode1());
+            writeString(out, range.postcode2());
+            writeString(out, lastLowercaseName);
+            writeString(out, lastId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Decodes a token produced by {@link #encode()}
+     *
+     * @param token encoded token
+     * @return the decoded token
+     * @throws IllegalArgumentException if the token is not a valid encoded token
+     */
+    static PageToken decode(String token) {
+        try (var in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)))) {
+            var pageToken = new PageToken(new PostcodeRange(readString(in), readString(in)), readString(in),
+                    readString(in));
+            if (in.read() != -1) {
+                throw new IllegalArgumentException("Unexpected trailing bytes in page token");
+            }
+            return pageToken;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed page token", e);
+        }
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes, which unlike {@link DataOutputStream#writeUTF} has
+     * no limit on the length of the string
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IllegalArgumentException("Invalid string length in page token");
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,133 @@
+package com.thudani.codingchallenge.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * Fenwick (binary indexed) tree of watt capacities and battery counts keyed by sorted postcode.
+ * Point updates and range sums both take O(log n) for n postcodes. Watt capacities are kept as fixed point
+ * micro-watts so that range sums, which are differences of prefix sums, are exact.
+ * Instances are not thread safe.
+ */
+class PostcodeFenwickTree {
+    private static final double MICRO_WATTS_PER_WATT = 1_000_000.0;
+
+    private final String[] postcodes;
+    private final long[] microWattTree;
+    private final long[] countTree;
+
+    /**
+     * Creates a tree with all the sums set to zero
+     *
+     * @param sortedPostcodes distinct postcodes in ascending order
+     */
+    PostcodeFenwickTree(String[] sortedPostcodes) {
+        this.postcodes = sortedPostcodes;
+        this.microWattTree = new long[sortedPostcodes.length + 1];
+        this.countTree = new long[sortedPostcodes.length + 1];
+    }
+
+    /**
+     * Returns the postcodes of the tree
+     *
+     * @return distinct postcodes in ascending order
+     */
+    String[] postcodes() {
+        return postcodes;
+    }
+
+    /**
+     * Returns whether the tree has a slot for the given postcode
+     *
+     * @param postcode postcode to look up
+     * @return true if the postcode is one of the keys of the tree
+     */
+    boolean contains(String postcode) {
+        return Arrays.binarySearch(postcodes, postcode) >= 0;
+    }
+
+    /**
+     * Adds watt capacity and batteries to a postcode
+     *
+     * @param postcode     postcode to add to, which must be one of the keys of the tree
+     * @param wattCapacity watt capacity to add
+     * @param count        number of batteries to add
+     */
+    void add(String postcode, double wattCapacity, long count) {
+        var index = Arrays.binarySearch(postcodes, postcode);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown postcode " + postcode);
+        }
+        addAt(index, Math.round(wattCapacity * MICRO_WATTS_PER_WATT), count);
+    }
+
+    /**
+     * Creates a copy of the tree with additional postcodes. Takes O(n log n), so it is meant for the rare case of a
+     * battery being saved in a postcode which has never been seen before
+     *
+     * @param additionalPostcodes postcodes to add, which may include postcodes already in the tree
+     * @return a new tree with the union of the postcodes and the same sums
+     */
+    PostcodeFenwickTree withPostcodes(Collection<String> additionalPostcodes) {
+        var mergedPostcodes = new TreeSet<>(Arrays.asList(postcodes));
+        mergedPostcodes.addAll(additionalPostcodes);
+        var tree = new PostcodeFenwickTree(mergedPostcodes.toArray(String[]::new));
+        for (var index = 0; index < postcodes.length; index++) {
+            tree.addAt(Arrays.binarySearch(tree.postcodes, postcodes[index]),
+                    prefixSum(microWattTree, index + 1) - prefixSum(microWattTree, index),
+                    prefixSum(countTree, index + 1) - prefixSum(countTree, index));
+        }
+        return tree;
+    }
+
+    private void addAt(int index, long microWatts, long count) {
+        for (var i = index + 1; i < microWattTree.length; i += i & -i) {
+            microWattTree[i] += microWatts;
+            countTree[i] += count;
+        }
+    }
+
+    /**
+     * Sums the watt capacity of the postcodes within a range
+     *
+     * @param postcode1 start postcode of the range, inclusive
+     * @param postcode2 end postcode of the range, inclusive
+     * @return total watt capacity of the range
+     */
+    double totalWattCapacity(String postcode1, String postcode2) {
+        return (prefixSum(microWattTree, upperBound(postcode2)) - prefixSum(microWattTree, lowerBound(postcode1)))
+                / MICRO_WATTS_PER_WATT;
+    }
+
+    /**
+     * Sums the number of batteries of the postcodes within a range
+     *
+     * @param postcode1 start postcode of the range, inclusive
+     * @param postcode2 end postcode of the range, inclusive
+     * @return number of batteries in the range
+     */
+    long batteryCount(String postcode1, String postcode2) {
+        return prefixSum(countTree, upperBound(postcode2)) - prefixSum(countTree, lowerBound(postcode1));
+    }
+
+    private static long prefixSum(long[] tree, int length) {
+        long sum = 0;
+        for (var i = length; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    //Number of postcodes strictly less than the given postcode
+    private int lowerBound(String postcode) {
+        var index = Arrays.binarySearch(postcodes, postcode);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    //Number of postcodes less than or equal to the given postcode
+    private int upperBound(String postcode) {
+        var index = Arrays.binarySearch(postcodes, postcode);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
@@ -0,0 +1,51 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.dto.PostcodeStatisticsDto;
+
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Statistics of every postcode within a set of postcode ranges, fetched for all the ranges at once. The statistics of
+ * each range are summed from the groups of the postcodes it contains, so ranges sharing postcodes are answered from the
+ * same groups
+ */
+class PostcodeGroups {
+    private final NavigableMap<Long, PostcodeStatisticsDto> byPostcodeNum = new TreeMap<>();
+    private final NavigableMap<String, PostcodeStatisticsDto> byPostcode = new TreeMap<>();
+
+    /**
+     * @param numericGroups  groups by numeric postcode, answering numeric ranges
+     * @param postcodeGroups groups by postcode, answering the other ranges
+     */
+    PostcodeGroups(List<PostcodeStatisticsDto> numericGroups, List<PostcodeStatisticsDto> postcodeGroups) {
+        numericGroups.forEach(group -> byPostcodeNum.put(group.getPostcodeNum(), group));
+        postcodeGroups.forEach(group -> byPostcode.put(group.getPostcode(), group));
+    }
+
+    /**
+     * Sums the statistics of a postcode range within the fetched ranges
+     *
+     * @param range a postcode range contained in the fetched ranges
+     * @return the statistics of the range, empty if it has no batteries
+     */
+    Optional<BatteryStatisticsDto> statistics(PostcodeRange range) {
+        var groups = range.isNumeric()
+                ? byPostcodeNum.subMap(range.postcodeNum1(), true, range.postcodeNum2(), true).values()
+                : byPostcode.subMap(range.postcode1(), true, range.postcode2(), true).values();
+        var totalWattCapacity = 0.0;
+        var batteryCount = 0L;
+        for (var group : groups) {
+            totalWattCapacity += group.getTotalWattCapacity();
+            batteryCount += group.getBatteryCount();
+        }
+        return batteryCount == 0 ? Optional.empty()
+                : Optional.of(BatteryStatisticsDto.builder()
+                .totalWattCapacity(totalWattCapacity)
+                .batteryCount(batteryCount)
+                .build());
+    }
+}
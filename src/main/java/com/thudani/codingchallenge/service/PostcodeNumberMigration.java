@@ -0,0 +1,67 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import com.thudani.codingchallenge.repository.PostcodeRollupRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Brings batteries and rollups written before postcodes were stored as numbers up to date on start up.
+ * The numeric value of every numeric postcode missing one is filled in, and the index on the string postcode replaced
+ * by the numeric one is dropped. Runs while the application context starts, before the web server accepts requests,
+ * as searches of numeric ranges only match batteries with a numeric value, and before the rollups, the statistics
+ * index and the snapshot are loaded, which read these values
+ */
+@Component
+@Profile("!mapped-storage")
+public class PostcodeNumberMigration implements SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(PostcodeNumberMigration.class);
+    private static final String REPLACED_INDEX = "name_id_postcode_idx";
+    //Lifecycle beans start by ascending phase and the web server starts in a phase close to Integer.MAX_VALUE
+    static final int PHASE = 0;
+
+    private final BatteryRepository batteryRepository;
+    private final PostcodeRollupRepository postcodeRollupRepository;
+    private volatile boolean running;
+
+    public PostcodeNumberMigration(BatteryRepository batteryRepository,
+                                   PostcodeRollupRepository postcodeRollupRepository) {
+        this.batteryRepository = batteryRepository;
+        this.postcodeRollupRepository = postcodeRollupRepository;
+    }
+
+    @Override
+    public void start() {
+        migrate();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    void migrate() {
+        var batteries = batteryRepository.backfillPostcodeNums();
+        var rollups = postcodeRollupRepository.backfillPostcodeNums();
+        if (batteries > 0 || rollups > 0) {
+            logger.info("Numeric postcodes filled in for {} batteries and {} postcode rollups", batteries, rollups);
+        }
+        if (batteryRepository.dropIndexIfExists(REPLACED_INDEX)) {
+            logger.info("Dropped the replaced battery index {}", REPLACED_INDEX);
+        }
+    }
+}
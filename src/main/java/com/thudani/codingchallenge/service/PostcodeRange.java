@@ -0,0 +1,119 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.model.Battery;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An inclusive range of postcodes. A range between two numeric postcodes contains the numeric postcodes whose value
+ * is within the range, so that 200 to 3000 contains 1000. Any other range compares postcodes character by character
+ *
+ * @param postcode1 start postcode of the range
+ * @param postcode2 end postcode of the range
+ */
+public record PostcodeRange(String postcode1, String postcode2) {
+
+    /**
+     * Creates a range from postcodes provided by a client
+     *
+     * @param postcode1 start postcode of the range
+     * @param postcode2 end postcode of the range
+     * @return the range
+     * @throws ResponseStatusException if a postcode is missing or the start postcode is after the end postcode
+     */
+    public static PostcodeRange of(String postcode1, String postcode2) {
+        if (postcode1 == null || postcode2 == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A valid postcode range must be provided");
+        }
+        var range = new PostcodeRange(postcode1, postcode2);
+        var reversed = range.isNumeric()
+                ? range.postcodeNum1() > range.postcodeNum2()
+                : postcode1.compareTo(postcode2) > 0;
+        if (reversed) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A valid postcode range must be provided");
+        }
+        return range;
+    }
+
+    /**
+     * Merges ranges into the fewest disjoint ranges containing the same postcodes, ordered by start postcode.
+     * Overlapping ranges are merged, and so are numeric ranges following each other without a gap. The kind of the
+     * ranges is given rather than taken from the merged ranges, as merging ranges which are not numeric can produce a
+     * range between two numeric postcodes
+     *
+     * @param ranges  ranges to merge, either all numeric or all compared character by character
+     * @param numeric whether the ranges are numeric
+     * @return the merged ranges
+     */
+    public static List<PostcodeRange> union(Collection<PostcodeRange> ranges, boolean numeric) {
+        var sorted = ranges.stream()
+                .sorted(numeric
+                        ? Comparator.comparingLong(PostcodeRange::postcodeNum1)
+                        : Comparator.comparing(PostcodeRange::postcode1))
+                .toList();
+        List<PostcodeRange> merged = new ArrayList<>();
+        for (var range : sorted) {
+            var last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last == null || !last.overlapsOrPrecedes(range, numeric)) {
+                merged.add(range);
+            } else if (last.endsBefore(range, numeric)) {
+                merged.set(merged.size() - 1, new PostcodeRange(last.postcode1, range.postcode2));
+            }
+        }
+        return merged;
+    }
+
+    private boolean overlapsOrPrecedes(PostcodeRange next, boolean numeric) {
+        return numeric
+                ? next.postcodeNum1() <= postcodeNum2() + 1
+                : next.postcode1.compareTo(postcode2) <= 0;
+    }
+
+    private boolean endsBefore(PostcodeRange other, boolean numeric) {
+        return numeric
+                ? postcodeNum2() < other.postcodeNum2()
+                : postcode2.compareTo(other.postcode2) < 0;
+    }
+
+    /**
+     * Returns whether the range is matched on the numeric value of the postcodes
+     *
+     * @return true if both ends of the range are numeric postcodes
+     */
+    public boolean isNumeric() {
+        return Battery.toPostcodeNum(postcode1) != null && Battery.toPostcodeNum(postcode2) != null;
+    }
+
+    /**
+     * @return numeric value of the start postcode, only meaningful for a numeric range
+     */
+    public long postcodeNum1() {
+        return Battery.toPostcodeNum(postcode1);
+    }
+
+    /**
+     * @return numeric value of the end postcode, only meaningful for a numeric range
+     */
+    public long postcodeNum2() {
+        return Battery.toPostcodeNum(postcode2);
+    }
+
+    /**
+     * Returns whether a postcode falls within the range
+     *
+     * @param postcode postcode to check
+     * @return true if the postcode is within the range
+     */
+    public boolean contains(String postcode) {
+        if (isNumeric()) {
+            var postcodeNum = Battery.toPostcodeNum(postcode);
+            return postcodeNum != null && postcodeNum1() <= postcodeNum && postcodeNum <= postcodeNum2();
+        }
+        return postcode1.compareTo(postcode) <= 0 && postcode.compareTo(postcode2) <= 0;
+    }
+}
@@ -0,0 +1,268 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.model.PostcodeRollup;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import com.thudani.codingchallenge.repository.PostcodeRollupRepository;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Maintains the per postcode rollups of battery statistics and serves range statistics from them.
+ * Rollups are incremented after every successful battery write. The postcodes written while {@link #rebuild()} runs
+ * are recomputed once the rebuilt rollups have replaced the old ones, as their increments may have been applied to the
+ * replaced rollups. The recomputation waits for the writes in progress to have been recorded and holds new writes back
+ * until it completes, so an increment is never added on top of a recomputed rollup which already counts its batteries.
+ * If an increment fails the rollups are marked dirty: range statistics are read from the batteries until the rollups
+ * have been rebuilt, which is retried every battery.statistics.rollup.repair-interval-ms.
+ * <p>
+ * The postcodes written during a rebuild and the dirty mark are only known to this instance, so the rollups are
+ * maintained by a single instance. The instance takes a lease on the rollups on start up, which fails the start up
+ * while another instance holds it, and extends it every {@link #LEASE_RENEW_INTERVAL_MS} ms. An instance which lost
+ * its lease reads range statistics from the batteries from then on.
+ */
+@Service
+@Profile("!mapped-storage")
+public class PostcodeRollupService {
+    private static final Logger logger = LoggerFactory.getLogger(PostcodeRollupService.class);
+
+    static final long LEASE_RENEW_INTERVAL_MS = 30000;
+    //Long enough for a couple of missed renewals before another instance can take the lease over
+    private static final Duration LEASE_TTL = Duration.ofMillis(4 * LEASE_RENEW_INTERVAL_MS);
+
+    private final PostcodeRollupRepository postcodeRollupRepository;
+    private final BatteryRepository batteryRepository;
+    private final boolean enabled;
+    private final String instanceId = UUID.randomUUID().toString();
+    //Held for reading by every write and the recording of its batteries, and for writing by the recomputation of
+    //the postcodes written during a rebuild
+    private final ReadWriteLock writeLock = new ReentrantReadWriteLock();
+    //Set when an increment failed, cleared when a rebuild starts
+    private volatile boolean dirty;
+    //Set when another instance has taken the lease over
+    private volatile boolean leaseLost;
+    //Postcodes written while a rebuild runs, null when no rebuild is running
+    private volatile Set<String> writtenDuringRebuild;
+
+    public PostcodeRollupService(PostcodeRollupRepository postcodeRollupRepository,
+                                 BatteryRepository batteryRepository,
+                                 @Value("${battery.statistics.rollup.enabled:false}") boolean enabled) {
+        this.postcodeRollupRepository = postcodeRollupRepository;
+        this.batteryRepository = batteryRepository;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns whether range statistics are served from the rollups
+     *
+     * @return true if the rollups are maintained and used for range statistics
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns whether range statistics can be read from the rollups
+     *
+     * @return true if the rollups are enabled, this instance holds their lease and no increment has failed since the
+     * last rebuild started
+     */
+    public boolean isReady() {
+        return enabled && !dirty && !leaseLost;
+    }
+
+    /**
+     * Makes a battery write together with the recording of its saved batteries by {@link #recordSaved}, which must
+     * both happen within {@code write}. The recomputation at the end of a rebuild waits for such writes to complete
+     *
+     * @param write the write, recording the batteries it saved
+     * @param <T>   type of the result of the write
+     * @return the result of the write
+     */
+    public <T> T write(Supplier<T> write) {
+        if (!enabled) {
+            return write.get();
+        }
+        writeLock.readLock().lock();
+        try {
+            return write.get();
+        } finally {
+            writeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the given saved batteries to the rollups of their postcodes
+     *
+     * @param batteries batteries which have been written to the database
+     */
+    public void recordSaved(List<Battery> batteries) {
+        recordSaved(batteries.stream().map(Battery::getPostcode).toList(),
+                batteries.stream().mapToDouble(Battery::getWattCapacity).toArray());
+    }
+
+    /**
+     * Adds the given saved batteries to the rollups of their postcodes
+     *
+     * @param postcodes      postcodes of the batteries which have been written to the database
+     * @param wattCapacities watt capacities of the same batteries, in the order of {@code postcodes}
+     */
+    public void recordSaved(List<String> postcodes, double[] wattCapacities) {
+        if (!enabled || postcodes.isEmpty()) {
+            return;
+        }
+        Map<String, PostcodeRollup> increments = new HashMap<>();
+        for (var i = 0; i < postcodes.size(); i++) {
+            var increment = increments.computeIfAbsent(postcodes.get(i), postcode -> PostcodeRollup.builder()
+                    .postcode(postcode)
+                    .postcodeNum(Battery.toPostcodeNum(postcode))
+                    .totalWattCapacity(0.0)
+                    .batteryCount(0L)
+                    .build());
+            increment.setTotalWattCapacity(increment.getTotalWattCapacity() + wattCapacities[i]);
+            increment.setBatteryCount(increment.getBatteryCount() + 1);
+        }
+        var rebuilding = writtenDuringRebuild;
+        if (rebuilding != null) {
+            rebuilding.addAll(increments.keySet());
+        }
+        try {
+            postcodeRollupRepository.incrementAll(increments.values());
+        } catch (RuntimeException e) {
+            //The batteries are already saved, so the request must not fail because of the rollups
+            dirty = true;
+            logger.error("Postcode rollups could not be updated for {} postcodes, statistics are read from the "
+                    + "batteries until the rollups have been rebuilt", increments.size(), e);
+        }
+    }
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries in a given post code range
+     *
+     * @param range the postcode range
+     * @return {@link BatteryStatisticsDto} object containing the total watt capacity and total number of batteries
+     */
+    public Optional<BatteryStatisticsDto> getStatistics(PostcodeRange range) {
+        var rangeStatistics = range.isNumeric()
+                ? postcodeRollupRepository.findStatisticsWithinPostcodeNumRange(range.postcodeNum1(), range.postcodeNum2())
+                : postcodeRollupRepository.findStatisticsWithinPostcodeRange(range.postcode1(), range.postcode2());
+        return rangeStatistics.filter(statistics -> statistics.getBatteryCount() != null && statistics.getBatteryCount() > 0);
+    }
+
+    /**
+     * Explain the range statistics query of {@link #getStatistics(PostcodeRange)} with execution statistics
+     *
+     * @param range the postcode range
+     * @return the explain output
+     */
+    public Document explainStatistics(PostcodeRange range) {
+        if (range.isNumeric()) {
+            return postcodeRollupRepository.explainAggregation("findStatisticsWithinPostcodeNumRange",
+                    range.postcodeNum1(), range.postcodeNum2());
+        }
+        return postcodeRollupRepository.explainAggregation("findStatisticsWithinPostcodeRange",
+                range.postcode1(), range.postcode2());
+    }
+
+    /**
+     * Recomputes every rollup from the battery collection
+     */
+    public synchronized void rebuild() {
+        logger.info("Rebuilding postcode rollups");
+        dirty = false;
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        writtenDuringRebuild = written;
+        try {
+            postcodeRollupRepository.rebuildAll();
+            //The increments of these postcodes may have been applied to the replaced rollups. No write is in progress
+            //while they are recomputed, so every battery counted by the recomputation has already been recorded and
+            //any later increment is for a battery it did not count
+            writeLock.writeLock().lock();
+            try {
+                postcodeRollupRepository.rebuild(List.copyOf(written));
+                writtenDuringRebuild = null;
+            } finally {
+                writeLock.writeLock().unlock();
+            }
+        } catch (RuntimeException e) {
+            dirty = true;
+            throw e;
+        } finally {
+            writtenDuringRebuild = null;
+        }
+        logger.info("Postcode rollups rebuilt for {} postcodes, {} of them written during the rebuild",
+                postcodeRollupRepository.count(), written.size());
+    }
+
+    /**
+     * Rebuilds the rollups if an increment has failed since the last rebuild
+     */
+    @Scheduled(initialDelayString = "${battery.statistics.rollup.repair-interval-ms:60000}",
+            fixedDelayString = "${battery.statistics.rollup.repair-interval-ms:60000}")
+    public void repairIfDirty() {
+        if (enabled && dirty) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Takes the lease on the rollups, then builds them on the first start with rollups enabled against an existing
+     * battery collection
+     *
+     * @throws IllegalStateException if another instance holds the lease
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfMissing() {
+        if (!enabled) {
+            return;
+        }
+        if (!postcodeRollupRepository.acquireLease(instanceId, LEASE_TTL)) {
+            throw new IllegalStateException("Postcode rollups are maintained by another instance, only one instance "
+                    + "can run with battery.statistics.rollup.enabled");
+        }
+        if (postcodeRollupRepository.count() == 0 && batteryRepository.count() > 0) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Extends the lease on the rollups. Once another instance has taken it over, range statistics are read from the
+     * batteries
+     */
+    @Scheduled(initialDelay = LEASE_RENEW_INTERVAL_MS, fixedDelay = LEASE_RENEW_INTERVAL_MS)
+    public void renewLease() {
+        if (!enabled || leaseLost) {
+            return;
+        }
+        try {
+            if (!postcodeRollupRepository.acquireLease(instanceId, LEASE_TTL)) {
+                leaseLost = true;
+                logger.error("Postcode rollups lease has been taken over by another instance, statistics are read "
+                        + "from the batteries from now on");
+            }
+        } catch (RuntimeException e) {
+            //Retried on the next renewal, before the lease expires
+            logger.warn("Postcode rollups lease could not be renewed", e);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.model.PostcodeRollup;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Optional in-process index answering range statistics without touching the database.
+ * The index is warmed from the battery collection on start up, incremented by every battery write made through this
+ * instance and periodically reloaded, which bounds the drift caused by writes made through other instances.
+ * Until the index has been warmed it reports itself as not ready and searches fall back to the database.
+ * The warming aggregation may or may not count the batteries written while it runs, so the postcodes written during a
+ * warm are recomputed from the database once it has completed, while writes are held back by {@link #write}, and the
+ * warmed trees are corrected with them as they replace the current ones.
+ * Numeric postcodes are also kept in a second tree ordered by their value, which answers the numeric ranges.
+ */
+@Component
+@Profile("!mapped-storage")
+public class PostcodeStatisticsIndex {
+    private static final Logger logger = LoggerFactory.getLogger(PostcodeStatisticsIndex.class);
+
+    private final BatteryRepository batteryRepository;
+    private final boolean enabled;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    //Held for reading by every write and the recording of its batteries, and for writing by the recomputation of
+    //the postcodes written during a warm
+    private final ReadWriteLock writeLock = new ReentrantReadWriteLock();
+    //Guarded by lock, null until the index has been warmed
+    private PostcodeFenwickTree tree;
+    //Guarded by lock, keyed by numericKey so that the key order is the numeric order of the postcodes
+    private PostcodeFenwickTree numericTree;
+    //Guarded by lock, the postcodes recorded since the warm in progress started, null when no warm is in progress
+    private Set<String> writtenDuringWarm;
+
+    public PostcodeStatisticsIndex(BatteryRepository batteryRepository,
+                                   @Value("${battery.statistics.index.enabled:false}") boolean enabled) {
+        this.batteryRepository = batteryRepository;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns whether the index is maintained
+     *
+     * @return true if the index is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns whether the index can answer range statistics
+     *
+     * @return true if the index is enabled and has been warmed
+     */
+    public boolean isReady() {
+        lock.readLock().lock();
+        try {
+            return tree != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Makes a battery write together with the recording of its saved batteries by {@link #recordSaved}, which must
+     * both happen within {@code write}. The recomputation at the end of a warm waits for such writes to complete
+     *
+     * @param write the write, recording the batteries it saved
+     * @param <T>   type of the result of the write
+     * @return the result of the write
+     */
+    public <T> T write(Supplier<T> write) {
+        if (!enabled) {
+            return write.get();
+        }
+        writeLock.readLock().lock();
+        try {
+            return write.get();
+        } finally {
+            writeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the statistics of every postcode from the database and replaces the contents of the index with them
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${battery.statistics.index.refresh-interval-ms:300000}",
+            fixedDelayString = "${battery.statistics.index.refresh-interval-ms:300000}")
+    public synchronized void warm() {
+        if (!enabled) {
+            return;
+        }
+        var start = System.currentTimeMillis();
+        Set<String> written = new HashSet<>();
+        lock.writeLock().lock();
+        try {
+            writtenDuringWarm = written;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            Map<String, PostcodeRollup> rollups = new HashMap<>();
+            batteryRepository.findStatisticsPerPostcode().forEach(r -> rollups.put(r.getPostcode(), r));
+            var warmedTree = new PostcodeFenwickTree(rollups.keySet().stream().sorted().toArray(String[]::new));
+            var warmedNumericTree = new PostcodeFenwickTree(rollups.keySet().stream()
+                    .map(PostcodeStatisticsIndex::numericKey)
+                    .filter(Objects::nonNull)
+                    .sorted()
+                    .toArray(String[]::new));
+            for (var r : rollups.values()) {
+                warmedTree.add(r.getPostcode(), r.getTotalWattCapacity(), r.getBatteryCount());
+                var key = numericKey(r.getPostcode());
+                if (key != null) {
+                    warmedNumericTree.add(key, r.getTotalWattCapacity(), r.getBatteryCount());
+                }
+            }
+            //No write is in progress while the written postcodes are recomputed, so every battery counted by the
+            //recomputation has already been recorded and any later battery is recorded on the warmed trees
+            writeLock.writeLock().lock();
+            try {
+                Map<String, PostcodeRollup> recomputed = new HashMap<>();
+                List<String> writtenPostcodes;
+                lock.readLock().lock();
+                try {
+                    writtenPostcodes = List.copyOf(written);
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (!writtenPostcodes.isEmpty()) {
+                    batteryRepository.findStatisticsOfPostcodes(writtenPostcodes)
+                            .forEach(r -> recomputed.put(r.getPostcode(), r));
+                }
+                lock.writeLock().lock();
+                try {
+                    tree = warmedTree;
+                    numericTree = warmedNumericTree;
+                    writtenDuringWarm = null;
+                    correct(writtenPostcodes, rollups, recomputed);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                writeLock.writeLock().unlock();
+            }
+            logger.info("Postcode statistics index warmed with {} postcodes in {} ms, {} of them written during the "
+                    + "warm", rollups.size(), System.currentTimeMillis() - start, written.size());
+        } finally {
+            lock.writeLock().lock();
+            try {
+                writtenDuringWarm = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Replaces the warmed statistics of the given postcodes with their recomputed ones, with the write lock held
+     */
+    private void correct(List<String> postcodes, Map<String, PostcodeRollup> warmed,
+                         Map<String, PostcodeRollup> recomputed) {
+        var wattCapacities = new double[postcodes.size()];
+        var batteryCounts = new long[postcodes.size()];
+        for (var i = 0; i < postcodes.size(); i++) {
+            var warmedRollup = warmed.get(postcodes.get(i));
+            var recomputedRollup = recomputed.get(postcodes.get(i));
+            wattCapacities[i] = (recomputedRollup == null ? 0 : recomputedRollup.getTotalWattCapacity())
+                    - (warmedRollup == null ? 0 : warmedRollup.getTotalWattCapacity());
+            batteryCounts[i] = (recomputedRollup == null ? 0 : recomputedRollup.getBatteryCount())
+                    - (warmedRollup == null ? 0 : warmedRollup.getBatteryCount());
+        }
+        add(postcodes, wattCapacities, batteryCounts);
+    }
+
+    /**
+     * Adds the given saved batteries to the index. Must be called within {@link #write}
+     *
+     * @param batteries batteries which have been written to the database
+     */
+    public void recordSaved(List<Battery> batteries) {
+        recordSaved(batteries.stream().map(Battery::getPostcode).toList(),
+                batteries.stream().mapToDouble(Battery::getWattCapacity).toArray());
+    }
+
+    /**
+     * Adds the given saved batteries to the index. Must be called within {@link #write}
+     *
+     * @param postcodes      postcodes of the batteries which have been written to the database
+     * @param wattCapacities watt capacities of the same batteries, in the order of {@code postcodes}
+     */
+    public void recordSaved(List<String> postcodes, double[] wattCapacities) {
+        if (!enabled || postcodes.isEmpty()) {
+            return;
+        }
+        var batteryCounts = new long[postcodes.size()];
+        Arrays.fill(batteryCounts, 1);
+        lock.writeLock().lock();
+        try {
+            if (writtenDuringWarm != null) {
+                writtenDuringWarm.addAll(postcodes);
+            }
+            if (tree != null) {
+                add(postcodes, wattCapacities, batteryCounts);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds watt capacities and batteries to the postcodes of the current trees, with the write lock held
+     */
+    private void add(List<String> postcodes, double[] wattCapacities, long[] batteryCounts) {
+        var newPostcodes = postcodes.stream()
+                .filter(postcode -> !tree.contains(postcode))
+                .distinct()
+                .toList();
+        if (!newPostcodes.isEmpty()) {
+            tree = tree.withPostcodes(newPostcodes);
+        }
+        for (var i = 0; i < postcodes.size(); i++) {
+            tree.add(postcodes.get(i), wattCapacities[i], batteryCounts[i]);
+        }
+
+        var newNumericKeys = postcodes.stream()
+                .map(PostcodeStatisticsIndex::numericKey)
+                .filter(key -> key != null && !numericTree.contains(key))
+                .distinct()
+                .toList();
+        if (!newNumericKeys.isEmpty()) {
+            numericTree = numericTree.withPostcodes(newNumericKeys);
+        }
+        for (var i = 0; i < postcodes.size(); i++) {
+            var key = numericKey(postcodes.get(i));
+            if (key != null) {
+                numericTree.add(key, wattCapacities[i], batteryCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Calculate the total watt capacity and the total number of batteries in a given post code range
+     *
+     * @param range the postcode range
+     * @return {@link BatteryStatisticsDto} object containing the total watt capacity and total number of batteries,
+     * empty if there are no batteries in the range or the index is not ready
+     */
+    public Optional<BatteryStatisticsDto> getStatistics(PostcodeRange range) {
+        lock.readLock().lock();
+        try {
+            if (tree == null) {
+                return Optional.empty();
+            }
+            var rangeTree = range.isNumeric() ? numericTree : tree;
+            var from = range.isNumeric() ? numericKey(range.postcode1()) : range.postcode1();
+            var to = range.isNumeric() ? numericKey(range.postcode2()) : range.postcode2();
+            var batteryCount = rangeTree.batteryCount(from, to);
+            if (batteryCount == 0) {
+                return Optional.empty();
+            }
+            return Optional.of(BatteryStatisticsDto.builder()
+                    .totalWattCapacity(rangeTree.totalWattCapacity(from, to))
+                    .batteryCount(batteryCount)
+                    .build());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the key of a numeric postcode in the numeric tree, its value zero padded to a fixed width
+     *
+     * @param postcode the postcode
+     * @return the key, or null if the postcode is not numeric
+     */
+    private static String numericKey(String postcode) {
+        var postcodeNum = Battery.toPostcodeNum(postcode);
+        return postcodeNum == null ? null : String.format("%019d", postcodeNum);
+    }
+}
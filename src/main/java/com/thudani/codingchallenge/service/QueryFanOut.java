@@ -0,0 +1,72 @@
+package com.thudani.codingchallenge.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Runs two independent blocking queries concurrently, so a search takes as long as the slower of the two instead of
+ * their sum. One query runs on a new virtual thread while the other runs on the calling thread. When disabled, the
+ * queries run one after the other on the calling thread
+ */
+@Component
+public class QueryFanOut {
+
+    //Null when the fan out is disabled
+    private final ExecutorService executor;
+
+    public QueryFanOut(@Value("${battery.search.fan-out.enabled:${spring.threads.virtual.enabled:false}}") boolean enabled) {
+        this.executor = enabled ? Executors.newVirtualThreadPerTaskExecutor() : null;
+    }
+
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    /**
+     * Runs both queries and combines their results
+     *
+     * @param first    first query
+     * @param second   second query
+     * @param combiner combines the results of both queries
+     * @return the combined result
+     */
+    public <A, B, R> R join(Supplier<A> first, Supplier<B> second, BiFunction<A, B, R> combiner) {
+        if (executor == null) {
+            return combiner.apply(first.get(), second.get());
+        }
+        var firstResult = CompletableFuture.supplyAsync(first, executor);
+        B secondResult;
+        try {
+            secondResult = second.get();
+        } catch (RuntimeException e) {
+            firstResult.cancel(true);
+            throw e;
+        }
+        A firstValue;
+        try {
+            firstValue = firstResult.join();
+        } catch (CompletionException e) {
+            //Rethrows the exception of the query itself, e.g. a ResponseStatusException
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return combiner.apply(firstValue, secondResult);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Non-blocking counterpart of {@link BatteryService}, used when the reactive profile is active
+ */
+public interface ReactiveBatteryService {
+
+    /**
+     * Save a list of batteries to the database
+     *
+     * @param saveBatteriesCommand {@link SaveBatteriesCommand} object containing the information of batteries to save
+     * @return the saved batteries
+     */
+    Mono<List<BatteryDto>> saveBatteries(SaveBatteriesCommand saveBatteriesCommand);
+
+    /**
+     * Save a stream of newline delimited JSON batteries to the database in bounded batches. Lines are requested from
+     * the stream only as fast as the batches are written. Lines which are not valid batteries and batteries the
+     * database rejects are skipped and reported by line number instead of failing the whole stream, as
+     * {@link BatteryService#ingestBatteries} does
+     *
+     * @param lines stream of the lines of the batteries to save
+     * @return {@link BatteryIngestSummaryDto} object containing the accepted and rejected record counts
+     */
+    Mono<BatteryIngestSummaryDto> ingestBatteries(Flux<String> lines);
+
+    /**
+     * Fetch a list of batteries falling within a given range of postcodes, running the names and the statistics
+     * queries concurrently
+     *
+     * @param postcode1 first postcode of the range
+     * @param postcode2 second postcode of the range
+     * @return {@link BatteryResultDto} object containing the names of the batteries and other statistics
+     */
+    Mono<BatteryResultDto> getBatteries(String postcode1, String postcode2);
+}
@@ -0,0 +1,228 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryUpsertResult;
+import com.thudani.codingchallenge.repository.ReactiveBatteryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Implementation of {@link ReactiveBatteryService}
+ */
+@Service
+@Profile("reactive")
+public class ReactiveBatteryServiceImpl implements ReactiveBatteryService {
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveBatteryServiceImpl.class);
+    private static final int MAX_RESULT_COUNT = 50;
+
+    private final ReactiveBatteryRepository batteryRepository;
+    private final ObjectMapper objectMapper;
+    private final PostcodeRollupService postcodeRollupService;
+    private final PostcodeStatisticsIndex postcodeStatisticsIndex;
+    private final AdaptiveBatchSizer batchSizer;
+    private final int maxInFlightBatches;
+
+    public ReactiveBatteryServiceImpl(ReactiveBatteryRepository batteryRepository, ObjectMapper objectMapper,
+                                      PostcodeRollupService postcodeRollupService,
+                                      PostcodeStatisticsIndex postcodeStatisticsIndex,
+                                      AdaptiveBatchSizer batchSizer,
+                                      @Value("${battery.ingest.pipeline.max-in-flight-batches:4}") int maxInFlightBatches) {
+        this.batteryRepository = batteryRepository;
+        this.objectMapper = objectMapper;
+        this.postcodeRollupService = postcodeRollupService;
+        this.postcodeStatisticsIndex = postcodeStatisticsIndex;
+        this.batchSizer = batchSizer;
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    @Override
+    public Mono<List<BatteryDto>> saveBatteries(SaveBatteriesCommand saveBatteriesCommand) {
+        logger.debug("saveBatteries called for {}", saveBatteriesCommand);
+        var allBatteries = saveBatteriesCommand.getBatteries();
+        if (allBatteries == null || allBatteries.isEmpty()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty"));
+        }
+        if (allBatteries.stream().anyMatch(b -> BatteryServiceImpl.validationError(b) != null)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Batteries should contain all the required fields"));
+        }
+        return adaptiveBatches(Flux.fromIterable(allBatteries).map(BatteryServiceImpl::toBattery))
+                .flatMapSequential(batteries -> upsertBatch(batteries).thenReturn(batteries), maxInFlightBatches)
+                .flatMapIterable(batteries -> batteries)
+                .map(BatteryServiceImpl::toBatteryDto)
+                .collectList();
+    }
+
+    @Override
+    public Mono<BatteryIngestSummaryDto> ingestBatteries(Flux<String> lines) {
+        logger.debug("ingestBatteries called");
+        //Records are rejected by the parsing and by the writes, which may signal concurrently, so the tally is only
+        //updated while holding its lock
+        var tally = new BatteryServiceImpl.IngestTally();
+        return adaptiveBatches(lines.index()
+                .filter(line -> !line.getT2().isBlank())
+                .<Tuple2<Long, Battery>>handle((line, sink) -> {
+                    //Positions are line numbers, as for the blocking ingest
+                    var position = line.getT1() + 1;
+                    var battery = parse(line.getT2());
+                    if (battery == null || BatteryServiceImpl.validationError(battery) != null) {
+                        synchronized (tally) {
+                            tally.reject(position);
+                        }
+                        return;
+                    }
+                    sink.next(Tuples.of(position, BatteryServiceImpl.toBattery(battery)));
+                }))
+                //At most maxInFlightBatches batches are written at a time, and the next batches are only requested
+                //from the stream as these complete
+                .flatMapSequential(batch -> write(batch.stream().map(Tuple2::getT2).toList())
+                        .map(result -> Tuples.of(batch, result)), maxInFlightBatches)
+                //Batteries the DB rejected are reported with their position instead of failing the stream
+                .doOnNext(outcome -> {
+                    var batch = outcome.getT1();
+                    synchronized (tally) {
+                        tally.record(outcome.getT2(), batch.size(), index -> batch.get(index).getT1());
+                    }
+                })
+                .then(Mono.defer(() -> {
+                    synchronized (tally) {
+                        return tally.isEmpty()
+                                ? Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery list cannot be empty"))
+                                : Mono.just(tally.toSummary());
+                    }
+                }));
+    }
+
+    /**
+     * Cuts a stream into batches of the size given by the {@link AdaptiveBatchSizer} when each batch starts, so that
+     * the batches follow the latency and document size of the writes as the blocking saves do
+     *
+     * @param items items to batch
+     * @param <T>   type of the items
+     * @return the batches
+     */
+    private <T> Flux<List<T>> adaptiveBatches(Flux<T> items) {
+        return Flux.defer(() -> {
+            //Per subscription, updated by the predicate which Reactor calls for one item at a time. The size is taken
+            //on the first item of a batch, so that it follows the batches written while the previous one was filled
+            var batchSize = new int[1];
+            var count = new int[1];
+            return items.bufferUntil(item -> {
+                if (count[0]++ == 0) {
+                    batchSize[0] = batchSizer.nextBatchSize();
+                }
+                if (count[0] < batchSize[0]) {
+                    return false;
+                }
+                count[0] = 0;
+                return true;
+            });
+        });
+    }
+
+    /**
+     * Binds an NDJSON line to a battery
+     *
+     * @param line the line
+     * @return the battery, or null if the line is not a valid battery record
+     */
+    private BatteryDto parse(String line) {
+        try {
+            return objectMapper.readValue(line, BatteryDto.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Mono<BatteryResultDto> getBatteries(String postcode1, String postcode2) {
+        logger.debug("getBatteries called for {} and {}", postcode1, postcode2);
+        PostcodeRange range;
+        try {
+            range = PostcodeRange.of(postcode1, postcode2);
+        } catch (ResponseStatusException e) {
+            return Mono.error(e);
+        }
+        //Both queries are subscribed to at once, so the search takes as long as the slower of the two
+        var names = (range.isNumeric()
+                ? batteryRepository.findNamesWithinPostcodeNumRange(range.postcodeNum1(), range.postcodeNum2(), MAX_RESULT_COUNT)
+                : batteryRepository.findNamesWithinPostcodeRange(range.postcode1(), range.postcode2(), MAX_RESULT_COUNT))
+                .collectList();
+        var statistics = (range.isNumeric()
+                ? batteryRepository.findTotalWattCapacityWithinPostcodeNumRange(range.postcodeNum1(), range.postcodeNum2())
+                : batteryRepository.findTotalWattCapacityWithinPostcodeRange(range.postcode1(), range.postcode2()))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+        return Mono.zip(names, statistics, BatteryServiceImpl::toResult);
+    }
+
+    /**
+     * Saves a batch of batteries by natural key, then adds the inserted batteries to the postcode rollups and statistics
+     * index, and replaces the id and watt capacity of the batteries already stored with the stored ones. Fails if any
+     * battery could not be saved
+     *
+     * @param batteries batteries to save
+     * @return the result of the save, listing the batteries already stored
+     */
+    private Mono<BatteryUpsertResult> upsertBatch(List<Battery> batteries) {
+        return write(batteries)
+                .flatMap(result -> (!result.duplicateIndexes().isEmpty()
+                        ? batteryRepository.loadStored(result.duplicates(batteries))
+                        : Mono.<Void>empty())
+                        .then(result.rejectedBatteries().isEmpty()
+                                ? Mono.just(result)
+                                : Mono.error(new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                                "Batteries could not be saved: " + result.rejectedBatteries().get(0).getReason()))));
+    }
+
+    /**
+     * Saves a batch of batteries by natural key, feeds the observed latency back to the {@link AdaptiveBatchSizer} and
+     * records the inserted batteries in the postcode rollups and statistics index. A write and its recording must
+     * happen within their write methods, which hold a lock for the calling thread and make blocking rollup updates, so
+     * the write is awaited on a bounded elastic thread as a blocking write would be. Without rollups or index there is
+     * nothing to record and the write does not block
+     *
+     * @param batteries batteries to save
+     * @return the result of the save
+     */
+    private Mono<BatteryUpsertResult> write(List<Battery> batteries) {
+        var batchBytes = batteries.stream().mapToLong(BatteryServiceImpl::estimateDocumentBytes).sum();
+        if (!postcodeRollupService.isEnabled() && !postcodeStatisticsIndex.isEnabled()) {
+            return Mono.defer(() -> {
+                var start = System.nanoTime();
+                return batteryRepository.upsertUnordered(batteries)
+                        .doOnNext(result -> batchSizer.recordBatch(batteries.size(), batchBytes,
+                                System.nanoTime() - start));
+            });
+        }
+        return Mono.fromCallable(() -> postcodeRollupService.write(() -> postcodeStatisticsIndex.write(() -> {
+                    var start = System.nanoTime();
+                    var result = batteryRepository.upsertUnordered(batteries).block();
+                    batchSizer.recordBatch(batteries.size(), batchBytes, System.nanoTime() - start);
+                    var inserted = result.written(batteries);
+                    postcodeRollupService.recordSaved(inserted);
+                    postcodeStatisticsIndex.recordSaved(inserted);
+                    return result;
+                })))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+}
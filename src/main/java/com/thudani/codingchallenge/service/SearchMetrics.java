@@ -0,0 +1,87 @@
+package com.thudani.codingchallenge.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the battery searches: the latency of every query a search runs, tagged with the query name, the width of
+ * the searched postcode ranges and the number of batteries found
+ */
+@Component
+public class SearchMetrics {
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary rangeWidths;
+    private final DistributionSummary resultNames;
+    private final DistributionSummary resultBatteries;
+
+    public SearchMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.rangeWidths = DistributionSummary.builder("battery.search.range.width")
+                .description("Number of postcodes covered by a searched range of numeric postcodes")
+                .baseUnit("postcodes")
+                .register(meterRegistry);
+        this.resultNames = DistributionSummary.builder("battery.search.result.names")
+                .description("Number of battery names returned by a search")
+                .baseUnit("batteries")
+                .register(meterRegistry);
+        this.resultBatteries = DistributionSummary.builder("battery.search.result.batteries")
+                .description("Number of batteries within a searched range")
+                .baseUnit("batteries")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a search query and records its latency, whether it succeeds or fails
+     *
+     * @param query name of the query, usually the repository method
+     * @param call  the query
+     * @param <T>   type of the query result
+     * @return the query result
+     */
+    public <T> T timeQuery(String query, Supplier<T> call) {
+        var sample = Timer.start(meterRegistry);
+        var outcome = "error";
+        try {
+            var result = call.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(Timer.builder("battery.search.query.latency")
+                    .description("Time taken by a query run for a battery search")
+                    .tag("query", query)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Records the width of a searched range. Only numeric ranges, whose postcodes are compared by value, have a
+     * meaningful width, so ranges compared character by character are skipped
+     *
+     * @param range the searched range
+     */
+    public void recordRange(PostcodeRange range) {
+        if (!range.isNumeric()) {
+            return;
+        }
+        var width = range.postcodeNum2() - range.postcodeNum1() + 1;
+        if (width > 0) {
+            rangeWidths.record(width);
+        }
+    }
+
+    /**
+     * Records the size of a search result
+     *
+     * @param nameCount    number of battery names returned
+     * @param batteryCount number of batteries within the searched range
+     */
+    public void recordResult(int nameCount, long batteryCount) {
+        resultNames.record(nameCount);
+        resultBatteries.record(batteryCount);
+    }
+}
@@ -0,0 +1,209 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.SlowQueryDto;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the latest search queries which exceeded a latency threshold in a bounded buffer, together with a summary of
+ * their query plan. Plans are captured by explaining the query again on a single background thread, so explaining
+ * never delays a search and at most one explain runs at a time. Slow queries arriving while the explain queue is full
+ * are kept without a plan.
+ */
+@Component
+public class SlowQueryProfiler {
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryProfiler.class);
+    private static final int EXPLAIN_QUEUE_CAPACITY = 8;
+    //Plans the optimizer considered but did not run, and the command echoed back as it was sent
+    private static final Set<String> SKIPPED_KEYS = Set.of("rejectedPlans", "allPlansExecution", "command");
+
+    private final long thresholdNanos;
+    private final int capacity;
+    private final boolean explainEnabled;
+    private final Deque<SlowQueryDto> slowQueries = new ArrayDeque<>();
+    private final ThreadPoolExecutor explainExecutor;
+
+    public SlowQueryProfiler(@Value("${battery.search.slow-query.threshold-ms:500}") long thresholdMillis,
+                             @Value("${battery.search.slow-query.capacity:100}") int capacity,
+                             @Value("${battery.search.slow-query.explain.enabled:true}") boolean explainEnabled) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.capacity = capacity;
+        this.explainEnabled = explainEnabled;
+        this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(EXPLAIN_QUEUE_CAPACITY), runnable -> {
+            var thread = new Thread(runnable, "slow-query-explain");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records a query if it took longer than the threshold. A threshold or capacity of 0 disables the profiler
+     *
+     * @param query         name of the query, usually the repository method
+     * @param range         the searched range
+     * @param durationNanos time taken by the query
+     * @param explain       explains the query, or null if the query cannot be explained
+     */
+    public void recordIfSlow(String query, PostcodeRange range, long durationNanos, Supplier<Document> explain) {
+        if (thresholdNanos <= 0 || capacity <= 0 || durationNanos < thresholdNanos) {
+            return;
+        }
+        var slowQuery = SlowQueryDto.builder()
+                .recordedAt(Instant.now())
+                .query(query)
+                .postcode1(range.postcode1())
+                .postcode2(range.postcode2())
+                .durationMillis(TimeUnit.NANOSECONDS.toMillis(durationNanos))
+                .build();
+        logger.warn("Slow query {} for {} to {} took {}ms", query, range.postcode1(), range.postcode2(),
+                slowQuery.getDurationMillis());
+        if (explain == null) {
+            slowQuery.setExplainError("Explain is only captured for aggregations");
+        } else if (!explainEnabled) {
+            slowQuery.setExplainError("Explain is disabled");
+        } else {
+            try {
+                explainExecutor.execute(() -> add(explain(slowQuery, explain)));
+                return;
+            } catch (RejectedExecutionException e) {
+                slowQuery.setExplainError("Explain skipped, too many slow queries waiting to be explained");
+            }
+        }
+        add(slowQuery);
+    }
+
+    /**
+     * Returns the recorded slow queries
+     *
+     * @return the slow queries, latest first
+     */
+    public List<SlowQueryDto> getSlowQueries() {
+        synchronized (slowQueries) {
+            return new ArrayList<>(slowQueries);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        explainExecutor.shutdownNow();
+    }
+
+    private void add(SlowQueryDto slowQuery) {
+        synchronized (slowQueries) {
+            if (slowQueries.size() >= capacity) {
+                slowQueries.removeLast();
+            }
+            slowQueries.addFirst(slowQuery);
+        }
+    }
+
+    private static SlowQueryDto explain(SlowQueryDto slowQuery, Supplier<Document> explain) {
+        try {
+            summarise(slowQuery, explain.get());
+        } catch (RuntimeException e) {
+            logger.warn("Slow query {} could not be explained", slowQuery.getQuery(), e);
+            slowQuery.setExplainError("Explain failed: " + e.getMessage());
+        }
+        return slowQuery;
+    }
+
+    /**
+     * Fills the plan summary of a slow query from its explain output. The output is walked as a whole because its
+     * shape depends on how much of the pipeline the server pushed down to the query layer
+     *
+     * @param slowQuery the slow query
+     * @param explain   explain output of the query with execution statistics
+     */
+    public static void summarise(SlowQueryDto slowQuery, Document explain) {
+        var summary = new PlanSummary();
+        summary.visit(explain);
+        slowQuery.setIndexesUsed(new ArrayList<>(summary.indexes));
+        slowQuery.setCollectionScan(summary.collectionScan);
+        slowQuery.setBlockingSort(summary.blockingSort);
+        slowQuery.setKeysExamined(summary.keysExamined);
+        slowQuery.setDocsExamined(summary.docsExamined);
+        slowQuery.setReturned(summary.returned);
+        slowQuery.setExplain(explain.toJson());
+    }
+
+    private static class PlanSummary {
+        private final Set<String> indexes = new LinkedHashSet<>();
+        private boolean collectionScan;
+        private boolean blockingSort;
+        private long keysExamined;
+        private long docsExamined;
+        private long returned;
+
+        private void visit(Object node) {
+            if (node instanceof List<?> list) {
+                list.forEach(this::visit);
+            } else if (node instanceof Map<?, ?> map) {
+                var stage = map.get("stage");
+                if ("IXSCAN".equals(stage) && map.get("indexName") instanceof String indexName) {
+                    indexes.add(indexName);
+                } else if ("COLLSCAN".equals(stage)) {
+                    collectionScan = true;
+                } else if ("SORT".equals(stage)) {
+                    blockingSort = true;
+                }
+                if (map.get("executionStats") instanceof Map<?, ?> executionStats) {
+                    keysExamined += number(executionStats.get("totalKeysExamined"));
+                    docsExamined += number(executionStats.get("totalDocsExamined"));
+                    returned += number(executionStats.get("nReturned"));
+                }
+                map.forEach((key, value) -> {
+                    if ("stages".equals(key) && value instanceof List<?> stages) {
+                        visitPipeline(stages);
+                    } else if (!SKIPPED_KEYS.contains(String.valueOf(key))) {
+                        visit(value);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Visits the stages of a pipeline the server did not push down to the query layer. A $sort left among them,
+         * or in a sub-pipeline of a $facet, orders documents in memory like a SORT plan stage
+         */
+        private void visitPipeline(List<?> stages) {
+            for (var stage : stages) {
+                if (stage instanceof Map<?, ?> map) {
+                    if (map.containsKey("$sort")) {
+                        blockingSort = true;
+                    }
+                    if (map.get("$facet") instanceof Map<?, ?> facet) {
+                        facet.values().forEach(pipeline -> {
+                            if (pipeline instanceof List<?> facetStages) {
+                                visitPipeline(facetStages);
+                            }
+                        });
+                    }
+                }
+                visit(stage);
+            }
+        }
+
+        private static long number(Object value) {
+            return value instanceof Number number ? number.longValue() : 0;
+        }
+    }
+}
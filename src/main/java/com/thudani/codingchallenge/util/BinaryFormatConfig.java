@@ -0,0 +1,53 @@
+package com.thudani.codingchallenge.util;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Lets clients exchange battery payloads as Smile (application/x-jackson-smile) or CBOR (application/cbor) instead of
+ * JSON, chosen by the Content-Type and Accept headers. Both are binary encodings of the JSON data model, so the DTOs
+ * bind the same way, without the text parsing and number formatting costs of JSON. The mappers are built by the
+ * Jackson2ObjectMapperBuilder of the application so that they are configured like its JSON mapper
+ */
+@Configuration
+public class BinaryFormatConfig {
+    private static final MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+
+    @Bean
+    @Profile("!reactive")
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+
+    @Bean
+    @Profile("!reactive")
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    /**
+     * Smile is configured in the place of the default Smile codecs of WebFlux, which come after JSON so that JSON
+     * stays the default when the Accept header allows any type. WebFlux has no such place for CBOR, so the reactive
+     * profile only adds Smile
+     */
+    @Bean
+    @Profile("reactive")
+    public CodecCustomizer smileCodecCustomizer(Jackson2ObjectMapperBuilder builder) {
+        var smileMapper = builder.factory(new SmileFactory()).build();
+        //Without explicit mime types the codecs would also claim JSON
+        return configurer -> {
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper, SMILE));
+            configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper, SMILE));
+        };
+    }
+}
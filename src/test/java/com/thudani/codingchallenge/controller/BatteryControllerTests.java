@@ -17,6 +17,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
 import java.util.List;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -38,7 +39,7 @@ class BatteryControllerTests {
 
         @Bean
         public BatteryController batteryController() {
-            return new BatteryController(batteryService);
+            return new BatteryController(batteryService, Optional.empty());
         }
     }
 
@@ -76,7 +77,7 @@ class BatteryControllerTests {
 
         Mockito.when(batteryService.saveBatteries(command)).thenReturn(savedBatteries);
 
-        ResponseEntity<List<BatteryDto>> result = batteryController.saveBatteries(command);
+        ResponseEntity<List<BatteryDto>> result = batteryController.saveBatteries(command, null);
         assertEquals(HttpStatus.CREATED, result.getStatusCode());
         assertEquals(savedBatteries, result.getBody());
     }
@@ -2,32 +2,58 @@ package com.thudani.codingchallenge.e2e;
 
 
 import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.command.SearchBatteriesCommand;
 import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.dto.PostcodeRangeDto;
 import com.thudani.codingchallenge.repository.BatteryRepository;
+import com.thudani.codingchallenge.repository.IdempotencyRecordRepository;
+import com.thudani.codingchallenge.repository.PostcodeRollupRepository;
+import com.thudani.codingchallenge.service.BatteryService;
+import com.thudani.codingchallenge.service.IngestJobService;
 import com.thudani.codingchallenge.util.AppTestConfiguration;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.server.ResponseStatusException;
 import org.testcontainers.shaded.com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -37,6 +63,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @Import(AppTestConfiguration.class)
 @SpringBootTest
 class CodingChallengeIntegrationTests {
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 
     @Autowired
     private MockMvc mvc;
@@ -44,11 +71,26 @@ class CodingChallengeIntegrationTests {
     @Autowired
     private BatteryRepository batteryRepository;
 
+    @Autowired
+    private PostcodeRollupRepository postcodeRollupRepository;
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @SpyBean
+    private BatteryService batteryService;
+
+    //Spied to refuse a job as the service does once its queue is full, which running jobs empty too fast to fill
+    @SpyBean
+    private IngestJobService ingestJobService;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @AfterEach
     void cleanUp() {
         batteryRepository.deleteAll();
+        postcodeRollupRepository.deleteAll();
+        idempotencyRecordRepository.deleteAll();
     }
 
     @Test
@@ -89,6 +131,80 @@ class CodingChallengeIntegrationTests {
                 .andExpect(jsonPath("$.averageWattCapacity", is(15.0)));
     }
 
+    @Test
+    void savingBatteriesWithAnIdempotencyKey() throws Exception {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder().name("battery1").postcode("2010").wattCapacity(10.0).build()))
+                .build();
+
+        String response = mvc.perform(post("/api/batteries")
+                        .content(objectMapper.writeValueAsString(command))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                        .header(IDEMPOTENCY_KEY_HEADER, "key1"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("battery1")))
+                .andReturn().getResponse().getContentAsString();
+
+        mvc.perform(post("/api/batteries")
+                        .content(objectMapper.writeValueAsString(command))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                        .header(IDEMPOTENCY_KEY_HEADER, "key1"))
+                .andExpect(status().isCreated())
+                .andExpect(content().json(response, true));
+        Mockito.verify(batteryService).saveBatteries(command);
+
+        SaveBatteriesCommand otherCommand = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder().name("battery2").postcode("2020").wattCapacity(20.0).build()))
+                .build();
+        mvc.perform(post("/api/batteries")
+                        .content(objectMapper.writeValueAsString(otherCommand))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                        .header(IDEMPOTENCY_KEY_HEADER, "key1"))
+                .andExpect(status().isUnprocessableEntity());
+        Mockito.verify(batteryService, Mockito.never()).saveBatteries(otherCommand);
+    }
+
+    @Test
+    void savingBatteriesWithTheIdempotencyKeyOfARequestInProgress() throws Exception {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder().name("battery1").postcode("2010").wattCapacity(10.0).build()))
+                .build();
+        var saving = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            saving.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return invocation.callRealMethod();
+        }).when(batteryService).saveBatteries(command);
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<MvcResult> first = executor.submit(() -> mvc.perform(post("/api/batteries")
+                            .content(objectMapper.writeValueAsString(command))
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                            .header(IDEMPOTENCY_KEY_HEADER, "key1"))
+                    .andReturn());
+            assertTrue(saving.await(10, TimeUnit.SECONDS));
+
+            mvc.perform(post("/api/batteries")
+                            .content(objectMapper.writeValueAsString(command))
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                            .header(IDEMPOTENCY_KEY_HEADER, "key1"))
+                    .andExpect(status().isConflict());
+
+            release.countDown();
+            assertEquals(HttpStatus.CREATED.value(), first.get(10, TimeUnit.SECONDS).getResponse().getStatus());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        Mockito.verify(batteryService).saveBatteries(command);
+    }
+
     @Test
     void savingAnEmptyListOfBatteries() throws Exception {
         SaveBatteriesCommand command = SaveBatteriesCommand.builder()
@@ -120,6 +236,77 @@ class CodingChallengeIntegrationTests {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void listingBatteryNamesPageByPage() throws Exception {
+        List<BatteryDto> batteries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batteries.add(BatteryDto.builder()
+                    .name("battery" + i)
+                    .postcode("2000")
+                    .wattCapacity(10.0)
+                    .build());
+        }
+        mvc.perform(post("/api/batteries")
+                        .content(objectMapper.writeValueAsString(SaveBatteriesCommand.builder().batteries(batteries).build()))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        String firstPage = mvc.perform(get("/api/batteries/names?postcode1=2000&postcode2=3000&pageSize=3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteryNames", hasSize(3)))
+                .andExpect(jsonPath("$.batteryNames[0]", is("battery0")))
+                .andExpect(jsonPath("$.batteryNames[2]", is("battery2")))
+                .andReturn().getResponse().getContentAsString();
+        String pageToken = objectMapper.readTree(firstPage).get("nextPageToken").asText();
+
+        mvc.perform(get("/api/batteries/names?postcode1=2000&postcode2=3000&pageSize=3&pageToken=" + pageToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteryNames", hasSize(2)))
+                .andExpect(jsonPath("$.batteryNames[0]", is("battery3")))
+                .andExpect(jsonPath("$.batteryNames[1]", is("battery4")))
+                .andExpect(jsonPath("$.nextPageToken", nullValue()));
+    }
+
+    @Test
+    void exportingBatteriesAsCsv() throws Exception {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder()
+                                .name("battery1")
+                                .postcode("2010")
+                                .wattCapacity(10.0)
+                                .build(),
+                        BatteryDto.builder()
+                                .name("battery2")
+                                .postcode("4000")
+                                .wattCapacity(20.0)
+                                .build()
+                ))
+                .build();
+        mvc.perform(post("/api/batteries")
+                        .content(objectMapper.writeValueAsString(command))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        MvcResult result = mvc.perform(get("/api/batteries/export?postcode1=2000&postcode2=3000&format=csv"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String csv = mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv"))
+                .andReturn().getResponse().getContentAsString();
+        String[] lines = csv.split("\r\n");
+        assertEquals(2, lines.length);
+        assertEquals("id,name,postcode,wattCapacity", lines[0]);
+        assertTrue(lines[1].endsWith(",battery1,2010,10.0"));
+    }
+
+    @Test
+    void exportingBatteries_invalidFormat() throws Exception {
+        mvc.perform(get("/api/batteries/export?postcode1=2000&postcode2=3000&format=xml"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void searchingBatteries_noResult() throws Exception {
         mvc.perform(get("/api/batteries?postcode1=5000&postcode2=6000"))
@@ -138,6 +325,52 @@ class CodingChallengeIntegrationTests {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void searchingSeveralRangesAtOnce() throws Exception {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder().name("battery1").postcode("2010").wattCapacity(10.0).build(),
+                        BatteryDto.builder().name("battery2").postcode("2020").wattCapacity(20.0).build(),
+                        BatteryDto.builder().name("battery3").postcode("4000").wattCapacity(30.0).build()))
+                .build();
+        mvc.perform(post("/api/batteries")
+                        .content(objectMapper.writeValueAsString(command))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        SearchBatteriesCommand searchCommand = SearchBatteriesCommand.builder()
+                .ranges(List.of(
+                        PostcodeRangeDto.builder().postcode1("4000").postcode2("5000").build(),
+                        PostcodeRangeDto.builder().postcode1("2000").postcode2("3000").build(),
+                        PostcodeRangeDto.builder().postcode1("6000").postcode2("7000").build()))
+                .build();
+        mvc.perform(post("/api/batteries/search")
+                        .content(objectMapper.writeValueAsString(searchCommand))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].batteryNames", hasSize(1)))
+                .andExpect(jsonPath("$[0].batteryNames[0]", is("battery3")))
+                .andExpect(jsonPath("$[0].totalWattCapacity", is(30.0)))
+                .andExpect(jsonPath("$[0].averageWattCapacity", is(30.0)))
+                .andExpect(jsonPath("$[1].batteryNames", hasSize(2)))
+                .andExpect(jsonPath("$[1].batteryNames[0]", is("battery1")))
+                .andExpect(jsonPath("$[1].batteryNames[1]", is("battery2")))
+                .andExpect(jsonPath("$[1].totalWattCapacity", is(30.0)))
+                .andExpect(jsonPath("$[1].averageWattCapacity", is(15.0)))
+                .andExpect(jsonPath("$[2].batteryNames", hasSize(0)))
+                .andExpect(jsonPath("$[2].totalWattCapacity", is(0.0)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("invalidSearchCommands")
+    void searchingSeveralRanges_InvalidRanges(SearchBatteriesCommand command) throws Exception {
+        mvc.perform(post("/api/batteries/search")
+                        .content(objectMapper.writeValueAsString(command))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void savingMoreThanOneBatchOfBatteries() throws Exception {
         List<BatteryDto> batteries = new ArrayList<>();
@@ -159,6 +392,190 @@ class CodingChallengeIntegrationTests {
                 .andExpect(jsonPath("$", hasSize(350)));
     }
 
+    @Test
+    void bulkSavingAListOfBatteriesWithAnInvalidBattery() throws Exception {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder()
+                                .name("battery1")
+                                .postcode("2010")
+                                .wattCapacity(10.0)
+                                .build(),
+                        BatteryDto.builder()
+                                .name("battery2")
+                                .postcode("2020")
+                                .build()
+                ))
+                .build();
+
+        mvc.perform(post("/api/batteries/bulk")
+                        .content(objectMapper.writeValueAsString(command))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.savedBatteries", hasSize(1)))
+                .andExpect(jsonPath("$.savedBatteries[0].name", is("battery1")))
+                .andExpect(jsonPath("$.rejectedBatteries", hasSize(1)))
+                .andExpect(jsonPath("$.rejectedBatteries[0].index", is(1)))
+                .andExpect(jsonPath("$.rejectedBatteries[0].reason", is("Watt capacity must be provided")));
+    }
+
+    @Test
+    void ingestingANewlineDelimitedStreamOfBatteries() throws Exception {
+        String stream = """
+                {"name": "battery1", "postcode": "2010", "wattCapacity": 10.0}
+                {"name": "battery2", "postcode": "2020"}
+                {"name": "battery3", "postcode": "2020", "wattCapacity": 20.0}
+                """;
+
+        mvc.perform(post("/api/batteries")
+                        .content(stream)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.acceptedCount", is(2)))
+                .andExpect(jsonPath("$.rejectedCount", is(1)))
+                .andExpect(jsonPath("$.rejectedRecords[0]", is(2)));
+
+        mvc.perform(get("/api/batteries?postcode1=2010&postcode2=2020"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteryNames", hasSize(2)))
+                .andExpect(jsonPath("$.totalWattCapacity", is(30.0)));
+    }
+
+    @Test
+    void ingestingAJsonArrayOfBatteriesSentAsJson() throws Exception {
+        String stream = """
+                [{"name": "battery1", "postcode": "2010", "wattCapacity": 10.0},
+                 {"name": "battery2", "postcode": "2020"},
+                 {"name": "battery3", "postcode": "2020", "wattCapacity": 20.0}]
+                """;
+
+        mvc.perform(post("/api/batteries/ingest")
+                        .content(stream)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.acceptedCount", is(2)))
+                .andExpect(jsonPath("$.rejectedCount", is(1)))
+                .andExpect(jsonPath("$.rejectedRecords[0]", is(2)));
+
+        mvc.perform(get("/api/batteries?postcode1=2010&postcode2=2020"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteryNames", hasSize(2)))
+                .andExpect(jsonPath("$.totalWattCapacity", is(30.0)));
+    }
+
+    @Test
+    void submittingAnIngestJobAndPollingItUntilItCompletes() throws Exception {
+        String stream = """
+                {"name": "battery1", "postcode": "2010", "wattCapacity": 10.0}
+                {"name": "battery2", "postcode": "2020"}
+                {"name": "battery3", "postcode": "2020", "wattCapacity": 20.0}
+                """;
+
+        MvcResult submitResult = mvc.perform(post("/api/batteries/jobs")
+                        .content(stream)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.status", is("QUEUED")))
+                .andReturn();
+        String jobId = objectMapper.readTree(submitResult.getResponse().getContentAsString()).get("jobId").asText();
+        assertEquals("http://localhost/api/batteries/jobs/" + jobId,
+                submitResult.getResponse().getHeader(HttpHeaders.LOCATION));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        String status;
+        do {
+            Thread.sleep(10);
+            String job = mvc.perform(get("/api/batteries/jobs/" + jobId))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.jobId", is(jobId)))
+                    .andReturn().getResponse().getContentAsString();
+            status = objectMapper.readTree(job).get("status").asText();
+        } while (!status.equals("COMPLETED") && !status.equals("FAILED") && System.nanoTime() < deadline);
+
+        mvc.perform(get("/api/batteries/jobs/" + jobId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("COMPLETED")))
+                .andExpect(jsonPath("$.summary.acceptedCount", is(2)))
+                .andExpect(jsonPath("$.summary.rejectedCount", is(1)))
+                .andExpect(jsonPath("$.summary.rejectedRecords[0]", is(2)));
+        mvc.perform(get("/api/batteries?postcode1=2010&postcode2=2020"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteryNames", hasSize(2)));
+    }
+
+    @Test
+    void gettingAnUnknownIngestJob() throws Exception {
+        mvc.perform(get("/api/batteries/jobs/unknown"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void submittingAnIngestJobWhileTheQueueIsFull() throws Exception {
+        Mockito.doThrow(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Ingest job queue is full"))
+                .when(ingestJobService).submitJob(ArgumentMatchers.any(InputStream.class));
+
+        mvc.perform(post("/api/batteries/jobs")
+                        .content("{\"name\": \"battery1\", \"postcode\": \"2010\", \"wattCapacity\": 10.0}")
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().doesNotExist(HttpHeaders.LOCATION));
+    }
+
+    @ParameterizedTest
+    @MethodSource("binaryMediaTypes")
+    void savingAndSearchingBatteriesInABinaryFormat(MediaType mediaType,
+                                                    com.fasterxml.jackson.databind.ObjectMapper binaryMapper)
+            throws Exception {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder().name("battery1").postcode("2010").wattCapacity(10.0).build(),
+                        BatteryDto.builder().name("battery2").postcode("2020").wattCapacity(20.0).build()))
+                .build();
+
+        MvcResult saveResult = mvc.perform(post("/api/batteries")
+                        .content(binaryMapper.writeValueAsBytes(command))
+                        .contentType(mediaType)
+                        .accept(mediaType))
+                .andExpect(status().isCreated())
+                .andExpect(content().contentType(mediaType))
+                .andReturn();
+        BatteryDto[] saved = binaryMapper.readValue(saveResult.getResponse().getContentAsByteArray(),
+                BatteryDto[].class);
+        assertEquals(2, saved.length);
+        assertEquals("battery1", saved[0].getName());
+
+        MvcResult searchResult = mvc.perform(get("/api/batteries?postcode1=2010&postcode2=2020")
+                        .accept(mediaType))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(mediaType))
+                .andReturn();
+        BatteryResultDto result = binaryMapper.readValue(searchResult.getResponse().getContentAsByteArray(),
+                BatteryResultDto.class);
+        assertEquals(List.of("battery1", "battery2"), result.getBatteryNames());
+        assertEquals(30.0, result.getTotalWattCapacity());
+    }
+
+    private static Collection<Object[]> binaryMediaTypes() {
+        return Arrays.asList(new Object[][]{
+                {MediaType.valueOf("application/x-jackson-smile"), Jackson2ObjectMapperBuilder.smile().build()},
+                {MediaType.APPLICATION_CBOR, Jackson2ObjectMapperBuilder.cbor().build()}
+        });
+    }
+
+    private static Collection<SearchBatteriesCommand> invalidSearchCommands() {
+        return List.of(
+                SearchBatteriesCommand.builder().build(),
+                SearchBatteriesCommand.builder().ranges(List.of()).build(),
+                SearchBatteriesCommand.builder()
+                        .ranges(List.of(PostcodeRangeDto.builder().postcode1("3000").postcode2("2000").build()))
+                        .build(),
+                SearchBatteriesCommand.builder()
+                        .ranges(List.of(
+                                PostcodeRangeDto.builder().postcode1("2000").postcode2("3000").build(),
+                                PostcodeRangeDto.builder().postcode1("2000").build()))
+                        .build());
+    }
+
     private static Collection<Object[]> batteries() {
         return Arrays.asList(new Object[][]{
                 {null, "2000", 20.00},
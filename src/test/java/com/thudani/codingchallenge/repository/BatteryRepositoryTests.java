@@ -1,26 +1,54 @@
 package com.thudani.codingchallenge.repository;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.thudani.codingchallenge.dto.BatterySearchDto;
 import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.dto.PostcodeStatisticsDto;
+import com.thudani.codingchallenge.dto.SlowQueryDto;
 import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.service.SlowQueryProfiler;
 import com.thudani.codingchallenge.util.AppTestConfiguration;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.CollectionCallback;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests for {@link BatteryRepository}
  */
-@DataMongoTest
+@DataMongoTest(properties = "battery.snapshot.enabled=true")
 @AutoConfigureDataMongo
 @Import(AppTestConfiguration.class)
 class BatteryRepositoryTests {
@@ -28,42 +56,51 @@ class BatteryRepositoryTests {
     @Autowired
     private BatteryRepository batteryRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     @BeforeEach
     void setup() {
         batteryRepository.save(Battery.builder()
                 .name("Bca")
                 .lowercaseName("bca")
                 .postcode("2000")
+                .postcodeNum(2000L)
                 .wattCapacity(10.0)
                 .build());
         batteryRepository.save(Battery.builder()
                 .name("Def")
                 .lowercaseName("def")
                 .postcode("2001")
+                .postcodeNum(2001L)
                 .wattCapacity(10.0)
                 .build());
         batteryRepository.save(Battery.builder()
                 .name("xac")
                 .lowercaseName("xac")
                 .postcode("2002")
+                .postcodeNum(2002L)
                 .wattCapacity(10.0)
                 .build());
         batteryRepository.save(Battery.builder()
                 .name("Pqr")
                 .lowercaseName("pqr")
                 .postcode("2003")
+                .postcodeNum(2003L)
                 .wattCapacity(10.0)
                 .build());
         batteryRepository.save(Battery.builder()
                 .name("acb")
                 .lowercaseName("acb")
                 .postcode("2004")
+                .postcodeNum(2004L)
                 .wattCapacity(10.0)
                 .build());
         batteryRepository.save(Battery.builder()
                 .name("aac")
                 .lowercaseName("aac")
                 .postcode("2005")
+                .postcodeNum(2005L)
                 .wattCapacity(10.0)
                 .build());
     }
@@ -71,6 +108,7 @@ class BatteryRepositoryTests {
     @AfterEach
     void cleanUp() {
         batteryRepository.deleteAll();
+        batteryRepository.dropIndexIfExists(Battery.NATURAL_KEY_INDEX);
     }
 
     @Test
@@ -95,4 +133,373 @@ class BatteryRepositoryTests {
         assertEquals(50.0, statisticsDto.get().getTotalWattCapacity());
         assertEquals(5, statisticsDto.get().getBatteryCount());
     }
+
+    @Test
+    void findNamesAndStatisticsWithinPostcodeRange() {
+        BatterySearchDto search = batteryRepository.findNamesAndStatisticsWithinPostcodeRange("2000", "2004", 3);
+        assertEquals(3, search.getBatteries().size());
+        assertEquals("acb", search.getBatteries().get(0).getName());
+        assertEquals("Bca", search.getBatteries().get(1).getName());
+        assertEquals("Def", search.getBatteries().get(2).getName());
+        assertEquals(1, search.getStatistics().size());
+        assertEquals(50.0, search.getStatistics().get(0).getTotalWattCapacity());
+        assertEquals(5, search.getStatistics().get(0).getBatteryCount());
+    }
+
+    @Test
+    void findNamesAndStatisticsWithinPostcodeRange_noBatteries() {
+        BatterySearchDto search = batteryRepository.findNamesAndStatisticsWithinPostcodeRange("5000", "6000", 3);
+        assertTrue(search.getBatteries().isEmpty());
+        assertTrue(search.getStatistics().isEmpty());
+    }
+
+    @Test
+    void findWithinPostcodeNumRangeOrderByName() {
+        batteryRepository.save(Battery.builder()
+                .name("Abc")
+                .lowercaseName("abc")
+                .postcode("900")
+                .postcodeNum(900L)
+                .wattCapacity(5.0)
+                .build());
+
+        List<Battery> result = batteryRepository.findWithinPostcodeNumRangeOrderByName(200, 2001, 0, 3);
+        assertEquals(List.of("Abc", "Bca", "Def"), result.stream().map(Battery::getName).toList());
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(25.0).batteryCount(3L).build()),
+                batteryRepository.findTotalWattCapacityWithinPostcodeNumRange(200, 2001));
+        BatterySearchDto search = batteryRepository.findNamesAndStatisticsWithinPostcodeNumRange(200, 2001, 2);
+        assertEquals(List.of("Abc", "Bca"), search.getBatteries().stream().map(Battery::getName).toList());
+        assertEquals(3, search.getStatistics().get(0).getBatteryCount());
+    }
+
+    @Test
+    void findStatisticsPerPostcode() {
+        batteryRepository.save(Battery.builder()
+                .name("Abc")
+                .lowercaseName("abc")
+                .postcode("2000")
+                .postcodeNum(2000L)
+                .wattCapacity(5.0)
+                .build());
+
+        List<PostcodeStatisticsDto> groups = batteryRepository.findStatisticsPerPostcodeNum(
+                new long[]{2000, 2004}, new long[]{2001, 2004});
+        assertEquals(List.of(2000L, 2001L, 2004L),
+                groups.stream().map(PostcodeStatisticsDto::getPostcodeNum).sorted().toList());
+        PostcodeStatisticsDto group = groups.stream().filter(g -> g.getPostcodeNum() == 2000L).findFirst().orElseThrow();
+        assertEquals(15.0, group.getTotalWattCapacity());
+        assertEquals(2, group.getBatteryCount());
+
+        groups = batteryRepository.findStatisticsPerPostcode(new String[]{"2003"}, new String[]{"2005"});
+        assertEquals(List.of("2003", "2004", "2005"),
+                groups.stream().map(PostcodeStatisticsDto::getPostcode).sorted().toList());
+    }
+
+    @Test
+    void findNamesPerPostcodeRange() {
+        batteryRepository.save(Battery.builder()
+                .name("Abc")
+                .lowercaseName("abc")
+                .postcode("2000")
+                .postcodeNum(2000L)
+                .wattCapacity(5.0)
+                .build());
+
+        List<List<Battery>> names = batteryRepository.findNamesPerPostcodeNumRange(
+                new long[]{2000, 2004, 2000, 3000}, new long[]{2001, 2005, 2005, 3000}, 2);
+        assertEquals(List.of(List.of("Abc", "Bca"), List.of("aac", "acb"), List.of("aac", "Abc"), List.of()),
+                names.stream().map(batteries -> batteries.stream().map(Battery::getName).toList()).toList());
+        assertEquals("abc", names.get(0).get(0).getLowercaseName());
+
+        names = batteryRepository.findNamesPerPostcodeRange(new String[]{"2003", "2001"}, new String[]{"2005", "2001"}, 50);
+        assertEquals(List.of(List.of("aac", "acb", "Pqr"), List.of("Def")),
+                names.stream().map(batteries -> batteries.stream().map(Battery::getName).toList()).toList());
+    }
+
+    @Test
+    void backfillPostcodeNums() {
+        batteryRepository.save(Battery.builder()
+                .name("Old")
+                .lowercaseName("old")
+                .postcode("0900")
+                .wattCapacity(5.0)
+                .build());
+        batteryRepository.save(Battery.builder()
+                .name("Letters")
+                .lowercaseName("letters")
+                .postcode("SW1A")
+                .wattCapacity(5.0)
+                .build());
+
+        assertEquals(1, batteryRepository.backfillPostcodeNums());
+        assertEquals(List.of("Old"), batteryRepository.findWithinPostcodeNumRangeOrderByName(900, 900, 0, 10)
+                .stream().map(Battery::getName).toList());
+        assertEquals(0, batteryRepository.backfillPostcodeNums());
+    }
+
+    @Test
+    void findPageWithinPostcodeRange() {
+        batteryRepository.save(Battery.builder()
+                .name("ACB")
+                .lowercaseName("acb")
+                .postcode("2001")
+                .postcodeNum(2001L)
+                .postcodeNum(2001L)
+                .wattCapacity(10.0)
+                .build());
+
+        List<Battery> firstPage = batteryRepository.findPageWithinPostcodeRange("2000", "2004", null, null, 2);
+        assertEquals(2, firstPage.size());
+        assertEquals("acb", firstPage.get(0).getLowercaseName());
+        assertEquals("acb", firstPage.get(1).getLowercaseName());
+        assertTrue(firstPage.get(0).getId().compareTo(firstPage.get(1).getId()) < 0);
+
+        Battery last = firstPage.get(1);
+        List<Battery> secondPage = batteryRepository.findPageWithinPostcodeRange("2000", "2004",
+                last.getLowercaseName(), last.getId(), 2);
+        assertEquals(2, secondPage.size());
+        assertEquals("Bca", secondPage.get(0).getName());
+        assertEquals("Def", secondPage.get(1).getName());
+
+        last = secondPage.get(1);
+        List<Battery> lastPage = batteryRepository.findPageWithinPostcodeRange("2000", "2004",
+                last.getLowercaseName(), last.getId(), 2);
+        assertEquals(1, lastPage.size());
+        assertEquals("Pqr", lastPage.get(0).getName());
+    }
+
+    @Test
+    void findPageWithinPostcodeRange_pagesNarrowAndWideRangesAlike() {
+        //With no range sorted in memory every page is read from the name index, otherwise from the postcode index
+        var nameOrdered = new BatteryRepositoryCustomImpl(mongoTemplate, false, 0);
+        var sortedInMemory = new BatteryRepositoryCustomImpl(mongoTemplate, false, 10000);
+
+        for (var range : List.of(List.of("2001", "2004"), List.of("2001", "2004A"))) {
+            assertEquals(List.of("acb", "def"), pageNames(nameOrdered, range, null, null));
+            assertEquals(List.of("acb", "def"), pageNames(sortedInMemory, range, null, null));
+            var last = nameOrdered.findPageWithinPostcodeRange(range.get(0), range.get(1), null, null, 2).get(1);
+            assertEquals(List.of("pqr", "xac"), pageNames(nameOrdered, range, last.getLowercaseName(), last.getId()));
+            assertEquals(List.of("pqr", "xac"), pageNames(sortedInMemory, range, last.getLowercaseName(), last.getId()));
+        }
+    }
+
+    private static List<String> pageNames(BatteryRepositoryCustomImpl repository, List<String> range,
+                                          String afterLowercaseName, String afterId) {
+        return repository.findPageWithinPostcodeRange(range.get(0), range.get(1), afterLowercaseName, afterId, 2)
+                .stream().map(Battery::getLowercaseName).toList();
+    }
+
+    @Test
+    void streamWithinPostcodeRange() {
+        try (Stream<Battery> batteries = batteryRepository.streamWithinPostcodeRange("2001", "2004", 2)) {
+            assertEquals(List.of("Def", "xac", "Pqr", "acb"), batteries.map(Battery::getName).toList());
+        }
+    }
+
+    @Test
+    void streamNumericOrderedByPostcodeNum() {
+        batteryRepository.save(Battery.builder()
+                .name("Ghi")
+                .lowercaseName("ghi")
+                .postcode("A2000")
+                .wattCapacity(10.0)
+                .build());
+        batteryRepository.save(Battery.builder()
+                .name("Jkl")
+                .lowercaseName("jkl")
+                .postcode("900")
+                .postcodeNum(900L)
+                .wattCapacity(10.0)
+                .build());
+        try (Stream<Battery> batteries = batteryRepository.streamNumericOrderedByPostcodeNum(2)) {
+            assertEquals(List.of(900L, 2000L, 2001L, 2002L, 2003L, 2004L, 2005L),
+                    batteries.map(Battery::getPostcodeNum).toList());
+        }
+    }
+
+    @Test
+    void explainAggregation() {
+        var explain = batteryRepository.explainAggregation("findWithinPostCodeRangeOrderByName", "2001", "2004", 0, 50);
+        assertEquals(1.0, explain.get("ok", Number.class).doubleValue());
+        assertTrue(explain.toJson().contains("executionStats"));
+    }
+
+    @Test
+    void explainAggregation_sortServedByAnIndexIsNotBlocking() {
+        var explain = batteryRepository.explainAggregation("findWithinPostcodeNumRangeOrderByName",
+                2000L, 2000L, 0, 50);
+        var slowQuery = SlowQueryDto.builder().build();
+        SlowQueryProfiler.summarise(slowQuery, explain);
+        assertFalse(slowQuery.getIndexesUsed().isEmpty());
+        assertFalse(slowQuery.getCollectionScan());
+        assertFalse(slowQuery.getBlockingSort());
+    }
+
+    @Test
+    void explainAggregation_unknownMethod() {
+        assertThrows(IllegalArgumentException.class,
+                () -> batteryRepository.explainAggregation("findWithinPostCodeRangeOrderByName", "2001", "2004"));
+    }
+
+    @Test
+    void upsertUnordered() {
+        var existing = batteryRepository.findWithinPostCodeRangeOrderByName("2000", "2000", 0, 1).get(0);
+        List<Battery> batteries = List.of(
+                Battery.builder()
+                        .name("Ghi")
+                        .lowercaseName("ghi")
+                        .postcode("2006")
+                        .wattCapacity(10.0)
+                        .build(),
+                Battery.builder()
+                        .id(existing.getId())
+                        .name("Duplicate")
+                        .lowercaseName("duplicate")
+                        .postcode("2006")
+                        .wattCapacity(10.0)
+                        .build(),
+                Battery.builder()
+                        .name("Jkl")
+                        .lowercaseName("jkl")
+                        .postcode("2006")
+                        .postcodeNum(2006L)
+                        .wattCapacity(10.0)
+                        .build(),
+                Battery.builder()
+                        .name("Bca")
+                        .lowercaseName("bca")
+                        .postcode("2000")
+                        .postcodeNum(2000L)
+                        .wattCapacity(99.0)
+                        .build());
+
+        BatteryUpsertResult result = batteryRepository.upsertUnordered(batteries);
+        assertEquals(1, result.rejectedBatteries().size());
+        assertEquals(1, result.rejectedBatteries().get(0).getIndex());
+        assertEquals(Set.of(3), result.duplicateIndexes());
+        assertNotNull(batteries.get(0).getId());
+        assertNotNull(batteries.get(2).getId());
+        assertEquals(2, batteryRepository.findWithinPostCodeRangeOrderByName("2006", "2006", 0, 10).size());
+        assertEquals(10.0, batteryRepository.findById(existing.getId()).orElseThrow().getWattCapacity());
+    }
+
+    @Test
+    void upsertUnordered_savesARetryOnlyOnce() {
+        batteryRepository.createNaturalKeyIndex();
+        List<Battery> batteries = List.of(Battery.builder()
+                .name("Ghi")
+                .lowercaseName("ghi")
+                .postcode("2006")
+                .postcodeNum(2006L)
+                .wattCapacity(10.0)
+                .build());
+        List<Battery> retry = List.of(Battery.builder()
+                .name("Ghi")
+                .lowercaseName("ghi")
+                .postcode("2006")
+                .postcodeNum(2006L)
+                .wattCapacity(10.0)
+                .build());
+
+        assertEquals(BatteryUpsertResult.EMPTY, batteryRepository.upsertUnordered(batteries));
+        assertEquals(Set.of(0), batteryRepository.upsertUnordered(retry).duplicateIndexes());
+        batteryRepository.loadStored(retry);
+        assertEquals(batteries.get(0).getId(), retry.get(0).getId());
+        assertEquals(1, batteryRepository.findWithinPostCodeRangeOrderByName("2006", "2006", 0, 10).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void upsertUnordered_throwsAFailureWithoutBatteryErrors() {
+        var writeConcernFailure = new MongoBulkWriteException(BulkWriteResult.unacknowledged(), List.of(),
+                new WriteConcernError(64, "WriteConcernFailed", "waiting for replication timed out", new BsonDocument()),
+                new ServerAddress(), Set.of());
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class, Mockito.RETURNS_DEEP_STUBS);
+        BulkOperations bulkOperations = Mockito.mock(BulkOperations.class);
+        Mockito.when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Battery.class)).thenReturn(bulkOperations);
+        Mockito.when(bulkOperations.execute()).thenThrow(new BulkOperationException("failed", writeConcernFailure));
+        MongoCollection<Document> collection = Mockito.mock(MongoCollection.class);
+        MongoCollection<RawBsonDocument> rawCollection = Mockito.mock(MongoCollection.class);
+        Mockito.when(collection.withDocumentClass(RawBsonDocument.class)).thenReturn(rawCollection);
+        Mockito.when(rawCollection.bulkWrite(Mockito.anyList(), Mockito.any(BulkWriteOptions.class)))
+                .thenThrow(writeConcernFailure);
+        Mockito.when(mongoTemplate.execute(Mockito.eq(Battery.class), Mockito.any())).thenAnswer(invocation ->
+                invocation.<CollectionCallback<?>>getArgument(1).doInCollection(collection));
+        BatteryRepositoryCustomImpl repository = new BatteryRepositoryCustomImpl(mongoTemplate, true, 10000);
+        BsonBatteryBatch batch = new BsonBatteryBatch(1);
+        batch.add("Ghi", "2006", 10.0);
+
+        assertThrows(BulkOperationException.class, () -> repository.upsertUnordered(List.of(Battery.builder()
+                .name("Ghi")
+                .lowercaseName("ghi")
+                .postcode("2006")
+                .postcodeNum(2006L)
+                .wattCapacity(10.0)
+                .build())));
+        assertThrows(MongoBulkWriteException.class, () -> repository.upsertUnordered(batch));
+        Mockito.verify(mongoTemplate, Mockito.never()).upsert(Mockito.any(Query.class), Mockito.any(Update.class),
+                Mockito.anyString());
+    }
+
+    @Test
+    void upsertUnordered_keepsTheWriteWhenTheWriteSequenceCannotMove() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class, Mockito.RETURNS_DEEP_STUBS);
+        BulkOperations bulkOperations = Mockito.mock(BulkOperations.class);
+        BulkWriteResult bulkWriteResult = Mockito.mock(BulkWriteResult.class);
+        Mockito.when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Battery.class)).thenReturn(bulkOperations);
+        Mockito.when(bulkOperations.execute()).thenReturn(bulkWriteResult);
+        Mockito.when(bulkWriteResult.getUpserts()).thenReturn(List.of(new BulkWriteUpsert(0, new BsonObjectId())));
+        Mockito.when(mongoTemplate.upsert(Mockito.any(Query.class), Mockito.any(Update.class), Mockito.anyString()))
+                .thenThrow(new DataAccessResourceFailureException("unreachable"));
+        var battery = Battery.builder()
+                .name("Ghi")
+                .lowercaseName("ghi")
+                .postcode("2006")
+                .postcodeNum(2006L)
+                .wattCapacity(10.0)
+                .build();
+
+        assertEquals(BatteryUpsertResult.EMPTY, new BatteryRepositoryCustomImpl(mongoTemplate, true, 10000)
+                .upsertUnordered(List.of(battery)));
+        Mockito.verify(mongoTemplate).upsert(Mockito.any(Query.class), Mockito.any(Update.class), Mockito.anyString());
+
+        Mockito.clearInvocations(mongoTemplate);
+        new BatteryRepositoryCustomImpl(mongoTemplate, false, 10000).upsertUnordered(List.of(battery));
+        Mockito.verify(mongoTemplate, Mockito.never()).upsert(Mockito.any(Query.class), Mockito.any(Update.class),
+                Mockito.anyString());
+    }
+
+    @Test
+    void deleteDuplicates() {
+        var kept = batteryRepository.findWithinPostCodeRangeOrderByName("2000", "2000", 0, 1).get(0);
+        batteryRepository.save(Battery.builder()
+                .name("Bca")
+                .lowercaseName("bca")
+                .postcode("2000")
+                .postcodeNum(2000L)
+                .wattCapacity(20.0)
+                .build());
+
+        assertEquals(1, batteryRepository.deleteDuplicates());
+        assertEquals(List.of(kept.getId()), batteryRepository.findWithinPostCodeRangeOrderByName("2000", "2000", 0, 10)
+                .stream().map(Battery::getId).toList());
+        assertFalse(batteryRepository.indexExists(Battery.NATURAL_KEY_INDEX));
+        batteryRepository.createNaturalKeyIndex();
+        assertTrue(batteryRepository.indexExists(Battery.NATURAL_KEY_INDEX));
+    }
+
+    @Test
+    void writeSequence_movesAfterEveryUpsertAndDelete() {
+        var sequence = batteryRepository.writeSequence();
+        batteryRepository.upsertUnordered(List.of(Battery.builder()
+                .name("Stu")
+                .lowercaseName("stu")
+                .postcode("2007")
+                .postcodeNum(2007L)
+                .wattCapacity(10.0)
+                .build()));
+        assertEquals(sequence + 1, batteryRepository.writeSequence());
+        batteryRepository.deleteDuplicates();
+        assertEquals(sequence + 2, batteryRepository.writeSequence());
+    }
 }
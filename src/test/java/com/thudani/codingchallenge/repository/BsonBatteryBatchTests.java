@@ -0,0 +1,76 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.model.Battery;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link BsonBatteryBatch}
+ */
+class BsonBatteryBatchTests {
+    private final MappingMongoConverter converter =
+            new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+
+    @Test
+    void encodesTheSameUpsertsAsTheMappedBatteries() {
+        converter.afterPropertiesSet();
+        BsonBatteryBatch batch = new BsonBatteryBatch(1);
+        batch.add("Battery1", "2000", 10.5);
+        batch.add("battery2", "ABC", 20.0);
+        batch.add("battery3", "2030", 30.0);
+
+        var upserts = batch.toUpserts();
+        assertEquals(3, upserts.size());
+        assertEquals(List.of("2000", "ABC", "2030"), batch.postcodes());
+        assertArrayEquals(new double[]{10.5, 20.0, 30.0}, batch.wattCapacities());
+        List<Battery> batteries = List.of(
+                Battery.builder().name("Battery1").lowercaseName("battery1").postcode("2000").postcodeNum(2000L)
+                        .wattCapacity(10.5).build(),
+                Battery.builder().name("battery2").lowercaseName("battery2").postcode("ABC").wattCapacity(20.0).build(),
+                Battery.builder().name("battery3").lowercaseName("battery3").postcode("2030").postcodeNum(2030L)
+                        .wattCapacity(30.0).build());
+        var byteSize = 0L;
+        for (var i = 0; i < batteries.size(); i++) {
+            var battery = batteries.get(i);
+            var upsert = upserts.get(i);
+            assertTrue(upsert.getOptions().isUpsert());
+            assertEquals(new Document("name", battery.getName()).append("postcode", battery.getPostcode()),
+                    decode(upsert.getFilter()));
+
+            var inserted = decode(upsert.getUpdate()).get("$setOnInsert", Document.class);
+            battery.setId(inserted.getObjectId("_id").toHexString());
+            var mapped = new Document();
+            converter.write(battery, mapped);
+            assertEquals(mapped, inserted);
+            byteSize += new RawBsonDocument(mapped, new DocumentCodec()).getByteBuffer().remaining();
+        }
+        assertEquals(byteSize, batch.documentByteSize());
+    }
+
+    @Test
+    void assignsADistinctIdToEveryBattery() {
+        BsonBatteryBatch batch = new BsonBatteryBatch(2);
+        batch.add("battery1", "2000", 10.0);
+        batch.add("battery1", "2000", 10.0);
+
+        var upserts = batch.toUpserts();
+        ObjectId firstId = decode(upserts.get(0).getUpdate()).get("$setOnInsert", Document.class).getObjectId("_id");
+        ObjectId secondId = decode(upserts.get(1).getUpdate()).get("$setOnInsert", Document.class).getObjectId("_id");
+        assertNotEquals(firstId, secondId);
+    }
+
+    private static Document decode(Object bson) {
+        return new DocumentCodec().decode(((RawBsonDocument) bson).asBsonReader(), DecoderContext.builder().build());
+    }
+}
@@ -0,0 +1,136 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.dto.BatterySearchDto;
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link MappedBatteryStore}
+ */
+class MappedBatteryStoreTests {
+    private static final long CHUNK_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    private MappedBatteryStore store;
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private static Battery battery(String name, String postcode, double wattCapacity) {
+        return Battery.builder()
+                .name(name)
+                .lowercaseName(name.toLowerCase())
+                .postcode(postcode)
+                .postcodeNum(Battery.toPostcodeNum(postcode))
+                .wattCapacity(wattCapacity)
+                .build();
+    }
+
+    private MappedBatteryStore reopen() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        store = new MappedBatteryStore(directory, CHUNK_BYTES, true);
+        return store;
+    }
+
+    @Test
+    void searchesRangesLikeTheMongoQueries() throws IOException {
+        reopen().upsertAll(List.of(
+                battery("Def", "2000", 10.0),
+                battery("abc", "900", 20.0),
+                battery("Bcd", "0900", 30.0),
+                battery("Letters", "A100", 40.0)));
+
+        BatterySearchDto search = store.findNamesAndStatisticsWithinPostcodeRange("200", "3000", 2);
+        assertEquals(List.of("abc", "Bcd"), search.getBatteries().stream().map(Battery::getName).toList());
+        assertEquals(List.of(BatteryStatisticsDto.builder().totalWattCapacity(60.0).batteryCount(3L).build()),
+                search.getStatistics());
+        search = store.findNamesAndStatisticsWithinPostcodeRange("A000", "A999", 50);
+        assertEquals(List.of("Letters"), search.getBatteries().stream().map(Battery::getName).toList());
+        assertTrue(store.findNamesAndStatisticsWithinPostcodeRange("3001", "4000", 50).getStatistics().isEmpty());
+    }
+
+    @Test
+    void keepsTheFirstBatteryOfANameAndPostcode() throws IOException {
+        reopen().upsertAll(List.of(battery("abc", "2000", 10.0)));
+        var retry = List.of(battery("abc", "2000", 20.0), battery("abc", "2001", 30.0), battery("abc", "2001", 40.0));
+
+        assertEquals(Set.of(0, 2), store.upsertAll(retry).duplicateIndexes());
+        assertEquals(10.0, retry.get(0).getWattCapacity());
+        assertEquals(retry.get(1).getId(), retry.get(2).getId());
+        reopen();
+        assertEquals(2, store.count());
+        assertEquals(40.0, store.findNamesAndStatisticsWithinPostcodeRange("2000", "2001", 50)
+                .getStatistics().get(0).getTotalWattCapacity());
+    }
+
+    @Test
+    void pagesByNameAndId() throws IOException {
+        reopen().upsertAll(List.of(
+                battery("b", "2000", 10.0),
+                battery("A", "2001", 10.0),
+                battery("a", "2002", 10.0),
+                battery("c", "2003", 10.0)));
+
+        List<Battery> firstPage = store.findPageWithinPostcodeRange("2000", "2003", null, null, 2);
+        assertEquals("a", firstPage.get(0).getLowercaseName());
+        assertEquals("a", firstPage.get(1).getLowercaseName());
+        Battery last = firstPage.get(1);
+        List<Battery> secondPage = store.findPageWithinPostcodeRange("2000", "2003", last.getLowercaseName(),
+                last.getId(), 2);
+        assertEquals(List.of("b", "c"), secondPage.stream().map(Battery::getName).toList());
+    }
+
+    @Test
+    void recoversTheBatteriesAfterARestartAndGrowsTheLog() throws IOException {
+        var batteries = IntStream.range(0, 200).mapToObj(i -> battery("battery" + i, "2000", 1.0)).toList();
+        reopen().upsertAll(batteries);
+        assertTrue(directory.resolve("batteries.log").toFile().length() > CHUNK_BYTES);
+
+        reopen();
+        assertEquals(200, store.count());
+        BatterySearchDto search = store.findNamesAndStatisticsWithinPostcodeRange("2000", "2000", 1);
+        assertEquals(batteries.get(0).getId(), search.getBatteries().get(0).getId());
+        assertEquals(200.0, search.getStatistics().get(0).getTotalWattCapacity());
+    }
+
+    @Test
+    void dropsATornWriteOnRecovery() throws IOException {
+        reopen().upsertAll(List.of(battery("first", "2000", 10.0)));
+        store.upsertAll(List.of(battery("second", "2000", 20.0)));
+        store.close();
+        store = null;
+        try (var file = new RandomAccessFile(directory.resolve("batteries.log").toFile(), "rw")) {
+            //Corrupts the last byte of the second record, as if the crash happened before it was written
+            var secondRecordEnd = 8 + 2 * (8 + 12 + 8 + 4 + 4 + 4) + "first".length() + "second".length();
+            file.seek(secondRecordEnd - 1);
+            file.write(0x7f);
+        }
+
+        reopen();
+        assertEquals(1, store.count());
+        store.upsertAll(List.of(battery("third", "2000", 30.0)));
+        reopen();
+        assertEquals(List.of("first", "third"), store.findNamesAndStatisticsWithinPostcodeRange("2000", "2000", 50)
+                .getBatteries().stream().map(Battery::getName).toList());
+    }
+}
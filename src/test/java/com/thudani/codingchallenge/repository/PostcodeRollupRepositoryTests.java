@@ -0,0 +1,105 @@
+package com.thudani.codingchallenge.repository;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.model.PostcodeRollup;
+import com.thudani.codingchallenge.util.AppTestConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link PostcodeRollupRepository}
+ */
+@DataMongoTest
+@AutoConfigureDataMongo
+@Import(AppTestConfiguration.class)
+class PostcodeRollupRepositoryTests {
+
+    @Autowired
+    private PostcodeRollupRepository postcodeRollupRepository;
+
+    @Autowired
+    private BatteryRepository batteryRepository;
+
+    @AfterEach
+    void cleanUp() {
+        postcodeRollupRepository.deleteAll();
+        batteryRepository.deleteAll();
+    }
+
+    @Test
+    void incrementAllAndFindStatisticsWithinPostcodeRange() {
+        postcodeRollupRepository.incrementAll(List.of(
+                PostcodeRollup.builder().postcode("2000").totalWattCapacity(10.0).batteryCount(1L).build(),
+                PostcodeRollup.builder().postcode("2001").totalWattCapacity(20.0).batteryCount(2L).build()));
+        postcodeRollupRepository.incrementAll(List.of(
+                PostcodeRollup.builder().postcode("2000").totalWattCapacity(5.0).batteryCount(1L).build(),
+                PostcodeRollup.builder().postcode("3000").totalWattCapacity(50.0).batteryCount(5L).build()));
+
+        Optional<BatteryStatisticsDto> statisticsDto = postcodeRollupRepository.findStatisticsWithinPostcodeRange("2000", "2999");
+        assertTrue(statisticsDto.isPresent());
+        assertEquals(35.0, statisticsDto.get().getTotalWattCapacity());
+        assertEquals(4, statisticsDto.get().getBatteryCount());
+        assertTrue(postcodeRollupRepository.findStatisticsWithinPostcodeRange("4000", "5000").isEmpty());
+    }
+
+    @Test
+    void rebuildAll() {
+        batteryRepository.saveAll(List.of(
+                Battery.builder().name("Abc").lowercaseName("abc").postcode("2000").wattCapacity(10.0).build(),
+                Battery.builder().name("Def").lowercaseName("def").postcode("2000").wattCapacity(20.0).build(),
+                Battery.builder().name("Ghi").lowercaseName("ghi").postcode("2001").wattCapacity(30.0).build()));
+        postcodeRollupRepository.incrementAll(List.of(
+                PostcodeRollup.builder().postcode("9999").totalWattCapacity(99.0).batteryCount(9L).build()));
+
+        postcodeRollupRepository.rebuildAll();
+        assertEquals(2, postcodeRollupRepository.count());
+        PostcodeRollup rollup = postcodeRollupRepository.findById("2000").orElseThrow();
+        assertEquals(30.0, rollup.getTotalWattCapacity());
+        assertEquals(2, rollup.getBatteryCount());
+    }
+
+    @Test
+    void rebuildPostcodes() {
+        batteryRepository.saveAll(List.of(
+                Battery.builder().name("Abc").lowercaseName("abc").postcode("2000").wattCapacity(10.0).build(),
+                Battery.builder().name("Def").lowercaseName("def").postcode("2000").wattCapacity(20.0).build(),
+                Battery.builder().name("Ghi").lowercaseName("ghi").postcode("2001").wattCapacity(30.0).build()));
+        postcodeRollupRepository.incrementAll(List.of(
+                PostcodeRollup.builder().postcode("2000").totalWattCapacity(10.0).batteryCount(1L).build(),
+                PostcodeRollup.builder().postcode("2001").totalWattCapacity(99.0).batteryCount(9L).build(),
+                PostcodeRollup.builder().postcode("9999").totalWattCapacity(99.0).batteryCount(9L).build()));
+
+        postcodeRollupRepository.rebuild(List.of("2000", "9999"));
+        assertEquals(2, postcodeRollupRepository.count());
+        PostcodeRollup rollup = postcodeRollupRepository.findById("2000").orElseThrow();
+        assertEquals(30.0, rollup.getTotalWattCapacity());
+        assertEquals(2, rollup.getBatteryCount());
+        assertEquals(99.0, postcodeRollupRepository.findById("2001").orElseThrow().getTotalWattCapacity());
+    }
+
+    @Test
+    void acquireLease() {
+        assertTrue(postcodeRollupRepository.acquireLease("instance1", Duration.ofMinutes(1)));
+        assertTrue(postcodeRollupRepository.acquireLease("instance1", Duration.ofMinutes(1)));
+        assertFalse(postcodeRollupRepository.acquireLease("instance2", Duration.ofMinutes(1)));
+
+        //An expired lease is taken over
+        assertTrue(postcodeRollupRepository.acquireLease("instance1", Duration.ofMinutes(-1)));
+        assertTrue(postcodeRollupRepository.acquireLease("instance2", Duration.ofMinutes(1)));
+        assertFalse(postcodeRollupRepository.acquireLease("instance1", Duration.ofMinutes(1)));
+        assertTrue(postcodeRollupRepository.acquireLease("instance2", Duration.ofMinutes(-1)));
+    }
+}
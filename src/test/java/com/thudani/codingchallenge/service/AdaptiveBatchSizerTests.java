@@ -0,0 +1,63 @@
+package com.thudani.codingchallenge.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link AdaptiveBatchSizer}
+ */
+class AdaptiveBatchSizerTests {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void growsWhileFullBatchesAreFast() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 1000, 300, 250, Long.MAX_VALUE, meterRegistry);
+        sizer.recordBatch(300, 300 * 200L, FAST);
+        assertEquals(375, sizer.nextBatchSize());
+        sizer.recordBatch(10, 10 * 200L, FAST);
+        assertEquals(375, sizer.nextBatchSize());
+        for (int i = 0; i < 20; i++) {
+            sizer.recordBatch(sizer.nextBatchSize(), sizer.nextBatchSize() * 200L, FAST);
+        }
+        assertEquals(1000, sizer.nextBatchSize());
+    }
+
+    @Test
+    void shrinksWhenBatchesAreSlow() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 1000, 300, 250, Long.MAX_VALUE, meterRegistry);
+        sizer.recordBatch(300, 300 * 200L, SLOW);
+        assertEquals(150, sizer.nextBatchSize());
+        sizer.recordBatch(150, 150 * 200L, SLOW);
+        assertEquals(100, sizer.nextBatchSize());
+    }
+
+    @Test
+    void limitsTheBatchToTheMaximumNumberOfBytes() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 1000, 1000, 250, 100_000, meterRegistry);
+        sizer.recordBatch(1000, 1000 * 200L, TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(500, sizer.nextBatchSize());
+    }
+
+    @Test
+    void exposesTheBatchSizeAndLatencyAsMetrics() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 1000, 300, 250, Long.MAX_VALUE, meterRegistry);
+        sizer.recordBatch(300, 300 * 200L, SLOW);
+        assertEquals(150, meterRegistry.get("battery.ingest.batch.size.current").gauge().value());
+        assertEquals(1, meterRegistry.get("battery.ingest.batch.latency").timer().count());
+        assertEquals(300, meterRegistry.get("battery.ingest.batch.size").summary().totalAmount());
+    }
+
+    @Test
+    void rejectsInvalidBounds() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveBatchSizer(500, 100, 300, 250, Long.MAX_VALUE, meterRegistry));
+    }
+}
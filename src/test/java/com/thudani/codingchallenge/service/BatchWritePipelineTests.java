@@ -0,0 +1,84 @@
+package com.thudani.codingchallenge.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link BatchWritePipeline}
+ */
+class BatchWritePipelineTests {
+    private final BatchWritePipeline pipeline = new BatchWritePipeline(3, 8, 16);
+
+    @AfterEach
+    void cleanUp() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    void completesBatchesInSubmissionOrder() {
+        List<Integer> completed = new ArrayList<>();
+        try (BatchWritePipeline.Window<Integer> window = pipeline.open()) {
+            for (int i = 0; i < 20; i++) {
+                int batch = i;
+                window.submit(() -> {
+                    Thread.sleep((20 - batch) % 7);
+                    return batch;
+                }, completed::add);
+            }
+            window.drain();
+        }
+        assertEquals(20, completed.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, completed.get(i));
+        }
+    }
+
+    @Test
+    void limitsTheNumberOfBatchesInFlight() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        try (BatchWritePipeline.Window<Integer> window = pipeline.open()) {
+            for (int i = 0; i < 20; i++) {
+                window.submit(() -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    inFlight.decrementAndGet();
+                    return 0;
+                }, result -> {
+                });
+            }
+            window.drain();
+        }
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    void propagatesAFailedWrite() {
+        try (BatchWritePipeline.Window<Integer> window = pipeline.open()) {
+            window.submit(() -> {
+                throw new IllegalArgumentException("write failed");
+            }, result -> {
+            });
+            assertThrows(IllegalArgumentException.class, window::drain);
+        }
+    }
+
+    @Test
+    void runsBatchesInlineWhenOnlyOneBatchMayBeInFlight() {
+        BatchWritePipeline sequentialPipeline = new BatchWritePipeline(1, 1, 1);
+        List<String> threads = new ArrayList<>();
+        try (BatchWritePipeline.Window<String> window = sequentialPipeline.open()) {
+            window.submit(() -> Thread.currentThread().getName(), threads::add);
+        }
+        assertEquals(List.of(Thread.currentThread().getName()), threads);
+        sequentialPipeline.shutdown();
+    }
+}
@@ -0,0 +1,65 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.model.Battery;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link BatteryColumns}
+ */
+class BatteryColumnsTests {
+
+    private static BatteryColumns columns(int rows, BatteryColumns reusable, String... names) {
+        var builder = new BatteryColumns.Builder(rows, reusable);
+        for (var name : names) {
+            builder.add(Battery.builder().name(name).postcodeNum(2000L).wattCapacity(10.0).build());
+        }
+        return builder.build();
+    }
+
+    private static List<String> names(BatteryColumns columns) {
+        BatteryResultDto result = columns.search(1000, 3000, 50, BatteryServiceImpl::toResult);
+        return result.getBatteryNames();
+    }
+
+    @Test
+    void sizesTheColumnsFromTheExpectedRowsWithHeadroom() {
+        var columns = columns(16, null, "alpha", "bravo");
+        assertEquals(2, columns.size());
+        assertEquals(18 * 20, columns.offHeapBytes());
+    }
+
+    @Test
+    void reusesTheBuffersOfColumnsNoLongerSearched() {
+        var replaced = columns(16, null, "alpha", "bravo");
+        var columns = columns(16, replaced, "charlie");
+
+        assertEquals(List.of("charlie"), names(columns));
+        assertFalse(replaced.acquire());
+    }
+
+    @Test
+    void keepsTheBuffersOfColumnsBeingSearched() {
+        var replaced = columns(16, null, "alpha", "bravo");
+        assertTrue(replaced.acquire());
+        var columns = columns(16, replaced, "charlie");
+        replaced.release();
+
+        assertEquals(List.of("charlie"), names(columns));
+        assertTrue(replaced.acquire());
+        assertEquals(List.of("alpha", "bravo"), names(replaced));
+    }
+
+    @Test
+    void allocatesNewBuffersWhenTheReplacedColumnsDoNotFit() {
+        var replaced = columns(16, null, "alpha");
+        assertEquals(List.of("charlie"), names(columns(32, replaced, "charlie")));
+        assertEquals(List.of("delta"), names(columns(4, replaced, "delta")));
+        assertTrue(replaced.acquire());
+        assertEquals(List.of("alpha"), names(replaced));
+    }
+}
@@ -0,0 +1,74 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link BatteryExportServiceImpl}
+ */
+class BatteryExportServiceImplTests {
+    private final BatteryRepository batteryRepository = Mockito.mock(BatteryRepository.class);
+    private final BatteryExportService batteryExportService =
+            new BatteryExportServiceImpl(batteryRepository, new ObjectMapper(), 2);
+
+    private Stream<Battery> batteries(Runnable onClose) {
+        return Stream.of(
+                        Battery.builder().id("1111").name("battery1").postcode("2000").wattCapacity(10.0).build(),
+                        Battery.builder().id("2222").name("battery \"2\", spare").postcode("2001").wattCapacity(20.5).build())
+                .onClose(onClose);
+    }
+
+    private String export(BatteryExportFormat format) throws IOException {
+        var output = new ByteArrayOutputStream();
+        batteryExportService.exportBatteries("2000", "3000", format).writeTo(output);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void exportingBatteriesAsNdjson() throws IOException {
+        var closed = new boolean[1];
+        Mockito.when(batteryRepository.streamWithinPostcodeRange("2000", "3000", 2))
+                .thenReturn(batteries(() -> closed[0] = true));
+
+        assertEquals("""
+                {"id":"1111","name":"battery1","postcode":"2000","wattCapacity":10.0}
+                {"id":"2222","name":"battery \\"2\\", spare","postcode":"2001","wattCapacity":20.5}
+                """, export(BatteryExportFormat.NDJSON));
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    void exportingBatteriesAsCsv() throws IOException {
+        var closed = new boolean[1];
+        Mockito.when(batteryRepository.streamWithinPostcodeRange("2000", "3000", 2))
+                .thenReturn(batteries(() -> closed[0] = true));
+
+        assertEquals("id,name,postcode,wattCapacity\r\n" +
+                "1111,battery1,2000,10.0\r\n" +
+                "2222,\"battery \"\"2\"\", spare\",2001,20.5\r\n", export(BatteryExportFormat.CSV));
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    void exportingBatteries_invalidParameters() {
+        Exception exception = assertThrows(ResponseStatusException.class,
+                () -> batteryExportService.exportBatteries("3000", "2000", BatteryExportFormat.CSV));
+        assertTrue(exception.getMessage().contains("A valid postcode range must be provided"));
+        exception = assertThrows(ResponseStatusException.class, () -> BatteryExportFormat.fromName("xml"));
+        assertTrue(exception.getMessage().contains("Export format must be one of [NDJSON, CSV]"));
+        assertEquals(BatteryExportFormat.CSV, BatteryExportFormat.fromName("csv"));
+    }
+}
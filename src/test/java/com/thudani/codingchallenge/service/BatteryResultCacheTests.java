@@ -0,0 +1,190 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link BatteryResultCache}
+ */
+class BatteryResultCacheTests {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BatteryResultCache cache = new BatteryResultCache(true, 100, 60, true, meterRegistry);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private BatteryResultDto load() {
+        loads.incrementAndGet();
+        return BatteryResultDto.builder().batteryNames(List.of()).totalWattCapacity(0.0).build();
+    }
+
+    @Test
+    void cachesResultsByRange() {
+        BatteryResultDto result = cache.get(new PostcodeRange("2000", "3000"), this::load);
+        assertSame(result, cache.get(new PostcodeRange("2000", "3000"), this::load));
+        cache.get(new PostcodeRange("2000", "4000"), this::load);
+        assertEquals(2, loads.get());
+        assertEquals(1, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(2, meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void loadsOnlyTheRangesWhichAreNotCached() {
+        BatteryResultDto cached = cache.get(new PostcodeRange("2000", "3000"), this::load);
+        List<Collection<PostcodeRange>> loadedRanges = new ArrayList<>();
+
+        Map<PostcodeRange, BatteryResultDto> results = cache.getAll(
+                List.of(new PostcodeRange("2000", "3000"), new PostcodeRange("3001", "4000")), ranges -> {
+                    loadedRanges.add(ranges);
+                    return Map.of(new PostcodeRange("3001", "4000"), load());
+                });
+        assertSame(cached, results.get(new PostcodeRange("2000", "3000")));
+        assertEquals(List.of(List.of(new PostcodeRange("3001", "4000"))), loadedRanges.stream().map(List::copyOf).toList());
+        assertSame(results.get(new PostcodeRange("3001", "4000")), cache.get(new PostcodeRange("3001", "4000"), this::load));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void invalidatesOnlyRangesContainingASavedPostcode() {
+        cache.get(new PostcodeRange("2000", "3000"), this::load);
+        cache.get(new PostcodeRange("3001", "4000"), this::load);
+        cache.get(new PostcodeRange("5000", "6000"), this::load);
+
+        cache.invalidate(List.of("3500", "7000", "1000"));
+        cache.get(new PostcodeRange("2000", "3000"), this::load);
+        cache.get(new PostcodeRange("3001", "4000"), this::load);
+        cache.get(new PostcodeRange("5000", "6000"), this::load);
+        assertEquals(4, loads.get());
+        assertEquals(1, meterRegistry.get("battery.search.cache.invalidations").counter().count());
+    }
+
+    @Test
+    void invalidatesNumericRangesByPostcodeValue() {
+        cache.get(new PostcodeRange("200", "3000"), this::load);
+        cache.get(new PostcodeRange("A000", "A999"), this::load);
+
+        cache.invalidate(List.of("1000"));
+        cache.get(new PostcodeRange("200", "3000"), this::load);
+        cache.get(new PostcodeRange("A000", "A999"), this::load);
+        assertEquals(3, loads.get());
+
+        cache.invalidate(List.of("A500"));
+        cache.get(new PostcodeRange("200", "3000"), this::load);
+        cache.get(new PostcodeRange("A000", "A999"), this::load);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void doesNotCacheAResultLoadedDuringAnInvalidation() {
+        cache.get(new PostcodeRange("2000", "3000"), () -> {
+            cache.invalidate(List.of("2500"));
+            return load();
+        });
+        cache.get(new PostcodeRange("2000", "3000"), this::load);
+        assertEquals(2, loads.get());
+    }
+
+    private BatteryResultDto loadOnceReleased(CountDownLatch started, CountDownLatch released) {
+        started.countDown();
+        try {
+            assertTrue(released.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        return load();
+    }
+
+    private void awaitCoalesced(double count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (meterRegistry.get("battery.search.coalesced").counter().count() < count) {
+            assertTrue(System.nanoTime() < deadline, "No search joined the search in flight");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void concurrentSearchesOfARangeShareOneLoad() throws Exception {
+        var started = new CountDownLatch(1);
+        var released = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var first = executor.submit(() -> cache.get(new PostcodeRange("2000", "3000"),
+                    () -> loadOnceReleased(started, released)));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            var second = executor.submit(() -> cache.get(new PostcodeRange("2000", "3000"), this::load));
+            awaitCoalesced(1);
+            assertEquals(1.0, meterRegistry.get("battery.search.in-flight").gauge().value());
+            released.countDown();
+
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+            assertEquals(0.0, meterRegistry.get("battery.search.in-flight").gauge().value());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void searchesAfterASaveDoNotWaitForAnEarlierSearch() throws Exception {
+        var started = new CountDownLatch(1);
+        var released = new CountDownLatch(1);
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var first = executor.submit(() -> cache.get(new PostcodeRange("2000", "3000"),
+                    () -> loadOnceReleased(started, released)));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            cache.invalidate(List.of("2500"));
+            BatteryResultDto afterSave = cache.get(new PostcodeRange("2000", "3000"), this::load);
+            assertEquals(1, loads.get());
+            released.countDown();
+            assertNotSame(afterSave, first.get(10, TimeUnit.SECONDS));
+            assertEquals(0, meterRegistry.get("battery.search.coalesced").counter().count());
+            assertSame(afterSave, cache.get(new PostcodeRange("2000", "3000"), this::load));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentSearchesShareTheFailureOfTheLoad() throws Exception {
+        var started = new CountDownLatch(1);
+        var released = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(() -> cache.get(new PostcodeRange("2000", "3000"), () -> {
+                loadOnceReleased(started, released);
+                throw new IllegalStateException("DB unavailable");
+            }));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            var second = executor.submit(() -> cache.get(new PostcodeRange("2000", "3000"), this::load));
+            awaitCoalesced(1);
+            released.countDown();
+
+            var failure = assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, failure.getCause());
+            assertEquals("DB unavailable", failure.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void disabledCacheAlwaysLoads() {
+        BatteryResultCache disabledCache = new BatteryResultCache(false, 100, 60, false, meterRegistry);
+        disabledCache.get(new PostcodeRange("2000", "3000"), this::load);
+        disabledCache.get(new PostcodeRange("2000", "3000"), this::load);
+        assertEquals(2, loads.get());
+    }
+}
@@ -1,12 +1,27 @@
 package com.thudani.codingchallenge.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.command.SearchBatteriesCommand;
 import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.BatteryNamePageDto;
 import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.dto.BatterySearchDto;
 import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.dto.BulkSaveResultDto;
+import com.thudani.codingchallenge.dto.PostcodeRangeDto;
+import com.thudani.codingchallenge.dto.PostcodeStatisticsDto;
+import com.thudani.codingchallenge.dto.RejectedBatteryDto;
 import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.model.PostcodeRollup;
 import com.thudani.codingchallenge.repository.BatteryRepository;
+import com.thudani.codingchallenge.repository.BatteryUpsertResult;
+import com.thudani.codingchallenge.repository.BsonBatteryBatch;
+import com.thudani.codingchallenge.repository.PostcodeRollupRepository;
 import com.thudani.codingchallenge.util.AppTestConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -19,8 +34,11 @@ import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -35,21 +53,72 @@ class BatteryServiceImplTests {
     @MockBean
     private BatteryRepository batteryRepository;
 
+    @MockBean
+    private PostcodeRollupRepository postcodeRollupRepository;
+
     @Autowired
     private BatteryService batteryService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Captor
     ArgumentCaptor<List<Battery>> valueCaptor;
 
     @TestConfiguration
-    class BatteryServiceImplTestContextConfiguration {
+    static class BatteryServiceImplTestContextConfiguration {
 
         @Bean
-        public BatteryService batteryService() {
-            return new BatteryServiceImpl(batteryRepository);
+        @Primary
+        public BatteryService batteryService(BatteryRepository batteryRepository,
+                                             PostcodeRollupRepository postcodeRollupRepository,
+                                             ObjectMapper objectMapper) {
+            return newBatteryService(batteryRepository, objectMapper, new BatchWritePipeline(4, 4, 16),
+                    new PostcodeRollupService(postcodeRollupRepository, batteryRepository, false), false, true);
         }
     }
 
+    /**
+     * Creates a service with the given write pipeline and rollups, every other optional feature being disabled
+     *
+     * @param fanOut     whether the names and statistics queries of a search run concurrently
+     * @param directBson whether NDJSON ingests are encoded straight to BSON
+     */
+    static BatteryServiceImpl newBatteryService(BatteryRepository batteryRepository, ObjectMapper objectMapper,
+                                                BatchWritePipeline pipeline, PostcodeRollupService rollupService,
+                                                boolean fanOut, boolean directBson) {
+        return new BatteryServiceImpl(batteryRepository, objectMapper,
+                new AdaptiveBatchSizer(300, 300, 300, 250, 8388608, new SimpleMeterRegistry()),
+                pipeline,
+                rollupService,
+                new PostcodeStatisticsIndex(batteryRepository, false),
+                new BatterySnapshot(batteryRepository, false, 1, new SimpleMeterRegistry()),
+                new BatteryResultCache(false, 0, 0, false, new SimpleMeterRegistry()),
+                new QueryFanOut(fanOut),
+                new SearchMetrics(new SimpleMeterRegistry()),
+                new SlowQueryProfiler(0, 0, false), directBson);
+    }
+
+    /**
+     * Creates a service writing one batch at a time, see {@link #newBatteryService(BatteryRepository, ObjectMapper,
+     * BatchWritePipeline, PostcodeRollupService, boolean, boolean)}
+     */
+    private BatteryService newBatteryService(PostcodeRollupService rollupService, boolean fanOut, boolean directBson) {
+        return newBatteryService(batteryRepository, objectMapper, new BatchWritePipeline(1, 1, 1), rollupService,
+                fanOut, directBson);
+    }
+
+    private PostcodeRollupService newRollupService(boolean enabled) {
+        return new PostcodeRollupService(postcodeRollupRepository, batteryRepository, enabled);
+    }
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.anyList())).thenReturn(BatteryUpsertResult.EMPTY);
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.any(BsonBatteryBatch.class)))
+                .thenReturn(BatteryUpsertResult.EMPTY);
+    }
+
     @Test
     void savingAValidListOfBatteries() {
         SaveBatteriesCommand command = SaveBatteriesCommand.builder()
@@ -70,17 +139,19 @@ class BatteryServiceImplTests {
                         .name("Battery1")
                         .lowercaseName("battery1")
                         .postcode("2000")
+                        .postcodeNum(2000L)
                         .wattCapacity(10.0)
                         .build(),
                 Battery.builder()
                         .name("battery2")
                         .lowercaseName("battery2")
                         .postcode("2020")
+                        .postcodeNum(2020L)
                         .wattCapacity(20.0)
                         .build());
 
         batteryService.saveBatteries(command);
-        Mockito.verify(batteryRepository).saveAll(batteries);
+        Mockito.verify(batteryRepository).upsertUnordered(batteries);
     }
 
     @Test
@@ -131,14 +202,310 @@ class BatteryServiceImplTests {
                 .build();
 
         batteryService.saveBatteries(command);
-        Mockito.verify(batteryRepository, times(2)).saveAll(valueCaptor.capture());
+        Mockito.verify(batteryRepository, times(2)).upsertUnordered(valueCaptor.capture());
+    }
+
+    @Test
+    void bulkSavingAListOfBatteries_rejectsOnlyTheFailedBatteries() {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder()
+                                .name("battery1")
+                                .postcode("2000")
+                                .wattCapacity(10.0)
+                                .build(),
+                        BatteryDto.builder()
+                                .name("battery2")
+                                .wattCapacity(20.0)
+                                .build(),
+                        BatteryDto.builder()
+                                .name("battery3")
+                                .postcode("2030")
+                                .wattCapacity(30.0)
+                                .build()
+                ))
+                .build();
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.anyList()))
+                .thenReturn(new BatteryUpsertResult(Set.of(),
+                        List.of(RejectedBatteryDto.builder().index(1).reason("write failed").build())));
+
+        BulkSaveResultDto result = batteryService.bulkSaveBatteries(command);
+        assertEquals(1, result.getSavedBatteries().size());
+        assertEquals("battery1", result.getSavedBatteries().get(0).getName());
+        assertEquals(List.of(
+                        RejectedBatteryDto.builder().index(1).reason("Postcode must be provided").build(),
+                        RejectedBatteryDto.builder().index(2).reason("write failed").build()),
+                result.getRejectedBatteries());
+    }
+
+    @Test
+    void bulkSavingAnEmptyListOfBatteries() {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of())
+                .build();
+
+        Exception exception = assertThrows(ResponseStatusException.class, () -> batteryService.bulkSaveBatteries(command));
+        assertTrue(exception.getMessage().contains("Battery list cannot be empty"));
+    }
+
+    @Test
+    void ingestingANewlineDelimitedStreamOfBatteries() {
+        String stream = """
+                {"name": "Battery1", "postcode": "2000", "wattCapacity": 10.0}
+                {"name": "battery2", "postcode": "2020"}
+                not json
+
+                {"name": "battery3", "postcode": "2030", "wattCapacity": 30.0}
+                """;
+
+        BatteryIngestSummaryDto summary = batteryService.ingestBatteries(
+                new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, summary.getAcceptedCount());
+        assertEquals(2, summary.getRejectedCount());
+        assertEquals(List.of(2L, 3L), summary.getRejectedRecords());
+        Mockito.verify(batteryRepository).upsertUnordered(Mockito.<BsonBatteryBatch>argThat(batch ->
+                batch.postcodes().equals(List.of("2000", "2030"))
+                        && Arrays.equals(batch.wattCapacities(), new double[]{10.0, 30.0})));
+        Mockito.verify(batteryRepository, Mockito.never()).upsertUnordered(Mockito.anyList());
+    }
+
+    @Test
+    void ingestingANewlineDelimitedStreamOfBatteriesThroughTheEntityMapping() {
+        BatteryService entityBatteryService = newBatteryService(newRollupService(false), false, false);
+        String stream = """
+                {"name": "Battery1", "postcode": "2000", "wattCapacity": 10.0}
+                {"name": "battery2", "postcode": "2020"}
+                not json
+
+                {"name": "battery3", "postcode": "2030", "wattCapacity": 30.0}
+                """;
+
+        BatteryIngestSummaryDto summary = entityBatteryService.ingestBatteries(
+                new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, summary.getAcceptedCount());
+        assertEquals(2, summary.getRejectedCount());
+        assertEquals(List.of(2L, 3L), summary.getRejectedRecords());
+        Mockito.verify(batteryRepository, Mockito.never()).upsertUnordered(Mockito.any(BsonBatteryBatch.class));
+        Mockito.verify(batteryRepository).upsertUnordered(List.of(Battery.builder()
+                        .name("Battery1")
+                        .lowercaseName("battery1")
+                        .postcode("2000")
+                        .postcodeNum(2000L)
+                        .wattCapacity(10.0)
+                        .build(),
+                Battery.builder()
+                        .name("battery3")
+                        .lowercaseName("battery3")
+                        .postcode("2030")
+                        .postcodeNum(2030L)
+                        .wattCapacity(30.0)
+                        .build()));
+    }
+
+    @Test
+    void ingestingANewlineDelimitedStreamThroughTheEntityMapping_rejectsTheLinesLongerThanTheLimit() {
+        BatteryService entityBatteryService = newBatteryService(newRollupService(false), false, false);
+        String tooLongName = "b".repeat(BatteryRecordReader.MAX_LINE_LENGTH);
+        String stream = "{\"name\": \"" + tooLongName + "\", \"postcode\": \"2000\", \"wattCapacity\": 10.0}\r\n"
+                + "\r"
+                + "{\"name\": \"battery3\", \"postcode\": \"2030\", \"wattCapacity\": 30.0}\r\n";
+
+        BatteryIngestSummaryDto summary = entityBatteryService.ingestBatteries(
+                new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, summary.getAcceptedCount());
+        assertEquals(List.of(1L), summary.getRejectedRecords());
+        Mockito.verify(batteryRepository).upsertUnordered(List.of(Battery.builder()
+                .name("battery3")
+                .lowercaseName("battery3")
+                .postcode("2030")
+                .postcodeNum(2030L)
+                .wattCapacity(30.0)
+                .build()));
+    }
+
+    @Test
+    void ingestingAJsonArrayOfMoreThanOneBatchOfBatteries() {
+        StringBuilder stream = new StringBuilder("[");
+        for (int i = 0; i < 350; i++) {
+            stream.append(i == 0 ? "" : ",")
+                    .append("{\"name\": \"battery").append(i)
+                    .append("\", \"postcode\": \"2000\", \"wattCapacity\": 10.0}");
+        }
+        stream.append(",{\"name\": \"battery350\"}]");
+
+        BatteryIngestSummaryDto summary = batteryService.ingestBatteries(
+                new ByteArrayInputStream(stream.toString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals(350, summary.getAcceptedCount());
+        assertEquals(1, summary.getRejectedCount());
+        assertEquals(List.of(351L), summary.getRejectedRecords());
+        Mockito.verify(batteryRepository, times(2)).upsertUnordered(Mockito.any(BsonBatteryBatch.class));
+    }
+
+    @Test
+    void ingestingAJsonArray_skipsTheElementsWhichDoNotBindToABattery() {
+        String stream = """
+                [{"name": "battery1", "postcode": "2000", "wattCapacity": "abc"},
+                 {"name": "battery2", "postcode": "2010", "wattCapacity": 20.0}]
+                """;
+
+        BatteryIngestSummaryDto summary = batteryService.ingestBatteries(
+                new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, summary.getAcceptedCount());
+        assertEquals(List.of(1L), summary.getRejectedRecords());
+    }
+
+    @Test
+    void ingestingAJsonArrayWithASyntaxError() {
+        String stream = """
+                [{"name": "battery1", "postcode": "2000", "wattCapacity": 10.0},
+                 {"name": "battery2" "postcode": "2010", "wattCapacity": 20.0}]
+                """;
+
+        Exception exception = assertThrows(ResponseStatusException.class, () -> batteryService.ingestBatteries(
+                new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8))));
+        assertTrue(exception.getMessage().contains("Battery stream could not be read"));
+    }
+
+    @Test
+    void ingestingAnEmptyStreamOfBatteries() {
+        Exception exception = assertThrows(ResponseStatusException.class,
+                () -> batteryService.ingestBatteries(new ByteArrayInputStream(new byte[0])));
+        assertTrue(exception.getMessage().contains("Battery list cannot be empty"));
     }
 
     @Test
     void searchingBatteries_validParameters() {
         String postcode1 = "2000";
         String postcode2 = "3000";
-        Mockito.when(batteryRepository.findWithinPostCodeRangeOrderByName(postcode1, postcode2, 0, 50))
+        Mockito.when(batteryRepository.findNamesAndStatisticsWithinPostcodeNumRange(2000L, 3000L, 50))
+                .thenReturn(BatterySearchDto.builder()
+                        .batteries(List.of(Battery.builder()
+                                        .id("1111")
+                                        .name("battery1")
+                                        .build(),
+                                Battery.builder()
+                                        .id("2222")
+                                        .name("battery2")
+                                        .build()))
+                        .statistics(List.of(BatteryStatisticsDto.builder().totalWattCapacity(30.0).batteryCount(2L).build()))
+                        .build());
+        List<String> batteryNames = List.of("battery1", "battery2");
+
+        BatteryResultDto result = batteryService.getBatteries(postcode1, postcode2);
+        assertEquals(batteryNames, result.getBatteryNames());
+        assertEquals(30.0, result.getTotalWattCapacity());
+        assertEquals(15.0, result.getAverageWattCapacity());
+    }
+
+    @Test
+    void searchingBatteries_emptyResultSet() {
+        String postcode1 = "2000";
+        String postcode2 = "3000";
+        Mockito.when(batteryRepository.findNamesAndStatisticsWithinPostcodeNumRange(2000L, 3000L, 50))
+                .thenReturn(BatterySearchDto.builder()
+                        .batteries(List.of())
+                        .statistics(List.of())
+                        .build());
+
+        BatteryResultDto result = batteryService.getBatteries(postcode1, postcode2);
+        assertTrue(result.getBatteryNames().isEmpty());
+        assertEquals(0.0, result.getTotalWattCapacity());
+        assertNull(result.getAverageWattCapacity());
+    }
+
+    @Test
+    void searchingBatteries_nonNumericPostcodesAreComparedAsStrings() {
+        String postcode1 = "SW1A";
+        String postcode2 = "SW9Z";
+        Mockito.when(batteryRepository.findNamesAndStatisticsWithinPostcodeRange(postcode1, postcode2, 50))
+                .thenReturn(BatterySearchDto.builder()
+                        .batteries(List.of(Battery.builder().id("1111").name("battery1").build()))
+                        .statistics(List.of(BatteryStatisticsDto.builder().totalWattCapacity(10.0).batteryCount(1L).build()))
+                        .build());
+
+        BatteryResultDto result = batteryService.getBatteries(postcode1, postcode2);
+        assertEquals(List.of("battery1"), result.getBatteryNames());
+        assertEquals(10.0, result.getTotalWattCapacity());
+    }
+
+    @Test
+    void searchingSeveralRanges_matchesTheMergedRangesOnce() {
+        Mockito.when(batteryRepository.findStatisticsPerPostcodeNum(new long[]{2000}, new long[]{3000}))
+                .thenReturn(List.of(
+                        PostcodeStatisticsDto.builder().postcodeNum(2000L).totalWattCapacity(10.0).batteryCount(1L)
+                                .build(),
+                        PostcodeStatisticsDto.builder().postcodeNum(2600L).totalWattCapacity(30.0).batteryCount(2L)
+                                .build()));
+        Mockito.when(batteryRepository.findNamesPerPostcodeNumRange(
+                        new long[]{2000, 2400, 2000}, new long[]{2500, 3000, 3000}, 50))
+                .thenReturn(List.of(
+                        List.of(Battery.builder().name("b").lowercaseName("b").build()),
+                        List.of(Battery.builder().name("A").lowercaseName("a").build(),
+                                Battery.builder().name("c").lowercaseName("c").build()),
+                        List.of(Battery.builder().name("A").lowercaseName("a").build(),
+                                Battery.builder().name("b").lowercaseName("b").build(),
+                                Battery.builder().name("c").lowercaseName("c").build())));
+        Mockito.when(batteryRepository.findStatisticsPerPostcode(new String[]{"SW1A"}, new String[]{"SW9Z"}))
+                .thenReturn(List.of());
+        Mockito.when(batteryRepository.findNamesPerPostcodeRange(new String[]{"SW1A"}, new String[]{"SW9Z"}, 50))
+                .thenReturn(List.of(List.of()));
+        SearchBatteriesCommand command = SearchBatteriesCommand.builder()
+                .ranges(List.of(
+                        PostcodeRangeDto.builder().postcode1("2000").postcode2("2500").build(),
+                        PostcodeRangeDto.builder().postcode1("SW1A").postcode2("SW9Z").build(),
+                        PostcodeRangeDto.builder().postcode1("2400").postcode2("3000").build(),
+                        PostcodeRangeDto.builder().postcode1("2000").postcode2("3000").build()))
+                .build();
+
+        List<BatteryResultDto> results = batteryService.searchBatteries(command);
+        assertEquals(List.of("b"), results.get(0).getBatteryNames());
+        assertEquals(10.0, results.get(0).getTotalWattCapacity());
+        assertTrue(results.get(1).getBatteryNames().isEmpty());
+        assertNull(results.get(1).getAverageWattCapacity());
+        assertEquals(List.of("A", "c"), results.get(2).getBatteryNames());
+        assertEquals(30.0, results.get(2).getTotalWattCapacity());
+        assertEquals(List.of("A", "b", "c"), results.get(3).getBatteryNames());
+        assertEquals(13.0, results.get(3).getAverageWattCapacity());
+        Mockito.verify(batteryRepository, times(1)).findStatisticsPerPostcodeNum(Mockito.any(), Mockito.any());
+        Mockito.verify(batteryRepository, times(1)).findNamesPerPostcodeNumRange(
+                Mockito.any(), Mockito.any(), Mockito.anyInt());
+    }
+
+    @Test
+    void searchingSeveralRanges_whichAreNotNumericButSpanNumericPostcodes() {
+        Mockito.when(batteryRepository.findStatisticsPerPostcode(
+                        new String[]{"2000", "2999X"}, new String[]{"2000A", "3000"}))
+                .thenReturn(List.of(
+                        PostcodeStatisticsDto.builder().postcode("2000A").totalWattCapacity(10.0).batteryCount(1L)
+                                .build(),
+                        PostcodeStatisticsDto.builder().postcode("2999Y").totalWattCapacity(30.0).batteryCount(1L)
+                                .build()));
+        Mockito.when(batteryRepository.findNamesPerPostcodeRange(
+                        new String[]{"2000", "2999X"}, new String[]{"2000A", "3000"}, 50))
+                .thenReturn(List.of(
+                        List.of(Battery.builder().name("b").lowercaseName("b").build()),
+                        List.of(Battery.builder().name("c").lowercaseName("c").build())));
+        SearchBatteriesCommand command = SearchBatteriesCommand.builder()
+                .ranges(List.of(
+                        PostcodeRangeDto.builder().postcode1("2000").postcode2("2000A").build(),
+                        PostcodeRangeDto.builder().postcode1("2999X").postcode2("3000").build()))
+                .build();
+
+        List<BatteryResultDto> results = batteryService.searchBatteries(command);
+        assertEquals(List.of("b"), results.get(0).getBatteryNames());
+        assertEquals(List.of("c"), results.get(1).getBatteryNames());
+        assertEquals(30.0, results.get(1).getTotalWattCapacity());
+        Mockito.verify(batteryRepository, Mockito.never()).findStatisticsPerPostcodeNum(Mockito.any(), Mockito.any());
+        Mockito.verify(batteryRepository, Mockito.never()).findNamesPerPostcodeNumRange(
+                Mockito.any(), Mockito.any(), Mockito.anyInt());
+    }
+
+    @Test
+    void searchingBatteries_statisticsFromRollups() {
+        BatteryService rollupBatteryService = newBatteryService(newRollupService(true), false, true);
+        String postcode1 = "2000";
+        String postcode2 = "3000";
+        Mockito.when(batteryRepository.findWithinPostcodeNumRangeOrderByName(2000L, 3000L, 0, 50))
                 .thenReturn(List.of(Battery.builder()
                                 .id("1111")
                                 .name("battery1")
@@ -151,29 +518,191 @@ class BatteryServiceImplTests {
                                 .postcode("2020")
                                 .wattCapacity(20.0)
                                 .build()));
-        Mockito.when(batteryRepository.findTotalWattCapacityWithinPostcodeRange(postcode1, postcode2))
+        Mockito.when(postcodeRollupRepository.findStatisticsWithinPostcodeNumRange(2000L, 3000L))
                 .thenReturn(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(30.0).batteryCount(2L).build()));
-        List<String> batteryNames = List.of("battery1", "battery2");
 
-        BatteryResultDto result = batteryService.getBatteries(postcode1, postcode2);
-        assertEquals(batteryNames, result.getBatteryNames());
+        BatteryResultDto result = rollupBatteryService.getBatteries(postcode1, postcode2);
+        assertEquals(List.of("battery1", "battery2"), result.getBatteryNames());
         assertEquals(30.0, result.getTotalWattCapacity());
         assertEquals(15.0, result.getAverageWattCapacity());
+        Mockito.verify(batteryRepository, Mockito.never()).findNamesAndStatisticsWithinPostcodeNumRange(2000L, 3000L, 50);
     }
 
     @Test
-    void searchingBatteries_emptyResultSet() {
+    void searchingBatteries_statisticsFromTheBatteriesOnceARollupIncrementFailed() {
+        PostcodeRollupService rollupService = newRollupService(true);
+        BatteryService rollupBatteryService = newBatteryService(rollupService, false, true);
+        Mockito.doThrow(new IllegalStateException("write failed"))
+                .when(postcodeRollupRepository).incrementAll(Mockito.any());
+        Mockito.when(batteryRepository.findNamesAndStatisticsWithinPostcodeNumRange(2000L, 3000L, 50))
+                .thenReturn(BatterySearchDto.builder()
+                        .batteries(List.of(Battery.builder().name("battery1").build()))
+                        .statistics(List.of(BatteryStatisticsDto.builder()
+                                .totalWattCapacity(10.0)
+                                .batteryCount(1L)
+                                .build()))
+                        .build());
+
+        rollupService.recordSaved(List.of("2010"), new double[]{10.0});
+        assertFalse(rollupService.isReady());
+        BatteryResultDto result = rollupBatteryService.getBatteries("2000", "3000");
+        assertEquals(List.of("battery1"), result.getBatteryNames());
+        assertEquals(10.0, result.getTotalWattCapacity());
+        Mockito.verify(postcodeRollupRepository, Mockito.never()).findStatisticsWithinPostcodeNumRange(2000L, 3000L);
+
+        rollupService.repairIfDirty();
+        assertTrue(rollupService.isReady());
+        Mockito.verify(postcodeRollupRepository).rebuildAll();
+    }
+
+    @Test
+    void searchingBatteries_fanOutQueriesInsteadOfFacet() {
+        BatteryService fanOutBatteryService = newBatteryService(newRollupService(false), true, true);
         String postcode1 = "2000";
         String postcode2 = "3000";
-        Mockito.when(batteryRepository.findWithinPostCodeRangeOrderByName(postcode1, postcode2, 0, 50))
-                .thenReturn(List.of());
-        Mockito.when(batteryRepository.findTotalWattCapacityWithinPostcodeRange(postcode1, postcode2))
-                .thenReturn(Optional.empty());
+        Mockito.when(batteryRepository.findWithinPostcodeNumRangeOrderByName(2000L, 3000L, 0, 50))
+                .thenReturn(List.of(Battery.builder().id("1111").name("battery1").build()));
+        Mockito.when(batteryRepository.findTotalWattCapacityWithinPostcodeNumRange(2000L, 3000L))
+                .thenReturn(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(10.0).batteryCount(1L).build()));
 
-        BatteryResultDto result = batteryService.getBatteries(postcode1, postcode2);
-        assertTrue(result.getBatteryNames().isEmpty());
-        assertEquals(0.0, result.getTotalWattCapacity());
-        assertNull(result.getAverageWattCapacity());
+        BatteryResultDto result = fanOutBatteryService.getBatteries(postcode1, postcode2);
+        assertEquals(List.of("battery1"), result.getBatteryNames());
+        assertEquals(10.0, result.getTotalWattCapacity());
+        assertEquals(10.0, result.getAverageWattCapacity());
+        Mockito.verify(batteryRepository, Mockito.never()).findNamesAndStatisticsWithinPostcodeNumRange(2000L, 3000L, 50);
+    }
+
+    @Test
+    void savingBatteries_updatesRollups() {
+        BatteryService rollupBatteryService = newBatteryService(newRollupService(true), false, true);
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder()
+                                .name("battery1")
+                                .postcode("2000")
+                                .wattCapacity(10.0)
+                                .build(),
+                        BatteryDto.builder()
+                                .name("battery2")
+                                .postcode("2000")
+                                .wattCapacity(20.0)
+                                .build()
+                ))
+                .build();
+
+        rollupBatteryService.saveBatteries(command);
+        List<PostcodeRollup> increments = List.of(PostcodeRollup.builder()
+                .postcode("2000")
+                .postcodeNum(2000L)
+                .totalWattCapacity(30.0)
+                .batteryCount(2L)
+                .build());
+        Mockito.verify(postcodeRollupRepository).incrementAll(Mockito.argThat(i -> increments.equals(List.copyOf(i))));
+    }
+
+    @Test
+    void savingBatteries_returnsTheStoredDuplicatesWithoutCountingThem() {
+        BatteryService rollupBatteryService = newBatteryService(newRollupService(true), false, true);
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(
+                        BatteryDto.builder()
+                                .name("battery1")
+                                .postcode("2000")
+                                .wattCapacity(10.0)
+                                .build(),
+                        BatteryDto.builder()
+                                .name("battery2")
+                                .postcode("2000")
+                                .wattCapacity(20.0)
+                                .build()
+                ))
+                .build();
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.anyList()))
+                .thenReturn(new BatteryUpsertResult(Set.of(1), List.of()));
+        Mockito.doAnswer(invocation -> {
+            List<Battery> duplicates = invocation.getArgument(0);
+            duplicates.get(0).setId("2222");
+            duplicates.get(0).setWattCapacity(25.0);
+            return null;
+        }).when(batteryRepository).loadStored(Mockito.anyList());
+
+        List<BatteryDto> savedBatteries = rollupBatteryService.saveBatteries(command);
+        assertEquals("2222", savedBatteries.get(1).getId());
+        assertEquals(25.0, savedBatteries.get(1).getWattCapacity());
+        Mockito.verify(batteryRepository).loadStored(Mockito.argThat(duplicates -> duplicates.size() == 1
+                && duplicates.get(0).getName().equals("battery2")));
+        List<PostcodeRollup> increments = List.of(PostcodeRollup.builder()
+                .postcode("2000")
+                .postcodeNum(2000L)
+                .totalWattCapacity(10.0)
+                .batteryCount(1L)
+                .build());
+        Mockito.verify(postcodeRollupRepository).incrementAll(Mockito.argThat(i -> increments.equals(List.copyOf(i))));
+    }
+
+    @Test
+    void ingestingBatteriesStraightToBson_recordsOnlyTheInsertedBatteries() {
+        BatteryService bsonBatteryService = newBatteryService(newRollupService(true), false, true);
+        String stream = """
+                {"name": "battery1", "postcode": "2000", "wattCapacity": 10.0}
+                {"name": "battery2", "postcode": "2000"}
+                {"name": "battery3", "postcode": "2000", "wattCapacity": 20.0}
+                {"name": "battery4", "postcode": "2000", "wattCapacity": 40.0}
+                """;
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.any(BsonBatteryBatch.class)))
+                .thenReturn(new BatteryUpsertResult(Set.of(1),
+                        List.of(RejectedBatteryDto.builder().index(2).reason("write failed").build())));
+
+        BatteryIngestSummaryDto summary = bsonBatteryService.ingestBatteries(
+                new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, summary.getAcceptedCount());
+        assertEquals(1, summary.getDuplicateCount());
+        assertEquals(List.of(2L, 4L), summary.getRejectedRecords());
+        Mockito.verify(batteryRepository).upsertUnordered(Mockito.<BsonBatteryBatch>argThat(batch ->
+                batch.postcodes().equals(List.of("2000", "2000", "2000"))
+                        && Arrays.equals(batch.wattCapacities(), new double[]{10.0, 20.0, 40.0})));
+        Mockito.verify(batteryRepository, Mockito.never()).upsertUnordered(Mockito.anyList());
+        List<PostcodeRollup> increments = List.of(PostcodeRollup.builder()
+                .postcode("2000")
+                .postcodeNum(2000L)
+                .totalWattCapacity(10.0)
+                .batteryCount(1L)
+                .build());
+        Mockito.verify(postcodeRollupRepository).incrementAll(Mockito.argThat(i -> increments.equals(List.copyOf(i))));
+    }
+
+    @Test
+    void listingBatteryNames_pagesFromTheLastBatteryOfThePreviousPage() {
+        Mockito.when(batteryRepository.findPageWithinPostcodeRange("2000", "3000", null, null, 3))
+                .thenReturn(List.of(
+                        Battery.builder().id("1111").name("Battery1").lowercaseName("battery1").build(),
+                        Battery.builder().id("2222").name("battery2").lowercaseName("battery2").build(),
+                        Battery.builder().id("3333").name("battery3").lowercaseName("battery3").build()));
+        Mockito.when(batteryRepository.findPageWithinPostcodeRange("2000", "3000", "battery2", "2222", 3))
+                .thenReturn(List.of(Battery.builder().id("3333").name("battery3").lowercaseName("battery3").build()));
+
+        BatteryNamePageDto firstPage = batteryService.getBatteryNames("2000", "3000", 2, null);
+        assertEquals(List.of("Battery1", "battery2"), firstPage.getBatteryNames());
+        assertNotNull(firstPage.getNextPageToken());
+
+        BatteryNamePageDto lastPage = batteryService.getBatteryNames("2000", "3000", 2, firstPage.getNextPageToken());
+        assertEquals(List.of("battery3"), lastPage.getBatteryNames());
+        assertNull(lastPage.getNextPageToken());
+    }
+
+    @Test
+    void listingBatteryNames_invalidPageToken() {
+        String otherRangeToken = new PageToken(new PostcodeRange("4000", "5000"), "battery1", "1111").encode();
+
+        Exception exception = assertThrows(ResponseStatusException.class,
+                () -> batteryService.getBatteryNames("2000", "3000", 2, "not a token"));
+        assertTrue(exception.getMessage().contains("Invalid page token"));
+        exception = assertThrows(ResponseStatusException.class,
+                () -> batteryService.getBatteryNames("2000", "3000", 2, otherRangeToken));
+        assertTrue(exception.getMessage().contains("Page token does not belong to the postcode range"));
+        exception = assertThrows(ResponseStatusException.class,
+                () -> batteryService.getBatteryNames("2000", "3000", 0, null));
+        assertTrue(exception.getMessage().contains("Page size must be between 1 and 10000"));
     }
 
     @ParameterizedTest
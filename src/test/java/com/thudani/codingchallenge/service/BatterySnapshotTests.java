@@ -0,0 +1,145 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryResultDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link BatterySnapshot}
+ */
+class BatterySnapshotTests {
+    private final BatteryRepository batteryRepository = Mockito.mock(BatteryRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private static Battery battery(String name, long postcodeNum, double wattCapacity) {
+        return Battery.builder().name(name).postcodeNum(postcodeNum).wattCapacity(wattCapacity).build();
+    }
+
+    @Test
+    void searchesNumericRangesAfterLoading() {
+        Mockito.when(batteryRepository.countNumeric()).thenReturn(4L);
+        Mockito.when(batteryRepository.streamNumericOrderedByPostcodeNum(10)).thenReturn(Stream.of(
+                battery("charlie", 900, 30.0),
+                battery("delta", 2000, 10.0),
+                battery("Bravo", 2000, 40.0),
+                battery("Alpha", 3000, 20.0)));
+        BatterySnapshot snapshot = new BatterySnapshot(batteryRepository, true, 10, meterRegistry);
+        assertFalse(snapshot.canSearch(new PostcodeRange("200", "3000")));
+
+        snapshot.rebuild();
+        assertTrue(snapshot.canSearch(new PostcodeRange("200", "3000")));
+        assertFalse(snapshot.canSearch(new PostcodeRange("A200", "A3000")));
+        BatteryResultDto result = snapshot.search(new PostcodeRange("200", "2000"), 2, BatteryServiceImpl::toResult);
+        assertEquals(List.of("Bravo", "charlie"), result.getBatteryNames());
+        assertEquals(80.0, result.getTotalWattCapacity());
+        assertEquals(27.0, result.getAverageWattCapacity());
+        result = snapshot.search(new PostcodeRange("3001", "4000"), 2, BatteryServiceImpl::toResult);
+        assertTrue(result.getBatteryNames().isEmpty());
+        assertNull(result.getAverageWattCapacity());
+        assertEquals(4, meterRegistry.get("battery.snapshot.size").gauge().value());
+        assertEquals(80, meterRegistry.get("battery.snapshot.off-heap").gauge().value());
+    }
+
+    @Test
+    void searchesFallBackFromTheStartOfALocalWriteUntilTheSnapshotIsRebuilt() {
+        Mockito.when(batteryRepository.streamNumericOrderedByPostcodeNum(10))
+                .thenReturn(Stream.of(battery("delta", 2000, 10.0)))
+                .thenReturn(Stream.of(battery("delta", 2000, 10.0), battery("beta", 2500, 30.0)));
+        BatterySnapshot snapshot = new BatterySnapshot(batteryRepository, true, 10, meterRegistry);
+        snapshot.rebuild();
+        assertFalse(snapshot.isStale());
+
+        snapshot.write(() -> {
+            assertFalse(snapshot.canSearch(new PostcodeRange("1000", "3000")));
+            return null;
+        });
+        assertFalse(snapshot.canSearch(new PostcodeRange("1000", "3000")));
+        assertTrue(snapshot.isStale());
+
+        snapshot.rebuild();
+        assertTrue(snapshot.canSearch(new PostcodeRange("1000", "3000")));
+        BatteryResultDto result = snapshot.search(new PostcodeRange("1000", "3000"), 50, BatteryServiceImpl::toResult);
+        assertEquals(List.of("beta", "delta"), result.getBatteryNames());
+    }
+
+    @Test
+    void isStaleOnceTheWriteSequenceHasMoved() {
+        Mockito.when(batteryRepository.writeSequence()).thenReturn(3L);
+        Mockito.when(batteryRepository.streamNumericOrderedByPostcodeNum(10)).thenReturn(Stream.empty());
+        BatterySnapshot snapshot = new BatterySnapshot(batteryRepository, true, 10, meterRegistry);
+        assertTrue(snapshot.isStale());
+        snapshot.rebuild();
+        assertFalse(snapshot.isStale());
+
+        Mockito.when(batteryRepository.writeSequence()).thenReturn(4L);
+        assertTrue(snapshot.isStale());
+        assertTrue(snapshot.canSearch(new PostcodeRange("1000", "3000")));
+    }
+
+    @Test
+    void growsTheColumnsWhileStreamingMoreBatteriesThanCounted() {
+        Mockito.when(batteryRepository.countNumeric()).thenReturn(2L);
+        Mockito.when(batteryRepository.streamNumericOrderedByPostcodeNum(1)).thenReturn(Stream.of(
+                battery("echo", 1000, 10.0),
+                battery("delta", 1000, 10.0),
+                battery("charlie", 2000, 10.0),
+                battery("bravo", 2500, 10.0),
+                battery("alpha", 2600, 10.0)));
+        BatterySnapshot snapshot = new BatterySnapshot(batteryRepository, true, 1, meterRegistry);
+        snapshot.rebuild();
+
+        BatteryResultDto result = snapshot.search(new PostcodeRange("1000", "2500"), 50, BatteryServiceImpl::toResult);
+        assertEquals(List.of("bravo", "charlie", "delta", "echo"), result.getBatteryNames());
+        assertEquals(40.0, result.getTotalWattCapacity());
+        assertEquals(5, meterRegistry.get("battery.snapshot.size").gauge().value());
+        //Grown from the 2 batteries counted to the minimum growth of 16 rows
+        assertEquals(320, meterRegistry.get("battery.snapshot.off-heap").gauge().value());
+    }
+
+    @Test
+    void reusesTheColumnsReplacedByThePreviousRebuild() {
+        Mockito.when(batteryRepository.countNumeric()).thenReturn(16L);
+        Mockito.when(batteryRepository.streamNumericOrderedByPostcodeNum(10))
+                .thenReturn(Stream.of(battery("delta", 2000, 10.0)))
+                .thenReturn(Stream.of(battery("charlie", 2000, 20.0)))
+                .thenReturn(Stream.of(battery("bravo", 2000, 30.0)));
+        BatterySnapshot snapshot = new BatterySnapshot(batteryRepository, true, 10, meterRegistry);
+
+        snapshot.rebuild();
+        snapshot.rebuild();
+        //The loaded and the replaced columns of 18 rows each
+        assertEquals(720, meterRegistry.get("battery.snapshot.off-heap").gauge().value());
+        snapshot.rebuild();
+        assertEquals(720, meterRegistry.get("battery.snapshot.off-heap").gauge().value());
+        BatteryResultDto result = snapshot.search(new PostcodeRange("1000", "3000"), 50, BatteryServiceImpl::toResult);
+        assertEquals(List.of("bravo"), result.getBatteryNames());
+        assertEquals(30.0, result.getTotalWattCapacity());
+    }
+
+    @Test
+    void rejectsBatteriesOutOfPostcodeOrder() {
+        Mockito.when(batteryRepository.streamNumericOrderedByPostcodeNum(10)).thenReturn(Stream.of(
+                battery("delta", 2000, 10.0),
+                battery("charlie", 900, 10.0)));
+        BatterySnapshot snapshot = new BatterySnapshot(batteryRepository, true, 10, meterRegistry);
+        assertThrows(IllegalArgumentException.class, snapshot::rebuild);
+        assertFalse(snapshot.canSearch(new PostcodeRange("200", "3000")));
+    }
+
+    @Test
+    void disabledSnapshotNeverSearches() {
+        BatterySnapshot snapshot = new BatterySnapshot(batteryRepository, false, 10, meterRegistry);
+        snapshot.rebuild();
+        snapshot.refresh();
+        assertFalse(snapshot.canSearch(new PostcodeRange("200", "3000")));
+        Mockito.verifyNoInteractions(batteryRepository);
+    }
+}
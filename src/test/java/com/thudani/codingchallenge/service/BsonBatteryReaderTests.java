@@ -0,0 +1,156 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.thudani.codingchallenge.repository.BsonBatteryBatch;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link BsonBatteryReader}
+ */
+class BsonBatteryReaderTests {
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Test
+    void readsNewlineDelimitedBatteriesWithAnyLineBreak() throws IOException {
+        String stream = "{\"name\": \"battery1\", \"postcode\": \"2000\", \"wattCapacity\": 10.0}\r\n"
+                + "\r\n"
+                + "{\"name\": \"battery2\", \"postcode\": 2010, \"wattCapacity\": \"20.5\", \"id\": {\"ignored\": 1}}\r"
+                + "   \n"
+                + "{\"name\": \"battery3\", \"postcode\": \"2020\", \"wattCapacity\": 30}";
+
+        //Reading the stream a byte at a time splits every line break across reads
+        List<Long> positions = new ArrayList<>();
+        BsonBatteryBatch batch = read(new OneByteInputStream(stream), positions);
+        assertEquals(List.of(1L, 3L, 5L), positions);
+        assertEquals(List.of("2000", "2010", "2020"), batch.postcodes());
+        assertArrayEquals(new double[]{10.0, 20.5, 30.0}, batch.wattCapacities());
+    }
+
+    @Test
+    void rejectsRecordsWhichAreNotValidBatteries() throws IOException {
+        String stream = """
+                {"name": "battery1", "postcode": "2000"}
+                not json
+                {"name": " ", "postcode": "2000", "wattCapacity": 10.0}
+                {"name": {"first": "battery"}, "postcode": "2000", "wattCapacity": 10.0}
+                {"name": "battery5", "postcode": "2000", "wattCapacity": "ten"}
+                {"name": "battery6", "postcode": "2000", "wattCapacity": true}
+                ["battery7", "2000", 10.0]
+                {"name": "battery8", "postcode": "2000", "wattCapacity": null}
+                {"name": "battery9", "postcode": "2000", "wattCapacity": 10.0}
+                {"name": "battery10", "postcode": "2000", "wattCap
+                """;
+
+        List<Long> positions = new ArrayList<>();
+        List<Long> rejected = new ArrayList<>();
+        BsonBatteryBatch batch = read(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), positions,
+                rejected);
+        assertEquals(List.of(9L), positions);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 10L), rejected);
+        assertEquals(1, batch.size());
+    }
+
+    @Test
+    void readsLinesLongerThanTheBuffer() throws IOException {
+        String longName = "b".repeat(200_000);
+        String stream = "{\"name\": \"" + longName + "\", \"postcode\": \"2000\", \"wattCapacity\": 10.0}\n"
+                + "{\"name\": \"battery2\", \"postcode\": \"2010\", \"wattCapacity\": 20.0}\n";
+
+        List<Long> positions = new ArrayList<>();
+        BsonBatteryBatch batch = read(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), positions);
+        assertEquals(List.of(1L, 2L), positions);
+        assertEquals(List.of("2000", "2010"), batch.postcodes());
+    }
+
+    @Test
+    void rejectsLinesLongerThanTheLimitAndCarriesOn() throws IOException {
+        String tooLongName = "b".repeat(BsonBatteryReader.MAX_LINE_BYTES);
+        String stream = "{\"name\": \"" + tooLongName + "\", \"postcode\": \"2000\", \"wattCapacity\": 10.0}\r\n"
+                + "{\"name\": \"battery2\", \"postcode\": \"2010\", \"wattCapacity\": 20.0}\n"
+                + "{\"name\": \"" + tooLongName + "\"";
+
+        List<Long> positions = new ArrayList<>();
+        List<Long> rejected = new ArrayList<>();
+        BsonBatteryBatch batch = read(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), positions,
+                rejected);
+        assertEquals(List.of(2L), positions);
+        assertEquals(List.of(1L, 3L), rejected);
+        assertEquals(List.of("2010"), batch.postcodes());
+    }
+
+    @Test
+    void readsAJsonArraySkippingTheElementsWhichAreNotValidBatteries() throws IOException {
+        String stream = """
+                [{"name": "battery1", "postcode": "2000", "wattCapacity": 10.0},
+                 "battery2",
+                 {"name": "battery3", "postcode": "2010", "wattCapacity": "abc", "tags": [{"a": 1}]},
+                 {"name": "battery4", "postcode": "2020", "wattCapacity": 40.0}]
+                """;
+
+        List<Long> positions = new ArrayList<>();
+        List<Long> rejected = new ArrayList<>();
+        BsonBatteryBatch batch = read(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), positions,
+                rejected);
+        assertEquals(List.of(1L, 4L), positions);
+        assertEquals(List.of(2L, 3L), rejected);
+        assertEquals(List.of("2000", "2020"), batch.postcodes());
+    }
+
+    @Test
+    void failsOnASyntaxErrorInAJsonArray() throws IOException {
+        String stream = """
+                [{"name": "battery1", "postcode": "2000", "wattCapacity": 10.0},
+                 {"name": "battery2" "postcode": "2010", "wattCapacity": 20.0},
+                 {"name": "battery3", "postcode": "2020", "wattCapacity": 30.0}]
+                """;
+
+        BsonBatteryBatch batch = new BsonBatteryBatch(4);
+        try (var reader = BsonBatteryReader.open(
+                new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)), jsonFactory)) {
+            assertEquals(BsonBatteryReader.Outcome.ADDED, reader.next(batch));
+            assertThrows(JsonParseException.class, () -> reader.next(batch));
+        }
+        assertEquals(1, batch.size());
+    }
+
+    private BsonBatteryBatch read(InputStream inputStream, List<Long> positions) throws IOException {
+        return read(inputStream, positions, new ArrayList<>());
+    }
+
+    private BsonBatteryBatch read(InputStream inputStream, List<Long> positions, List<Long> rejected)
+            throws IOException {
+        BsonBatteryBatch batch = new BsonBatteryBatch(4);
+        try (var reader = BsonBatteryReader.open(inputStream, jsonFactory)) {
+            BsonBatteryReader.Outcome outcome;
+            while ((outcome = reader.next(batch)) != BsonBatteryReader.Outcome.END) {
+                (outcome == BsonBatteryReader.Outcome.ADDED ? positions : rejected).add(reader.position());
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Stream returning at most one byte per read
+     */
+    private static class OneByteInputStream extends FilterInputStream {
+        OneByteInputStream(String content) {
+            super(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(1, length));
+        }
+    }
+}
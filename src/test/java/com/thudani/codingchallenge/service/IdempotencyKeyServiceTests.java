@@ -0,0 +1,142 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.model.IdempotencyRecord;
+import com.thudani.codingchallenge.repository.IdempotencyRecordRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link IdempotencyKeyService}
+ */
+class IdempotencyKeyServiceTests {
+    private static final TypeReference<List<BatteryDto>> RESPONSE_TYPE = new TypeReference<>() {
+    };
+    private static final SaveBatteriesCommand REQUEST = SaveBatteriesCommand.builder()
+            .batteries(List.of(BatteryDto.builder().name("battery1").postcode("2000").wattCapacity(10.0).build()))
+            .build();
+    private static final List<BatteryDto> RESPONSE = List.of(
+            BatteryDto.builder().id("1111").name("battery1").postcode("2000").wattCapacity(10.0).build());
+
+    //Binds the DTOs through their builder constructors like the application mapper
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final IdempotencyRecordRepository repository = Mockito.mock(IdempotencyRecordRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final IdempotencyKeyService service = new IdempotencyKeyService(repository, objectMapper, 60000,
+            meterRegistry);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    private List<BatteryDto> execute(String key, Object request) {
+        return service.execute(key, "saveBatteries", request, RESPONSE_TYPE, () -> {
+            runs.incrementAndGet();
+            return RESPONSE;
+        });
+    }
+
+    /**
+     * Runs a first request with the key and returns its stored record
+     */
+    private IdempotencyRecord completedRecord() {
+        execute("key", REQUEST);
+        var saved = ArgumentCaptor.forClass(IdempotencyRecord.class);
+        Mockito.verify(repository).save(saved.capture());
+        Mockito.when(repository.insert(Mockito.any(IdempotencyRecord.class)))
+                .thenThrow(new DuplicateKeyException("key"));
+        return saved.getValue();
+    }
+
+    @Test
+    void runsRequestsWithoutAKey() {
+        assertEquals(RESPONSE, execute(null, REQUEST));
+        assertEquals(1, runs.get());
+        Mockito.verifyNoInteractions(repository);
+    }
+
+    @Test
+    void storesTheResponseOfTheFirstRequest() throws JsonProcessingException {
+        var record = completedRecord();
+        assertEquals(1, runs.get());
+        assertEquals("key", record.getKey());
+        assertEquals(RESPONSE, objectMapper.readValue(record.getResponse(), RESPONSE_TYPE));
+    }
+
+    @Test
+    void replaysTheStoredResponseToRetries() {
+        var record = completedRecord();
+        Mockito.when(repository.findById("key")).thenReturn(Optional.of(record));
+
+        assertEquals(RESPONSE, execute("key", REQUEST));
+        assertEquals(1, runs.get());
+        assertEquals(1.0, meterRegistry.get("battery.idempotency.replays").counter().count());
+    }
+
+    @Test
+    void refusesADifferentRequestWithTheSameKey() {
+        var record = completedRecord();
+        Mockito.when(repository.findById("key")).thenReturn(Optional.of(record));
+
+        var exception = assertThrows(ResponseStatusException.class, () -> execute("key", SaveBatteriesCommand.builder()
+                .batteries(List.of())
+                .build()));
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, exception.getStatusCode());
+    }
+
+    @Test
+    void refusesRetriesWhileTheFirstRequestIsInProgress() {
+        var record = completedRecord();
+        record.setResponse(null);
+        record.setCreatedAt(Instant.now());
+        Mockito.when(repository.findById("key")).thenReturn(Optional.of(record));
+
+        var exception = assertThrows(ResponseStatusException.class, () -> execute("key", REQUEST));
+        assertEquals(HttpStatus.CONFLICT, exception.getStatusCode());
+    }
+
+    @Test
+    void takesOverAnAbandonedRequest() {
+        var record = completedRecord();
+        record.setResponse(null);
+        record.setCreatedAt(Instant.now().minusSeconds(120));
+        Mockito.when(repository.findById("key")).thenReturn(Optional.of(record));
+        Mockito.when(repository.deleteByKeyAndCreatedAt("key", record.getCreatedAt())).thenAnswer(invocation -> {
+            Mockito.reset(repository);
+            return 1L;
+        });
+
+        assertEquals(RESPONSE, execute("key", REQUEST));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void releasesTheKeyOfAFailedRequest() {
+        assertThrows(IllegalStateException.class, () -> service.execute("key", "saveBatteries", REQUEST,
+                RESPONSE_TYPE, () -> {
+                    throw new IllegalStateException("failed");
+                }));
+        Mockito.verify(repository).deleteById("key");
+    }
+
+    @Test
+    void refusesBlankKeys() {
+        var exception = assertThrows(ResponseStatusException.class, () -> execute(" ", REQUEST));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+    }
+}
@@ -0,0 +1,211 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryIngestSummaryDto;
+import com.thudani.codingchallenge.dto.IngestJobDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link IngestJobServiceImpl}
+ */
+class IngestJobServiceImplTests {
+    private static final String BODY = "{\"name\":\"battery1\",\"postcode\":\"2000\",\"wattCapacity\":10.0}\n";
+
+    @TempDir
+    Path spoolDirectory;
+
+    private final BatteryService batteryService = Mockito.mock(BatteryService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private IngestJobServiceImpl service;
+
+    @AfterEach
+    void shutdown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    private IngestJobServiceImpl service(int workers, int queueCapacity) throws IOException {
+        service = new IngestJobServiceImpl(batteryService, spoolDirectory, workers, queueCapacity, 10,
+                BODY.length(), meterRegistry);
+        return service;
+    }
+
+    private static InputStream body(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static BatteryIngestSummaryDto summary(long acceptedCount) {
+        return BatteryIngestSummaryDto.builder().acceptedCount(acceptedCount).rejectedRecords(List.of()).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void whenIngested(IngestAnswer answer) {
+        Mockito.when(batteryService.ingestBatteries(ArgumentMatchers.any(InputStream.class), ArgumentMatchers.any()))
+                .thenAnswer(invocation -> answer.ingest(invocation.getArgument(0),
+                        (Consumer<BatteryIngestSummaryDto>) invocation.getArgument(1)));
+    }
+
+    private interface IngestAnswer {
+        BatteryIngestSummaryDto ingest(InputStream inputStream, Consumer<BatteryIngestSummaryDto> progressListener)
+                throws Exception;
+    }
+
+    private IngestJobDto awaitFinished(String jobId) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            var job = service.getJob(jobId);
+            if (job.getStatus() == IngestJobDto.Status.COMPLETED || job.getStatus() == IngestJobDto.Status.FAILED) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Job " + jobId + " did not finish");
+    }
+
+    @Test
+    void runsAJobFromItsSpoolFileAndReportsItsProgress() throws Exception {
+        var progressReported = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        whenIngested((inputStream, progressListener) -> {
+            assertEquals(BODY, new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+            progressListener.accept(summary(1));
+            progressReported.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return summary(1);
+        });
+
+        var job = service(1, 1).submitJob(body(BODY));
+        assertEquals(IngestJobDto.Status.QUEUED, job.getStatus());
+        assertFalse(job.isRecovered());
+        assertTrue(progressReported.await(10, TimeUnit.SECONDS));
+        var running = service.getJob(job.getJobId());
+        assertEquals(IngestJobDto.Status.RUNNING, running.getStatus());
+        assertEquals(1, running.getSummary().getAcceptedCount());
+        assertNotNull(running.getRecordsPerSecond());
+        release.countDown();
+
+        var finished = awaitFinished(job.getJobId());
+        assertEquals(IngestJobDto.Status.COMPLETED, finished.getStatus());
+        assertNotNull(finished.getFinishedAt());
+        assertNull(finished.getError());
+        try (var files = Files.list(spoolDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void refusesJobsWhenTheQueueIsFull() throws Exception {
+        var release = new CountDownLatch(1);
+        whenIngested((inputStream, progressListener) -> {
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return summary(1);
+        });
+        service(1, 1);
+
+        var first = service.submitJob(body(BODY));
+        var second = service.submitJob(body(BODY));
+        var exception = assertThrows(ResponseStatusException.class, () -> service.submitJob(body(BODY)));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatusCode());
+        assertEquals(1.0, meterRegistry.get("battery.ingest.jobs.refused").counter().count());
+        assertEquals(2.0, meterRegistry.get("battery.ingest.jobs.pending").gauge().value());
+        release.countDown();
+
+        assertEquals(IngestJobDto.Status.COMPLETED, awaitFinished(first.getJobId()).getStatus());
+        assertEquals(IngestJobDto.Status.COMPLETED, awaitFinished(second.getJobId()).getStatus());
+        assertEquals(IngestJobDto.Status.QUEUED, service.submitJob(body(BODY)).getStatus());
+    }
+
+    @Test
+    void reportsTheErrorOfAFailedJob() throws Exception {
+        whenIngested((inputStream, progressListener) -> {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Battery stream could not be read");
+        });
+
+        var job = service(1, 1).submitJob(body(BODY));
+
+        var finished = awaitFinished(job.getJobId());
+        assertEquals(IngestJobDto.Status.FAILED, finished.getStatus());
+        assertEquals("Battery stream could not be read", finished.getError());
+        try (var files = Files.list(spoolDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void keepsTheSpoolFileOfAJobFailedByAnError() throws Exception {
+        whenIngested((inputStream, progressListener) -> {
+            throw new IllegalStateException("Database unavailable");
+        });
+
+        var job = service(1, 1).submitJob(body(BODY));
+
+        var finished = awaitFinished(job.getJobId());
+        assertEquals(IngestJobDto.Status.FAILED, finished.getStatus());
+        assertEquals("Database unavailable", finished.getError());
+        assertTrue(Files.exists(spoolDirectory.resolve(job.getJobId() + ".spool")));
+    }
+
+    @Test
+    void refusesABodyLargerThanTheMaximumSpoolSize() throws IOException {
+        service(1, 1);
+
+        var exception = assertThrows(ResponseStatusException.class, () -> service.submitJob(body(BODY + BODY)));
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, exception.getStatusCode());
+        try (var files = Files.list(spoolDirectory)) {
+            assertEquals(0, files.count());
+        }
+        assertEquals(0.0, meterRegistry.get("battery.ingest.jobs.pending").gauge().value());
+    }
+
+    @Test
+    void rejectsAnEmptyBodyAndAnUnknownJob() throws IOException {
+        service(1, 1);
+
+        var exception = assertThrows(ResponseStatusException.class, () -> service.submitJob(body("")));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+        exception = assertThrows(ResponseStatusException.class, () -> service.getJob("unknown"));
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
+        try (var files = Files.list(spoolDirectory)) {
+            assertEquals(0, files.count());
+        }
+        assertEquals(0.0, meterRegistry.get("battery.ingest.jobs.pending").gauge().value());
+    }
+
+    @Test
+    void runsAgainTheJobsLeftSpooledByACrash() throws Exception {
+        Files.writeString(spoolDirectory.resolve("interrupted.spool"), BODY);
+        Files.writeString(spoolDirectory.resolve("receiving.part"), BODY.substring(0, 10));
+        whenIngested((inputStream, progressListener) -> {
+            assertEquals(BODY, new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+            return summary(1);
+        });
+
+        service(1, 1).recoverJobs();
+
+        var finished = awaitFinished("interrupted");
+        assertEquals(IngestJobDto.Status.COMPLETED, finished.getStatus());
+        assertTrue(finished.isRecovered());
+        assertFalse(Files.exists(spoolDirectory.resolve("receiving.part")));
+        assertThrows(ResponseStatusException.class, () -> service.getJob("receiving"));
+    }
+}
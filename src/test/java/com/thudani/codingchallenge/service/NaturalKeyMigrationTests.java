@@ -0,0 +1,60 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DuplicateKeyException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link NaturalKeyMigration}
+ */
+class NaturalKeyMigrationTests {
+    private final BatteryRepository batteryRepository = Mockito.mock(BatteryRepository.class);
+    private final PostcodeRollupService postcodeRollupService = Mockito.mock(PostcodeRollupService.class);
+    private final PostcodeStatisticsIndex postcodeStatisticsIndex = Mockito.mock(PostcodeStatisticsIndex.class);
+    private final BatterySnapshot batterySnapshot = Mockito.mock(BatterySnapshot.class);
+
+    private NaturalKeyMigration migration(boolean enabled) {
+        return new NaturalKeyMigration(batteryRepository, postcodeRollupService, postcodeStatisticsIndex,
+                batterySnapshot, enabled);
+    }
+
+    @Test
+    void createsTheMissingIndex() {
+        migration(false).migrate();
+        Mockito.verify(batteryRepository).createNaturalKeyIndex();
+        Mockito.verify(batteryRepository, Mockito.never()).deleteDuplicates();
+    }
+
+    @Test
+    void startUpFailsWhileDuplicatesPreventTheIndex() {
+        Mockito.doThrow(new DuplicateKeyException("duplicate key")).when(batteryRepository).createNaturalKeyIndex();
+
+        var exception = assertThrows(IllegalStateException.class, () -> migration(false).migrate());
+        assertTrue(exception.getMessage().contains(Battery.NATURAL_KEY_INDEX));
+        Mockito.verify(batteryRepository, Mockito.never()).deleteDuplicates();
+    }
+
+    @Test
+    void deletesTheDuplicatesBeforeCreatingTheIndexWhenEnabled() {
+        Mockito.when(batteryRepository.deleteDuplicates()).thenReturn(2L);
+
+        migration(true).migrate();
+        var inOrder = Mockito.inOrder(batteryRepository, postcodeStatisticsIndex);
+        inOrder.verify(batteryRepository).deleteDuplicates();
+        inOrder.verify(postcodeStatisticsIndex).warm();
+        inOrder.verify(batteryRepository).createNaturalKeyIndex();
+    }
+
+    @Test
+    void leavesAnExistingIndex() {
+        Mockito.when(batteryRepository.indexExists(Battery.NATURAL_KEY_INDEX)).thenReturn(true);
+
+        migration(true).migrate();
+        Mockito.verify(batteryRepository, Mockito.never()).createNaturalKeyIndex();
+        Mockito.verify(batteryRepository, Mockito.never()).deleteDuplicates();
+    }
+}
@@ -0,0 +1,32 @@
+package com.thudani.codingchallenge.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link PageToken}
+ */
+class PageTokenTests {
+
+    @Test
+    void decodesAnEncodedTokenWithLongNames() {
+        PageToken pageToken = new PageToken(new PostcodeRange("2000", "3000"), "é".repeat(40_000), "1111");
+
+        assertEquals(pageToken, PageToken.decode(pageToken.encode()));
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        String token = new PageToken(new PostcodeRange("2000", "3000"), "battery1", "1111").encode();
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        bytes[3] = 100;
+        String invalidLength = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        assertThrows(IllegalArgumentException.class, () -> PageToken.decode(invalidLength));
+        assertThrows(IllegalArgumentException.class, () -> PageToken.decode(token.substring(0, token.length() - 2)));
+        assertThrows(IllegalArgumentException.class, () -> PageToken.decode(token + "AA"));
+    }
+}
@@ -0,0 +1,53 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.dto.PostcodeStatisticsDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link PostcodeGroups}
+ */
+class PostcodeGroupsTests {
+
+    private static PostcodeStatisticsDto group(Long postcodeNum, String postcode, double totalWattCapacity,
+                                               long batteryCount) {
+        return PostcodeStatisticsDto.builder()
+                .postcodeNum(postcodeNum)
+                .postcode(postcode)
+                .totalWattCapacity(totalWattCapacity)
+                .batteryCount(batteryCount)
+                .build();
+    }
+
+    private final PostcodeGroups groups = new PostcodeGroups(
+            List.of(group(900L, null, 10.0, 1),
+                    group(2000L, null, 20.0, 3),
+                    group(3000L, null, 30.0, 2)),
+            List.of(group(null, "A100", 40.0, 1),
+                    group(null, "A200", 50.0, 1)));
+
+    @Test
+    void sumsTheGroupsOfTheRange() {
+        BatteryStatisticsDto statistics = groups.statistics(new PostcodeRange("200", "2000")).orElseThrow();
+        assertEquals(30.0, statistics.getTotalWattCapacity());
+        assertEquals(4, statistics.getBatteryCount());
+
+        statistics = groups.statistics(new PostcodeRange("1000", "9000")).orElseThrow();
+        assertEquals(50.0, statistics.getTotalWattCapacity());
+        assertEquals(5, statistics.getBatteryCount());
+
+        statistics = groups.statistics(new PostcodeRange("A150", "B")).orElseThrow();
+        assertEquals(50.0, statistics.getTotalWattCapacity());
+        assertEquals(1, statistics.getBatteryCount());
+    }
+
+    @Test
+    void rangesWithoutBatteriesHaveNoStatistics() {
+        assertEquals(Optional.empty(), groups.statistics(new PostcodeRange("2001", "2999")));
+    }
+}
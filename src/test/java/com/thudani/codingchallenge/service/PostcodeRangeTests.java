@@ -0,0 +1,68 @@
+package com.thudani.codingchallenge.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link PostcodeRange}
+ */
+class PostcodeRangeTests {
+
+    @Test
+    void numericRangesAreComparedByValue() {
+        PostcodeRange range = PostcodeRange.of("200", "3000");
+        assertTrue(range.isNumeric());
+        assertEquals(200L, range.postcodeNum1());
+        assertEquals(3000L, range.postcodeNum2());
+        assertTrue(range.contains("1000"));
+        assertTrue(range.contains("0200"));
+        assertFalse(range.contains("30000"));
+        assertFalse(range.contains("2A"));
+        assertDoesNotThrow(() -> PostcodeRange.of("900", "1000"));
+        assertThrows(ResponseStatusException.class, () -> PostcodeRange.of("1000", "900"));
+    }
+
+    @Test
+    void otherRangesAreComparedCharacterByCharacter() {
+        PostcodeRange range = PostcodeRange.of("A100", "A300");
+        assertFalse(range.isNumeric());
+        assertTrue(range.contains("A2"));
+        assertTrue(range.contains("A1000000"));
+        assertFalse(PostcodeRange.of("100", "A300").isNumeric());
+        assertFalse(PostcodeRange.of("1234567890123456789", "1234567890123456789").isNumeric());
+        assertThrows(ResponseStatusException.class, () -> PostcodeRange.of("B", "A"));
+        assertThrows(ResponseStatusException.class, () -> PostcodeRange.of(null, "A"));
+    }
+
+    @Test
+    void unionMergesOverlappingAndAdjacentRanges() {
+        assertEquals(List.of(new PostcodeRange("200", "3000"), new PostcodeRange("3002", "4000")),
+                PostcodeRange.union(List.of(
+                        new PostcodeRange("3002", "4000"),
+                        new PostcodeRange("1000", "3000"),
+                        new PostcodeRange("200", "999"),
+                        new PostcodeRange("2000", "2500")), true));
+        assertEquals(List.of(new PostcodeRange("A", "C"), new PostcodeRange("D", "E")),
+                PostcodeRange.union(List.of(
+                        new PostcodeRange("D", "E"),
+                        new PostcodeRange("B", "C"),
+                        new PostcodeRange("A", "B")), false));
+    }
+
+    @Test
+    void unionKeepsComparingRangesWhichAreNotNumericCharacterByCharacter() {
+        //Merged, these ranges start and end with numeric postcodes
+        assertEquals(List.of(new PostcodeRange("2000", "3000")),
+                PostcodeRange.union(List.of(
+                        new PostcodeRange("2500B", "3000"),
+                        new PostcodeRange("2000", "2600A")), false));
+        assertEquals(List.of(new PostcodeRange("2000", "2000A"), new PostcodeRange("2999X", "3000")),
+                PostcodeRange.union(List.of(
+                        new PostcodeRange("2999X", "3000"),
+                        new PostcodeRange("2000", "2000A")), false));
+    }
+}
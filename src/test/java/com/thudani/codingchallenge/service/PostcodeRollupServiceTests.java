@@ -0,0 +1,94 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import com.thudani.codingchallenge.repository.PostcodeRollupRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link PostcodeRollupService}
+ */
+class PostcodeRollupServiceTests {
+    private final PostcodeRollupRepository postcodeRollupRepository = Mockito.mock(PostcodeRollupRepository.class);
+    private final BatteryRepository batteryRepository = Mockito.mock(BatteryRepository.class);
+    private final PostcodeRollupService rollupService =
+            new PostcodeRollupService(postcodeRollupRepository, batteryRepository, true);
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void startUpFailsWhileAnotherInstanceHoldsTheLease() {
+        Mockito.when(postcodeRollupRepository.acquireLease(Mockito.anyString(), Mockito.any(Duration.class)))
+                .thenReturn(false);
+        assertThrows(IllegalStateException.class, rollupService::rebuildIfMissing);
+        Mockito.verify(postcodeRollupRepository, Mockito.never()).rebuildAll();
+    }
+
+    @Test
+    void statisticsAreReadFromTheBatteriesOnceTheLeaseIsLost() {
+        Mockito.when(postcodeRollupRepository.acquireLease(Mockito.anyString(), Mockito.any(Duration.class)))
+                .thenReturn(true)
+                .thenThrow(new IllegalStateException("unreachable"))
+                .thenReturn(false);
+        rollupService.rebuildIfMissing();
+        assertTrue(rollupService.isReady());
+
+        rollupService.renewLease();
+        assertTrue(rollupService.isReady());
+        rollupService.renewLease();
+        assertFalse(rollupService.isReady());
+    }
+
+    @Test
+    void recomputesThePostcodesWrittenDuringARebuildOnceTheirWritesHaveBeenRecorded() throws Exception {
+        var rebuildAllStarted = new CountDownLatch(1);
+        var rebuildAllReleased = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            rebuildAllStarted.countDown();
+            await(rebuildAllReleased);
+            return null;
+        }).when(postcodeRollupRepository).rebuildAll();
+        var batteriesWritten = new CountDownLatch(1);
+        var recordReleased = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var rebuild = executor.submit(rollupService::rebuild);
+            await(rebuildAllStarted);
+            var write = executor.submit(() -> rollupService.write(() -> {
+                batteriesWritten.countDown();
+                await(recordReleased);
+                rollupService.recordSaved(List.of("2000"), new double[]{10.0});
+                return null;
+            }));
+            await(batteriesWritten);
+            rebuildAllReleased.countDown();
+
+            //The recomputation waits for the write to have recorded its batteries
+            Mockito.verify(postcodeRollupRepository, Mockito.after(200).never()).rebuild(Mockito.anyCollection());
+            recordReleased.countDown();
+            write.get(10, TimeUnit.SECONDS);
+            rebuild.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        var inOrder = Mockito.inOrder(postcodeRollupRepository);
+        inOrder.verify(postcodeRollupRepository).incrementAll(Mockito.any());
+        inOrder.verify(postcodeRollupRepository).rebuild(List.of("2000"));
+        assertTrue(rollupService.isReady());
+    }
+}
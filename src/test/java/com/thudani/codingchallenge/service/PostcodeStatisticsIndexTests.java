@@ -0,0 +1,174 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.model.PostcodeRollup;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link PostcodeStatisticsIndex}
+ */
+class PostcodeStatisticsIndexTests {
+    private final BatteryRepository batteryRepository = Mockito.mock(BatteryRepository.class);
+
+    @Test
+    void answersRangeStatisticsAfterWarmUp() {
+        Mockito.when(batteryRepository.findStatisticsPerPostcode()).thenReturn(List.of(
+                PostcodeRollup.builder().postcode("2001").totalWattCapacity(20.1).batteryCount(2L).build(),
+                PostcodeRollup.builder().postcode("2000").totalWattCapacity(10.2).batteryCount(1L).build(),
+                PostcodeRollup.builder().postcode("3000").totalWattCapacity(50.0).batteryCount(5L).build()));
+        PostcodeStatisticsIndex index = new PostcodeStatisticsIndex(batteryRepository, true);
+        assertFalse(index.isReady());
+
+        index.warm();
+        assertTrue(index.isReady());
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(30.3).batteryCount(3L).build()),
+                index.getStatistics(new PostcodeRange("2000", "2999")));
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(70.1).batteryCount(7L).build()),
+                index.getStatistics(new PostcodeRange("2001", "3000")));
+        assertEquals(Optional.empty(), index.getStatistics(new PostcodeRange("4000", "5000")));
+    }
+
+    @Test
+    void addsSavedBatteriesIncludingNewPostcodes() {
+        Mockito.when(batteryRepository.findStatisticsPerPostcode()).thenReturn(List.of(
+                PostcodeRollup.builder().postcode("2000").totalWattCapacity(10.0).batteryCount(1L).build(),
+                PostcodeRollup.builder().postcode("3000").totalWattCapacity(50.0).batteryCount(5L).build()));
+        PostcodeStatisticsIndex index = new PostcodeStatisticsIndex(batteryRepository, true);
+        index.warm();
+
+        index.recordSaved(List.of(
+                Battery.builder().name("a").postcode("2000").wattCapacity(5.0).build(),
+                Battery.builder().name("b").postcode("2500").wattCapacity(7.0).build(),
+                Battery.builder().name("c").postcode("2500").wattCapacity(8.0).build()));
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(15.0).batteryCount(2L).build()),
+                index.getStatistics(new PostcodeRange("2000", "2000")));
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(30.0).batteryCount(4L).build()),
+                index.getStatistics(new PostcodeRange("2000", "2999")));
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(80.0).batteryCount(9L).build()),
+                index.getStatistics(new PostcodeRange("0000", "9999")));
+    }
+
+    @Test
+    void answersNumericRangesByValue() {
+        Mockito.when(batteryRepository.findStatisticsPerPostcode()).thenReturn(List.of(
+                PostcodeRollup.builder().postcode("900").totalWattCapacity(9.0).batteryCount(1L).build(),
+                PostcodeRollup.builder().postcode("1000").totalWattCapacity(10.0).batteryCount(1L).build(),
+                PostcodeRollup.builder().postcode("A100").totalWattCapacity(50.0).batteryCount(5L).build()));
+        PostcodeStatisticsIndex index = new PostcodeStatisticsIndex(batteryRepository, true);
+        index.warm();
+        index.recordSaved(List.of(Battery.builder().name("a").postcode("20000").wattCapacity(20.0).build()));
+
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(19.0).batteryCount(2L).build()),
+                index.getStatistics(new PostcodeRange("200", "3000")));
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(30.0).batteryCount(2L).build()),
+                index.getStatistics(new PostcodeRange("1000", "99999")));
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(50.0).batteryCount(5L).build()),
+                index.getStatistics(new PostcodeRange("A000", "A999")));
+    }
+
+    @Test
+    void recomputesThePostcodesSavedDuringAWarmMissedByTheWarm() {
+        PostcodeStatisticsIndex index = new PostcodeStatisticsIndex(batteryRepository, true);
+        Mockito.when(batteryRepository.findStatisticsPerPostcode()).thenAnswer(invocation -> {
+            //Saved after the aggregation read the batteries of the postcode
+            index.recordSaved(List.of(Battery.builder().name("a").postcode("2000").wattCapacity(5.0).build()));
+            return List.of(PostcodeRollup.builder().postcode("2000").totalWattCapacity(10.0).batteryCount(1L).build());
+        });
+        Mockito.when(batteryRepository.findStatisticsOfPostcodes(List.of("2000"))).thenReturn(List.of(
+                PostcodeRollup.builder().postcode("2000").totalWattCapacity(15.0).batteryCount(2L).build()));
+        index.warm();
+
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(15.0).batteryCount(2L).build()),
+                index.getStatistics(new PostcodeRange("2000", "2000")));
+    }
+
+    @Test
+    void countsABatterySavedDuringAWarmAndCountedByTheWarmOnce() {
+        PostcodeStatisticsIndex index = new PostcodeStatisticsIndex(batteryRepository, true);
+        Mockito.when(batteryRepository.findStatisticsPerPostcode()).thenAnswer(invocation -> {
+            //Saved before the aggregation read the batteries of the postcodes
+            index.recordSaved(List.of(
+                    Battery.builder().name("a").postcode("2000").wattCapacity(5.0).build(),
+                    Battery.builder().name("b").postcode("2500").wattCapacity(7.0).build()));
+            return List.of(
+                    PostcodeRollup.builder().postcode("2000").totalWattCapacity(15.0).batteryCount(2L).build(),
+                    PostcodeRollup.builder().postcode("2500").totalWattCapacity(7.0).batteryCount(1L).build());
+        });
+        Mockito.when(batteryRepository.findStatisticsOfPostcodes(Mockito.anyCollection())).thenReturn(List.of(
+                PostcodeRollup.builder().postcode("2000").totalWattCapacity(15.0).batteryCount(2L).build(),
+                PostcodeRollup.builder().postcode("2500").totalWattCapacity(7.0).batteryCount(1L).build()));
+        index.warm();
+        index.warm();
+
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(15.0).batteryCount(2L).build()),
+                index.getStatistics(new PostcodeRange("2000", "2000")));
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(22.0).batteryCount(3L).build()),
+                index.getStatistics(new PostcodeRange("2000", "2999")));
+
+        index.write(() -> {
+            index.recordSaved(List.of(Battery.builder().name("c").postcode("2000").wattCapacity(5.0).build()));
+            return null;
+        });
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(20.0).batteryCount(3L).build()),
+                index.getStatistics(new PostcodeRange("2000", "2000")));
+    }
+
+    @Test
+    void holdsTheRecomputationOfAWarmBackUntilTheWritesInProgressHaveBeenRecorded() throws Exception {
+        PostcodeStatisticsIndex index = new PostcodeStatisticsIndex(batteryRepository, true);
+        var written = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        Mockito.when(batteryRepository.findStatisticsPerPostcode()).thenAnswer(invocation -> {
+            written.await(10, TimeUnit.SECONDS);
+            //Counts the battery of the write in progress, which has not been recorded yet
+            return List.of(PostcodeRollup.builder().postcode("2000").totalWattCapacity(5.0).batteryCount(1L).build());
+        });
+        Mockito.when(batteryRepository.findStatisticsOfPostcodes(List.of("2000"))).thenReturn(List.of(
+                PostcodeRollup.builder().postcode("2000").totalWattCapacity(5.0).batteryCount(1L).build()));
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var write = executor.submit(() -> index.write(() -> {
+                written.countDown();
+                try {
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                index.recordSaved(List.of(Battery.builder().name("a").postcode("2000").wattCapacity(5.0).build()));
+                return null;
+            }));
+            var warm = CompletableFuture.runAsync(index::warm);
+            Mockito.verify(batteryRepository, Mockito.after(200).never()).findStatisticsOfPostcodes(Mockito.anyCollection());
+            release.countDown();
+            write.get(10, TimeUnit.SECONDS);
+            warm.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertEquals(Optional.of(BatteryStatisticsDto.builder().totalWattCapacity(5.0).batteryCount(1L).build()),
+                index.getStatistics(new PostcodeRange("2000", "2000")));
+    }
+
+    @Test
+    void disabledIndexIsNeverReady() {
+        PostcodeStatisticsIndex index = new PostcodeStatisticsIndex(batteryRepository, false);
+        index.warm();
+        assertFalse(index.isReady());
+        Mockito.verifyNoInteractions(batteryRepository);
+    }
+}
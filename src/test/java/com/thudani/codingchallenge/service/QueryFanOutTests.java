@@ -0,0 +1,64 @@
+package com.thudani.codingchallenge.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link QueryFanOut}
+ */
+class QueryFanOutTests {
+
+    @Test
+    void runsBothQueriesConcurrentlyWhenEnabled() {
+        var fanOut = new QueryFanOut(true);
+        var bothStarted = new CountDownLatch(2);
+        //Each query only completes once the other one has started, which cannot happen if they run one after the other
+        String result = fanOut.join(
+                () -> awaitOther(bothStarted, "names"),
+                () -> awaitOther(bothStarted, "statistics"),
+                (names, statistics) -> names + "+" + statistics);
+        assertEquals("names+statistics", result);
+        fanOut.shutdown();
+    }
+
+    @Test
+    void rethrowsTheExceptionOfAQuery() {
+        var fanOut = new QueryFanOut(true);
+        var exception = new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Query failed");
+        assertEquals(exception, assertThrows(ResponseStatusException.class, () -> fanOut.join(
+                () -> {
+                    throw exception;
+                },
+                () -> "statistics",
+                (names, statistics) -> names + "+" + statistics)));
+        fanOut.shutdown();
+    }
+
+    @Test
+    void runsTheQueriesOnTheCallingThreadWhenDisabled() {
+        var fanOut = new QueryFanOut(false);
+        var caller = Thread.currentThread();
+        assertFalse(fanOut.isEnabled());
+        assertTrue(fanOut.join(() -> Thread.currentThread() == caller, () -> Thread.currentThread() == caller,
+                Boolean::logicalAnd));
+    }
+
+    private static String awaitOther(CountDownLatch bothStarted, String result) {
+        bothStarted.countDown();
+        try {
+            assertTrue(bothStarted.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,281 @@
+package com.thudani.codingchallenge.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thudani.codingchallenge.command.SaveBatteriesCommand;
+import com.thudani.codingchallenge.dto.BatteryDto;
+import com.thudani.codingchallenge.dto.BatteryStatisticsDto;
+import com.thudani.codingchallenge.dto.RejectedBatteryDto;
+import com.thudani.codingchallenge.model.Battery;
+import com.thudani.codingchallenge.repository.BatteryRepository;
+import com.thudani.codingchallenge.repository.BatteryUpsertResult;
+import com.thudani.codingchallenge.repository.PostcodeRollupRepository;
+import com.thudani.codingchallenge.repository.ReactiveBatteryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.internal.verification.VerificationModeFactory.times;
+
+/**
+ * Tests for {@link ReactiveBatteryServiceImpl}
+ */
+class ReactiveBatteryServiceImplTests {
+    private final ReactiveBatteryRepository batteryRepository = Mockito.mock(ReactiveBatteryRepository.class);
+    private final BatteryRepository blockingBatteryRepository = Mockito.mock(BatteryRepository.class);
+    private final ReactiveBatteryService batteryService = new ReactiveBatteryServiceImpl(batteryRepository,
+            new ObjectMapper(),
+            new PostcodeRollupService(Mockito.mock(PostcodeRollupRepository.class), blockingBatteryRepository, false),
+            new PostcodeStatisticsIndex(blockingBatteryRepository, false),
+            fixedBatchSizer(2), 2);
+
+    private static AdaptiveBatchSizer fixedBatchSizer(int batchSize) {
+        return new AdaptiveBatchSizer(batchSize, batchSize, batchSize, 250, 8388608, new SimpleMeterRegistry());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void upsertInsertsEveryBattery() {
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.anyList())).thenReturn(Mono.just(BatteryUpsertResult.EMPTY));
+    }
+
+    @Test
+    void savingAValidListOfBatteries() {
+        upsertInsertsEveryBattery();
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(IntStream.range(0, 5)
+                        .mapToObj(i -> BatteryDto.builder().name("battery" + i).postcode("2000").wattCapacity(10.0).build())
+                        .toList())
+                .build();
+
+        StepVerifier.create(batteryService.saveBatteries(command))
+                .assertNext(saved -> assertEquals(List.of("battery0", "battery1", "battery2", "battery3", "battery4"),
+                        saved.stream().map(BatteryDto::getName).toList()))
+                .verifyComplete();
+        Mockito.verify(batteryRepository, times(3)).upsertUnordered(Mockito.anyList());
+    }
+
+    @Test
+    void savingBatteries_cutsBatchesOfTheAdaptiveSize() {
+        upsertInsertsEveryBattery();
+        var batchSizer = new AdaptiveBatchSizer(2, 8, 2, 250, 8388608, new SimpleMeterRegistry());
+        var adaptiveBatteryService = new ReactiveBatteryServiceImpl(batteryRepository, new ObjectMapper(),
+                new PostcodeRollupService(Mockito.mock(PostcodeRollupRepository.class), blockingBatteryRepository, false),
+                new PostcodeStatisticsIndex(blockingBatteryRepository, false), batchSizer, 1);
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(IntStream.range(0, 7)
+                        .mapToObj(i -> BatteryDto.builder().name("battery" + i).postcode("2000").wattCapacity(10.0).build())
+                        .toList())
+                .build();
+
+        StepVerifier.create(adaptiveBatteryService.saveBatteries(command))
+                .assertNext(saved -> assertEquals(7, saved.size()))
+                .verifyComplete();
+        //Each fast batch grows the next one: 2, then 3, then the remaining 2
+        var batches = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(batteryRepository, times(3)).upsertUnordered(batches.capture());
+        assertEquals(List.of(2, 3, 2), batches.getAllValues().stream().map(List::size).toList());
+    }
+
+    @Test
+    void savingBatteries_returnsTheStoredDuplicates() {
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.anyList()))
+                .thenReturn(Mono.just(new BatteryUpsertResult(Set.of(1), List.of())));
+        Mockito.when(batteryRepository.loadStored(Mockito.anyList())).thenAnswer(invocation -> {
+            invocation.<List<Battery>>getArgument(0).get(0).setId("2222");
+            return Mono.empty();
+        });
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(IntStream.range(0, 2)
+                        .mapToObj(i -> BatteryDto.builder().name("battery" + i).postcode("2000").wattCapacity(10.0).build())
+                        .toList())
+                .build();
+
+        StepVerifier.create(batteryService.saveBatteries(command))
+                .assertNext(saved -> assertEquals("2222", saved.get(1).getId()))
+                .verifyComplete();
+    }
+
+    @Test
+    void savingBatteries_failsIfABatteryCannotBeSaved() {
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.anyList()))
+                .thenReturn(Mono.just(new BatteryUpsertResult(Set.of(),
+                        List.of(RejectedBatteryDto.builder().index(0).reason("write failed").build()))));
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(BatteryDto.builder().name("battery1").postcode("2000").wattCapacity(10.0).build()))
+                .build();
+
+        StepVerifier.create(batteryService.saveBatteries(command))
+                .verifyErrorMatches(e -> e instanceof ResponseStatusException
+                        && e.getMessage().contains("write failed"));
+    }
+
+    @Test
+    void savingAListOfBatteries_InvalidBattery() {
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(BatteryDto.builder().name("battery1").postcode("2000").build()))
+                .build();
+
+        StepVerifier.create(batteryService.saveBatteries(command))
+                .verifyErrorMatches(e -> e instanceof ResponseStatusException
+                        && e.getMessage().contains("Batteries should contain all the required fields"));
+        Mockito.verifyNoInteractions(batteryRepository);
+    }
+
+    @Test
+    void ingestingAStreamOfBatteries() {
+        upsertInsertsEveryBattery();
+        Flux<String> lines = Flux.just(
+                "{\"name\": \"battery1\", \"postcode\": \"2000\", \"wattCapacity\": 10.0}",
+                "{\"name\": \"battery2\", \"postcode\": \"2000\"}",
+                "",
+                "{\"name\": \"battery3\", \"postcode\": \"2010\", \"wattCapacity\": 20.0}",
+                "{\"name\": \"battery4\", \"postcode\":",
+                "{\"name\": \"battery5\", \"postcode\": \"2020\", \"wattCapacity\": 30.0}");
+
+        StepVerifier.create(batteryService.ingestBatteries(lines))
+                .assertNext(summary -> {
+                    assertEquals(3, summary.getAcceptedCount());
+                    assertEquals(0, summary.getDuplicateCount());
+                    assertEquals(2, summary.getRejectedCount());
+                    assertEquals(List.of(2L, 5L), summary.getRejectedRecords());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void ingestingAStreamOfBatteries_reportsTheBatteriesTheDbRejectedAndCarriesOn() {
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.anyList()))
+                .thenReturn(Mono.just(new BatteryUpsertResult(Set.of(),
+                        List.of(RejectedBatteryDto.builder().index(1).reason("write failed").build()))))
+                .thenReturn(Mono.just(BatteryUpsertResult.EMPTY));
+        Flux<String> lines = Flux.just(
+                "{\"name\": \"battery1\", \"postcode\": \"2000\", \"wattCapacity\": 10.0}",
+                "{\"name\": \"battery2\", \"postcode\": \"2000\", \"wattCapacity\": 10.0}",
+                "{\"name\": \"battery3\", \"postcode\": \"2010\", \"wattCapacity\": 20.0}");
+
+        StepVerifier.create(batteryService.ingestBatteries(lines))
+                .assertNext(summary -> {
+                    assertEquals(2, summary.getAcceptedCount());
+                    assertEquals(1, summary.getRejectedCount());
+                    assertEquals(List.of(2L), summary.getRejectedRecords());
+                })
+                .verifyComplete();
+        Mockito.verify(batteryRepository, times(2)).upsertUnordered(Mockito.anyList());
+    }
+
+    @Test
+    void savingBatteriesDuringARollupRebuild_recomputesTheirPostcodesOnceTheyHaveBeenRecorded() throws Exception {
+        var postcodeRollupRepository = Mockito.mock(PostcodeRollupRepository.class);
+        var rollupService = new PostcodeRollupService(postcodeRollupRepository, blockingBatteryRepository, true);
+        var rollupBatteryService = new ReactiveBatteryServiceImpl(batteryRepository, new ObjectMapper(), rollupService,
+                new PostcodeStatisticsIndex(blockingBatteryRepository, false), fixedBatchSizer(2), 2);
+        var rebuildAllStarted = new CountDownLatch(1);
+        var rebuildAllReleased = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            rebuildAllStarted.countDown();
+            await(rebuildAllReleased);
+            return null;
+        }).when(postcodeRollupRepository).rebuildAll();
+        Sinks.One<BatteryUpsertResult> upsert = Sinks.one();
+        Mockito.when(batteryRepository.upsertUnordered(Mockito.anyList())).thenReturn(upsert.asMono());
+        SaveBatteriesCommand command = SaveBatteriesCommand.builder()
+                .batteries(List.of(BatteryDto.builder().name("battery1").postcode("2000").wattCapacity(10.0).build()))
+                .build();
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var rebuild = executor.submit(rollupService::rebuild);
+            await(rebuildAllStarted);
+            var save = rollupBatteryService.saveBatteries(command).toFuture();
+            Mockito.verify(batteryRepository, Mockito.timeout(10000)).upsertUnordered(Mockito.anyList());
+            rebuildAllReleased.countDown();
+
+            //The recomputation waits for the write in progress to have recorded its batteries
+            Mockito.verify(postcodeRollupRepository, Mockito.after(200).never()).rebuild(Mockito.anyCollection());
+            upsert.tryEmitValue(BatteryUpsertResult.EMPTY);
+            assertEquals(1, save.get(10, TimeUnit.SECONDS).size());
+            rebuild.get(10, TimeUnit.SECONDS);
+        } finally {
+            rebuildAllReleased.countDown();
+            executor.shutdownNow();
+        }
+        var inOrder = Mockito.inOrder(postcodeRollupRepository);
+        inOrder.verify(postcodeRollupRepository).incrementAll(Mockito.any());
+        inOrder.verify(postcodeRollupRepository).rebuild(List.of("2000"));
+    }
+
+    @Test
+    void ingestingAnEmptyStreamOfBatteries() {
+        StepVerifier.create(batteryService.ingestBatteries(Flux.empty()))
+                .verifyErrorMatches(e -> e instanceof ResponseStatusException
+                        && e.getMessage().contains("Battery list cannot be empty"));
+    }
+
+    @Test
+    void searchingBatteries_runsBothQueriesConcurrently() {
+        Sinks.One<Battery> names = Sinks.one();
+        Sinks.One<BatteryStatisticsDto> statistics = Sinks.one();
+        Mockito.when(batteryRepository.findNamesWithinPostcodeNumRange(2000L, 3000L, 50)).thenReturn(names.asMono().flux());
+        Mockito.when(batteryRepository.findTotalWattCapacityWithinPostcodeNumRange(2000L, 3000L)).thenReturn(statistics.asMono());
+
+        StepVerifier.create(batteryService.getBatteries("2000", "3000"))
+                .then(() -> {
+                    //Neither query has completed, yet both have been subscribed to
+                    assertEquals(1, names.currentSubscriberCount());
+                    assertEquals(1, statistics.currentSubscriberCount());
+                    names.tryEmitValue(Battery.builder().name("battery1").build());
+                    statistics.tryEmitValue(BatteryStatisticsDto.builder().totalWattCapacity(10.0).batteryCount(1L).build());
+                })
+                .assertNext(result -> {
+                    assertEquals(List.of("battery1"), result.getBatteryNames());
+                    assertEquals(10.0, result.getTotalWattCapacity());
+                    assertEquals(10.0, result.getAverageWattCapacity());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void searchingBatteries_emptyResultSet() {
+        Mockito.when(batteryRepository.findNamesWithinPostcodeNumRange(2000L, 3000L, 50)).thenReturn(Flux.empty());
+        Mockito.when(batteryRepository.findTotalWattCapacityWithinPostcodeNumRange(2000L, 3000L))
+                .thenReturn(Mono.empty());
+
+        StepVerifier.create(batteryService.getBatteries("2000", "3000"))
+                .assertNext(result -> {
+                    assertEquals(List.of(), result.getBatteryNames());
+                    assertEquals(0.0, result.getTotalWattCapacity());
+                    assertNull(result.getAverageWattCapacity());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void searchingBatteries_InvalidParameters() {
+        StepVerifier.create(batteryService.getBatteries("3000", "2000"))
+                .verifyErrorMatches(e -> e instanceof ResponseStatusException
+                        && e.getMessage().contains("A valid postcode range must be provided"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.thudani.codingchallenge.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link SearchMetrics}
+ */
+class SearchMetricsTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SearchMetrics searchMetrics = new SearchMetrics(meterRegistry);
+
+    @Test
+    void timesQueriesByNameAndOutcome() {
+        assertEquals("result", searchMetrics.timeQuery("findA", () -> "result"));
+        assertThrows(IllegalStateException.class, () -> searchMetrics.timeQuery("findA", () -> {
+            throw new IllegalStateException("Query failed");
+        }));
+
+        assertEquals(1, meterRegistry.get("battery.search.query.latency")
+                .tag("query", "findA").tag("outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("battery.search.query.latency")
+                .tag("query", "findA").tag("outcome", "error").timer().count());
+    }
+
+    @Test
+    void recordsTheWidthOfNumericRangesOnly() {
+        searchMetrics.recordRange(new PostcodeRange("2000", "2099"));
+        searchMetrics.recordRange(new PostcodeRange("SW1A", "SW9Z"));
+        searchMetrics.recordRange(new PostcodeRange("10", "9"));
+        searchMetrics.recordRange(new PostcodeRange("-5", "+5"));
+        searchMetrics.recordRange(new PostcodeRange("900", "1000"));
+
+        var rangeWidths = meterRegistry.get("battery.search.range.width").summary();
+        assertEquals(2, rangeWidths.count());
+        assertEquals(201, rangeWidths.totalAmount());
+    }
+
+    @Test
+    void recordsResultSizes() {
+        searchMetrics.recordResult(50, 1200);
+
+        assertEquals(50, meterRegistry.get("battery.search.result.names").summary().totalAmount());
+        assertEquals(1200, meterRegistry.get("battery.search.result.batteries").summary().totalAmount());
+    }
+}
@@ -0,0 +1,144 @@
+package com.thudani.codingchallenge.service;
+
+import com.thudani.codingchallenge.dto.SlowQueryDto;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link SlowQueryProfiler}
+ */
+class SlowQueryProfilerTests {
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(600);
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final PostcodeRange RANGE = new PostcodeRange("2000", "2999");
+
+    //Explain output of an aggregation whose range match uses an index but whose sort does not
+    private static final Document SORTED_IN_MEMORY = Document.parse("""
+            {"stages": [
+              {"$cursor": {
+                "queryPlanner": {
+                  "winningPlan": {"stage": "SORT", "sortPattern": {"lowercaseName": 1},
+                    "inputStage": {"stage": "FETCH",
+                      "inputStage": {"stage": "IXSCAN", "indexName": "postcode_name_idx"}}},
+                  "rejectedPlans": [{"stage": "FETCH",
+                    "inputStage": {"stage": "IXSCAN", "indexName": "name_id_postcode_idx"}}]},
+                "executionStats": {"nReturned": 120, "totalKeysExamined": 121, "totalDocsExamined": 120}}},
+              {"$skip": 0},
+              {"$limit": 50}],
+             "ok": 1.0}""");
+
+    //Explain output of a $facet aggregation scanning the whole collection
+    private static final Document FACET_COLLECTION_SCAN = Document.parse("""
+            {"stages": [
+              {"$cursor": {
+                "queryPlanner": {"winningPlan": {"stage": "COLLSCAN"}},
+                "executionStats": {"nReturned": 40, "totalKeysExamined": 0, "totalDocsExamined": 5000}}},
+              {"$facet": {"batteries": [{"$sort": {"sortKey": {"lowercaseName": 1}, "limit": 50}}]}}],
+             "ok": 1.0}""");
+
+    //Explain output of an aggregation pushed down to the query layer as a whole, with its $sort served by an index
+    private static final Document SORTED_BY_INDEX = Document.parse("""
+            {"queryPlanner": {
+               "winningPlan": {"stage": "PROJECTION_COVERED",
+                 "inputStage": {"stage": "IXSCAN", "indexName": "postcode_num_covering_idx"}}},
+             "executionStats": {"nReturned": 2, "totalKeysExamined": 2, "totalDocsExamined": 0},
+             "command": {"aggregate": "battery", "pipeline": [
+               {"$match": {"postcodeNum": {"$gte": 2000, "$lte": 2000}}},
+               {"$sort": {"lowercaseName": 1}}]},
+             "ok": 1.0}""");
+
+    private SlowQueryProfiler profiler;
+
+    @AfterEach
+    void shutdown() {
+        if (profiler != null) {
+            profiler.shutdown();
+        }
+    }
+
+    @Test
+    void ignoresQueriesFasterThanTheThreshold() {
+        profiler = new SlowQueryProfiler(500, 10, true);
+        profiler.recordIfSlow("findA", RANGE, FAST, () -> SORTED_IN_MEMORY);
+        assertTrue(profiler.getSlowQueries().isEmpty());
+    }
+
+    @Test
+    void keepsTheLatestSlowQueriesUpToTheCapacity() {
+        profiler = new SlowQueryProfiler(500, 2, false);
+        profiler.recordIfSlow("findA", RANGE, SLOW, () -> SORTED_IN_MEMORY);
+        profiler.recordIfSlow("findB", RANGE, SLOW, () -> SORTED_IN_MEMORY);
+        profiler.recordIfSlow("findC", new PostcodeRange("3000", "3999"), SLOW, null);
+
+        var slowQueries = profiler.getSlowQueries();
+        assertEquals(List.of("findC", "findB"), slowQueries.stream().map(SlowQueryDto::getQuery).toList());
+        assertEquals("3000", slowQueries.get(0).getPostcode1());
+        assertEquals(600, slowQueries.get(0).getDurationMillis());
+        assertEquals("Explain is only captured for aggregations", slowQueries.get(0).getExplainError());
+        assertEquals("Explain is disabled", slowQueries.get(1).getExplainError());
+    }
+
+    @Test
+    void explainsSlowQueriesInTheBackground() throws InterruptedException {
+        profiler = new SlowQueryProfiler(500, 10, true);
+        profiler.recordIfSlow("findA", RANGE, SLOW, () -> SORTED_IN_MEMORY);
+        profiler.recordIfSlow("findB", RANGE, SLOW, () -> {
+            throw new IllegalStateException("Explain not supported");
+        });
+
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (profiler.getSlowQueries().size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        var slowQueries = profiler.getSlowQueries();
+        assertEquals(List.of("findB", "findA"), slowQueries.stream().map(SlowQueryDto::getQuery).toList());
+        assertEquals("Explain failed: Explain not supported", slowQueries.get(0).getExplainError());
+        assertEquals(List.of("postcode_name_idx"), slowQueries.get(1).getIndexesUsed());
+        assertNull(slowQueries.get(1).getExplainError());
+    }
+
+    @Test
+    void summarisesAnIndexedRangeWithAnInMemorySort() {
+        var slowQuery = SlowQueryDto.builder().build();
+        SlowQueryProfiler.summarise(slowQuery, SORTED_IN_MEMORY);
+
+        assertEquals(List.of("postcode_name_idx"), slowQuery.getIndexesUsed());
+        assertFalse(slowQuery.getCollectionScan());
+        assertTrue(slowQuery.getBlockingSort());
+        assertEquals(121, slowQuery.getKeysExamined());
+        assertEquals(120, slowQuery.getDocsExamined());
+        assertEquals(120, slowQuery.getReturned());
+        assertEquals(SORTED_IN_MEMORY.toJson(), slowQuery.getExplain());
+    }
+
+    @Test
+    void summarisesACollectionScanSortedInAFacet() {
+        var slowQuery = SlowQueryDto.builder().build();
+        SlowQueryProfiler.summarise(slowQuery, FACET_COLLECTION_SCAN);
+
+        assertTrue(slowQuery.getIndexesUsed().isEmpty());
+        assertTrue(slowQuery.getCollectionScan());
+        assertTrue(slowQuery.getBlockingSort());
+        assertEquals(5000, slowQuery.getDocsExamined());
+        assertEquals(40, slowQuery.getReturned());
+    }
+
+    @Test
+    void ignoresTheSortOfTheEchoedCommand() {
+        var slowQuery = SlowQueryDto.builder().build();
+        SlowQueryProfiler.summarise(slowQuery, SORTED_BY_INDEX);
+
+        assertEquals(List.of("postcode_num_covering_idx"), slowQuery.getIndexesUsed());
+        assertFalse(slowQuery.getBlockingSort());
+        assertEquals(0, slowQuery.getDocsExamined());
+    }
+}
@@ -4,9 +4,11 @@ import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.thudani.codingchallenge.model.Battery;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
 import org.testcontainers.containers.MongoDBContainer;
 
 /**
@@ -30,6 +32,12 @@ public class AppTestConfiguration {
 
         MongoClient mongoClient = MongoClients.create(mongoClientSettings);
 
-        return new MongoTemplate(mongoClient, "test");
+        MongoTemplate mongoTemplate = new MongoTemplate(mongoClient, "test");
+        //Creates the indexes declared on the batteries, as spring.data.mongodb.auto-index-creation does for the app,
+        //since the name pages are read from them by hint
+        new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext())
+                .resolveIndexFor(Battery.class)
+                .forEach(mongoTemplate.indexOps(Battery.class)::ensureIndex);
+        return mongoTemplate;
     }
 }